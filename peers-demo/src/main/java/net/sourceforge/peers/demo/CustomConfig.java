@@ -66,6 +66,11 @@ public class CustomConfig implements Config {
     @Override public SoundSource.DataFormat getMediaFileDataFormat() { return null; }
     @Override public String getMediaFile() { return null; }
     @Override public int getRtpPort() { return 0; }
+    @Override public int getSelectorThreads() { return 0; }
+    @Override public int getListenerShards() { return 1; }
+    @Override public int getDispatchThreads() { return 0; }
+    @Override public String getStateJournal() { return null; }
+    @Override public boolean isOverloadControl() { return false; }
     @Override public void setLocalInetAddress(InetAddress inetAddress) { }
     @Override public void setUserPart(String userPart) { }
     @Override public void setDomain(String domain) { }
@@ -77,6 +82,11 @@ public class CustomConfig implements Config {
     @Override public void setMediaFileDataFormat(SoundSource.DataFormat mediaFileDataFormat) { }
     @Override public void setMediaFile(String mediaFile) { }
     @Override public void setRtpPort(int rtpPort) { }
+    @Override public void setSelectorThreads(int selectorThreads) { }
+    @Override public void setListenerShards(int listenerShards) { }
+    @Override public void setDispatchThreads(int dispatchThreads) { }
+    @Override public void setStateJournal(String stateJournal) { }
+    @Override public void setOverloadControl(boolean overloadControl) { }
     @Override public void save() { }
     @Override public void setAuthorizationUsername(String authorizationUsername) { }
 
@@ -44,6 +44,11 @@ public interface Config {
     int getRtpPort();
     String getAuthorizationUsername();
     List<Codec> getSupportedCodecs();
+    int getSelectorThreads();
+    int getListenerShards();
+    int getDispatchThreads();
+    String getStateJournal();
+    boolean isOverloadControl();
     void setLocalInetAddress(InetAddress inetAddress);
     void setPublicInetAddress(InetAddress inetAddress);
     void setUserPart(String userPart);
@@ -58,5 +63,10 @@ public interface Config {
     void setRtpPort(int rtpPort);
     void setAuthorizationUsername(String authorizationUsername);
     void setSupportedCodecs(List<Codec> supportedCodecs);
+    void setSelectorThreads(int selectorThreads);
+    void setListenerShards(int listenerShards);
+    void setDispatchThreads(int dispatchThreads);
+    void setStateJournal(String stateJournal);
+    void setOverloadControl(boolean overloadControl);
 
 }
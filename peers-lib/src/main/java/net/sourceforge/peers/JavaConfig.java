@@ -46,6 +46,11 @@ public class JavaConfig implements Config {
     private int rtpPort;
     private String authorizationUsername;
     private List<Codec> supportedCodecs;
+    private int selectorThreads;
+    private int listenerShards;
+    private int dispatchThreads;
+    private String stateJournal;
+    private boolean overloadControl;
 
     public JavaConfig()
     {
@@ -151,6 +156,31 @@ public class JavaConfig implements Config {
         return supportedCodecs;
     }
 
+    @Override
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    @Override
+    public int getListenerShards() {
+        return listenerShards;
+    }
+
+    @Override
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    @Override
+    public String getStateJournal() {
+        return stateJournal;
+    }
+
+    @Override
+    public boolean isOverloadControl() {
+        return overloadControl;
+    }
+
     @Override
     public SoundSource.DataFormat getMediaFileDataFormat() { return mediaFileDataFormat; }
 
@@ -218,6 +248,31 @@ public class JavaConfig implements Config {
        this.supportedCodecs = supportedCodecs;
     }
 
+    @Override
+    public void setSelectorThreads(int selectorThreads) {
+        this.selectorThreads = selectorThreads;
+    }
+
+    @Override
+    public void setListenerShards(int listenerShards) {
+        this.listenerShards = listenerShards;
+    }
+
+    @Override
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
+    @Override
+    public void setStateJournal(String stateJournal) {
+        this.stateJournal = stateJournal;
+    }
+
+    @Override
+    public void setOverloadControl(boolean overloadControl) {
+        this.overloadControl = overloadControl;
+    }
+
     @Override
     public void setMediaFileDataFormat(SoundSource.DataFormat mediaFileDataFormat) {
         this.mediaFileDataFormat = mediaFileDataFormat;
@@ -87,6 +87,31 @@ public abstract class SimpleConfig implements Config {
         );
     }
 
+    @Override
+    public int getSelectorThreads() {
+        return 0;
+    }
+
+    @Override
+    public int getListenerShards() {
+        return 1;
+    }
+
+    @Override
+    public int getDispatchThreads() {
+        return 0;
+    }
+
+    @Override
+    public String getStateJournal() {
+        return null;
+    }
+
+    @Override
+    public boolean isOverloadControl() {
+        return false;
+    }
+
     @Override
     public void setLocalInetAddress(InetAddress inetAddress) {
     }
@@ -155,4 +180,29 @@ public abstract class SimpleConfig implements Config {
     public void setSupportedCodecs(List<Codec> supportedCodecs) {
 
     }
+
+    @Override
+    public void setSelectorThreads(int selectorThreads) {
+
+    }
+
+    @Override
+    public void setListenerShards(int listenerShards) {
+
+    }
+
+    @Override
+    public void setDispatchThreads(int dispatchThreads) {
+
+    }
+
+    @Override
+    public void setStateJournal(String stateJournal) {
+
+    }
+
+    @Override
+    public void setOverloadControl(boolean overloadControl) {
+
+    }
 }
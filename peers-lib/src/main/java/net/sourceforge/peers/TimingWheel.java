@@ -0,0 +1,282 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Hashed timing wheel running the timers of transactions and handlers.
+ * Timeouts are hashed by expiration tick into a ring of buckets, a timeout
+ * due after more than one revolution waits its remaining rounds in its
+ * bucket. Scheduling and cancelling are O(1): both are queued and applied
+ * by the wheel thread on its next tick, and a cancelled timeout is unlinked
+ * at once instead of staying scheduled until it would have expired.
+ * Tasks run on the wheel thread and must be short. Like {@link Timer},
+ * tasks scheduled once the wheel is stopped are ignored.
+ */
+public class TimingWheel {
+
+    public static final long DEFAULT_TICK = 10; // milliseconds
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    // bounds the time spent moving new timeouts at each tick
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private final Logger logger;
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final Queue<Timeout> scheduled;
+    private final Queue<Timeout> cancelled;
+    private final AtomicInteger pendingTimeouts;
+    private final long startTime;
+    private final Thread thread;
+    private volatile boolean running;
+    // only accessed by the wheel thread
+    private long tick;
+
+    public TimingWheel(String name, Logger logger) {
+        this(name, DEFAULT_TICK, DEFAULT_WHEEL_SIZE, logger);
+    }
+
+    /**
+     * @param tick milliseconds, timer resolution
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(String name, long tick, int wheelSize, Logger logger) {
+        this.logger = logger;
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+        int size = 1;
+        while (size < wheelSize) {
+            size <<= 1;
+        }
+        buckets = new Bucket[size];
+        for (int i = 0; i < size; ++i) {
+            buckets[i] = new Bucket();
+        }
+        mask = size - 1;
+        scheduled = new ConcurrentLinkedQueue<>();
+        cancelled = new ConcurrentLinkedQueue<>();
+        pendingTimeouts = new AtomicInteger();
+        startTime = System.nanoTime();
+        running = true;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param delay milliseconds
+     * @return handle to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime()
+                - startTime + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)));
+        if (!running) {
+            timeout.state = Timeout.CANCELLED;
+            return timeout;
+        }
+        pendingTimeouts.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    /**
+     * @return number of timeouts scheduled, neither expired nor cancelled
+     */
+    public int getPendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                continue;
+            }
+            removeCancelled();
+            transferScheduled();
+            buckets[(int) (tick & mask)].expire();
+            ++tick;
+        }
+    }
+
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleep = TimeUnit.NANOSECONDS.toMillis(deadline - now
+                    + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+            if (sleep <= 0) {
+                return now;
+            }
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                if (!running) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; ++i) {
+            Timeout timeout = scheduled.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.state != Timeout.INIT) {
+                continue;
+            }
+            long expirationTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = (expirationTick - tick) / buckets.length;
+            // late timeouts expire on the current tick
+            long ticks = Math.max(expirationTick, tick);
+            buckets[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    public static final class Timeout {
+
+        private static final int INIT = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel timingWheel;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state;
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout next;
+        private Timeout prev;
+
+        Timeout(TimingWheel timingWheel, Runnable task, long deadline) {
+            this.timingWheel = timingWheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return false if the task has already run or been cancelled
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, INIT, CANCELLED)) {
+                return false;
+            }
+            timingWheel.pendingTimeouts.decrementAndGet();
+            timingWheel.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        void expire() {
+            if (!STATE.compareAndSet(this, INIT, EXPIRED)) {
+                return;
+            }
+            timingWheel.pendingTimeouts.decrementAndGet();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                timingWheel.logger.error("timer task failed", e);
+            }
+        }
+
+    }
+
+    // doubly linked list of timeouts, only accessed by the wheel thread
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    --timeout.remainingRounds;
+                }
+                timeout = next;
+            }
+        }
+
+    }
+
+}
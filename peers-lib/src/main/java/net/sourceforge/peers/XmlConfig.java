@@ -73,6 +73,11 @@ public class XmlConfig implements Config {
     private int rtpPort;
     private String authorizationUsername;
     private List<Codec> supportedCodecs;
+    private int selectorThreads;
+    private int listenerShards;
+    private int dispatchThreads;
+    private String stateJournal;
+    private boolean overloadControl;
 
     // corresponding DOM nodes
 
@@ -89,6 +94,11 @@ public class XmlConfig implements Config {
     private Node rtpPortNode;
     private Node authUserNode;
     private Node supportedCodecsNode;
+    private Node selectorThreadsNode;
+    private Node listenerShardsNode;
+    private Node dispatchThreadsNode;
+    private Node stateJournalNode;
+    private Node overloadControlNode;
 
     // non-persistent variables
 
@@ -217,6 +227,38 @@ public class XmlConfig implements Config {
                 }
             }
         }
+        selectorThreadsNode = getFirstChild(documentElement, "selectorThreads");
+        if (isNullOrEmpty(selectorThreadsNode)) {
+            selectorThreads = 0;
+        } else {
+            selectorThreads = Integer.parseInt(
+                    selectorThreadsNode.getTextContent());
+        }
+        listenerShardsNode = getFirstChild(documentElement, "listenerShards");
+        if (isNullOrEmpty(listenerShardsNode)) {
+            listenerShards = 1;
+        } else {
+            listenerShards = Integer.parseInt(
+                    listenerShardsNode.getTextContent());
+        }
+        dispatchThreadsNode = getFirstChild(documentElement, "dispatchThreads");
+        if (isNullOrEmpty(dispatchThreadsNode)) {
+            dispatchThreads = 0;
+        } else {
+            dispatchThreads = Integer.parseInt(
+                    dispatchThreadsNode.getTextContent());
+        }
+        stateJournalNode = getFirstChild(documentElement, "stateJournal");
+        if (!isNullOrEmpty(stateJournalNode)) {
+            stateJournal = stateJournalNode.getTextContent().trim();
+        }
+        overloadControlNode = getFirstChild(documentElement, "overloadControl");
+        if (isNullOrEmpty(overloadControlNode)) {
+            overloadControl = false;
+        } else {
+            overloadControl = Boolean.parseBoolean(
+                    overloadControlNode.getTextContent().trim());
+        }
     }
 
     private boolean isNullOrEmpty(Node node) {
@@ -326,6 +368,31 @@ public class XmlConfig implements Config {
         return supportedCodecs;
     }
 
+    @Override
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    @Override
+    public int getListenerShards() {
+        return listenerShards;
+    }
+
+    @Override
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    @Override
+    public String getStateJournal() {
+        return stateJournal;
+    }
+
+    @Override
+    public boolean isOverloadControl() {
+        return overloadControl;
+    }
+
     @Override
     public SoundSource.DataFormat getMediaFileDataFormat() {
         return mediaFileDataFormat;
@@ -426,6 +493,47 @@ public class XmlConfig implements Config {
         }
     }
 
+    @Override
+    public void setSelectorThreads(int selectorThreads) {
+        this.selectorThreads = selectorThreads;
+        if (selectorThreadsNode != null) {
+            selectorThreadsNode.setTextContent(Integer.toString(selectorThreads));
+        }
+    }
+
+    @Override
+    public void setListenerShards(int listenerShards) {
+        this.listenerShards = listenerShards;
+        if (listenerShardsNode != null) {
+            listenerShardsNode.setTextContent(Integer.toString(listenerShards));
+        }
+    }
+
+    @Override
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+        if (dispatchThreadsNode != null) {
+            dispatchThreadsNode.setTextContent(Integer.toString(dispatchThreads));
+        }
+    }
+
+    @Override
+    public void setStateJournal(String stateJournal) {
+        this.stateJournal = stateJournal;
+        if (stateJournalNode != null) {
+            stateJournalNode.setTextContent(stateJournal);
+        }
+    }
+
+    @Override
+    public void setOverloadControl(boolean overloadControl) {
+        this.overloadControl = overloadControl;
+        if (overloadControlNode != null) {
+            overloadControlNode.setTextContent(
+                    Boolean.toString(overloadControl));
+        }
+    }
+
     @Override
     public void setMediaFileDataFormat(SoundSource.DataFormat mediaFileDataFormat) {
         this.mediaFileDataFormat = mediaFileDataFormat;
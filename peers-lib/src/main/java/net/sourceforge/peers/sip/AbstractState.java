@@ -21,17 +21,13 @@ package net.sourceforge.peers.sip;
 
 import net.sourceforge.peers.Logger;
 
+/**
+ * States are shared by all state machines of a kind, they hold no data and
+ * receive their state machine in each event.
+ */
 public abstract class AbstractState {
-    
-    protected String id;
-    protected Logger logger;
-    
-    protected AbstractState(String id, Logger logger) {
-        this.id = id;
-        this.logger = logger;
-    }
 
-    public void log(AbstractState state) {
+    public void log(String id, Logger logger, AbstractState state) {
         String buf = "SM " + id + " [" +
                 JavaUtils.getShortClassName(this.getClass()) + " -> " +
                 JavaUtils.getShortClassName(state.getClass()) + "] " +
@@ -50,6 +50,7 @@ public final class RFC3261 {
     public static final String HDR_RECORD_ROUTE        = "Record-Route";
     public static final String HDR_PROXY_AUTHENTICATE  = "Proxy-Authenticate";
     public static final String HDR_PROXY_AUTHORIZATION = "Proxy-Authorization";
+    public static final String HDR_RETRY_AFTER         = "Retry-After";
     public static final String HDR_ROUTE               = "Route";
     public static final String HDR_SUBJECT             = "Subject";
     public static final String HDR_SUPPORTED           = "Supported";
@@ -113,6 +114,7 @@ public final class RFC3261 {
     public static final int CODE_486_BUSYHERE                        = 486;
     public static final int CODE_487_REQUEST_TERMINATED              = 487;
     public static final int CODE_500_SERVER_INTERNAL_ERROR           = 500;
+    public static final int CODE_503_SERVICE_UNAVAILABLE             = 503;
     
       //REASON PHRASES
     public static final String REASON_180_RINGING  = "Ringing";
@@ -126,6 +128,8 @@ public final class RFC3261 {
         "Request Terminated";
     public static final String REASON_500_SERVER_INTERNAL_ERROR =
         "Server Internal Error";
+    public static final String REASON_503_SERVICE_UNAVAILABLE =
+        "Service Unavailable";
     
     //TRANSPORT
     
@@ -21,6 +21,7 @@ package net.sourceforge.peers.sip;
 
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 
 import net.sourceforge.peers.sip.core.useragent.UAS;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldMultiValue;
@@ -40,8 +41,7 @@ public class Utils {
 
     public static SipHeaderFieldValue getTopVia(SipMessage sipMessage) {
         SipHeaders sipHeaders = sipMessage.getSipHeaders();
-        SipHeaderFieldName viaName = new SipHeaderFieldName(RFC3261.HDR_VIA);
-        SipHeaderFieldValue via = sipHeaders.get(viaName);
+        SipHeaderFieldValue via = sipHeaders.get(SipHeaderFieldName.VIA);
         if (via instanceof SipHeaderFieldMultiValue) {
             via = ((SipHeaderFieldMultiValue)via).getValues().get(0);
         }
@@ -70,7 +70,7 @@ public class Utils {
     public static String getMessageCallId(SipMessage sipMessage) {
         if (sipMessage == null || sipMessage.getSipHeaders() == null) return null;
         SipHeaderFieldValue callId = sipMessage.getSipHeaders().get(
-                new SipHeaderFieldName(RFC3261.HDR_CALLID));
+                SipHeaderFieldName.CALLID);
         if (callId == null) return null;
         return callId.getValue();
     }
@@ -88,7 +88,8 @@ public class Utils {
     }
     
     public static void copyHeader(SipMessage src, SipMessage dst, String name) {
-        SipHeaderFieldName sipHeaderFieldName = new SipHeaderFieldName(name);
+        SipHeaderFieldName sipHeaderFieldName =
+            SipHeaderFieldName.valueOf(name);
         SipHeaderFieldValue sipHeaderFieldValue = src.getSipHeaders().get(sipHeaderFieldName);
         if (sipHeaderFieldValue != null) {
             dst.getSipHeaders().add(sipHeaderFieldName, sipHeaderFieldValue);
@@ -108,7 +109,7 @@ public class Utils {
     public static void addCommonHeaders(SipHeaders headers) {
         //Max-Forwards
         
-        headers.add(new SipHeaderFieldName(RFC3261.HDR_MAX_FORWARDS),
+        headers.add(SipHeaderFieldName.MAX_FORWARDS,
                 new SipHeaderFieldValue(
                         String.valueOf(RFC3261.DEFAULT_MAXFORWARDS)));
         
@@ -126,4 +127,59 @@ public class Utils {
         return buf.toString();
     }
 
+    /**
+     * @return number of bytes of the UTF-8 encoding of a string
+     */
+    public static int encodedLength(String string) {
+        int length = string.length();
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    length += 1;
+                } else if (Character.isHighSurrogate(c)
+                        && i + 1 < string.length()
+                        && Character.isLowSurrogate(string.charAt(i + 1))) {
+                    // four bytes for two chars
+                    length += 2;
+                    ++i;
+                } else if (Character.isSurrogate(c)) {
+                    // malformed, replaced by '?'
+                } else {
+                    length += 2;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of a string, without intermediate array.
+     */
+    public static void encode(String string, ByteBuffer buffer) {
+        for (int i = 0; i < string.length(); ++i) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c)
+                    && i + 1 < string.length()
+                    && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                buffer.put((byte) (0xf0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
 }
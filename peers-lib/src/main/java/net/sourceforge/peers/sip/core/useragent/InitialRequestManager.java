@@ -81,7 +81,8 @@ public class InitialRequestManager extends RequestManager
             String profileUri, String callId, String fromTag)
             throws SipUriSyntaxException {
         //8.1.1
-        SipRequest request = new SipRequest(method, new SipURI(requestUri));
+        SipRequest request = new SipRequest(method,
+                SipURI.parse(requestUri));
         SipHeaders headers = request.getSipHeaders();
         //String hostAddress = utils.getMyAddress().getHostAddress();
         
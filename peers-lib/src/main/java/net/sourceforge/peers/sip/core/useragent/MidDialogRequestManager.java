@@ -19,9 +19,7 @@
 
 package net.sourceforge.peers.sip.core.useragent;
 
-import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Hashtable;
 
 import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.RFC3261;
@@ -44,6 +42,7 @@ import net.sourceforge.peers.sip.transactionuser.Dialog;
 import net.sourceforge.peers.sip.transactionuser.DialogManager;
 import net.sourceforge.peers.sip.transport.SipRequest;
 import net.sourceforge.peers.sip.transport.SipResponse;
+import net.sourceforge.peers.sip.transport.SipTarget;
 import net.sourceforge.peers.sip.transport.TransportManager;
 
 
@@ -113,32 +112,22 @@ public class MidDialogRequestManager extends RequestManager
                 logger);
 
         //TODO if header route is present, addrspec = toproute.nameaddress.addrspec
-        String transport = RFC3261.TRANSPORT_UDP;
-        Hashtable<String, String> params = destinationUri.getUriParameters();
-        if (params != null) {
-            String reqUriTransport = params.get(RFC3261.PARAM_TRANSPORT);
-            if (reqUriTransport != null) {
-                transport = reqUriTransport; 
-            }
-        }
-        int port = destinationUri.getPort();
-        if (port == SipURI.DEFAULT_PORT) {
-            port = RFC3261.TRANSPORT_DEFAULT_PORT;
-        }
         SipURI sipUri = userAgent.getConfig().getOutboundProxy();
         if (sipUri == null) {
             sipUri = destinationUri;
         }
-        InetAddress inetAddress;
+        SipTarget target;
         try {
-            inetAddress = InetAddress.getByName(sipUri.getHost());
+            target = transportManager.getSipResolver().resolve(sipUri)
+                    .get(0);
         } catch (UnknownHostException e) {
             logger.error("unknown host: " + sipUri.getHost(), e);
             return null;
         }
         return transactionManager
-            .createClientTransaction(sipRequest, inetAddress, port, transport,
-                    branchId, clientTransactionUser);
+            .createClientTransaction(sipRequest, target.getInetAddress(),
+                    target.getPort(), target.getTransport(), branchId,
+                    clientTransactionUser);
     }
     
     
@@ -41,7 +41,7 @@ public abstract class RequestManager {
                 new SipHeaderFieldName(RFC3261.HDR_ROUTE));
         if (route != null) {
             try {
-                destinationUri = new SipURI(
+                destinationUri = SipURI.parse(
                         NameAddress.nameAddressToUri(route.toString()));
             } catch (SipUriSyntaxException e) {
                 logger.error("syntax error", e);
@@ -85,8 +85,13 @@ public class UAC {
         SipListener sipListener = userAgent.getSipListener();
         profileUri = RFC3261.SIP_SCHEME + RFC3261.SCHEME_SEPARATOR
                 + userAgent.getUserpart() + RFC3261.AT + domain;
-        registerCallID = Utils.generateCallID(
-                userAgent.getConfig().getLocalInetAddress());
+        // a binding resumed after a restart is refreshed, not replaced
+        registerCallID = initialRequestManager.getRegisterHandler()
+            .getCallId(profileUri);
+        if (registerCallID == null) {
+            registerCallID = Utils.generateCallID(
+                    userAgent.getConfig().getLocalInetAddress());
+        }
         SipRequest sipRequest = initialRequestManager.createInitialRequest(
                 requestUri, RFC3261.METHOD_REGISTER, profileUri,
                 registerCallID);
@@ -169,10 +174,10 @@ public class UAC {
             if (clientTransaction != null) {
                 synchronized (clientTransaction) {
                     DialogState dialogState = dialog.getState();
-                    if (dialog.EARLY.equals(dialogState)) {
+                    if (Dialog.EARLY.equals(dialogState)) {
                         initialRequestManager.createCancel(originatingRequest,
                                 midDialogRequestManager, profileUri);
-                    } else if (dialog.CONFIRMED.equals(dialogState)) {
+                    } else if (Dialog.CONFIRMED.equals(dialogState)) {
                         // clientTransaction not yet removed
                         midDialogRequestManager.generateMidDialogRequest(
                                 dialog, RFC3261.METHOD_BYE, null);
@@ -38,12 +38,14 @@ import net.sourceforge.peers.sip.transaction.Transaction;
 import net.sourceforge.peers.sip.transaction.TransactionManager;
 import net.sourceforge.peers.sip.transactionuser.Dialog;
 import net.sourceforge.peers.sip.transactionuser.DialogManager;
+import net.sourceforge.peers.sip.transactionuser.StateJournal;
 import net.sourceforge.peers.sip.transport.SipMessage;
 import net.sourceforge.peers.sip.transport.SipRequest;
 import net.sourceforge.peers.sip.transport.SipResponse;
 import net.sourceforge.peers.sip.transport.TransportManager;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
 import java.util.List;
@@ -73,6 +75,7 @@ public class UserAgent implements DtmfEventHandler {
     private final TransactionManager transactionManager;
     private final TransportManager transportManager;
     private final InviteHandler inviteHandler;
+    private final StateJournal stateJournal;
 
     private int cseqCounter;
     private AbstractSoundManagerFactory abstractSoundManagerFactory;
@@ -228,14 +231,38 @@ public class UserAgent implements DtmfEventHandler {
         inviteHandler.setSdpManager(sdpManager);
         optionsHandler.setSdpManager(sdpManager);
         mediaManager = new MediaManager(this, this, logger);
+
+        stateJournal = openStateJournal(registerHandler);
+    }
+
+    private StateJournal openStateJournal(RegisterHandler registerHandler) {
+        String path = config.getStateJournal();
+        if (path == null || "".equals(path)) {
+            return null;
+        }
+        File file = new File(path);
+        if (!file.isAbsolute()) {
+            file = new File(peersHome, path);
+        }
+        try {
+            StateJournal stateJournal = new StateJournal(file, logger);
+            dialogManager.setStateJournal(stateJournal);
+            registerHandler.setStateJournal(stateJournal);
+            return stateJournal;
+        } catch (IOException e) {
+            logger.error("cannot open state journal " + file, e);
+            return null;
+        }
     }
     
     // client methods
 
     public void close() {
+        if (stateJournal != null) {
+            stateJournal.close();
+        }
         transportManager.closeTransports();
         transactionManager.closeTimers();
-        inviteHandler.closeTimers();
         mediaManager.stopSession();
         config.setPublicInetAddress(null);
     }
@@ -319,6 +346,15 @@ public class UserAgent implements DtmfEventHandler {
                 method;
     }
     
+    /**
+     * Makes next CSeq numbers greater than one used before a restart.
+     */
+    public void skipCSeq(int cseq) {
+        if (cseqCounter <= cseq) {
+            cseqCounter = cseq + 1;
+        }
+    }
+
     public boolean isRegistered() {
         return uac.getInitialRequestManager().getRegisterHandler()
             .isRegistered();
@@ -75,7 +75,7 @@ public class ByeHandler extends DialogMethodHandler
 
         String addrSpec = sipRequest.getRequestUri().toString();
         userAgent.getPeers().remove(addrSpec);
-        dialogManager.removeDialog(dialog.getId());
+        dialogManager.removeDialog(dialog);
         logger.debug("removed dialog " + dialog.getId());
 
         SipListener sipListener = userAgent.getSipListener();
@@ -108,7 +108,7 @@ public class ByeHandler extends DialogMethodHandler
         
         serverTransaction.sendResponse(sipResponse);
         
-        dialogManager.removeDialog(dialog.getId());
+        dialogManager.removeDialog(dialog);
 
 //        setChanged();
 //        notifyObservers(sipRequest);
@@ -167,7 +167,7 @@ public class ByeHandler extends DialogMethodHandler
 		    return;
 		}
 		dialog.receivedOrSentBye();
-		dialogManager.removeDialog(dialog.getId());
+		dialogManager.removeDialog(dialog);
         logger.debug("removed dialog " + dialog.getId());
 	}
 
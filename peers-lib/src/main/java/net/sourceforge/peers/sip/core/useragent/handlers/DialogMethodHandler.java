@@ -34,7 +34,6 @@ import net.sourceforge.peers.sip.transport.TransportManager;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.TimerTask;
 
 
 public abstract class DialogMethodHandler extends MethodHandler {
@@ -245,7 +244,7 @@ public abstract class DialogMethodHandler extends MethodHandler {
     }
 
     //TODO see if AckHandler is usable
-    class AckTimerTask extends TimerTask {
+    class AckTimerTask implements Runnable {
 
         private final String toUri;
 
@@ -261,13 +260,13 @@ public abstract class DialogMethodHandler extends MethodHandler {
             for (Dialog dialog : dialogs) {
                 String remoteUri = dialog.getRemoteUri();
                 if (remoteUri.equals(toUri) &&
-                        !dialog.CONFIRMED.equals(dialog.getState())) {
+                        !Dialog.CONFIRMED.equals(dialog.getState())) {
                     dialog.receivedOrSentBye();
                     purgedDialogs.add(dialog);
                 }
             }
             for (Dialog dialog : purgedDialogs) {
-                dialogs.remove(dialog);
+                dialogManager.removeDialog(dialog);
             }
         }
 
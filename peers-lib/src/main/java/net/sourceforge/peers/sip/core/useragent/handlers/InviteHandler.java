@@ -20,7 +20,6 @@
 package net.sourceforge.peers.sip.core.useragent.handlers;
 
 import net.sourceforge.peers.Logger;
-import net.sourceforge.peers.Timer;
 import net.sourceforge.peers.media.MediaManager;
 import net.sourceforge.peers.sdp.Codec;
 import net.sourceforge.peers.sdp.MediaDestination;
@@ -38,17 +37,16 @@ import net.sourceforge.peers.sip.transactionuser.DialogManager;
 import net.sourceforge.peers.sip.transport.MessageSender;
 import net.sourceforge.peers.sip.transport.SipRequest;
 import net.sourceforge.peers.sip.transport.SipResponse;
+import net.sourceforge.peers.sip.transport.SipTarget;
 import net.sourceforge.peers.sip.transport.TransportManager;
 
 import java.io.IOException;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
 
 public class InviteHandler extends DialogMethodHandler
@@ -57,7 +55,6 @@ public class InviteHandler extends DialogMethodHandler
     public static final int TIMEOUT = 100;
 
     private MediaDestination mediaDestination;
-    private final Timer ackTimer;
     private boolean initialIncomingInvite;
 
     public InviteHandler(UserAgent userAgent,
@@ -66,8 +63,6 @@ public class InviteHandler extends DialogMethodHandler
                          TransportManager transportManager, Logger logger) {
         super(userAgent, dialogManager, transactionManager, transportManager,
                 logger);
-        ackTimer = new Timer(getClass().getSimpleName() + " Ack "
-                + Timer.class.getSimpleName());
     }
 
 
@@ -322,10 +317,6 @@ public class InviteHandler extends DialogMethodHandler
     // UAC methods
     //////////////////////////////////////////////////////////
 
-    public void closeTimers() {
-        ackTimer.cancel();
-    }
-
     public ClientTransaction preProcessInvite(SipRequest sipRequest)
             throws SipUriSyntaxException {
 
@@ -336,32 +327,21 @@ public class InviteHandler extends DialogMethodHandler
 
         //TODO if header route is present, addrspec = toproute.nameaddress.addrspec
 
-        String transport = RFC3261.TRANSPORT_UDP;
-        Hashtable<String, String> params = destinationUri.getUriParameters();
-        if (params != null) {
-            String reqUriTransport = params.get(RFC3261.PARAM_TRANSPORT);
-            if (reqUriTransport != null) {
-                transport = reqUriTransport;
-            }
-        }
-        int port = destinationUri.getPort();
-        if (port == SipURI.DEFAULT_PORT) {
-            port = RFC3261.TRANSPORT_DEFAULT_PORT;
-        }
         SipURI sipUri = userAgent.getConfig().getOutboundProxy();
         if (sipUri == null) {
             sipUri = destinationUri;
         }
-        InetAddress inetAddress;
+        SipTarget target;
         try {
-            inetAddress = InetAddress.getByName(sipUri.getHost());
+            target = transportManager.getSipResolver().resolve(sipUri)
+                    .get(0);
         } catch (UnknownHostException e) {
             throw new SipUriSyntaxException("unknown host: "
                     + sipUri.getHost(), e);
         }
         ClientTransaction clientTransaction = transactionManager
-                .createClientTransaction(sipRequest, inetAddress,
-                        port, transport, null, this);
+                .createClientTransaction(sipRequest, target.getInetAddress(),
+                        target.getPort(), target.getTransport(), null, this);
         DatagramSocket datagramSocket;
         synchronized (this) {
             datagramSocket = getDatagramSocket();
@@ -391,7 +371,7 @@ public class InviteHandler extends DialogMethodHandler
         Dialog dialog = dialogManager.getDialog(sipResponse);
         if (dialog != null) {
             dialog.receivedOrSent300To699();
-            dialogManager.removeDialog(dialog.getId());
+            dialogManager.removeDialog(dialog);
         }
         int statusCode = sipResponse.getStatusCode();
         if (statusCode == RFC3261.CODE_401_UNAUTHORIZED
@@ -493,8 +473,8 @@ public class InviteHandler extends DialogMethodHandler
             peers.add(responseTo);
             //timer used to purge dialogs which are not confirmed
             //after a given time
-            ackTimer.schedule(new AckTimerTask(responseTo),
-                    64L * RFC3261.TIMER_T1);
+            transactionManager.scheduleHandlerTask(
+                    new AckTimerTask(responseTo), 64L * RFC3261.TIMER_T1);
         }
 
         Dialog dialog = dialogManager.getDialog(sipResponse);
@@ -569,33 +549,22 @@ public class InviteHandler extends DialogMethodHandler
 
         //TODO if header route is present, addrspec = toproute.nameaddress.addrspec
 
-        String transport = RFC3261.TRANSPORT_UDP;
-        Hashtable<String, String> params = destinationUri.getUriParameters();
-        if (params != null) {
-            String reqUriTransport = params.get(RFC3261.PARAM_TRANSPORT);
-            if (reqUriTransport != null) {
-                transport = reqUriTransport;
-            }
-        }
-        int port = destinationUri.getPort();
-        if (port == SipURI.DEFAULT_PORT) {
-            port = RFC3261.TRANSPORT_DEFAULT_PORT;
-        }
-
         SipURI sipUri = userAgent.getConfig().getOutboundProxy();
         if (sipUri == null) {
             sipUri = destinationUri;
         }
-        InetAddress inetAddress;
+        SipTarget target;
         try {
-            inetAddress = InetAddress.getByName(sipUri.getHost());
+            target = transportManager.getSipResolver().resolve(sipUri)
+                    .get(0);
         } catch (UnknownHostException e) {
             logger.error("unknown host: " + sipUri.getHost(), e);
             return;
         }
         try {
             MessageSender sender = transportManager.createClientTransport(
-                    ack, inetAddress, port, transport);
+                    ack, target.getInetAddress(), target.getPort(),
+                    target.getTransport());
             sender.sendMessage(ack);
         } catch (IOException e) {
             logger.error("input/output error", e);
@@ -21,10 +21,9 @@ package net.sourceforge.peers.sip.core.useragent.handlers;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.Hashtable;
-import java.util.TimerTask;
+import java.util.concurrent.ThreadLocalRandom;
 
-import net.sourceforge.peers.Timer;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.Config;
 import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.RFC3261;
@@ -44,8 +43,10 @@ import net.sourceforge.peers.sip.transaction.ClientTransactionUser;
 import net.sourceforge.peers.sip.transaction.NonInviteClientTransaction;
 import net.sourceforge.peers.sip.transaction.Transaction;
 import net.sourceforge.peers.sip.transaction.TransactionManager;
+import net.sourceforge.peers.sip.transactionuser.StateJournal;
 import net.sourceforge.peers.sip.transport.SipRequest;
 import net.sourceforge.peers.sip.transport.SipResponse;
+import net.sourceforge.peers.sip.transport.SipTarget;
 import net.sourceforge.peers.sip.transport.TransportManager;
 
 public class RegisterHandler extends MethodHandler
@@ -55,7 +56,10 @@ public class RegisterHandler extends MethodHandler
 
     private InitialRequestManager initialRequestManager;
 
-    private Timer timer;
+    private TimingWheel.Timeout refreshTimeout;
+    // System.currentTimeMillis() of the scheduled refresh
+    private long refreshTime;
+    private StateJournal stateJournal;
 
     private String requestUriStr;
     private String profileUriStr;
@@ -79,33 +83,22 @@ public class RegisterHandler extends MethodHandler
         SipHeaders sipHeaders = sipRequest.getSipHeaders();
         SipURI destinationUri = RequestManager.getDestinationUri(sipRequest,
                 logger);
-        int port = destinationUri.getPort();
-        if (port == SipURI.DEFAULT_PORT) {
-            port = RFC3261.TRANSPORT_DEFAULT_PORT;
-        }
         //TODO if header route is present, addrspec = toproute.nameaddress.addrspec
-        String transport = RFC3261.TRANSPORT_UDP;
-        Hashtable<String, String> params = destinationUri.getUriParameters();
-        if (params != null) {
-            String reqUriTransport = params.get(RFC3261.PARAM_TRANSPORT);
-            if (reqUriTransport != null) {
-                transport = reqUriTransport; 
-            }
-        }
         SipURI sipUri = userAgent.getConfig().getOutboundProxy();
         if (sipUri == null) {
             sipUri = destinationUri;
         }
-        InetAddress inetAddress;
+        SipTarget target;
         try {
-            inetAddress = InetAddress.getByName(sipUri.getHost());
+            target = transportManager.getSipResolver().resolve(sipUri)
+                    .get(0);
         } catch (UnknownHostException e) {
             throw new SipUriSyntaxException("unknown host: "
                     + sipUri.getHost(), e);
         }
         ClientTransaction clientTransaction = transactionManager
-            .createClientTransaction(sipRequest, inetAddress, port,
-                    transport, null, this);
+            .createClientTransaction(sipRequest, target.getInetAddress(),
+                    target.getPort(), target.getTransport(), null, this);
         //TODO 10.2
         SipHeaderFieldValue to = sipHeaders.get(
                 new SipHeaderFieldName(RFC3261.HDR_TO));
@@ -125,8 +118,13 @@ public class RegisterHandler extends MethodHandler
         return clientTransaction;
     }
 
-    public void unregister() {
-        timer.cancel();
+    public synchronized void unregister() {
+        if (refreshTimeout != null) {
+            refreshTimeout.cancel();
+        }
+        if (stateJournal != null && profileUriStr != null) {
+            stateJournal.removeBinding(profileUriStr);
+        }
         unregisterInvoked = true;
         challenged = false;
     }
@@ -249,12 +247,22 @@ public class RegisterHandler extends MethodHandler
             	if (delay == -1) {
             		delay = Integer.parseInt(expires) - REFRESH_MARGIN;
             	}
-                if (timer != null) {
-                    timer.cancel();
+                if (refreshTimeout != null) {
+                    refreshTimeout.cancel();
+                }
+                refreshTimeout = transactionManager.scheduleHandlerTask(
+                        new RefreshTimerTask(), delay * 1000L);
+                refreshTime = System.currentTimeMillis() + delay * 1000L;
+                if (stateJournal != null) {
+                    String cseq = sipRequest.getSipHeaders().get(
+                            new SipHeaderFieldName(RFC3261.HDR_CSEQ))
+                            .getValue();
+                    stateJournal.putBinding(new StateJournal.Binding(
+                            profileUriStr, requestUriStr, callIDStr,
+                            Integer.parseInt(cseq.substring(0,
+                                    cseq.indexOf(' '))),
+                            refreshTime));
                 }
-                timer = new Timer(getClass().getSimpleName()
-                        + " refresh timer");
-                timer.schedule(new RefreshTimerTask(), delay * 1000L);
             }
         }
         SipListener sipListener = userAgent.getSipListener();
@@ -277,12 +285,30 @@ public class RegisterHandler extends MethodHandler
     public boolean isRegistered() {
         return registered;
     }
+
+    /**
+     * RFC3261 10.2.4, registrations of a profile use the same Call-ID until
+     * unregistered, including a binding resumed from the state journal.
+     *
+     * @return Call-ID of the last registration of this profile, null if
+     *         there is none
+     */
+    public synchronized String getCallId(String profileUri) {
+        if (unregisterInvoked || !profileUri.equals(profileUriStr)) {
+            return null;
+        }
+        return callIDStr;
+    }
+
+    synchronized long getRefreshTime() {
+        return refreshTime;
+    }
     
     //////////////////////////////////////////////////////////
     // TimerTask
     //////////////////////////////////////////////////////////
 
-    class RefreshTimerTask extends TimerTask {
+    class RefreshTimerTask implements Runnable {
         @Override
         public void run() {
             try {
@@ -294,6 +320,34 @@ public class RegisterHandler extends MethodHandler
         }
     }
 
+    /**
+     * Schedules the refresh of the journaled binding, and journals bindings
+     * from now on. Overdue refreshes are spread over REFRESH_MARGIN, so that
+     * user agents restarted together do not register at once.
+     */
+    public synchronized void setStateJournal(StateJournal stateJournal) {
+        this.stateJournal = stateJournal;
+        long now = System.currentTimeMillis();
+        for (StateJournal.Binding binding : stateJournal.getBindings()) {
+            requestUriStr = binding.getRequestUri();
+            profileUriStr = binding.getProfileUri();
+            callIDStr = binding.getCallId();
+            userAgent.skipCSeq(binding.getCSeq());
+            long delay = binding.getRefreshTime() - now;
+            registered = delay > -REFRESH_MARGIN * 1000L;
+            if (delay <= 0) {
+                delay = ThreadLocalRandom.current().nextLong(
+                        REFRESH_MARGIN * 1000L);
+            }
+            if (refreshTimeout != null) {
+                refreshTimeout.cancel();
+            }
+            refreshTimeout = transactionManager.scheduleHandlerTask(
+                    new RefreshTimerTask(), delay);
+            refreshTime = now + delay;
+        }
+    }
+
     public void setInitialRequestManager(InitialRequestManager initialRequestManager) {
         this.initialRequestManager = initialRequestManager;
     }
@@ -19,18 +19,121 @@
 
 package net.sourceforge.peers.sip.syntaxencoding;
 
-import java.util.Objects;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 
 public class SipHeader {
 
+    private static final byte[] VALUE_SEPARATOR = { ',', ' ' };
+    private static final byte[] COMPACT_VALUE_SEPARATOR = { ',' };
+
     private final SipHeaderFieldName name;
     private SipHeaderFieldValue value;
+
+    // a parsed header keeps the ranges of its values in a copy of the
+    // received header block, the value is only built on first access
+    private byte[] raw;
+    private int[] rawRanges;
+    private int rawRangeCount;
     
     SipHeader(SipHeaderFieldName name, SipHeaderFieldValue value) {
         super();
         this.name = name;
         this.value = value;
     }
+
+    SipHeader(SipHeaderFieldName name, byte[] raw, int start, int end) {
+        this.name = name;
+        this.raw = raw;
+        rawRanges = new int[2];
+        addRawRange(start, end);
+    }
+
+    boolean isRaw(byte[] raw) {
+        return this.raw != null && this.raw == raw;
+    }
+
+    boolean isRaw() {
+        return raw != null;
+    }
+
+    /**
+     * Another line of the same header, values are added in order as
+     * {@link SipHeaders#add(SipHeaderFieldName, SipHeaderFieldValue)} does.
+     */
+    void addRawRange(int start, int end) {
+        if (rawRangeCount * 2 == rawRanges.length) {
+            int[] aux = new int[rawRanges.length * 2];
+            System.arraycopy(rawRanges, 0, aux, 0, rawRanges.length);
+            rawRanges = aux;
+        }
+        rawRanges[rawRangeCount * 2] = start;
+        rawRanges[rawRangeCount * 2 + 1] = end;
+        ++rawRangeCount;
+    }
+
+    private void materialize() {
+        SipHeaderFieldValue current = null;
+        for (int i = 0; i < rawRangeCount; ++i) {
+            int start = rawRanges[i * 2];
+            SipHeaderFieldValue next = SipParser.createValue(name,
+                    new String(raw, start, rawRanges[i * 2 + 1] - start,
+                            StandardCharsets.UTF_8));
+            if (current == null) {
+                current = next;
+            } else if (current instanceof SipHeaderFieldMultiValue) {
+                ((SipHeaderFieldMultiValue) current).getValues().add(next);
+            } else {
+                ArrayList<SipHeaderFieldValue> arr = new ArrayList<>();
+                arr.add(current);
+                arr.add(next);
+                current = new SipHeaderFieldMultiValue(arr);
+            }
+        }
+        value = current;
+        raw = null;
+        rawRanges = null;
+    }
+
+    /**
+     * @return length of the value as received, header lines joined by ", "
+     */
+    int rawLength() {
+        return rawLength(false);
+    }
+
+    /**
+     * @param compact header lines joined by "," instead of ", "
+     */
+    int rawLength(boolean compact) {
+        int length = (rawRangeCount - 1) * (compact
+                ? COMPACT_VALUE_SEPARATOR.length : VALUE_SEPARATOR.length);
+        for (int i = 0; i < rawRangeCount; ++i) {
+            length += rawRanges[i * 2 + 1] - rawRanges[i * 2];
+        }
+        return length;
+    }
+
+    void encodeRaw(ByteBuffer buffer) {
+        encodeRaw(buffer, false);
+    }
+
+    void encodeRaw(ByteBuffer buffer, boolean compact) {
+        for (int i = 0; i < rawRangeCount; ++i) {
+            if (i > 0) {
+                buffer.put(compact ? COMPACT_VALUE_SEPARATOR : VALUE_SEPARATOR);
+            }
+            int start = rawRanges[i * 2];
+            buffer.put(raw, start, rawRanges[i * 2 + 1] - start);
+        }
+    }
+
+    String rawString() {
+        byte[] bytes = new byte[rawLength()];
+        encodeRaw(ByteBuffer.wrap(bytes));
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
     
     @Override
     public boolean equals(Object obj) {
@@ -43,7 +146,7 @@ public class SipHeader {
 
     @Override
     public int hashCode() {
-        return Objects.hash(name, value);
+        return name.hashCode();
     }
 
     public SipHeaderFieldName getName() {
@@ -51,11 +154,16 @@ public class SipHeader {
     }
 
     public SipHeaderFieldValue getValue() {
+        if (raw != null) {
+            materialize();
+        }
         return value;
     }
 
     public void setValue(SipHeaderFieldValue value) {
         this.value = value;
+        raw = null;
+        rawRanges = null;
     }
     
 }
@@ -46,4 +46,16 @@ public class SipHeaderFieldMultiValue extends SipHeaderFieldValue {
     public String toString() {
         return toString(values);
     }
+
+    @Override
+    public String toCompactString() {
+        StringBuilder buf = new StringBuilder();
+        for (SipHeaderFieldValue value : values) {
+            if (buf.length() > 0) {
+                buf.append(',');
+            }
+            buf.append(value.toCompactString());
+        }
+        return buf.toString();
+    }
 }
@@ -19,39 +19,218 @@
 
 package net.sourceforge.peers.sip.syntaxencoding;
 
+import net.sourceforge.peers.sip.RFC3261;
+
+/**
+ * Header field names compare case-insensitively. Names of the headers known
+ * by the stack are interned: whatever their case or compact form, they share
+ * the canonical spelling, hash and ordinal of the constants below, the
+ * ordinal being a direct index into {@link SipHeaders}.
+ */
 public class SipHeaderFieldName {
 
     private final static SipHeadersTable SIP_HEADER_TABLE =
         new SipHeadersTable();
 
+    // open addressing, more than twice as many slots as known headers
+    private final static SipHeaderFieldName[] REGISTRY =
+        new SipHeaderFieldName[64];
+    private static int registered;
+
+    public final static SipHeaderFieldName ALLOW =
+        register(RFC3261.HDR_ALLOW);
+    public final static SipHeaderFieldName AUTHORIZATION =
+        register(RFC3261.HDR_AUTHORIZATION);
+    public final static SipHeaderFieldName CALLID =
+        register(RFC3261.HDR_CALLID,
+            RFC3261.COMPACT_HDR_CALLID);
+    public final static SipHeaderFieldName CONTACT =
+        register(RFC3261.HDR_CONTACT,
+            RFC3261.COMPACT_HDR_CONTACT);
+    public final static SipHeaderFieldName CONTENT_ENCODING =
+        register(RFC3261.HDR_CONTENT_ENCODING,
+            RFC3261.COMPACT_HDR_CONTENT_ENCODING);
+    public final static SipHeaderFieldName CONTENT_LENGTH =
+        register(RFC3261.HDR_CONTENT_LENGTH,
+            RFC3261.COMPACT_HDR_CONTENT_LENGTH);
+    public final static SipHeaderFieldName CONTENT_TYPE =
+        register(RFC3261.HDR_CONTENT_TYPE,
+            RFC3261.COMPACT_HDR_CONTENT_TYPE);
+    public final static SipHeaderFieldName CSEQ =
+        register(RFC3261.HDR_CSEQ);
+    public final static SipHeaderFieldName EXPIRES =
+        register(RFC3261.HDR_EXPIRES);
+    public final static SipHeaderFieldName FROM =
+        register(RFC3261.HDR_FROM,
+            RFC3261.COMPACT_HDR_FROM);
+    public final static SipHeaderFieldName MAX_FORWARDS =
+        register(RFC3261.HDR_MAX_FORWARDS);
+    public final static SipHeaderFieldName RECORD_ROUTE =
+        register(RFC3261.HDR_RECORD_ROUTE);
+    public final static SipHeaderFieldName PROXY_AUTHENTICATE =
+        register(RFC3261.HDR_PROXY_AUTHENTICATE);
+    public final static SipHeaderFieldName PROXY_AUTHORIZATION =
+        register(RFC3261.HDR_PROXY_AUTHORIZATION);
+    public final static SipHeaderFieldName RETRY_AFTER =
+        register(RFC3261.HDR_RETRY_AFTER);
+    public final static SipHeaderFieldName ROUTE =
+        register(RFC3261.HDR_ROUTE);
+    public final static SipHeaderFieldName SUBJECT =
+        register(RFC3261.HDR_SUBJECT,
+            RFC3261.COMPACT_HDR_SUBJECT);
+    public final static SipHeaderFieldName SUPPORTED =
+        register(RFC3261.HDR_SUPPORTED,
+            RFC3261.COMPACT_HDR_SUPPORTED);
+    public final static SipHeaderFieldName TO =
+        register(RFC3261.HDR_TO,
+            RFC3261.COMPACT_HDR_TO);
+    public final static SipHeaderFieldName VIA =
+        register(RFC3261.HDR_VIA,
+            RFC3261.COMPACT_HDR_VIA);
+    public final static SipHeaderFieldName WWW_AUTHENTICATE =
+        register(RFC3261.HDR_WWW_AUTHENTICATE);
+
+    /**
+     * Number of interned names, their ordinals are below this value.
+     */
+    public final static int KNOWN_NAMES = registered;
+
     private final String name;
+    private final int hash;
+    private final int ordinal;
+    private final String compactName;
 
     public SipHeaderFieldName(String name) {
         super();
-        if (name.length() == 1) {
-            this.name = SIP_HEADER_TABLE.getLongForm(name.charAt(0));
-        } else {
+        name = longForm(name);
+        SipHeaderFieldName known = lookup(name);
+        if (known == null) {
             this.name = name;
+            hash = foldedHash(name);
+            ordinal = -1;
+            compactName = null;
+        } else {
+            this.name = known.name;
+            hash = known.hash;
+            ordinal = known.ordinal;
+            compactName = known.compactName;
+        }
+    }
+
+    private SipHeaderFieldName(String name, int ordinal, String compactName) {
+        this.name = name;
+        this.ordinal = ordinal;
+        this.compactName = compactName;
+        hash = foldedHash(name);
+    }
+
+    /**
+     * @return the interned constant for a known header, a new name
+     * otherwise
+     */
+    public static SipHeaderFieldName valueOf(String name) {
+        name = longForm(name);
+        SipHeaderFieldName known = lookup(name);
+        if (known != null) {
+            return known;
+        }
+        return new SipHeaderFieldName(name);
+    }
+
+    private static SipHeaderFieldName register(String name) {
+        return register(name, null);
+    }
+
+    private static SipHeaderFieldName register(String name, char compactForm) {
+        return register(name, String.valueOf(compactForm));
+    }
+
+    private static SipHeaderFieldName register(String name,
+            String compactName) {
+        SipHeaderFieldName fieldName = new SipHeaderFieldName(name,
+                registered++, compactName);
+        int mask = REGISTRY.length - 1;
+        int i = fieldName.hash & mask;
+        while (REGISTRY[i] != null) {
+            i = (i + 1) & mask;
+        }
+        REGISTRY[i] = fieldName;
+        return fieldName;
+    }
+
+    private static SipHeaderFieldName lookup(String name) {
+        int hash = foldedHash(name);
+        int mask = REGISTRY.length - 1;
+        for (int i = hash & mask; REGISTRY[i] != null; i = (i + 1) & mask) {
+            SipHeaderFieldName known = REGISTRY[i];
+            if (known.hash == hash && known.name.equalsIgnoreCase(name)) {
+                return known;
+            }
+        }
+        return null;
+    }
+
+    private static String longForm(String name) {
+        if (name.length() == 1) {
+            String longForm = SIP_HEADER_TABLE.getLongForm(
+                    Character.toLowerCase(name.charAt(0)));
+            if (longForm != null) {
+                return longForm;
+            }
+        }
+        return name;
+    }
+
+    // header names are tokens, folding ASCII letters is enough
+    private static int foldedHash(String name) {
+        int hash = 0;
+        for (int i = 0; i < name.length(); ++i) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            hash = 31 * hash + c;
         }
+        return hash ^ (hash >>> 16);
     }
 
     @Override
     public boolean equals(Object obj) {
-        if (obj == null) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SipHeaderFieldName)) {
             return false;
         }
-        String objName = ((SipHeaderFieldName)obj).getName();
-        return name.equalsIgnoreCase(objName);
+        SipHeaderFieldName other = (SipHeaderFieldName)obj;
+        if (ordinal >= 0 || other.ordinal >= 0) {
+            return ordinal == other.ordinal;
+        }
+        return hash == other.hash && name.equalsIgnoreCase(other.name);
     }
 
     @Override
     public int hashCode() {
-        return name.hashCode();
+        return hash;
     }
     
     public String getName() {
         return name;
     }
+
+    /**
+     * @return RFC3261 7.3.3 compact form, null if the header has none
+     */
+    public String getCompactName() {
+        return compactName;
+    }
+
+    /**
+     * @return index of an interned name, -1 for other names
+     */
+    int getOrdinal() {
+        return ordinal;
+    }
     
     @Override
     public String toString() {
@@ -30,6 +30,8 @@ public class SipHeaderFieldValue {
     private String value;
 
     private final HashMap<SipHeaderParamName, String> params;
+    // string form, rebuilt after a change
+    private String stringValue;
 
     public SipHeaderFieldValue(String value) {
         int startPos = value.indexOf(RFC3261.RIGHT_ANGLE_BRACKET);
@@ -71,10 +73,12 @@ public class SipHeaderFieldValue {
 
     public void addParam(SipHeaderParamName name, String value) {
         params.put(name, value);
+        stringValue = null;
     }
 
     public void removeParam(SipHeaderParamName name) {
         params.remove(name);
+        stringValue = null;
     }
 
     public String getValue() {
@@ -83,6 +87,7 @@ public class SipHeaderFieldValue {
 
     public void setValue(String value) {
         this.value = value;
+        stringValue = null;
     }
 
     @Override
@@ -90,6 +95,9 @@ public class SipHeaderFieldValue {
         if (params == null || params.isEmpty()) {
             return value;
         }
+        if (stringValue != null) {
+            return stringValue;
+        }
         StringBuilder buf = new StringBuilder(value);
         for (Map.Entry<SipHeaderParamName, String> entry : params.entrySet()) {
             buf.append(RFC3261.PARAM_SEPARATOR).append(entry.getKey());
@@ -98,7 +106,17 @@ public class SipHeaderFieldValue {
                 buf.append(RFC3261.PARAM_ASSIGNMENT).append(entryValue);
             }
         }
-        return buf.toString();
+        stringValue = buf.toString();
+        return stringValue;
+    }
+
+    /**
+     * @return string form without optional whitespace, for compact
+     *         messages. Parameters are kept as is: URIs and free text must
+     *         go out unchanged (RFC3261 19.1.4).
+     */
+    public String toCompactString() {
+        return toString();
     }
 
 }
@@ -19,12 +19,29 @@
 
 package net.sourceforge.peers.sip.syntaxencoding;
 
+import net.sourceforge.peers.sip.RFC3261;
+
 public class SipHeaderParamName {
 
+    public final static SipHeaderParamName BRANCH =
+        new SipHeaderParamName(RFC3261.PARAM_BRANCH);
+    public final static SipHeaderParamName EXPIRES =
+        new SipHeaderParamName(RFC3261.PARAM_EXPIRES);
+    public final static SipHeaderParamName RECEIVED =
+        new SipHeaderParamName(RFC3261.PARAM_RECEIVED);
+    public final static SipHeaderParamName RPORT =
+        new SipHeaderParamName(RFC3261.PARAM_RPORT);
+    public final static SipHeaderParamName SENTBY =
+        new SipHeaderParamName(RFC3261.PARAM_SENTBY);
+    public final static SipHeaderParamName TAG =
+        new SipHeaderParamName(RFC3261.PARAM_TAG);
+
     private final String name;
+    private final int hash;
     
     public SipHeaderParamName(String name) {
         this.name = name;
+        hash = name.toLowerCase().hashCode();
     }
     
     
@@ -43,7 +60,7 @@ public class SipHeaderParamName {
     
     @Override
     public int hashCode() {
-        return name.toLowerCase().hashCode();
+        return hash;
     }
     
     @Override
@@ -0,0 +1,252 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.syntaxencoding;
+
+import net.sourceforge.peers.sip.RFC3261;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Finds header values in raw message bytes, without parsing the message.
+ * Used on receive paths which only need one header, e.g. to frame a stream
+ * or to route a message. Folded header lines are not supported.
+ */
+public class SipHeaderScanner {
+
+    private SipHeaderScanner() {
+    }
+
+    /**
+     * @param from start of the message, the start line is skipped
+     * @param to end of headers
+     * @return index of the first non blank character of the header value,
+     *         -1 if the header is not present
+     */
+    public static int findHeaderValue(byte[] data, int from, int to,
+            String name, char compactName) {
+        int lineStart = nextLine(data, from, to);
+        while (lineStart < to) {
+            if (data[lineStart] == '\r' || data[lineStart] == '\n') {
+                // end of headers
+                return -1;
+            }
+            int nameEnd = lineStart;
+            while (nameEnd < to && data[nameEnd] != ':'
+                    && !isWhitespace(data[nameEnd])) {
+                ++nameEnd;
+            }
+            if (nameEquals(data, lineStart, nameEnd, name)
+                    || (nameEnd - lineStart == 1 && Character.toLowerCase(
+                        (char) data[lineStart]) == compactName)) {
+                int i = skipWhitespace(data, nameEnd, to);
+                if (i < to && data[i] == ':') {
+                    return skipWhitespace(data, i + 1, to);
+                }
+            }
+            lineStart = nextLine(data, lineStart, to);
+        }
+        return -1;
+    }
+
+    /**
+     * @return end of the header value starting at valueStart, trailing
+     *         blanks excluded
+     */
+    public static int valueEnd(byte[] data, int valueStart, int to) {
+        int end = valueStart;
+        while (end < to && data[end] != '\r' && data[end] != '\n') {
+            ++end;
+        }
+        while (end > valueStart && isWhitespace(data[end - 1])) {
+            --end;
+        }
+        return end;
+    }
+
+    /**
+     * @return hash of the Call-ID value, 0 if there is no Call-ID
+     */
+    public static int callIdHash(byte[] data, int offset, int length) {
+        int to = offset + length;
+        int valueStart = findHeaderValue(data, offset, to,
+                RFC3261.HDR_CALLID, RFC3261.COMPACT_HDR_CALLID);
+        if (valueStart < 0) {
+            return 0;
+        }
+        int valueEnd = valueEnd(data, valueStart, to);
+        int hash = 1;
+        for (int i = valueStart; i < valueEnd; ++i) {
+            hash = 31 * hash + data[i];
+        }
+        return hash;
+    }
+
+    /**
+     * @return method of a request, null for a response
+     */
+    public static String requestMethod(byte[] data, int offset, int length) {
+        int to = offset + length;
+        int end = offset;
+        while (end < to && data[end] != ' ') {
+            ++end;
+        }
+        if (end == to || nameEquals(data, offset, end,
+                RFC3261.DEFAULT_SIP_VERSION)) {
+            return null;
+        }
+        return ascii(data, offset, end);
+    }
+
+    /**
+     * @return status code of a response, -1 for a request or a malformed
+     *         status line
+     */
+    public static int statusCode(byte[] data, int offset, int length) {
+        int to = offset + length;
+        int start = offset + RFC3261.DEFAULT_SIP_VERSION.length();
+        if (start + 4 > to || data[start] != ' ' || !nameEquals(data, offset,
+                start, RFC3261.DEFAULT_SIP_VERSION)) {
+            return -1;
+        }
+        int statusCode = 0;
+        for (int i = start + 1; i < start + 4; ++i) {
+            if (data[i] < '0' || data[i] > '9') {
+                return -1;
+            }
+            statusCode = 10 * statusCode + data[i] - '0';
+        }
+        return statusCode;
+    }
+
+    /**
+     * @return branch parameter of the first Via value, null if absent
+     */
+    public static String topViaBranch(byte[] data, int offset, int length) {
+        int to = offset + length;
+        int valueStart = findHeaderValue(data, offset, to, RFC3261.HDR_VIA,
+                RFC3261.COMPACT_HDR_VIA);
+        if (valueStart < 0) {
+            return null;
+        }
+        int valueEnd = valueEnd(data, valueStart, to);
+        for (int i = valueStart; i < valueEnd && data[i] != ','; ++i) {
+            if (data[i] != ';') {
+                continue;
+            }
+            int nameStart = skipWhitespace(data, i + 1, valueEnd);
+            int nameEnd = nameStart;
+            while (nameEnd < valueEnd && isTokenChar(data[nameEnd])) {
+                ++nameEnd;
+            }
+            if (!nameEquals(data, nameStart, nameEnd, RFC3261.PARAM_BRANCH)) {
+                continue;
+            }
+            int j = skipWhitespace(data, nameEnd, valueEnd);
+            if (j == valueEnd || data[j] != '=') {
+                return null;
+            }
+            int branchStart = skipWhitespace(data, j + 1, valueEnd);
+            int branchEnd = branchStart;
+            while (branchEnd < valueEnd && isTokenChar(data[branchEnd])) {
+                ++branchEnd;
+            }
+            return ascii(data, branchStart, branchEnd);
+        }
+        return null;
+    }
+
+    /**
+     * @return method of the CSeq header, null if absent
+     */
+    public static String cseqMethod(byte[] data, int offset, int length) {
+        int to = offset + length;
+        int valueStart = findHeaderValue(data, offset, to, RFC3261.HDR_CSEQ,
+                (char) 0);
+        if (valueStart < 0) {
+            return null;
+        }
+        int valueEnd = valueEnd(data, valueStart, to);
+        int methodStart = valueStart;
+        while (methodStart < valueEnd && !isWhitespace(data[methodStart])) {
+            ++methodStart;
+        }
+        methodStart = skipWhitespace(data, methodStart, valueEnd);
+        if (methodStart == valueEnd) {
+            return null;
+        }
+        return ascii(data, methodStart, valueEnd);
+    }
+
+    /**
+     * @return Call-ID value, null if absent
+     */
+    public static String callId(byte[] data, int offset, int length) {
+        int to = offset + length;
+        int valueStart = findHeaderValue(data, offset, to,
+                RFC3261.HDR_CALLID, RFC3261.COMPACT_HDR_CALLID);
+        if (valueStart < 0) {
+            return null;
+        }
+        return ascii(data, valueStart, valueEnd(data, valueStart, to));
+    }
+
+    private static String ascii(byte[] data, int from, int to) {
+        return new String(data, from, to - from, StandardCharsets.US_ASCII);
+    }
+
+    private static boolean isTokenChar(byte b) {
+        return b > ' ' && b != ';' && b != ',' && b != '=' && b != '"';
+    }
+
+    private static int nextLine(byte[] data, int from, int to) {
+        int i = from;
+        while (i < to && data[i] != '\n') {
+            ++i;
+        }
+        return i + 1;
+    }
+
+    private static int skipWhitespace(byte[] data, int from, int to) {
+        int i = from;
+        while (i < to && isWhitespace(data[i])) {
+            ++i;
+        }
+        return i;
+    }
+
+    private static boolean nameEquals(byte[] data, int from, int to,
+            String name) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); ++i) {
+            if (Character.toLowerCase((char) data[from + i])
+                    != Character.toLowerCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+}
@@ -20,16 +20,57 @@
 package net.sourceforge.peers.sip.syntaxencoding;
 
 import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.Utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 
 public class SipHeaders {
 
+    private static final byte[] HEADER_SEPARATOR = { ':', ' ' };
+    private static final byte[] COMPACT_HEADER_SEPARATOR = { ':' };
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    // insertion order, for serialization
     private final ArrayList<SipHeader> headers;
+    // index: known headers by name ordinal, others by name
+    private final SipHeader[] knownHeaders;
+    private HashMap<SipHeaderFieldName, SipHeader> extensionHeaders;
 
     public SipHeaders() {
         headers = new ArrayList<>();
+        knownHeaders = new SipHeader[SipHeaderFieldName.KNOWN_NAMES];
+    }
+
+    private SipHeader find(SipHeaderFieldName name) {
+        int ordinal = name.getOrdinal();
+        if (ordinal >= 0) {
+            return knownHeaders[ordinal];
+        }
+        return extensionHeaders == null ? null : extensionHeaders.get(name);
+    }
+
+    private void insert(SipHeader header, int index) {
+        if (index == -1) {
+            headers.add(header);
+        } else {
+            headers.add(index, header);
+        }
+        SipHeaderFieldName name = header.getName();
+        int ordinal = name.getOrdinal();
+        if (ordinal >= 0) {
+            knownHeaders[ordinal] = header;
+        } else {
+            if (extensionHeaders == null) {
+                extensionHeaders = new HashMap<>();
+            }
+            extensionHeaders.put(name, header);
+        }
     }
 
     /**
@@ -38,9 +79,8 @@ public class SipHeaders {
      * @param index -1 to add at the end
      */
     public void add(SipHeaderFieldName name, SipHeaderFieldValue value, int index) {
-        SipHeader header = new SipHeader(name, value);
-        if (headers.contains(header)) {
-            header = headers.get(headers.indexOf(header));
+        SipHeader header = find(name);
+        if (header != null) {
             SipHeaderFieldValue oldValue = header.getValue();
             //TODO check is header can be multi valued
             if (oldValue instanceof SipHeaderFieldMultiValue) {
@@ -53,11 +93,7 @@ public class SipHeaders {
                 header.setValue(new SipHeaderFieldMultiValue(arr));
             }
         } else {
-            if (index == -1) {
-                headers.add(header);
-            } else {
-                headers.add(index, header);
-            }
+            insert(new SipHeader(name, value), index);
         }
     }
 
@@ -65,33 +101,136 @@ public class SipHeaders {
         add(name, value, -1);
     }
 
+    /**
+     * Adds a received header without building its value.
+     * 
+     * @param raw copy of the received header block, not modified afterwards
+     * @param start offset of the value in raw
+     * @param end offset after the value in raw
+     */
+    void addRaw(SipHeaderFieldName name, byte[] raw, int start, int end) {
+        SipHeader header = find(name);
+        if (header == null) {
+            insert(new SipHeader(name, raw, start, end), -1);
+            return;
+        }
+        if (header.isRaw(raw)) {
+            header.addRawRange(start, end);
+        } else {
+            add(name, SipParser.createValue(name, new String(raw, start,
+                    end - start, StandardCharsets.UTF_8)));
+        }
+    }
+
     public void remove(SipHeaderFieldName name) {
-        headers.remove(new SipHeader(name, null));
+        SipHeader header = find(name);
+        if (header == null) {
+            return;
+        }
+        headers.remove(header);
+        int ordinal = name.getOrdinal();
+        if (ordinal >= 0) {
+            knownHeaders[ordinal] = null;
+        } else {
+            extensionHeaders.remove(name);
+        }
     }
 
     public boolean contains(SipHeaderFieldName name) {
-        return headers.contains(new SipHeader(name, null));
+        return find(name) != null;
     }
 
     public SipHeaderFieldValue get(SipHeaderFieldName name) {
-        int index = headers.indexOf(new SipHeader(name, null));
-        if (index < 0) {
+        SipHeader header = find(name);
+        if (header == null) {
             return null;
         }
-        return headers.get(index).getValue();
+        return header.getValue();
     }
 
     public int getCount() {
         return headers.size();
     }
 
+    // tests
+    List<SipHeader> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return number of bytes written by {@link #encode(ByteBuffer)}
+     */
+    public int encodedLength() {
+        return encodedLength(false);
+    }
+
+    /**
+     * @return number of bytes written by {@link #encode(ByteBuffer, boolean)}
+     */
+    public int encodedLength(boolean compact) {
+        int length = 0;
+        for (SipHeader header : headers) {
+            length += Utils.encodedLength(name(header, compact)) + CRLF.length
+                + (compact ? COMPACT_HEADER_SEPARATOR.length
+                        : HEADER_SEPARATOR.length);
+            if (header.isRaw()) {
+                length += header.rawLength(compact);
+            } else {
+                length += Utils.encodedLength(value(header, compact));
+            }
+        }
+        return length;
+    }
+
+    public void encode(ByteBuffer buffer) {
+        encode(buffer, false);
+    }
+
+    /**
+     * @param compact RFC3261 7.3.3 compact header names and no optional
+     *        whitespace
+     */
+    public void encode(ByteBuffer buffer, boolean compact) {
+        for (SipHeader header : headers) {
+            Utils.encode(name(header, compact), buffer);
+            buffer.put(compact ? COMPACT_HEADER_SEPARATOR : HEADER_SEPARATOR);
+            if (header.isRaw()) {
+                // untouched, written back as received
+                header.encodeRaw(buffer, compact);
+            } else {
+                Utils.encode(value(header, compact), buffer);
+            }
+            buffer.put(CRLF);
+        }
+    }
+
+    private static String name(SipHeader header, boolean compact) {
+        SipHeaderFieldName name = header.getName();
+        if (compact && name.getCompactName() != null) {
+            return name.getCompactName();
+        }
+        return name.toString();
+    }
+
+    private static String value(SipHeader header, boolean compact) {
+        SipHeaderFieldValue value = header.getValue();
+        if (compact && value != null) {
+            return value.toCompactString();
+        }
+        return String.valueOf(value);
+    }
+
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
         for (SipHeader header : headers) {
             builder.append(header.getName().toString());
             builder.append(": ");
-            builder.append(header.getValue());
+            if (header.isRaw()) {
+                builder.append(header.rawString());
+            } else {
+                builder.append(header.getValue());
+            }
             builder.append(RFC3261.CRLF);
         }
         return builder.toString();
@@ -24,165 +24,327 @@ import net.sourceforge.peers.sip.transport.SipMessage;
 import net.sourceforge.peers.sip.transport.SipRequest;
 import net.sourceforge.peers.sip.transport.SipResponse;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-
+/**
+ * Parses SIP messages straight from bytes. Lines are located by offsets,
+ * header names are decoded as UTF-8 while values stay as byte ranges of a
+ * copy of the header block until they are read, and the body is copied as
+ * is. A parser holds no state, one instance can be shared by all threads.
+ */
 public class SipParser {
 
-    private BufferedReader reader;
-
     private static final int BUFF_SIZE = 1024;
 
-    private final List<SipHeaderFieldName> singleValueHeaders;
-
-    public SipParser() {
-        singleValueHeaders = new ArrayList<>();
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_WWW_AUTHENTICATE));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_AUTHORIZATION));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_PROXY_AUTHENTICATE));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_PROXY_AUTHORIZATION));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_SUPPORTED));
-        singleValueHeaders.add(new SipHeaderFieldName(
-                RFC3261.HDR_SUBJECT));
-    }
-
-    public synchronized SipMessage parse(InputStream in)
+    private static final byte[] SIP_VERSION =
+        RFC3261.DEFAULT_SIP_VERSION.getBytes(StandardCharsets.US_ASCII);
+
+    private static final List<SipHeaderFieldName> SINGLE_VALUE_HEADERS =
+        Collections.unmodifiableList(Arrays.asList(
+                SipHeaderFieldName.WWW_AUTHENTICATE,
+                SipHeaderFieldName.AUTHORIZATION,
+                SipHeaderFieldName.PROXY_AUTHENTICATE,
+                SipHeaderFieldName.PROXY_AUTHORIZATION,
+                SipHeaderFieldName.SUPPORTED,
+                SipHeaderFieldName.SUBJECT));
+
+    public SipMessage parse(InputStream in)
             throws IOException, SipParserException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFF_SIZE);
+        byte[] buff = new byte[BUFF_SIZE];
+        int read;
+        while ((read = in.read(buff)) != -1) {
+            out.write(buff, 0, read);
+        }
+        byte[] data = out.toByteArray();
+        return parse(data, 0, data.length);
+    }
 
-        InputStreamReader inputStreamReader = new InputStreamReader(in);
-        reader = new BufferedReader(inputStreamReader);
+    /**
+     * Parses the bytes between position and limit, the buffer is left
+     * untouched.
+     */
+    public SipMessage parse(ByteBuffer buffer) throws SipParserException {
+        if (buffer.hasArray()) {
+            return parse(buffer.array(),
+                    buffer.arrayOffset() + buffer.position(),
+                    buffer.remaining());
+        }
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return parse(data, 0, data.length);
+    }
 
-        String startLine = reader.readLine();
-        while (startLine == null || startLine.equals("")) {
-            startLine = reader.readLine();
+    public SipMessage parse(byte[] data, int offset, int length)
+            throws SipParserException {
+        int end = offset + length;
+        int pos = offset;
+        while (pos < end && (data[pos] == '\r' || data[pos] == '\n')) {
+            ++pos;
+        }
+        if (pos == end) {
+            throw new SipParserException("empty message");
         }
+        int lineEnd = lineEnd(data, pos, end);
         SipMessage sipMessage;
-        if (startLine.toUpperCase().startsWith(RFC3261.DEFAULT_SIP_VERSION)) {
-            sipMessage = parseSipResponse(startLine);
+        if (startsWithIgnoreCase(data, pos, lineEnd, SIP_VERSION)) {
+            sipMessage = parseSipResponse(data, pos, lineEnd);
         } else {
-            sipMessage = parseSipRequest(startLine);
+            sipMessage = parseSipRequest(data, pos, lineEnd);
         }
-        parseHeaders(sipMessage);
-        parseBody(sipMessage);
+        pos = parseHeaders(sipMessage, data, nextLine(data, lineEnd, end),
+                end);
+        parseBody(sipMessage, data, pos, end);
         return sipMessage;
     }
 
-    private SipRequest parseSipRequest(String startLine) throws SipParserException {
-        String[] params = startLine.split(" ");
-        if (params.length != 3) {
+    private SipRequest parseSipRequest(byte[] data, int start, int end)
+            throws SipParserException {
+        end = trimTrailingSpaces(data, start, end);
+        int firstSpace = indexOf(data, start, end, ' ');
+        int secondSpace = indexOf(data, firstSpace + 1, end, ' ');
+        if (firstSpace < 0 || secondSpace < 0
+                || indexOf(data, secondSpace + 1, end, ' ') > -1) {
             throw new SipParserException("invalid request line");
         }
-        if (!RFC3261.DEFAULT_SIP_VERSION.equalsIgnoreCase(params[2])) {
+        if (!RFC3261.DEFAULT_SIP_VERSION.equalsIgnoreCase(
+                decode(data, secondSpace + 1, end))) {
             throw new SipParserException("unsupported SIP version");
         }
         SipURI requestUri;
         try {
-            requestUri = new SipURI(params[1]);
+            requestUri = SipURI.parse(decode(data, firstSpace + 1,
+                    secondSpace));
         } catch (SipUriSyntaxException e) {
             throw new SipParserException(e);
         }
-        return new SipRequest(params[0], requestUri);
+        return new SipRequest(decode(data, start, firstSpace), requestUri);
     }
 
-    private SipResponse parseSipResponse(String startLine) throws SipParserException {
-        String[] params = startLine.split(" ");
-        if (params.length < 3) {
+    private SipResponse parseSipResponse(byte[] data, int start, int end)
+            throws SipParserException {
+        end = trimTrailingSpaces(data, start, end);
+        int firstSpace = indexOf(data, start, end, ' ');
+        int secondSpace = indexOf(data, firstSpace + 1, end, ' ');
+        if (firstSpace < 0 || secondSpace < 0) {
             throw new SipParserException("incorrect status line");
         }
-        if (!RFC3261.DEFAULT_SIP_VERSION.equalsIgnoreCase(params[0])) {
+        if (!RFC3261.DEFAULT_SIP_VERSION.equalsIgnoreCase(
+                decode(data, start, firstSpace))) {
             throw new SipParserException("unsupported SIP version");
         }
-        StringBuilder builder = new StringBuilder();
-        for (int i = 2; i < params.length; ++i) {
-            builder.append(params[i]).append(" ");
+        int statusCode;
+        try {
+            statusCode = Integer.parseInt(decode(data, firstSpace + 1,
+                    secondSpace));
+        } catch (NumberFormatException e) {
+            throw new SipParserException("invalid status code", e);
         }
-        builder.deleteCharAt(builder.length() - 1);
-        return new SipResponse(Integer.parseInt(params[1]), builder.toString());
+        return new SipResponse(statusCode,
+                decode(data, secondSpace + 1, end));
     }
 
-    private void parseHeaders(SipMessage sipMessage) throws IOException, SipParserException {
-        SipHeaders sipHeaders = new SipHeaders();
-        String headerLine = reader.readLine();
-        if (headerLine == null) {
-            throw new SipParserException(sipMessage.toString());
-        }
-        while (!"".equals(headerLine)) {
-            String nextLine = reader.readLine();
-            if (nextLine != null &&
-                    (nextLine.startsWith(" ") || nextLine.startsWith("\t"))) {
-                StringBuilder builder = new StringBuilder(headerLine);
-                while (nextLine != null &&
-                        (nextLine.startsWith(" ") || nextLine.startsWith("\t"))) {
-                    builder.append(' ');
-                    builder.append(nextLine.trim());
-                    nextLine = reader.readLine();
-                }
-                headerLine = builder.toString();
-            }
-            if (headerLine == null) {
+    /**
+     * @return offset of the body
+     */
+    private int parseHeaders(SipMessage sipMessage, byte[] data, int pos,
+            int end) throws SipParserException {
+        int headersEnd = pos;
+        while (true) {
+            if (headersEnd >= end) {
+                // no empty line after headers
                 throw new SipParserException(sipMessage.toString());
             }
-            int columnPos = headerLine.indexOf(RFC3261.FIELD_NAME_SEPARATOR);
-            if (columnPos < 0) {
-                throw new SipParserException("Invalid header line");
+            int lineEnd = lineEnd(data, headersEnd, end);
+            if (lineEnd == headersEnd) {
+                break;
             }
-            SipHeaderFieldName sipHeaderName = new SipHeaderFieldName(
-                    headerLine.substring(0, columnPos).trim());
-            String value = headerLine.substring(columnPos + 1).trim();
-            SipHeaderFieldValue sipHeaderValue;
-            if (!singleValueHeaders.contains(sipHeaderName) &&
-                    value.contains(RFC3261.HEADER_SEPARATOR)) {
-                String[] values = value.split(RFC3261.HEADER_SEPARATOR);
-                List<SipHeaderFieldValue> list =
-                        new ArrayList<>();
-                for (String s : values) {
-                    list.add(new SipHeaderFieldValue(s));
+            headersEnd = nextLine(data, lineEnd, end);
+        }
+        // received data is not kept, values refer to this copy
+        byte[] block = Arrays.copyOfRange(data, pos, headersEnd);
+        sipMessage.setSipHeaders(parseHeaders(block));
+        return nextLine(data, headersEnd, end);
+    }
+
+    private SipHeaders parseHeaders(byte[] data) throws SipParserException {
+        SipHeaders sipHeaders = new SipHeaders();
+        int pos = 0;
+        int end = data.length;
+        while (pos < end) {
+            int lineEnd = lineEnd(data, pos, end);
+            int next = nextLine(data, lineEnd, end);
+            if (isContinuation(data, next, end)) {
+                // RFC3261 7.3.1 folded header, rare enough to build a string
+                StringBuilder builder = new StringBuilder(
+                        decode(data, pos, lineEnd));
+                while (isContinuation(data, next, end)) {
+                    int continuationEnd = lineEnd(data, next, end);
+                    builder.append(' ');
+                    builder.append(decode(data, next, continuationEnd).trim());
+                    next = nextLine(data, continuationEnd, end);
+                }
+                String headerLine = builder.toString();
+                int colonPos = headerLine.indexOf(
+                        RFC3261.FIELD_NAME_SEPARATOR);
+                if (colonPos < 0) {
+                    throw new SipParserException("Invalid header line");
                 }
-                sipHeaderValue = new SipHeaderFieldMultiValue(list);
+                SipHeaderFieldName sipHeaderName = SipHeaderFieldName.valueOf(
+                        headerLine.substring(0, colonPos).trim());
+                sipHeaders.add(sipHeaderName, createValue(sipHeaderName,
+                        headerLine.substring(colonPos + 1).trim()));
             } else {
-                sipHeaderValue = new SipHeaderFieldValue(value);
+                int colonPos = indexOf(data, pos, lineEnd, ':');
+                if (colonPos < 0) {
+                    throw new SipParserException("Invalid header line");
+                }
+                int valueStart = colonPos + 1;
+                int valueEnd = lineEnd;
+                while (valueStart < valueEnd
+                        && (data[valueStart] & 0xff) <= ' ') {
+                    ++valueStart;
+                }
+                while (valueEnd > valueStart
+                        && (data[valueEnd - 1] & 0xff) <= ' ') {
+                    --valueEnd;
+                }
+                sipHeaders.addRaw(SipHeaderFieldName.valueOf(
+                        decodeTrimmed(data, pos, colonPos)), data,
+                        valueStart, valueEnd);
+            }
+            pos = next;
+        }
+        return sipHeaders;
+    }
+
+    /**
+     * Builds the value of a header line, a single value or, for headers
+     * that allow it, the comma separated values of the line.
+     */
+    static SipHeaderFieldValue createValue(SipHeaderFieldName sipHeaderName,
+            String value) {
+        SipHeaderFieldValue sipHeaderValue;
+        if (!SINGLE_VALUE_HEADERS.contains(sipHeaderName) &&
+                value.indexOf(RFC3261.HEADER_SEPARATOR) > -1) {
+            List<SipHeaderFieldValue> list = new ArrayList<>();
+            int start = 0;
+            int separatorPos;
+            while ((separatorPos = value.indexOf(RFC3261.HEADER_SEPARATOR,
+                    start)) > -1) {
+                list.add(new SipHeaderFieldValue(
+                        value.substring(start, separatorPos)));
+                start = separatorPos + 1;
+            }
+            list.add(new SipHeaderFieldValue(value.substring(start)));
+            // trailing empty values are dropped, like String.split does
+            while (!list.isEmpty() && list.get(list.size() - 1)
+                    .getValue().isEmpty()) {
+                list.remove(list.size() - 1);
             }
-            sipHeaders.add(sipHeaderName, sipHeaderValue);
-            headerLine = nextLine;
+            sipHeaderValue = new SipHeaderFieldMultiValue(list);
+        } else {
+            sipHeaderValue = new SipHeaderFieldValue(value);
         }
-        sipMessage.setSipHeaders(sipHeaders);
+        return sipHeaderValue;
     }
 
-    public void parseBody(SipMessage sipMessage) throws IOException, SipParserException {
+    private void parseBody(SipMessage sipMessage, byte[] data, int pos,
+            int end) throws SipParserException {
         SipHeaderFieldValue contentLengthValue =
-                sipMessage.getSipHeaders().get(new SipHeaderFieldName(
-                        RFC3261.HDR_CONTENT_LENGTH));
+                sipMessage.getSipHeaders().get(
+                        SipHeaderFieldName.CONTENT_LENGTH);
         if (contentLengthValue == null) {
             return;
         }
-        int length = Integer.parseInt(contentLengthValue.toString());
-        byte[] buff = new byte[BUFF_SIZE];
-        int i;
-        int count = 0;
-        while (count < length && (i = reader.read()) != -1) {
-            if (count >= buff.length) {
-                byte[] aux = new byte[buff.length + BUFF_SIZE];
-                System.arraycopy(buff, 0, aux, 0, buff.length);
-                buff = aux;
+        int length;
+        try {
+            length = Integer.parseInt(contentLengthValue.toString());
+        } catch (NumberFormatException e) {
+            throw new SipParserException("invalid Content-Length", e);
+        }
+        // a truncated body is kept as received
+        length = Math.max(0, Math.min(length, end - pos));
+        sipMessage.setBody(Arrays.copyOfRange(data, pos, pos + length));
+    }
+
+    private static boolean isContinuation(byte[] data, int pos, int end) {
+        return pos < end && (data[pos] == ' ' || data[pos] == '\t');
+    }
 
+    // a line ends with CRLF, CR or LF, like BufferedReader.readLine
+    private static int lineEnd(byte[] data, int pos, int end) {
+        while (pos < end && data[pos] != '\r' && data[pos] != '\n') {
+            ++pos;
+        }
+        return pos;
+    }
+
+    private static int nextLine(byte[] data, int lineEnd, int end) {
+        if (lineEnd >= end) {
+            return end;
+        }
+        if (data[lineEnd] == '\r' && lineEnd + 1 < end
+                && data[lineEnd + 1] == '\n') {
+            return lineEnd + 2;
+        }
+        return lineEnd + 1;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, char c) {
+        for (int i = from; i < to; ++i) {
+            if (data[i] == c) {
+                return i;
             }
-            buff[count++] = (byte) i;
         }
-        if (count != buff.length) {
-            byte[] aux = new byte[count];
-            System.arraycopy(buff, 0, aux, 0, count);
-            buff = aux;
+        return -1;
+    }
+
+    private static int trimTrailingSpaces(byte[] data, int start, int end) {
+        while (end > start && data[end - 1] == ' ') {
+            --end;
+        }
+        return end;
+    }
+
+    private static boolean startsWithIgnoreCase(byte[] data, int start,
+            int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; ++i) {
+            int c = data[start + i];
+            if (c >= 'a' && c <= 'z') {
+                c -= 'a' - 'A';
+            }
+            if (c != prefix[i]) {
+                return false;
+            }
         }
-        sipMessage.setBody(buff);
+        return true;
     }
+
+    private static String decode(byte[] data, int start, int end) {
+        return new String(data, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    // same as String.trim, on bytes: spaces and control characters
+    private static String decodeTrimmed(byte[] data, int start, int end) {
+        while (start < end && (data[start] & 0xff) <= ' ') {
+            ++start;
+        }
+        while (end > start && (data[end - 1] & 0xff) <= ' ') {
+            --end;
+        }
+        return decode(data, start, end);
+    }
+
 }
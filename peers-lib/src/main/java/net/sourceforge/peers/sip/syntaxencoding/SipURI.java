@@ -19,97 +19,117 @@
 
 package net.sourceforge.peers.sip.syntaxencoding;
 
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import net.sourceforge.peers.sip.RFC3261;
 
 
-
+/**
+ * Immutable, instances can be shared: {@link #parse(String)} returns the
+ * same instance for URIs parsed recently.
+ */
 public class SipURI {
 
     public static final int DEFAULT_PORT = -1;
+
+    private static final String SCHEME =
+        RFC3261.SIP_SCHEME + RFC3261.SCHEME_SEPARATOR;
+    private static final SipURICache CACHE = new SipURICache();
     
     private final String stringRepresentation;
     /**
      * telephone-subscriber and optional port are not managed
      */
-    private String userinfo;
+    private final String userinfo;
     private final String host;
-    private int port = DEFAULT_PORT;
+    private final int port;
     /**
      * Use empty strings in value if the parameter has no value
      */
-    private Hashtable<String, String> uriParameters;
+    private final Map<String, String> uriParameters;
     //headers not implemented
     //private Hashtable<String, String> headers;
 
     public SipURI(String sipUri)
             throws SipUriSyntaxException {
         stringRepresentation = sipUri;
-        StringBuilder buf = new StringBuilder(sipUri);
-        String scheme = RFC3261.SIP_SCHEME + RFC3261.SCHEME_SEPARATOR;
-        if (!sipUri.startsWith(scheme)) {
-            throw new SipUriSyntaxException("SIP URI must start with " + scheme);
+        if (!sipUri.startsWith(SCHEME)) {
+            throw new SipUriSyntaxException("SIP URI must start with " + SCHEME);
         }
-        buf.delete(0, scheme.length());
-        int atPos = buf.indexOf("@");
-        if (atPos == 0) {
+        int pos = SCHEME.length();
+        int end = sipUri.length();
+        int atPos = sipUri.indexOf('@', pos);
+        if (atPos == pos) {
             throw new SipUriSyntaxException("userinfo cannot start with a '@'");
         }
         if (atPos > 0) {
-            userinfo = buf.substring(0, atPos);
-            buf.delete(0, atPos + 1);
+            userinfo = sipUri.substring(pos, atPos);
+            pos = atPos + 1;
+        } else {
+            userinfo = null;
         }
-        int endHostport = buf.indexOf(";");
-        if (endHostport == 0) {
+        int endHostport = sipUri.indexOf(';', pos);
+        if (endHostport == pos) {
             throw new SipUriSyntaxException("hostport not present or it cannot start with ';'");
         }
         if (endHostport < 0) {
-            endHostport = buf.length();
+            endHostport = end;
         }
-        String hostport = buf.substring(0, endHostport);
-        buf.delete(0, endHostport);
-        int colonPos = hostport.indexOf(':');
-        if (colonPos > -1) {
-            if (colonPos == hostport.length() - 1) {
+        int colonPos = sipUri.indexOf(':', pos);
+        if (colonPos > -1 && colonPos < endHostport) {
+            if (colonPos == endHostport - 1) {
                 throw new SipUriSyntaxException("hostport cannot terminate with a ':'");
             }
-            port = Integer.parseInt(hostport.substring(colonPos + 1));
+            try {
+                port = Integer.parseInt(sipUri.substring(colonPos + 1,
+                        endHostport));
+            } catch (NumberFormatException e) {
+                throw new SipUriSyntaxException("invalid port", e);
+            }
         } else {
-            colonPos = hostport.length();
+            port = DEFAULT_PORT;
+            colonPos = endHostport;
         }
-        host = hostport.substring(0, colonPos);
-        if (buf.length() == 1) {
-            //if there is only one ';' at the end of the uri => do not
-            //parse uri-parameters and headers
-            buf.deleteCharAt(0);
-        }
-        if (buf.length() <= 0) {
+        host = sipUri.substring(pos, colonPos);
+        //if there is only one ';' at the end of the uri => do not
+        //parse uri-parameters and headers
+        if (end - endHostport <= 1) {
+            uriParameters = null;
             return;
         }
-        uriParameters = new Hashtable<>();
-        while (buf.length() > 0) {
-            buf.deleteCharAt(0);//delete the first ';'
-            int nextSemicolon = buf.indexOf(";");
+        Map<String, String> parameters = new HashMap<>();
+        pos = endHostport;
+        while (pos < end) {
+            ++pos;//skip the first ';'
+            int nextSemicolon = sipUri.indexOf(';', pos);
             if (nextSemicolon < 0) {
-                nextSemicolon = buf.length();
-            }
-            int nextEquals = buf.indexOf("=");
-            if (nextEquals < 0) {
-                nextEquals = nextSemicolon;
+                nextSemicolon = end;
             }
-            if (nextEquals > nextSemicolon) {
+            int nextEquals = sipUri.indexOf('=', pos);
+            if (nextEquals < 0 || nextEquals > nextSemicolon) {
                 nextEquals = nextSemicolon;
             }
-            int afterEquals;
-            if (nextEquals + 1 > nextSemicolon) {
-                afterEquals = nextSemicolon;
-            } else {
-                afterEquals = nextEquals + 1;
-            }
-            uriParameters.put(buf.substring(0, nextEquals), buf.substring(afterEquals, nextSemicolon));
-            buf.delete(0, nextSemicolon);
+            int afterEquals = Math.min(nextEquals + 1, nextSemicolon);
+            parameters.put(sipUri.substring(pos, nextEquals),
+                    sipUri.substring(afterEquals, nextSemicolon));
+            pos = nextSemicolon;
         }
+        uriParameters = Collections.unmodifiableMap(parameters);
+    }
+
+    /**
+     * Same as the constructor, for URIs met repeatedly like remote targets,
+     * proxies and request URIs.
+     */
+    public static SipURI parse(String sipUri) throws SipUriSyntaxException {
+        SipURI parsed = CACHE.get(sipUri);
+        if (parsed == null) {
+            parsed = new SipURI(sipUri);
+            CACHE.put(sipUri, parsed);
+        }
+        return parsed;
     }
     
     @Override
@@ -125,7 +145,10 @@ public class SipURI {
         return port;
     }
 
-    public Hashtable<String, String> getUriParameters() {
+    /**
+     * @return read-only parameters, null if there is none
+     */
+    public Map<String, String> getUriParameters() {
         return uriParameters;
     }
 
@@ -0,0 +1,95 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.syntaxencoding;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of parsed URIs keyed by their string representation. Least
+ * recently used URIs are evicted, the table is split in independently
+ * locked segments so that parsers of several threads rarely contend.
+ */
+class SipURICache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private static final int SEGMENTS = 8;
+
+    private final Segment[] segments;
+
+    SipURICache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    SipURICache(int maxEntries) {
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; ++i) {
+            segments[i] = new Segment(Math.max(1, maxEntries / SEGMENTS));
+        }
+    }
+
+    SipURI get(String sipUri) {
+        Segment segment = segment(sipUri);
+        synchronized (segment) {
+            return segment.get(sipUri);
+        }
+    }
+
+    void put(String sipUri, SipURI parsed) {
+        Segment segment = segment(sipUri);
+        synchronized (segment) {
+            segment.put(sipUri, parsed);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segment(String sipUri) {
+        return segments[Math.floorMod(sipUri.hashCode(), SEGMENTS)];
+    }
+
+    private static class Segment extends LinkedHashMap<String, SipURI> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SipURI> eldest) {
+            return size() > maxEntries;
+        }
+
+    }
+
+}
@@ -24,6 +24,15 @@ import net.sourceforge.peers.sip.transport.SipResponse;
 public interface ClientTransaction {
 
     public void receivedResponse(SipResponse sipResponse);
+
+    /**
+     * A response has been received, it has not been parsed.
+     *
+     * @return true if the response is a retransmission which the
+     *         transaction absorbs, false if it must be parsed and passed to
+     *         {@link #receivedResponse(SipResponse)}
+     */
+    public boolean receivedRetransmission(int statusCode);
     public void start();
     public String getContact();
 }
@@ -20,7 +20,7 @@
 package net.sourceforge.peers.sip.transaction;
 
 import net.sourceforge.peers.Logger;
-import net.sourceforge.peers.Timer;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.Utils;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
@@ -31,17 +31,21 @@ import net.sourceforge.peers.sip.transport.*;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.TimerTask;
 
 
 public class InviteClientTransaction extends InviteTransaction
         implements ClientTransaction, SipClientTransportUser {
 
-    public final InviteClientTransactionState INIT;
-    public final InviteClientTransactionState CALLING;
-    public final InviteClientTransactionState PROCEEDING;
-    public final InviteClientTransactionState COMPLETED;
-    public final InviteClientTransactionState TERMINATED;
+    public static final InviteClientTransactionState INIT =
+        new InviteClientTransactionStateInit();
+    public static final InviteClientTransactionState CALLING =
+        new InviteClientTransactionStateCalling();
+    public static final InviteClientTransactionState PROCEEDING =
+        new InviteClientTransactionStateProceeding();
+    public static final InviteClientTransactionState COMPLETED =
+        new InviteClientTransactionStateCompleted();
+    public static final InviteClientTransactionState TERMINATED =
+        new InviteClientTransactionStateTerminated();
 
     protected ClientTransactionUser transactionUser;
     protected String transport;
@@ -49,6 +53,8 @@ public class InviteClientTransaction extends InviteTransaction
     private InviteClientTransactionState state;
     //private SipClientTransport sipClientTransport;
     private MessageSender messageSender;
+    // encoded once, retransmissions send the same bytes
+    private byte[] encodedRequest;
     private int nbRetrans;
     private SipRequest ack;
     private final int remotePort;
@@ -56,7 +62,7 @@ public class InviteClientTransaction extends InviteTransaction
 
     InviteClientTransaction(String branchId, InetAddress inetAddress,
                             int port, String transport, SipRequest sipRequest,
-                            ClientTransactionUser transactionUser, Timer timer,
+                            ClientTransactionUser transactionUser, TimingWheel timer,
                             TransportManager transportManager,
                             TransactionManager transactionManager, Logger logger) {
         super(branchId, timer, transportManager, transactionManager,
@@ -70,16 +76,7 @@ public class InviteClientTransaction extends InviteTransaction
 
         nbRetrans = 0;
 
-        INIT = new InviteClientTransactionStateInit(getId(), this, logger);
         state = INIT;
-        CALLING = new InviteClientTransactionStateCalling(getId(), this,
-                logger);
-        PROCEEDING = new InviteClientTransactionStateProceeding(getId(), this,
-                logger);
-        COMPLETED = new InviteClientTransactionStateCompleted(getId(), this,
-                logger);
-        TERMINATED = new InviteClientTransactionStateTerminated(getId(), this,
-                logger);
 
         //17.1.1.2
 
@@ -100,16 +97,22 @@ public class InviteClientTransaction extends InviteTransaction
     }
 
     public void setState(InviteClientTransactionState state) {
-        this.state.log(state);
+        this.state.log(getId(), logger, state);
         this.state = state;
+        stateTime = System.nanoTime();
         if (TERMINATED.equals(state)) {
-            //transactionManager.removeClientTransaction(branchId, method);
-            transactionManager = null;
+            transactionManager.removeClientTransaction(this);
         }
     }
 
+    @Override
+    boolean isUnbounded() {
+        // as long as the callee rings
+        return state == PROCEEDING;
+    }
+
     public void start() {
-        state.start();
+        state.start(this);
         //send request using transport information and sipRequest
 //        try {
 //            sipClientTransport = SipTransportFactory.getInstance()
@@ -122,7 +125,8 @@ public class InviteClientTransaction extends InviteTransaction
 //        }
 
         try {
-            messageSender.sendMessage(request);
+            encodedRequest = request.encode();
+            messageSender.sendEncoded(encodedRequest);
         } catch (IOException e) {
             logger.error("input/output error", e);
             transportError();
@@ -145,18 +149,28 @@ public class InviteClientTransaction extends InviteTransaction
         if (statusCode < RFC3261.CODE_MIN_PROV) {
             logger.error("invalid response code");
         } else if (statusCode < RFC3261.CODE_MIN_SUCCESS) {
-            state.received1xx();
+            state.received1xx(this);
         } else if (statusCode < RFC3261.CODE_MIN_REDIR) {
-            state.received2xx();
+            state.received2xx(this);
         } else if (statusCode <= RFC3261.CODE_MAX) {
-            state.received300To699();
+            state.received300To699(this);
         } else {
             logger.error("invalid response code");
         }
     }
 
+    public synchronized boolean receivedRetransmission(int statusCode) {
+        if (state == COMPLETED && statusCode >= RFC3261.CODE_MIN_REDIR) {
+            // ACK sent again
+            state.received300To699(this);
+            return true;
+        }
+        // 2xx are for the transaction user once terminated
+        return state == TERMINATED && statusCode >= RFC3261.CODE_MIN_REDIR;
+    }
+
     public void transportError() {
-        state.transportError();
+        state.transportError(this);
     }
 
     void createAndSendAck() {
@@ -198,7 +212,7 @@ public class InviteClientTransaction extends InviteTransaction
         ++nbRetrans;
         //sipClientTransport.send(request);
         try {
-            messageSender.sendMessage(request);
+            messageSender.sendEncoded(encodedRequest);
         } catch (IOException e) {
             logger.error("input/output error", e);
             transportError();
@@ -216,24 +230,33 @@ public class InviteClientTransaction extends InviteTransaction
 
     }
 
-    class TimerA extends TimerTask {
+    class TimerA implements Runnable {
         @Override
         public void run() {
-            state.timerAFires();
+            state.timerAFires(InviteClientTransaction.this);
         }
     }
 
-    class TimerB extends TimerTask {
+    class TimerB implements Runnable {
         @Override
         public void run() {
-            state.timerBFires();
+            state.timerBFires(InviteClientTransaction.this);
+        }
+    }
+
+    // on entering completed state, RFC3261 17.1.1.2
+    void startTimerD() {
+        int delay = 0;
+        if (RFC3261.TRANSPORT_UDP.equals(transport)) {
+            delay = RFC3261.TIMER_INVITE_CLIENT_TRANSACTION;
         }
+        timer.schedule(new TimerD(), delay);
     }
 
-    class TimerD extends TimerTask {
+    class TimerD implements Runnable {
         @Override
         public void run() {
-            state.timerDFires();
+            state.timerDFires(InviteClientTransaction.this);
         }
     }
 
@@ -19,42 +19,35 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.AbstractState;
 
 
 public abstract class InviteClientTransactionState extends AbstractState {
 
-    protected InviteClientTransaction inviteClientTransaction;
-
-    protected InviteClientTransactionState(String id,
-                                           InviteClientTransaction inviteClientTransaction, Logger logger) {
-        super(id, logger);
-        this.inviteClientTransaction = inviteClientTransaction;
-    }
-
-    public void start() {
+    public void start(InviteClientTransaction inviteClientTransaction) {
     }
 
-    public void timerAFires() {
+    public void timerAFires(InviteClientTransaction inviteClientTransaction) {
     }
 
-    public void timerBFires() {
+    public void timerBFires(InviteClientTransaction inviteClientTransaction) {
     }
 
-    public void received2xx() {
+    public void received2xx(InviteClientTransaction inviteClientTransaction) {
     }
 
-    public void received1xx() {
+    public void received1xx(InviteClientTransaction inviteClientTransaction) {
     }
 
-    public void received300To699() {
+    public void received300To699(
+            InviteClientTransaction inviteClientTransaction) {
     }
 
-    public void transportError() {
+    public void transportError(
+            InviteClientTransaction inviteClientTransaction) {
     }
 
-    public void timerDFires() {
+    public void timerDFires(InviteClientTransaction inviteClientTransaction) {
     }
 
 }
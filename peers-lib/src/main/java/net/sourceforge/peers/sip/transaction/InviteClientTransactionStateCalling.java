@@ -19,60 +19,56 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
-
 public class InviteClientTransactionStateCalling extends InviteClientTransactionState {
 
-    public InviteClientTransactionStateCalling(String id,
-            InviteClientTransaction inviteClientTransaction, Logger logger) {
-        super(id, inviteClientTransaction, logger);
-    }
-
     @Override
-    public void timerAFires() {
-        InviteClientTransactionState nextState = inviteClientTransaction.CALLING;
+    public void timerAFires(InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.CALLING;
         inviteClientTransaction.setState(nextState);
         inviteClientTransaction.sendRetrans();
     }
     
     @Override
-    public void timerBFires() {
-        timerBFiresOrTransportError();
+    public void timerBFires(InviteClientTransaction inviteClientTransaction) {
+        timerBFiresOrTransportError(inviteClientTransaction);
     }
     
     @Override
-    public void transportError() {
-        timerBFiresOrTransportError();
+    public void transportError(
+            InviteClientTransaction inviteClientTransaction) {
+        timerBFiresOrTransportError(inviteClientTransaction);
     }
     
-    private void timerBFiresOrTransportError() {
-        InviteClientTransactionState nextState = inviteClientTransaction.TERMINATED;
+    private void timerBFiresOrTransportError(
+            InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.TERMINATED;
         inviteClientTransaction.setState(nextState);
         inviteClientTransaction.transactionUser.transactionTimeout(
                 inviteClientTransaction);
     }
     
     @Override
-    public void received2xx() {
-        InviteClientTransactionState nextState = inviteClientTransaction.TERMINATED;
+    public void received2xx(InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.TERMINATED;
         inviteClientTransaction.setState(nextState);
         inviteClientTransaction.transactionUser.successResponseReceived(
                 inviteClientTransaction.getLastResponse(), inviteClientTransaction);
     }
     
     @Override
-    public void received1xx() {
-        InviteClientTransactionState nextState = inviteClientTransaction.PROCEEDING;
+    public void received1xx(InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.PROCEEDING;
         inviteClientTransaction.setState(nextState);
         inviteClientTransaction.transactionUser.provResponseReceived(
                 inviteClientTransaction.getLastResponse(), inviteClientTransaction);
     }
     
     @Override
-    public void received300To699() {
-        InviteClientTransactionState nextState = inviteClientTransaction.COMPLETED;
+    public void received300To699(
+            InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.COMPLETED;
         inviteClientTransaction.setState(nextState);
+        inviteClientTransaction.startTimerD();
         inviteClientTransaction.createAndSendAck();
         inviteClientTransaction.transactionUser.errResponseReceived(
                 inviteClientTransaction.getLastResponse());
@@ -19,18 +19,11 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
 public class InviteClientTransactionStateInit extends InviteClientTransactionState {
 
-    public InviteClientTransactionStateInit(String id,
-            InviteClientTransaction inviteClientTransaction, Logger logger) {
-        super(id, inviteClientTransaction, logger);
-    }
-
     @Override
-    public void start() {
-        InviteClientTransactionState nextState = inviteClientTransaction.CALLING;
+    public void start(InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.CALLING;
         inviteClientTransaction.setState(nextState);
     }
     
@@ -19,36 +19,31 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
 public class InviteClientTransactionStateProceeding extends
         InviteClientTransactionState {
 
-    public InviteClientTransactionStateProceeding(String id,
-            InviteClientTransaction inviteClientTransaction, Logger logger) {
-        super(id, inviteClientTransaction, logger);
-    }
-
     @Override
-    public void received1xx() {
-        InviteClientTransactionState nextState = inviteClientTransaction.PROCEEDING;
+    public void received1xx(InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.PROCEEDING;
         inviteClientTransaction.setState(nextState);
         inviteClientTransaction.transactionUser.provResponseReceived(
                 inviteClientTransaction.getLastResponse(), inviteClientTransaction);
     }
     
     @Override
-    public void received2xx() {
-        InviteClientTransactionState nextState = inviteClientTransaction.TERMINATED;
+    public void received2xx(InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.TERMINATED;
         inviteClientTransaction.setState(nextState);
         inviteClientTransaction.transactionUser.successResponseReceived(
                 inviteClientTransaction.getLastResponse(), inviteClientTransaction);
     }
     
     @Override
-    public void received300To699() {
-        InviteClientTransactionState nextState = inviteClientTransaction.COMPLETED;
+    public void received300To699(
+            InviteClientTransaction inviteClientTransaction) {
+        InviteClientTransactionState nextState = InviteClientTransaction.COMPLETED;
         inviteClientTransaction.setState(nextState);
+        inviteClientTransaction.startTimerD();
         inviteClientTransaction.createAndSendAck();
         inviteClientTransaction.transactionUser.errResponseReceived(
                 inviteClientTransaction.getLastResponse());
@@ -19,14 +19,7 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
 public class InviteClientTransactionStateTerminated extends
         InviteClientTransactionState {
 
-    public InviteClientTransactionStateTerminated(String id,
-            InviteClientTransaction inviteClientTransaction, Logger logger) {
-        super(id, inviteClientTransaction, logger);
-    }
-
 }
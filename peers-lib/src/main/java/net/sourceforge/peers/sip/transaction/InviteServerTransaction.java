@@ -20,22 +20,26 @@
 package net.sourceforge.peers.sip.transaction;
 
 import net.sourceforge.peers.Logger;
-import net.sourceforge.peers.Timer;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.transport.*;
 
 import java.io.IOException;
-import java.util.TimerTask;
 
 
 public class InviteServerTransaction extends InviteTransaction
         implements ServerTransaction, SipServerTransportUser {
 
-    public final InviteServerTransactionState INIT;
-    public final InviteServerTransactionState PROCEEDING;
-    public final InviteServerTransactionState COMPLETED;
-    public final InviteServerTransactionState CONFIRMED;
-    public final InviteServerTransactionState TERMINATED;
+    public static final InviteServerTransactionState INIT =
+        new InviteServerTransactionStateInit();
+    public static final InviteServerTransactionState PROCEEDING =
+        new InviteServerTransactionStateProceeding();
+    public static final InviteServerTransactionState COMPLETED =
+        new InviteServerTransactionStateCompleted();
+    public static final InviteServerTransactionState CONFIRMED =
+        new InviteServerTransactionStateConfirmed();
+    public static final InviteServerTransactionState TERMINATED =
+        new InviteServerTransactionStateTerminated();
 
     protected String transport;
     protected int nbRetrans;
@@ -44,23 +48,15 @@ public class InviteServerTransaction extends InviteTransaction
     private InviteServerTransactionState state;
     //private SipServerTransport sipServerTransport;
     private final int port;
+    private final ResponseCache responseCache;
 
     InviteServerTransaction(String branchId, int port, String transport,
                             SipResponse sipResponse, ServerTransactionUser serverTransactionUser,
-                            SipRequest sipRequest, Timer timer, TransactionManager transactionManager,
+                            SipRequest sipRequest, TimingWheel timer, TransactionManager transactionManager,
                             TransportManager transportManager, Logger logger) {
         super(branchId, timer, transportManager, transactionManager, logger);
 
-        INIT = new InviteServerTransactionStateInit(getId(), this, logger);
         state = INIT;
-        PROCEEDING = new InviteServerTransactionStateProceeding(getId(), this,
-                logger);
-        COMPLETED = new InviteServerTransactionStateCompleted(getId(), this,
-                logger);
-        CONFIRMED = new InviteServerTransactionStateConfirmed(getId(), this,
-                logger);
-        TERMINATED = new InviteServerTransactionStateTerminated(getId(), this,
-                logger);
 
         this.request = sipRequest;
         this.port = port;
@@ -68,11 +64,18 @@ public class InviteServerTransaction extends InviteTransaction
         responses.add(sipResponse);
         nbRetrans = 0;
         this.serverTransactionUser = serverTransactionUser;
+        responseCache = new ResponseCache(transportManager, logger);
         //TODO pass INV to TU, send 100 if TU won't in 200ms
     }
 
+    @Override
+    boolean isUnbounded() {
+        // as long as the callee rings
+        return state == PROCEEDING;
+    }
+
     public void start() {
-        state.start();
+        state.start(this);
 
 //        sipServerTransport = SipTransportFactory.getInstance()
 //            .createServerTransport(this, port, transport);
@@ -86,15 +89,19 @@ public class InviteServerTransaction extends InviteTransaction
     public void receivedRequest(SipRequest sipRequest) {
         String method = sipRequest.getMethod();
         if (RFC3261.METHOD_INVITE.equals(method)) {
-            state.receivedInvite();
+            state.receivedInvite(this);
         } else {
             // if not INVITE, we consider that a ACK is received
             // in the case the call was not successful
-            state.receivedAck();
+            state.receivedAck(this);
         }
 
     }
 
+    public void receivedRetransmission() {
+        state.receivedInvite(this);
+    }
+
     public void sendResponse(SipResponse sipResponse) {
         //TODO check that a retransmission response will be considered as
         //equal (for contains) to the first response
@@ -105,19 +112,32 @@ public class InviteServerTransaction extends InviteTransaction
         if (statusCode == RFC3261.CODE_MIN_PROV) {
             // TODO 100 trying
         } else if (statusCode < RFC3261.CODE_MIN_SUCCESS) {
-            state.received101To199();
+            state.received101To199(this);
         } else if (statusCode < RFC3261.CODE_MIN_REDIR) {
-            state.received2xx();
+            state.received2xx(this);
         } else if (statusCode <= RFC3261.CODE_MAX) {
-            state.received300To699();
+            state.received300To699(this);
         } else {
             logger.error("invalid response code");
         }
     }
 
     public void setState(InviteServerTransactionState state) {
-        this.state.log(state);
+        this.state.log(getId(), logger, state);
         this.state = state;
+        stateTime = System.nanoTime();
+        if (TERMINATED.equals(state)) {
+            SipResponse lastResponse = getLastResponse();
+            if (lastResponse != null
+                    && lastResponse.getStatusCode() >= RFC3261.CODE_MIN_SUCCESS
+                    && lastResponse.getStatusCode() < RFC3261.CODE_MIN_REDIR) {
+                // RFC6026 Timer L, INVITE retransmissions crossing the 2xx
+                // must not reach the transaction user as new calls
+                timer.schedule(new TimerL(), 64 * RFC3261.TIMER_T1);
+            } else {
+                transactionManager.removeServerTransaction(this);
+            }
+        }
     }
 
     public void messageReceived(SipMessage sipMessage) {
@@ -126,15 +146,7 @@ public class InviteServerTransaction extends InviteTransaction
     }
 
     void sendLastResponse() {
-        //sipServerTransport.sendResponse(responses.get(responses.size() - 1));
-        int nbOfResponses = responses.size();
-        if (nbOfResponses > 0) {
-            try {
-                transportManager.sendResponse(responses.get(nbOfResponses - 1));
-            } catch (IOException e) {
-                logger.error("input/output error", e);
-            }
-        }
+        responseCache.send(getLastResponse(), request);
     }
 
     public SipResponse getLastResponse() {
@@ -154,24 +166,32 @@ public class InviteServerTransaction extends InviteTransaction
 //        sipServerTransport.stop();
 //    }
 
-    class TimerG extends TimerTask {
+    class TimerG implements Runnable {
+        @Override
+        public void run() {
+            state.timerGFires(InviteServerTransaction.this);
+        }
+    }
+
+    class TimerH implements Runnable {
         @Override
         public void run() {
-            state.timerGFires();
+            state.timerHFiresOrTransportError(InviteServerTransaction.this);
         }
     }
 
-    class TimerH extends TimerTask {
+    class TimerI implements Runnable {
         @Override
         public void run() {
-            state.timerHFiresOrTransportError();
+            state.timerIFires(InviteServerTransaction.this);
         }
     }
 
-    class TimerI extends TimerTask {
+    class TimerL implements Runnable {
         @Override
         public void run() {
-            state.timerIFires();
+            transactionManager.removeServerTransaction(
+                    InviteServerTransaction.this);
         }
     }
 
@@ -19,20 +19,14 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.RFC3261;
 
 public class InviteServerTransactionStateCompleted extends
         InviteServerTransactionState {
 
-    public InviteServerTransactionStateCompleted(String id,
-            InviteServerTransaction inviteServerTransaction, Logger logger) {
-        super(id, inviteServerTransaction, logger);
-    }
-
     @Override
-    public void timerGFires() {
-        InviteServerTransactionState nextState = inviteServerTransaction.COMPLETED;
+    public void timerGFires(InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.COMPLETED;
         inviteServerTransaction.setState(nextState);
         inviteServerTransaction.sendLastResponse();
         long delay = (long)Math.pow(2,
@@ -43,15 +37,16 @@ public class InviteServerTransactionStateCompleted extends
     }
     
     @Override
-    public void timerHFiresOrTransportError() {
-        InviteServerTransactionState nextState = inviteServerTransaction.TERMINATED;
+    public void timerHFiresOrTransportError(
+            InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.TERMINATED;
         inviteServerTransaction.setState(nextState);
         inviteServerTransaction.serverTransactionUser.transactionFailure();
     }
     
     @Override
-    public void receivedAck() {
-        InviteServerTransactionState nextState = inviteServerTransaction.CONFIRMED;
+    public void receivedAck(InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.CONFIRMED;
         inviteServerTransaction.setState(nextState);
         int delay;
         if (RFC3261.TRANSPORT_UDP.equals(inviteServerTransaction.transport)) {
@@ -64,8 +59,9 @@ public class InviteServerTransactionStateCompleted extends
     }
     
     @Override
-    public void receivedInvite() {
-        InviteServerTransactionState nextState = inviteServerTransaction.COMPLETED;
+    public void receivedInvite(
+            InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.COMPLETED;
         inviteServerTransaction.setState(nextState);
         // retransmission
         inviteServerTransaction.sendLastResponse();
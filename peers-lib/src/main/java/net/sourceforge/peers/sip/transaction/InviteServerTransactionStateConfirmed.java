@@ -19,27 +19,14 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
 public class InviteServerTransactionStateConfirmed extends
         InviteServerTransactionState {
 
-    public InviteServerTransactionStateConfirmed(String id,
-            InviteServerTransaction inviteServerTransaction, Logger logger) {
-        super(id, inviteServerTransaction, logger);
-    }
-
     @Override
-    public void timerIFires() {
+    public void timerIFires(InviteServerTransaction inviteServerTransaction) {
         InviteServerTransactionState nextState =
-            inviteServerTransaction.TERMINATED;
+            InviteServerTransaction.TERMINATED;
         inviteServerTransaction.setState(nextState);
-        // TODO destroy invite server transaction immediately
-        // (dereference it in transaction manager serverTransactions hashtable)
-        
-        inviteServerTransaction.transactionManager.removeServerTransaction(
-                inviteServerTransaction.branchId,
-                inviteServerTransaction.method);
     }
     
 }
@@ -19,19 +19,12 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
 public class InviteServerTransactionStateInit extends
         InviteServerTransactionState {
 
-    public InviteServerTransactionStateInit(String id,
-            InviteServerTransaction inviteServerTransaction, Logger logger) {
-        super(id, inviteServerTransaction, logger);
-    }
-
     @Override
-    public void start() {
-        InviteServerTransactionState nextState = inviteServerTransaction.PROCEEDING;
+    public void start(InviteServerTransaction inviteServerTransaction) {
+        InviteServerTransactionState nextState = InviteServerTransaction.PROCEEDING;
         inviteServerTransaction.setState(nextState);
     }
 }
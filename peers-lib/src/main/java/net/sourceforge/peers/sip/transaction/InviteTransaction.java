@@ -19,14 +19,14 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Timer;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.transport.TransportManager;
 
 public abstract class InviteTransaction extends Transaction {
     
-    protected InviteTransaction(String branchId, Timer timer,
+    protected InviteTransaction(String branchId, TimingWheel timer,
             TransportManager transportManager,
             TransactionManager transactionManager, Logger logger) {
         super(branchId, RFC3261.METHOD_INVITE, timer, transportManager,
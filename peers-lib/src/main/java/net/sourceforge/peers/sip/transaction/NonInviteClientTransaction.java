@@ -21,9 +21,8 @@ package net.sourceforge.peers.sip.transaction;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.TimerTask;
 
-import net.sourceforge.peers.Timer;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
@@ -39,11 +38,16 @@ import net.sourceforge.peers.sip.transport.TransportManager;
 public class NonInviteClientTransaction extends NonInviteTransaction
         implements ClientTransaction, SipClientTransportUser {
 
-    public final NonInviteClientTransactionState INIT;
-    public final NonInviteClientTransactionState TRYING;
-    public final NonInviteClientTransactionState PROCEEDING;
-    public final NonInviteClientTransactionState COMPLETED;
-    public final NonInviteClientTransactionState TERMINATED;
+    public static final NonInviteClientTransactionState INIT =
+        new NonInviteClientTransactionStateInit();
+    public static final NonInviteClientTransactionState TRYING =
+        new NonInviteClientTransactionStateTrying();
+    public static final NonInviteClientTransactionState PROCEEDING =
+        new NonInviteClientTransactionStateProceeding();
+    public static final NonInviteClientTransactionState COMPLETED =
+        new NonInviteClientTransactionStateCompleted();
+    public static final NonInviteClientTransactionState TERMINATED =
+        new NonInviteClientTransactionStateTerminated();
     
     protected ClientTransactionUser transactionUser;
     protected String transport;
@@ -52,12 +56,14 @@ public class NonInviteClientTransaction extends NonInviteTransaction
     private NonInviteClientTransactionState state;
     //private SipClientTransport sipClientTransport;
     private MessageSender messageSender;
+    // encoded once, retransmissions send the same bytes
+    private byte[] encodedRequest;
     private final int remotePort;
     private final InetAddress remoteInetAddress;
     
     NonInviteClientTransaction(String branchId, InetAddress inetAddress,
             int port, String transport, SipRequest sipRequest,
-            ClientTransactionUser transactionUser, Timer timer,
+            ClientTransactionUser transactionUser, TimingWheel timer,
             TransportManager transportManager,
             TransactionManager transactionManager, Logger logger) {
         super(branchId, sipRequest.getMethod(), timer, transportManager,
@@ -71,16 +77,7 @@ public class NonInviteClientTransaction extends NonInviteTransaction
         
         nbRetrans = 0;
         
-        INIT = new NonInviteClientTransactionStateInit(getId(), this, logger);
         state = INIT;
-        TRYING = new NonInviteClientTransactionStateTrying(getId(), this,
-                logger);
-        PROCEEDING = new NonInviteClientTransactionStateProceeding(getId(),
-                this, logger);
-        COMPLETED = new NonInviteClientTransactionStateCompleted(getId(),
-                this, logger);
-        TERMINATED = new NonInviteClientTransactionStateTerminated(getId(),
-                this, logger);
         
         request = sipRequest;
         this.transactionUser = transactionUser;
@@ -99,12 +96,16 @@ public class NonInviteClientTransaction extends NonInviteTransaction
     }
     
     public void setState(NonInviteClientTransactionState state) {
-        this.state.log(state);
+        this.state.log(getId(), logger, state);
         this.state = state;
+        stateTime = System.nanoTime();
+        if (TERMINATED.equals(state)) {
+            transactionManager.removeClientTransaction(this);
+        }
     }
 
     public void start() {
-        state.start();
+        state.start(this);
         
         //17.1.2.2
         
@@ -118,7 +119,8 @@ public class NonInviteClientTransaction extends NonInviteTransaction
 //            transportError();
 //        }
         try {
-            messageSender.sendMessage(request);
+            encodedRequest = request.encode();
+            messageSender.sendEncoded(encodedRequest);
         } catch (IOException e) {
             logger.error("input/output error", e);
             transportError();
@@ -135,7 +137,7 @@ public class NonInviteClientTransaction extends NonInviteTransaction
     void sendRetrans(long delay) {
         //sipClientTransport.send(request);
         try {
-            messageSender.sendMessage(request);
+            messageSender.sendEncoded(encodedRequest);
         } catch (IOException e) {
             logger.error("input/output error", e);
             transportError();
@@ -144,7 +146,7 @@ public class NonInviteClientTransaction extends NonInviteTransaction
     }
     
     public void transportError() {
-        state.transportError();
+        state.transportError(this);
     }
     
     public synchronized void receivedResponse(SipResponse sipResponse) {
@@ -154,14 +156,20 @@ public class NonInviteClientTransaction extends NonInviteTransaction
         if (statusCode < RFC3261.CODE_MIN_PROV) {
             logger.error("invalid response code");
         } else if (statusCode < RFC3261.CODE_MIN_SUCCESS) {
-            state.received1xx();
+            state.received1xx(this);
         } else if (statusCode <= RFC3261.CODE_MAX) {
-            state.received200To699();
+            state.received200To699(this);
         } else {
             logger.error("invalid response code");
         }
     }
     
+    public synchronized boolean receivedRetransmission(int statusCode) {
+        // 17.1.2.2, responses are absorbed once a final one is received
+        return (state == COMPLETED || state == TERMINATED)
+            && statusCode >= RFC3261.CODE_200_OK;
+    }
+
     public void requestTransportError(SipRequest sipRequest, Exception e) {
         // TODO Auto-generated method stub
         
@@ -172,24 +180,33 @@ public class NonInviteClientTransaction extends NonInviteTransaction
         
     }
     
-    class TimerE extends TimerTask {
+    class TimerE implements Runnable {
         @Override
         public void run() {
-            state.timerEFires();
+            state.timerEFires(NonInviteClientTransaction.this);
         }
     }
     
-    class TimerF extends TimerTask {
+    class TimerF implements Runnable {
         @Override
         public void run() {
-            state.timerFFires();
+            state.timerFFires(NonInviteClientTransaction.this);
         }
     }
     
-    class TimerK extends TimerTask {
+    // on entering completed state, RFC3261 17.1.2.2
+    void startTimerK() {
+        int delay = 0;
+        if (RFC3261.TRANSPORT_UDP.equals(transport)) {
+            delay = RFC3261.TIMER_T4;
+        }
+        timer.schedule(new TimerK(), delay);
+    }
+
+    class TimerK implements Runnable {
         @Override
         public void run() {
-            state.timerKFires();
+            state.timerKFires(NonInviteClientTransaction.this);
         }
     }
 
@@ -19,39 +19,35 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.AbstractState;
 
 public abstract class NonInviteClientTransactionState extends AbstractState {
 
-    protected NonInviteClientTransaction nonInviteClientTransaction;
-
-    protected NonInviteClientTransactionState(String id,
-                                              NonInviteClientTransaction nonInviteClientTransaction,
-                                              Logger logger) {
-        super(id, logger);
-        this.nonInviteClientTransaction = nonInviteClientTransaction;
-    }
-
-    public void start() {
+    public void start(NonInviteClientTransaction nonInviteClientTransaction) {
     }
 
-    public void timerEFires() {
+    public void timerEFires(
+            NonInviteClientTransaction nonInviteClientTransaction) {
     }
 
-    public void timerFFires() {
+    public void timerFFires(
+            NonInviteClientTransaction nonInviteClientTransaction) {
     }
 
-    public void transportError() {
+    public void transportError(
+            NonInviteClientTransaction nonInviteClientTransaction) {
     }
 
-    public void received1xx() {
+    public void received1xx(
+            NonInviteClientTransaction nonInviteClientTransaction) {
     }
 
-    public void received200To699() {
+    public void received200To699(
+            NonInviteClientTransaction nonInviteClientTransaction) {
     }
 
-    public void timerKFires() {
+    public void timerKFires(
+            NonInviteClientTransaction nonInviteClientTransaction) {
     }
 
 }
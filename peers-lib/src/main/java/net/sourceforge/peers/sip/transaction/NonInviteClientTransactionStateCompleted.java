@@ -19,29 +19,14 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-import net.sourceforge.peers.sip.RFC3261;
-
 public class NonInviteClientTransactionStateCompleted extends
         NonInviteClientTransactionState {
 
-    public NonInviteClientTransactionStateCompleted(String id,
-            NonInviteClientTransaction nonInviteClientTransaction,
-            Logger logger) {
-        super(id, nonInviteClientTransaction, logger);
-        int delay = 0;
-        if (RFC3261.TRANSPORT_UDP.equals(
-                nonInviteClientTransaction.transport)) {
-            delay = RFC3261.TIMER_T4;
-        }
-        nonInviteClientTransaction.timer.schedule(
-                nonInviteClientTransaction.new TimerK(), delay);
-    }
-
     @Override
-    public void timerKFires() {
+    public void timerKFires(
+            NonInviteClientTransaction nonInviteClientTransaction) {
         NonInviteClientTransactionState nextState =
-            nonInviteClientTransaction.TERMINATED;
+            NonInviteClientTransaction.TERMINATED;
         nonInviteClientTransaction.setState(nextState);
     }
     
@@ -19,20 +19,12 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
 public class NonInviteClientTransactionStateInit extends
         NonInviteClientTransactionState {
 
-    public NonInviteClientTransactionStateInit(String id,
-            NonInviteClientTransaction nonInviteClientTransaction,
-            Logger logger) {
-        super(id, nonInviteClientTransaction, logger);
-    }
-
     @Override
-    public void start() {
-        NonInviteClientTransactionState nextState = nonInviteClientTransaction.TRYING;
+    public void start(NonInviteClientTransaction nonInviteClientTransaction) {
+        NonInviteClientTransactionState nextState = NonInviteClientTransaction.TRYING;
         nonInviteClientTransaction.setState(nextState);
     }
 }
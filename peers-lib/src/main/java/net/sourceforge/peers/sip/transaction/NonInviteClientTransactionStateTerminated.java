@@ -19,15 +19,7 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
 public class NonInviteClientTransactionStateTerminated extends
         NonInviteClientTransactionState {
 
-    public NonInviteClientTransactionStateTerminated(String id,
-            NonInviteClientTransaction nonInviteClientTransaction,
-            Logger logger) {
-        super(id, nonInviteClientTransaction, logger);
-    }
-
 }
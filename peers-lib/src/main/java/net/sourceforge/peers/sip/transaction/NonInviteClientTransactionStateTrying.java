@@ -19,22 +19,16 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.transport.SipResponse;
 
 public class NonInviteClientTransactionStateTrying extends
         NonInviteClientTransactionState {
 
-    public NonInviteClientTransactionStateTrying(String id,
-            NonInviteClientTransaction nonInviteClientTransaction,
-            Logger logger) {
-        super(id, nonInviteClientTransaction, logger);
-    }
-
     @Override
-    public void timerEFires() {
-        NonInviteClientTransactionState nextState = nonInviteClientTransaction.TRYING;
+    public void timerEFires(
+            NonInviteClientTransaction nonInviteClientTransaction) {
+        NonInviteClientTransactionState nextState = NonInviteClientTransaction.TRYING;
         nonInviteClientTransaction.setState(nextState);
         long delay = (long)Math.pow(2,
                 ++nonInviteClientTransaction.nbRetrans) * RFC3261.TIMER_T1;
@@ -42,34 +36,40 @@ public class NonInviteClientTransactionStateTrying extends
     }
 
     @Override
-    public void timerFFires() {
-        timerFFiresOrTransportError();
+    public void timerFFires(
+            NonInviteClientTransaction nonInviteClientTransaction) {
+        timerFFiresOrTransportError(nonInviteClientTransaction);
     }
     
     @Override
-    public void transportError() {
-        timerFFiresOrTransportError();
+    public void transportError(
+            NonInviteClientTransaction nonInviteClientTransaction) {
+        timerFFiresOrTransportError(nonInviteClientTransaction);
     }
     
-    private void timerFFiresOrTransportError() {
-        NonInviteClientTransactionState nextState = nonInviteClientTransaction.TERMINATED;
+    private void timerFFiresOrTransportError(
+            NonInviteClientTransaction nonInviteClientTransaction) {
+        NonInviteClientTransactionState nextState = NonInviteClientTransaction.TERMINATED;
         nonInviteClientTransaction.setState(nextState);
         nonInviteClientTransaction.transactionUser.transactionTimeout(
                 nonInviteClientTransaction);
     }
     
     @Override
-    public void received1xx() {
-        NonInviteClientTransactionState nextState = nonInviteClientTransaction.PROCEEDING;
+    public void received1xx(
+            NonInviteClientTransaction nonInviteClientTransaction) {
+        NonInviteClientTransactionState nextState = NonInviteClientTransaction.PROCEEDING;
         nonInviteClientTransaction.setState(nextState);
         nonInviteClientTransaction.transactionUser.provResponseReceived(
                 nonInviteClientTransaction.getLastResponse(), nonInviteClientTransaction);
     }
     
     @Override
-    public void received200To699() {
-        NonInviteClientTransactionState nextState = nonInviteClientTransaction.COMPLETED;
+    public void received200To699(
+            NonInviteClientTransaction nonInviteClientTransaction) {
+        NonInviteClientTransactionState nextState = NonInviteClientTransaction.COMPLETED;
         nonInviteClientTransaction.setState(nextState);
+        nonInviteClientTransaction.startTimerK();
         SipResponse response = nonInviteClientTransaction.getLastResponse();
         int code = response.getStatusCode();
         if (code < RFC3261.CODE_MIN_REDIR) {
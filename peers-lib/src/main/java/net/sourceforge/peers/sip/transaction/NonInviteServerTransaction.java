@@ -20,9 +20,8 @@
 package net.sourceforge.peers.sip.transaction;
 
 import java.io.IOException;
-import java.util.TimerTask;
 
-import net.sourceforge.peers.Timer;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.transport.SipRequest;
@@ -33,39 +32,36 @@ import net.sourceforge.peers.sip.transport.TransportManager;
 public class NonInviteServerTransaction extends NonInviteTransaction
         implements ServerTransaction/*, SipServerTransportUser*/ {
 
-    public final NonInviteServerTransactionState TRYING;
-    public final NonInviteServerTransactionState PROCEEDING;
-    public final NonInviteServerTransactionState COMPLETED;
-    public final NonInviteServerTransactionState TERMINATED;
+    public static final NonInviteServerTransactionState TRYING =
+        new NonInviteServerTransactionStateTrying();
+    public static final NonInviteServerTransactionState PROCEEDING =
+        new NonInviteServerTransactionStateProceeding();
+    public static final NonInviteServerTransactionState COMPLETED =
+        new NonInviteServerTransactionStateCompleted();
+    public static final NonInviteServerTransactionState TERMINATED =
+        new NonInviteServerTransactionStateTerminated();
     
     protected ServerTransactionUser serverTransactionUser;
-    protected Timer timer;
     protected String transport;
     
     private NonInviteServerTransactionState state;
     //private int port;
+    private final ResponseCache responseCache;
     
     NonInviteServerTransaction(String branchId, int port, String transport,
             String method, ServerTransactionUser serverTransactionUser,
-            SipRequest sipRequest, Timer timer, TransportManager transportManager,
+            SipRequest sipRequest, TimingWheel timer, TransportManager transportManager,
             TransactionManager transactionManager, Logger logger) {
         super(branchId, method, timer, transportManager, transactionManager,
                 logger);
         
-        TRYING = new NonInviteServerTransactionStateTrying(getId(), this,
-                logger);
         state = TRYING;
-        PROCEEDING = new NonInviteServerTransactionStateProceeding(getId(),
-                this, logger);
-        COMPLETED = new NonInviteServerTransactionStateCompleted(getId(), this,
-                logger);
-        TERMINATED = new NonInviteServerTransactionStateTerminated(getId(),
-                this, logger);
         
         //this.port = port;
         this.transport = transport;
         this.serverTransactionUser = serverTransactionUser;
         request = sipRequest;
+        responseCache = new ResponseCache(transportManager, logger);
 //        sipServerTransport = SipTransportFactory.getInstance()
 //            .createServerTransport(this, port, transport);
         try {
@@ -78,34 +74,35 @@ public class NonInviteServerTransaction extends NonInviteTransaction
     }
 
     public void setState(NonInviteServerTransactionState state) {
-        this.state.log(state);
+        this.state.log(getId(), logger, state);
         this.state = state;
+        stateTime = System.nanoTime();
+        if (TERMINATED.equals(state)) {
+            transactionManager.removeServerTransaction(this);
+        }
     }
     
     public void receivedRequest(SipRequest sipRequest) {
-        state.receivedRequest();
+        state.receivedRequest(this);
+    }
+
+    public void receivedRetransmission() {
+        state.receivedRequest(this);
     }
 
     public void sendResponse(SipResponse sipResponse) {
         responses.add(sipResponse);
         int statusCode = sipResponse.getStatusCode();
         if (statusCode < RFC3261.CODE_200_OK) {
-            state.received1xx();
+            state.received1xx(this);
         } else if (statusCode <= RFC3261.CODE_MAX) {
-            state.received200To699();
+            state.received200To699(this);
         }
     }
     
     void sendLastResponse() {
         //sipServerTransport.sendResponse(responses.get(responses.size() - 1));
-        int nbOfResponses = responses.size();
-        if (nbOfResponses > 0) {
-            try {
-                transportManager.sendResponse(responses.get(nbOfResponses - 1));
-            } catch (IOException e) {
-                logger.error("input/output error", e);
-            }
-        }
+        responseCache.send(getLastResponse(), request);
     }
     
     public void start() {
@@ -118,10 +115,21 @@ public class NonInviteServerTransaction extends NonInviteTransaction
 //        
 //    }
 
-    class TimerJ extends TimerTask {
+    // on entering completed state, RFC3261 17.2.2
+    void startTimerJ() {
+        int timeout;
+        if (RFC3261.TRANSPORT_UDP.equals(transport)) {
+            timeout = 64 * RFC3261.TIMER_T1;
+        } else {
+            timeout = 0;
+        }
+        timer.schedule(new TimerJ(), timeout);
+    }
+
+    class TimerJ implements Runnable {
         @Override
         public void run() {
-            state.timerJFires();
+            state.timerJFires(NonInviteServerTransaction.this);
         }
     }
     
@@ -19,34 +19,29 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.AbstractState;
 
 //17.2.2
 public abstract class NonInviteServerTransactionState extends AbstractState {
 
-    protected NonInviteServerTransaction nonInviteServerTransaction;
-
-    protected NonInviteServerTransactionState(String id,
-                                              NonInviteServerTransaction nonInviteServerTransaction,
-                                              Logger logger) {
-        super(id, logger);
-        this.nonInviteServerTransaction = nonInviteServerTransaction;
-    }
-
-    public void received200To699() {
+    public void received200To699(
+            NonInviteServerTransaction nonInviteServerTransaction) {
     }
 
-    public void received1xx() {
+    public void received1xx(
+            NonInviteServerTransaction nonInviteServerTransaction) {
     }
 
-    public void receivedRequest() {
+    public void receivedRequest(
+            NonInviteServerTransaction nonInviteServerTransaction) {
     }
 
-    public void transportError() {
+    public void transportError(
+            NonInviteServerTransaction nonInviteServerTransaction) {
     }
 
-    public void timerJFires() {
+    public void timerJFires(
+            NonInviteServerTransaction nonInviteServerTransaction) {
     }
 }
 
@@ -19,32 +19,27 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
 public class NonInviteServerTransactionStateCompleted extends
         NonInviteServerTransactionState {
 
-    public NonInviteServerTransactionStateCompleted(String id,
-            NonInviteServerTransaction nonInviteServerTransaction,
-            Logger logger) {
-        super(id, nonInviteServerTransaction, logger);
-    }
-
     @Override
-    public void timerJFires() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.TERMINATED;
+    public void timerJFires(
+            NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.TERMINATED;
         nonInviteServerTransaction.setState(nextState);
     }
     
     @Override
-    public void transportError() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.TERMINATED;
+    public void transportError(
+            NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.TERMINATED;
         nonInviteServerTransaction.setState(nextState);
     }
     
     @Override
-    public void receivedRequest() {
-        NonInviteServerTransactionState nextState = nonInviteServerTransaction.COMPLETED;
+    public void receivedRequest(
+            NonInviteServerTransaction nonInviteServerTransaction) {
+        NonInviteServerTransactionState nextState = NonInviteServerTransaction.COMPLETED;
         nonInviteServerTransaction.setState(nextState);
         nonInviteServerTransaction.sendLastResponse();
     }
@@ -19,55 +19,44 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-import net.sourceforge.peers.sip.RFC3261;
-
 public class NonInviteServerTransactionStateProceeding extends
         NonInviteServerTransactionState {
 
-    public NonInviteServerTransactionStateProceeding(String id,
-            NonInviteServerTransaction nonInviteServerTransaction,
-            Logger logger) {
-        super(id, nonInviteServerTransaction, logger);
-    }
-
     @Override
-    public void received1xx() {
+    public void received1xx(
+            NonInviteServerTransaction nonInviteServerTransaction) {
         NonInviteServerTransactionState nextState =
-            nonInviteServerTransaction.PROCEEDING;
+            NonInviteServerTransaction.PROCEEDING;
         nonInviteServerTransaction.setState(nextState);
         nonInviteServerTransaction.sendLastResponse();
     }
     
     @Override
-    public void received200To699() {
+    public void received200To699(
+            NonInviteServerTransaction nonInviteServerTransaction) {
         NonInviteServerTransactionState nextState =
-            nonInviteServerTransaction.COMPLETED;
+            NonInviteServerTransaction.COMPLETED;
         nonInviteServerTransaction.setState(nextState);
         nonInviteServerTransaction.sendLastResponse();
-        int timeout;
-        if (RFC3261.TRANSPORT_UDP.equals(
-                nonInviteServerTransaction.transport)) {
-            timeout = 64 * RFC3261.TIMER_T1;
-        } else {
-            timeout = 0;
-        }
-        nonInviteServerTransaction.timer.schedule(
-                nonInviteServerTransaction.new TimerJ(), timeout);
+        nonInviteServerTransaction.startTimerJ();
     }
     
     @Override
-    public void transportError() {
+    public void transportError(
+            NonInviteServerTransaction nonInviteServerTransaction) {
         NonInviteServerTransactionState nextState =
-            nonInviteServerTransaction.TERMINATED;
+            NonInviteServerTransaction.TERMINATED;
         nonInviteServerTransaction.setState(nextState);
     }
     
     @Override
-    public void receivedRequest() {
+    public void receivedRequest(
+            NonInviteServerTransaction nonInviteServerTransaction) {
         NonInviteServerTransactionState nextState =
-            nonInviteServerTransaction.PROCEEDING;
+            NonInviteServerTransaction.PROCEEDING;
         nonInviteServerTransaction.setState(nextState);
+        // 17.2.2, most recent provisional response
+        nonInviteServerTransaction.sendLastResponse();
     }
     
 }
@@ -19,30 +19,26 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Logger;
-
 public class NonInviteServerTransactionStateTrying extends
         NonInviteServerTransactionState {
 
-    public NonInviteServerTransactionStateTrying(String id,
-            NonInviteServerTransaction nonInviteServerTransaction,
-            Logger logger) {
-        super(id, nonInviteServerTransaction, logger);
-    }
-
     @Override
-    public void received1xx() {
+    public void received1xx(
+            NonInviteServerTransaction nonInviteServerTransaction) {
         NonInviteServerTransactionState nextState =
-            nonInviteServerTransaction.PROCEEDING;
+            NonInviteServerTransaction.PROCEEDING;
         nonInviteServerTransaction.setState(nextState);
         nonInviteServerTransaction.sendLastResponse();
     }
     
     @Override
-    public void received200To699() {
+    public void received200To699(
+            NonInviteServerTransaction nonInviteServerTransaction) {
         NonInviteServerTransactionState nextState =
-            nonInviteServerTransaction.COMPLETED;
+            NonInviteServerTransaction.COMPLETED;
         nonInviteServerTransaction.setState(nextState);
+        nonInviteServerTransaction.sendLastResponse();
+        nonInviteServerTransaction.startTimerJ();
     }
     
 }
@@ -19,13 +19,13 @@
 
 package net.sourceforge.peers.sip.transaction;
 
-import net.sourceforge.peers.Timer;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.transport.TransportManager;
 
 public abstract class NonInviteTransaction extends Transaction {
 
-    protected NonInviteTransaction(String branchId, String method, Timer timer,
+    protected NonInviteTransaction(String branchId, String method, TimingWheel timer,
             TransportManager transportManager,
             TransactionManager transactionManager, Logger logger) {
         super(branchId, method, timer, transportManager, transactionManager,
@@ -0,0 +1,76 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transaction;
+
+import java.io.IOException;
+
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
+import net.sourceforge.peers.sip.transport.MessageSender;
+import net.sourceforge.peers.sip.transport.SipRequest;
+import net.sourceforge.peers.sip.transport.SipResponse;
+import net.sourceforge.peers.sip.transport.TransportManager;
+
+/**
+ * Last response sent by a server transaction, with its encoding and
+ * sender. Retransmissions write the bytes of the first transmission,
+ * unless its sender failed or was closed in the meantime.
+ */
+class ResponseCache {
+
+    private final TransportManager transportManager;
+    private final Logger logger;
+    private SipResponse sentResponse;
+    private byte[] encodedResponse;
+    private MessageSender responseSender;
+
+    ResponseCache(TransportManager transportManager, Logger logger) {
+        this.transportManager = transportManager;
+        this.logger = logger;
+    }
+
+    synchronized void send(SipResponse sipResponse, SipRequest sipRequest) {
+        if (sipResponse == null) {
+            return;
+        }
+        try {
+            if (sipResponse != sentResponse || responseSender == null
+                    || responseSender.isClosed()) {
+                if (sipResponse == sentResponse) {
+                    // Contact of the previous sender
+                    sipResponse.getSipHeaders().remove(
+                            SipHeaderFieldName.CONTACT);
+                }
+                responseSender = transportManager.prepareResponse(
+                        sipResponse, sipRequest);
+                if (responseSender == null) {
+                    return;
+                }
+                encodedResponse = sipResponse.encode();
+                sentResponse = sipResponse;
+            }
+            responseSender.sendEncoded(encodedResponse);
+        } catch (IOException e) {
+            logger.error("input/output error", e);
+            responseSender = null;
+        }
+    }
+
+}
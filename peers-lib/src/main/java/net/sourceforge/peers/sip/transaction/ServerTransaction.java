@@ -27,6 +27,12 @@ public interface ServerTransaction {
     public void start();
     
     public void receivedRequest(SipRequest sipRequest);
+
+    /**
+     * A retransmission of the request which created this transaction has
+     * been received, it has not been parsed.
+     */
+    public void receivedRetransmission();
     
     public void sendResponse(SipResponse sipResponse);
 }
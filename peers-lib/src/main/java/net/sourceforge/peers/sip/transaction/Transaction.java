@@ -23,7 +23,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import net.sourceforge.peers.Timer;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.transport.SipRequest;
 import net.sourceforge.peers.sip.transport.SipResponse;
@@ -40,13 +40,17 @@ public abstract class Transaction {
     protected SipRequest request;
     protected List<SipResponse> responses;
     
-    protected Timer timer;
+    protected TimingWheel timer;
     protected TransportManager transportManager;
     protected TransactionManager transactionManager;
 
     protected Logger logger;
 
-    protected Transaction(String branchId, String method, Timer timer,
+    // System.nanoTime() of the last state change, for the transaction
+    // manager sweeper
+    protected volatile long stateTime;
+
+    protected Transaction(String branchId, String method, TimingWheel timer,
             TransportManager transportManager,
             TransactionManager transactionManager, Logger logger) {
         this.branchId = branchId;
@@ -55,6 +59,7 @@ public abstract class Transaction {
         this.transportManager = transportManager;
         this.transactionManager = transactionManager;
         this.logger = logger;
+        stateTime = System.nanoTime();
         responses = Collections.synchronizedList(new ArrayList<>());
     }
 
@@ -73,5 +78,13 @@ public abstract class Transaction {
     public SipRequest getRequest() {
         return request;
     }
+
+    /**
+     * @return true in a state which no timer ends, it lasts until the
+     *         other party or the transaction user answers
+     */
+    boolean isUnbounded() {
+        return false;
+    }
     
 }
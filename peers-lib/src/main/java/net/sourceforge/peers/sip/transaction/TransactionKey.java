@@ -0,0 +1,112 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transaction;
+
+import java.util.Objects;
+
+/**
+ * Transaction table key, RFC3261 17.1.3 and 17.2.3: branch of the top Via
+ * and method. Immutable, its hash is computed once.
+ */
+final class TransactionKey {
+
+    enum Method {
+
+        INVITE, ACK, REGISTER, BYE, OPTIONS, CANCEL, EXTENSION;
+
+        private static final Method[] KNOWN = {
+            INVITE, ACK, REGISTER, BYE, OPTIONS, CANCEL
+        };
+
+        static Method of(String string, int from, int to) {
+            int length = to - from;
+            for (Method method : KNOWN) {
+                String name = method.name();
+                if (name.length() == length
+                        && string.regionMatches(from, name, 0, length)) {
+                    return method;
+                }
+            }
+            return EXTENSION;
+        }
+
+    }
+
+    private final String branchId;
+    private final Method method;
+    // name of an extension method, null otherwise
+    private final String extensionMethod;
+    private final int hash;
+
+    TransactionKey(String branchId, String method) {
+        this(branchId, method, 0, method.length());
+    }
+
+    private TransactionKey(String branchId, String string, int from,
+            int to) {
+        this.branchId = branchId;
+        method = Method.of(string, from, to);
+        extensionMethod = method == Method.EXTENSION
+            ? string.substring(from, to) : null;
+        hash = 31 * (31 * Objects.hashCode(branchId) + method.hashCode())
+            + Objects.hashCode(extensionMethod);
+    }
+
+    /**
+     * @param cseq CSeq header value, the method is its last token
+     */
+    static TransactionKey fromCSeq(String branchId, String cseq) {
+        return new TransactionKey(branchId, cseq, cseq.lastIndexOf(' ') + 1,
+                cseq.length());
+    }
+
+    Method getMethod() {
+        return method;
+    }
+
+    String getMethodName() {
+        return extensionMethod == null ? method.name() : extensionMethod;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TransactionKey)) {
+            return false;
+        }
+        TransactionKey other = (TransactionKey)obj;
+        return hash == other.hash && method == other.method
+            && Objects.equals(branchId, other.branchId)
+            && Objects.equals(extensionMethod, other.extensionMethod);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return branchId + Transaction.ID_SEPARATOR + getMethodName();
+    }
+
+}
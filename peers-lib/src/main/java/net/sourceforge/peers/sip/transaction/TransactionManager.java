@@ -21,16 +21,24 @@ package net.sourceforge.peers.sip.transaction;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import net.sourceforge.peers.Timer;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.Utils;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldValue;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderParamName;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderScanner;
 import net.sourceforge.peers.sip.transport.SipMessage;
 import net.sourceforge.peers.sip.transport.SipRequest;
 import net.sourceforge.peers.sip.transport.SipResponse;
@@ -39,26 +47,85 @@ import net.sourceforge.peers.sip.transport.TransportManager;
 
 public class TransactionManager {
 
-    protected Timer timer;
+    // transactions are removed when they reach terminated state, the
+    // sweeper removes those which stay in a state longer than its timers
+    public static final long SWEEP_PERIOD = 64 * RFC3261.TIMER_T1;
+    // Timer F and Timer K, RFC3261 17.1.2.2
+    public static final long NON_INVITE_LIFETIME =
+        64 * RFC3261.TIMER_T1 + RFC3261.TIMER_T4 + SWEEP_PERIOD;
+    // Timers B, D, H and I, proceeding lasts as long as the callee rings
+    // and is not swept
+    public static final long DEFAULT_INVITE_LIFETIME =
+        Math.max(64 * RFC3261.TIMER_T1,
+                RFC3261.TIMER_INVITE_CLIENT_TRANSACTION) + SWEEP_PERIOD;
 
-    // TODO remove client transactions when they reach terminated state
-    // TODO check that server transactions are removed in all transitions to terminated
-    private final Hashtable<String, ClientTransaction> clientTransactions;
-    private final Hashtable<String, ServerTransaction> serverTransactions;
+    protected TimingWheel timer;
+    // runs handler timers, which may block on DNS or connection setup
+    private final ExecutorService handlerExecutor;
+
+    private final ConcurrentHashMap<TransactionKey, ClientTransaction>
+        clientTransactions;
+    private final ConcurrentHashMap<TransactionKey, ServerTransaction>
+        serverTransactions;
+    // client transactions by Call-ID, for CANCEL matching
+    private final ConcurrentHashMap<String, List<ClientTransaction>>
+        clientTransactionsByCallId;
 
     private TransportManager transportManager;
     private final Logger logger;
+    private final AtomicLong absorbedRetransmissions;
+    private final AtomicLong reapedTransactions;
+    private final AtomicLong sweptTransactions;
+    private volatile long inviteLifetime;
     
     public TransactionManager(Logger logger) {
         this.logger = logger;
-        clientTransactions = new Hashtable<>();
-        serverTransactions = new Hashtable<>();
-        timer = new Timer(TransactionManager.class.getSimpleName()
-                + " " + Timer.class.getSimpleName());
+        absorbedRetransmissions = new AtomicLong();
+        reapedTransactions = new AtomicLong();
+        sweptTransactions = new AtomicLong();
+        inviteLifetime = DEFAULT_INVITE_LIFETIME;
+        clientTransactions = new ConcurrentHashMap<>();
+        serverTransactions = new ConcurrentHashMap<>();
+        clientTransactionsByCallId = new ConcurrentHashMap<>();
+        timer = new TimingWheel(TransactionManager.class.getSimpleName()
+                + " " + TimingWheel.class.getSimpleName(), logger);
+        timer.schedule(new Sweeper(), SWEEP_PERIOD);
+        // like the wheel, tasks handed over once closed are ignored
+        handlerExecutor = new ThreadPoolExecutor(1, 1, 0,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable,
+                            TransactionManager.class.getSimpleName()
+                            + " handlers");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
     }
 
     public void closeTimers() {
-        timer.cancel();
+        timer.stop();
+        handlerExecutor.shutdown();
+    }
+
+    /**
+     * @return scheduler of transaction timers, its tasks must be short
+     */
+    public TimingWheel getTimingWheel() {
+        return timer;
+    }
+
+    /**
+     * Schedules a handler task on the timing wheel. On expiration the task
+     * is handed over to the handler thread, so that a task sending a
+     * request does not delay transaction timers while it resolves or
+     * connects.
+     *
+     * @param delay milliseconds
+     * @return handle to cancel the task before it expires
+     */
+    public TimingWheel.Timeout scheduleHandlerTask(Runnable task,
+            long delay) {
+        return timer.schedule(() -> handlerExecutor.execute(task), delay);
     }
     
     public ClientTransaction createClientTransaction(SipRequest sipRequest,
@@ -82,8 +149,23 @@ public class TransactionManager {
                     inetAddress, port, transport, sipRequest, clientTransactionUser,
                     timer, transportManager, this, logger);
         }
-        clientTransactions.put(getTransactionId(branchId, method),
-                clientTransaction);
+        ClientTransaction replaced = clientTransactions.put(
+                new TransactionKey(branchId, method), clientTransaction);
+        if (replaced != null) {
+            // the replaced transaction cannot be reaped anymore
+            removeFromCallIdIndex((Transaction)replaced);
+        }
+        String callId = Utils.getMessageCallId(sipRequest);
+        if (callId != null) {
+            // atomic with removal of the last transaction of this Call-ID
+            clientTransactionsByCallId.compute(callId, (key, list) -> {
+                if (list == null) {
+                    list = new CopyOnWriteArrayList<>();
+                }
+                list.add(clientTransaction);
+                return list;
+            });
+        }
         return clientTransaction;
     }
 
@@ -92,48 +174,46 @@ public class TransactionManager {
             ServerTransactionUser serverTransactionUser,
             SipRequest sipRequest) {
         SipHeaderFieldValue via = Utils.getTopVia(sipResponse);
-        String branchId = via.getParam(new SipHeaderParamName(
-                RFC3261.PARAM_BRANCH));
-        String cseq = sipResponse.getSipHeaders().get(
-                new SipHeaderFieldName(RFC3261.HDR_CSEQ)).toString();
-        String method = cseq.substring(cseq.lastIndexOf(' ') + 1);
+        String branchId = via.getParam(SipHeaderParamName.BRANCH);
+        TransactionKey transactionKey = TransactionKey.fromCSeq(branchId,
+                sipResponse.getSipHeaders().get(
+                        SipHeaderFieldName.CSEQ).toString());
         ServerTransaction serverTransaction;
         // TODO create server transport user and pass it to server transaction
-        if (RFC3261.METHOD_INVITE.equals(method)) {
+        if (transactionKey.getMethod() == TransactionKey.Method.INVITE) {
             serverTransaction = new InviteServerTransaction(branchId, port,
                     transport, sipResponse, serverTransactionUser, sipRequest,
                     timer, this, transportManager, logger);
             // serverTransaction = new InviteServerTransaction(branchId);
         } else {
             serverTransaction = new NonInviteServerTransaction(branchId, port,
-                    transport, method, serverTransactionUser, sipRequest, timer,
+                    transport, transactionKey.getMethodName(),
+                    serverTransactionUser, sipRequest, timer,
                     transportManager, this, logger);
         }
-        serverTransactions.put(getTransactionId(branchId, method),
-                serverTransaction);
+        serverTransactions.put(transactionKey, serverTransaction);
         return serverTransaction;
     }
 
     public ClientTransaction getClientTransaction(SipMessage sipMessage) {
         SipHeaderFieldValue via = Utils.getTopVia(sipMessage);
-        String branchId = via.getParam(new SipHeaderParamName(
-                RFC3261.PARAM_BRANCH));
-        String cseq = sipMessage.getSipHeaders().get(
-                new SipHeaderFieldName(RFC3261.HDR_CSEQ)).toString();
-        String method = cseq.substring(cseq.lastIndexOf(' ') + 1);
-        return clientTransactions.get(getTransactionId(branchId, method));
+        return clientTransactions.get(TransactionKey.fromCSeq(
+                via.getParam(SipHeaderParamName.BRANCH),
+                sipMessage.getSipHeaders().get(
+                        SipHeaderFieldName.CSEQ).toString()));
     }
 
     public List<ClientTransaction> getClientTransactionsFromCallId(String callId,
             String method) {
         ArrayList<ClientTransaction> clientTransactionsFromCallId =
             new ArrayList<>();
-        for (ClientTransaction clientTransaction: clientTransactions.values()) {
+        List<ClientTransaction> list = clientTransactionsByCallId.get(callId);
+        if (list == null) {
+            return clientTransactionsFromCallId;
+        }
+        for (ClientTransaction clientTransaction: list) {
             Transaction transaction = (Transaction)clientTransaction;
-            SipRequest sipRequest = transaction.getRequest();
-            String reqCallId = Utils.getMessageCallId(sipRequest);
-            String reqMethod = sipRequest.getMethod();
-            if (reqCallId.equals(callId) && method.equals(reqMethod)) {
+            if (method.equals(transaction.getRequest().getMethod())) {
                 clientTransactionsFromCallId.add(clientTransaction);
             }
         }
@@ -142,18 +222,19 @@ public class TransactionManager {
 
     public ServerTransaction getServerTransaction(SipMessage sipMessage) {
         SipHeaderFieldValue via = Utils.getTopVia(sipMessage);
-        String branchId = via.getParam(new SipHeaderParamName(
-                RFC3261.PARAM_BRANCH));
-        String method;
+        String branchId = via.getParam(SipHeaderParamName.BRANCH);
+        TransactionKey transactionKey;
         if (sipMessage instanceof SipRequest) {
-            method = ((SipRequest)sipMessage).getMethod();
+            transactionKey = new TransactionKey(branchId,
+                    ((SipRequest)sipMessage).getMethod());
         } else {
-            String cseq = sipMessage.getSipHeaders().get(
-                    new SipHeaderFieldName(RFC3261.HDR_CSEQ)).toString();
-            method = cseq.substring(cseq.lastIndexOf(' ') + 1);
+            transactionKey = TransactionKey.fromCSeq(branchId,
+                    sipMessage.getSipHeaders().get(
+                            SipHeaderFieldName.CSEQ).toString());
         }
-        if (RFC3261.METHOD_ACK.equals(method)) {
-            method = RFC3261.METHOD_INVITE;
+        if (transactionKey.getMethod() == TransactionKey.Method.ACK) {
+            transactionKey = new TransactionKey(branchId,
+                    RFC3261.METHOD_INVITE);
 //            InviteServerTransaction inviteServerTransaction =
 //                (InviteServerTransaction)
 //                serverTransactions.get(getTransactionId(branchId, method));
@@ -185,29 +266,187 @@ public class TransactionManager {
             // if it is the case, a new standalone transaction must be created
             // for the ACK
         }
-        return serverTransactions.get(getTransactionId(branchId, method));
+        return serverTransactions.get(transactionKey);
+    }
+
+    /**
+     * Hands a retransmission to its transaction from the raw message, only
+     * the start line, the top Via branch, the CSeq method and the Call-ID
+     * are read. Requests retransmitted to a server transaction get its last
+     * response again, responses retransmitted to a client transaction which
+     * already has its final response are absorbed.
+     *
+     * @return true if the message has been handled and must not be parsed
+     */
+    public boolean absorbRetransmission(byte[] data, int offset, int length) {
+        String requestMethod = SipHeaderScanner.requestMethod(data, offset,
+                length);
+        int statusCode = -1;
+        if (requestMethod == null) {
+            statusCode = SipHeaderScanner.statusCode(data, offset, length);
+            if (statusCode < 0) {
+                return false;
+            }
+        } else if (RFC3261.METHOD_ACK.equals(requestMethod)
+                || RFC3261.METHOD_CANCEL.equals(requestMethod)) {
+            // not retransmissions of the transaction request
+            return false;
+        }
+        String branchId = SipHeaderScanner.topViaBranch(data, offset, length);
+        String method = SipHeaderScanner.cseqMethod(data, offset, length);
+        if (branchId == null || method == null || (requestMethod != null
+                && !requestMethod.equals(method))) {
+            return false;
+        }
+        TransactionKey transactionKey = new TransactionKey(branchId, method);
+        Transaction transaction;
+        if (requestMethod == null) {
+            transaction = (Transaction)clientTransactions.get(transactionKey);
+        } else {
+            transaction = (Transaction)serverTransactions.get(transactionKey);
+        }
+        if (transaction == null) {
+            return false;
+        }
+        // guards against branch collisions of non compliant peers
+        String callId = SipHeaderScanner.callId(data, offset, length);
+        if (callId == null
+                || !callId.equals(Utils.getMessageCallId(
+                        transaction.getRequest()))) {
+            return false;
+        }
+        if (requestMethod == null) {
+            if (!((ClientTransaction)transaction).receivedRetransmission(
+                    statusCode)) {
+                return false;
+            }
+        } else {
+            ((ServerTransaction)transaction).receivedRetransmission();
+        }
+        absorbedRetransmissions.incrementAndGet();
+        return true;
+    }
+
+    public long getAbsorbedRetransmissions() {
+        return absorbedRetransmissions.get();
     }
 
     public ServerTransaction getServerTransaction(String branchId, String method) {
-        return serverTransactions.get(getTransactionId(branchId, method));
+        return serverTransactions.get(new TransactionKey(branchId, method));
     }
     
-    void removeServerTransaction(String branchId, String method) {
-        serverTransactions.remove(getTransactionId(branchId, method));
+    void removeServerTransaction(Transaction transaction) {
+        reap(serverTransactions, transaction);
     }
     
-    void removeClientTransaction(String branchId, String method) {
-        clientTransactions.remove(getTransactionId(branchId, method));
+    void removeClientTransaction(Transaction transaction) {
+        if (reap(clientTransactions, transaction)) {
+            removeFromCallIdIndex(transaction);
+        }
     }
 
-    private String getTransactionId(String branchId, String method) {
-        return branchId +
-                Transaction.ID_SEPARATOR +
-                method;
+    private boolean reap(Map<TransactionKey, ?> transactions,
+            Transaction transaction) {
+        // only this transaction, a reused branch may key another one
+        if (transactions.remove(new TransactionKey(transaction.branchId,
+                transaction.method), transaction)) {
+            reapedTransactions.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void removeFromCallIdIndex(Transaction transaction) {
+        String callId = Utils.getMessageCallId(transaction.getRequest());
+        if (callId == null) {
+            return;
+        }
+        clientTransactionsByCallId.computeIfPresent(callId, (key, list) -> {
+            list.remove(transaction);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    /**
+     * Removes transactions which stayed in a state longer than the timers
+     * bounding it, they would otherwise never be released.
+     *
+     * @param now System.nanoTime()
+     * @return number of transactions removed
+     */
+    int sweep(long now) {
+        int swept = sweep(clientTransactions, now)
+            + sweep(serverTransactions, now);
+        sweptTransactions.addAndGet(swept);
+        return swept;
+    }
+
+    private int sweep(Map<TransactionKey, ?> transactions, long now) {
+        int swept = 0;
+        for (Map.Entry<TransactionKey, ?> entry : transactions.entrySet()) {
+            Transaction transaction = (Transaction)entry.getValue();
+            long lifetime = RFC3261.METHOD_INVITE.equals(transaction.method)
+                ? inviteLifetime : NON_INVITE_LIFETIME;
+            if (now - transaction.stateTime
+                    > TimeUnit.MILLISECONDS.toNanos(lifetime)
+                    && !transaction.isUnbounded()
+                    && transactions.remove(entry.getKey(), transaction)) {
+                logger.error("transaction " + entry.getKey()
+                        + " never terminated, removed");
+                if (transaction instanceof ClientTransaction) {
+                    removeFromCallIdIndex(transaction);
+                }
+                ++swept;
+            }
+        }
+        return swept;
+    }
+
+    /**
+     * @return number of client and server transactions in tables
+     */
+    public int getLiveTransactions() {
+        return clientTransactions.size() + serverTransactions.size();
+    }
+
+    /**
+     * @return number of transactions removed on reaching terminated state
+     */
+    public long getReapedTransactions() {
+        return reapedTransactions.get();
+    }
+
+    /**
+     * @return number of transactions removed by the sweeper, a growing
+     * value reveals transactions stuck in a state
+     */
+    public long getSweptTransactions() {
+        return sweptTransactions.get();
+    }
+
+    /**
+     * @param inviteLifetime milliseconds after which an INVITE transaction
+     * which did not change state is swept, unless it is proceeding
+     */
+    public void setInviteLifetime(long inviteLifetime) {
+        this.inviteLifetime = inviteLifetime;
+    }
+
+    public long getInviteLifetime() {
+        return inviteLifetime;
     }
 
     public void setTransportManager(TransportManager transportManager) {
         this.transportManager = transportManager;
     }
 
+    class Sweeper implements Runnable {
+        @Override
+        public void run() {
+            sweep(System.nanoTime());
+            // no-op once the timing wheel is stopped
+            timer.schedule(this, SWEEP_PERIOD);
+        }
+    }
+
 }
@@ -33,10 +33,10 @@ public class Dialog {
     public static final char ID_SEPARATOR = '|';
     public static final int EMPTY_CSEQ = -1;
 
-    public final DialogState INIT;
-    public final DialogState EARLY;
-    public final DialogState CONFIRMED;
-    public final DialogState TERMINATED;
+    public static final DialogState INIT = new DialogStateInit();
+    public static final DialogState EARLY = new DialogStateEarly();
+    public static final DialogState CONFIRMED = new DialogStateConfirmed();
+    public static final DialogState TERMINATED = new DialogStateTerminated();
 
     private DialogState state;
 
@@ -51,7 +51,9 @@ public class Dialog {
     private String remoteTarget;
     private boolean secure;
     private ArrayList<String> routeSet;
-    private final Logger logger;
+    final Logger logger;
+    // set by the dialog manager if confirmed dialogs are journaled
+    StateJournal stateJournal;
 
     Dialog(String callId, String localTag, String remoteTag, Logger logger) {
         super();
@@ -60,42 +62,45 @@ public class Dialog {
         this.remoteTag = remoteTag;
         this.logger = logger;
 
-        INIT = new DialogStateInit(getId(), this, logger);
         state = INIT;
-        EARLY = new DialogStateEarly(getId(), this, logger);
-        CONFIRMED = new DialogStateConfirmed(getId(), this, logger);
-        TERMINATED = new DialogStateTerminated(getId(), this, logger);
 
         localCSeq = EMPTY_CSEQ;
         remoteCSeq = EMPTY_CSEQ;
     }
 
     public void receivedOrSent1xx() {
-        state.receivedOrSent101To199();
+        state.receivedOrSent101To199(this);
     }
 
     public void receivedOrSent2xx() {
-        state.receivedOrSent2xx();
+        state.receivedOrSent2xx(this);
     }
 
     public void receivedOrSent300To699() {
-        state.receivedOrSent300To699();
+        state.receivedOrSent300To699(this);
     }
 
     public void receivedOrSentBye() {
-        state.receivedOrSentBye();
+        state.receivedOrSentBye(this);
     }
 
     public void setState(DialogState state) {
-        this.state.log(state);
+        this.state.log(getId(), logger, state);
         this.state = state;
+        if (stateJournal != null) {
+            if (state == CONFIRMED) {
+                stateJournal.putDialog(this);
+            } else if (state == TERMINATED) {
+                stateJournal.removeDialog(this);
+            }
+        }
     }
 
     public SipRequest buildSubsequentRequest(String method) {
         //12.2.1.1
         SipURI sipUri;
         try {
-            sipUri = new SipURI(remoteTarget);
+            sipUri = SipURI.parse(remoteTarget);
         } catch (SipUriSyntaxException e) {
             throw new RuntimeException(e);
             //TODO check remote target when message is received
@@ -135,6 +140,10 @@ public class Dialog {
         }
         headers.add(new SipHeaderFieldName(RFC3261.HDR_CSEQ),
                 new SipHeaderFieldValue(localCSeq + " " + method));
+        // a resumed dialog must not reuse this CSeq
+        if (stateJournal != null && state == CONFIRMED) {
+            stateJournal.putDialog(this);
+        }
 
         //Route
 
@@ -0,0 +1,77 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transactionuser;
+
+import java.util.Objects;
+
+/**
+ * Dialog table key, RFC3261 12: Call-ID, local tag and remote tag.
+ * Immutable, its hash is computed once.
+ */
+final class DialogKey {
+
+    private final String callId;
+    private final String localTag;
+    private final String remoteTag;
+    private final int hash;
+
+    DialogKey(String callId, String localTag, String remoteTag) {
+        this.callId = callId;
+        this.localTag = localTag;
+        this.remoteTag = remoteTag;
+        hash = 31 * (31 * Objects.hashCode(callId)
+                + Objects.hashCode(localTag)) + Objects.hashCode(remoteTag);
+    }
+
+    static DialogKey of(Dialog dialog) {
+        return new DialogKey(dialog.getCallId(), dialog.getLocalTag(),
+                dialog.getRemoteTag());
+    }
+
+    String getCallId() {
+        return callId;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof DialogKey)) {
+            return false;
+        }
+        DialogKey other = (DialogKey)obj;
+        return hash == other.hash && Objects.equals(callId, other.callId)
+            && Objects.equals(localTag, other.localTag)
+            && Objects.equals(remoteTag, other.remoteTag);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return callId + Dialog.ID_SEPARATOR + localTag + Dialog.ID_SEPARATOR
+            + remoteTag;
+    }
+
+}
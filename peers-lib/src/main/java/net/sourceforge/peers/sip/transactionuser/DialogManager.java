@@ -19,11 +19,15 @@
 
 package net.sourceforge.peers.sip.transactionuser;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import net.sourceforge.peers.Logger;
-import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldValue;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderParamName;
@@ -33,13 +37,17 @@ import net.sourceforge.peers.sip.transport.SipResponse;
 
 
 public class DialogManager {
-    
-    private final Hashtable<String, Dialog> dialogs;
+
+    private final ConcurrentHashMap<DialogKey, Dialog> dialogs;
+    // dialogs by Call-ID, for lookups from challenges and GUIs
+    private final ConcurrentHashMap<String, List<Dialog>> dialogsByCallId;
     private final Logger logger;
+    private volatile StateJournal stateJournal;
     
     public DialogManager(Logger logger) {
         this.logger = logger;
-        dialogs = new Hashtable<>();
+        dialogs = new ConcurrentHashMap<>();
+        dialogsByCallId = new ConcurrentHashMap<>();
     }
 
     /**
@@ -47,68 +55,107 @@ public class DialogManager {
      *        From tag and a Call-ID
      * @return the new Dialog created
      */
-    public synchronized Dialog createDialog(SipResponse sipResponse) {
+    public Dialog createDialog(SipResponse sipResponse) {
         SipHeaders sipHeaders = sipResponse.getSipHeaders();
         String callID = sipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_CALLID)).toString();
+                SipHeaderFieldName.CALLID).toString();
         SipHeaderFieldValue from = sipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_FROM));
+                SipHeaderFieldName.FROM);
         SipHeaderFieldValue to = sipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_TO));
-        String fromTag = from.getParam(new SipHeaderParamName(RFC3261.PARAM_TAG));
-        String toTag = to.getParam(new SipHeaderParamName(RFC3261.PARAM_TAG));
+                SipHeaderFieldName.TO);
+        String fromTag = from.getParam(SipHeaderParamName.TAG);
+        String toTag = to.getParam(SipHeaderParamName.TAG);
         Dialog dialog;
-        if (sipHeaders.get(new SipHeaderFieldName(RFC3261.HDR_VIA)) == null) {
+        if (sipHeaders.get(SipHeaderFieldName.VIA) == null) {
             //createDialog is called from UAS side, in layer Transaction User
             dialog = new Dialog(callID, toTag, fromTag, logger);
         } else {
             //createDialog is called from UAC side, in syntax encoding layer
             dialog = new Dialog(callID, fromTag, toTag, logger);
         }
-        dialogs.put(dialog.getId(), dialog);
+        addDialog(dialog);
         return dialog;
     }
+
+    private void addDialog(Dialog dialog) {
+        dialog.stateJournal = stateJournal;
+        DialogKey dialogKey = DialogKey.of(dialog);
+        // atomic with removal of the last dialog of this Call-ID
+        dialogsByCallId.compute(dialogKey.getCallId(), (key, list) -> {
+            if (list == null) {
+                list = new CopyOnWriteArrayList<>();
+            }
+            Dialog previous = dialogs.put(dialogKey, dialog);
+            if (previous != null) {
+                list.remove(previous);
+            }
+            list.add(dialog);
+            return list;
+        });
+    }
     
-    public void removeDialog(String dialogId) {
-        dialogs.remove(dialogId);
+    public void removeDialog(Dialog dialog) {
+        DialogKey dialogKey = DialogKey.of(dialog);
+        if (!dialogs.remove(dialogKey, dialog)) {
+            return;
+        }
+        dialogsByCallId.computeIfPresent(dialogKey.getCallId(),
+                (key, list) -> {
+            list.remove(dialog);
+            return list.isEmpty() ? null : list;
+        });
+        StateJournal stateJournal = this.stateJournal;
+        if (stateJournal != null) {
+            stateJournal.removeDialog(dialog);
+        }
     }
 
-    public synchronized Dialog getDialog(SipMessage sipMessage) {
+    public Dialog getDialog(SipMessage sipMessage) {
         SipHeaders sipHeaders = sipMessage.getSipHeaders();
         String callID = sipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_CALLID)).toString();
+                SipHeaderFieldName.CALLID).toString();
         SipHeaderFieldValue from = sipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_FROM));
+                SipHeaderFieldName.FROM);
         SipHeaderFieldValue to = sipHeaders.get(
-                new SipHeaderFieldName(RFC3261.HDR_TO));
-        SipHeaderParamName tagName = new SipHeaderParamName(RFC3261.PARAM_TAG);
-        String fromTag = from.getParam(tagName);
-        String toTag = to.getParam(tagName);
-        Dialog dialog = dialogs.get(getDialogId(callID, fromTag, toTag));
+                SipHeaderFieldName.TO);
+        String fromTag = from.getParam(SipHeaderParamName.TAG);
+        String toTag = to.getParam(SipHeaderParamName.TAG);
+        Dialog dialog = dialogs.get(new DialogKey(callID, fromTag, toTag));
         if (dialog != null) {
             return dialog;
         }
-        return dialogs.get(getDialogId(callID, toTag, fromTag));
+        return dialogs.get(new DialogKey(callID, toTag, fromTag));
     }
 
-    public synchronized Dialog getDialog(String callId) {
-        for (Dialog dialog : dialogs.values()) {
-            if (dialog.getCallId().equals(callId)) {
-                return dialog;
-            }
+    /**
+     * @return a dialog of this Call-ID, null if there is none
+     */
+    public Dialog getDialog(String callId) {
+        List<Dialog> list = dialogsByCallId.get(callId);
+        if (list == null) {
+            return null;
         }
-        return null;
+        Iterator<Dialog> iterator = list.iterator();
+        return iterator.hasNext() ? iterator.next() : null;
     }
-    
-    private String getDialogId(String callID, String localTag, String remoteTag) {
-        return callID +
-                Dialog.ID_SEPARATOR +
-                localTag +
-                Dialog.ID_SEPARATOR +
-                remoteTag;
+
+    /**
+     * Resumes confirmed dialogs of the journal, and journals confirmed
+     * dialogs from now on.
+     */
+    public void setStateJournal(StateJournal stateJournal)
+            throws IOException {
+        this.stateJournal = stateJournal;
+        for (Dialog dialog : stateJournal.getDialogs(logger)) {
+            addDialog(dialog);
+        }
     }
-    
+
+    /**
+     * @return a snapshot of dialogs, it does not reflect dialogs created
+     *         or removed afterwards
+     */
     public Collection<Dialog> getDialogCollection() {
-        return dialogs.values();
+        return new ArrayList<>(dialogs.values());
     }
 }
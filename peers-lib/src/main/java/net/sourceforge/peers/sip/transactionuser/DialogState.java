@@ -19,31 +19,23 @@
 
 package net.sourceforge.peers.sip.transactionuser;
 
-import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.AbstractState;
 
 public abstract class DialogState extends AbstractState {
-
-    protected Dialog dialog;
-
-    protected DialogState(String id, Dialog dialog, Logger logger) {
-        super(id, logger);
-        this.dialog = dialog;
-    }
     
-    public void receivedOrSent101To199() {}
-    public void receivedOrSent2xx() {}
-    public void receivedOrSent300To699() {}
+    public void receivedOrSent101To199(Dialog dialog) {}
+    public void receivedOrSent2xx(Dialog dialog) {}
+    public void receivedOrSent300To699(Dialog dialog) {}
     //sent or received a BYE for RFC3261
-    public void receivedOrSentBye() {}
+    public void receivedOrSentBye(Dialog dialog) {}
 
 
-    protected void throwIllegalStateException() {
-        logInvalidTransition(id);
+    protected void throwIllegalStateException(Dialog dialog) {
+        logInvalidTransition(dialog);
         throw new IllegalStateException();
     }
 
-    protected void logInvalidTransition(String id) {
-        logger.error(id + " invalid transition");
+    protected void logInvalidTransition(Dialog dialog) {
+        dialog.logger.error(dialog.getId() + " invalid transition");
     }
 }
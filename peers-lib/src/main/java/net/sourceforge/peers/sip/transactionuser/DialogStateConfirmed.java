@@ -19,32 +19,26 @@
 
 package net.sourceforge.peers.sip.transactionuser;
 
-import net.sourceforge.peers.Logger;
-
 public class DialogStateConfirmed extends DialogState {
 
-    public DialogStateConfirmed(String id, Dialog dialog, Logger logger) {
-        super(id, dialog, logger);
-    }
-
     @Override
-    public void receivedOrSent101To199() {
-        throwIllegalStateException();
+    public void receivedOrSent101To199(Dialog dialog) {
+        throwIllegalStateException(dialog);
     }
 
     @Override
-    public void receivedOrSent2xx() {
-        throwIllegalStateException();
+    public void receivedOrSent2xx(Dialog dialog) {
+        throwIllegalStateException(dialog);
     }
 
     @Override
-    public void receivedOrSent300To699() {
-        throwIllegalStateException();
+    public void receivedOrSent300To699(Dialog dialog) {
+        throwIllegalStateException(dialog);
     }
 
     @Override
-    public void receivedOrSentBye() {
-        DialogState nextState = dialog.TERMINATED;
+    public void receivedOrSentBye(Dialog dialog) {
+        DialogState nextState = Dialog.TERMINATED;
         dialog.setState(nextState);
     }
 
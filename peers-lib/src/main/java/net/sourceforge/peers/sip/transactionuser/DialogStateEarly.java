@@ -19,35 +19,28 @@
 
 package net.sourceforge.peers.sip.transactionuser;
 
-import net.sourceforge.peers.Logger;
-
 public class DialogStateEarly extends DialogState {
     
-    public DialogStateEarly(String id, Dialog dialog, Logger logger) {
-        super(id, dialog, logger);
-    }
-    
     @Override
-    public void receivedOrSent101To199() {
-        DialogState nextState = dialog.EARLY;
+    public void receivedOrSent101To199(Dialog dialog) {
+        DialogState nextState = Dialog.EARLY;
         dialog.setState(nextState);
     }
     
     @Override
-    public void receivedOrSent2xx() {
-        DialogState nextState = dialog.CONFIRMED;
+    public void receivedOrSent2xx(Dialog dialog) {
+        DialogState nextState = Dialog.CONFIRMED;
         dialog.setState(nextState);
     }
     
     @Override
-    public void receivedOrSent300To699() {
-        DialogState nextState = dialog.TERMINATED;
+    public void receivedOrSent300To699(Dialog dialog) {
+        DialogState nextState = Dialog.TERMINATED;
         dialog.setState(nextState);
     }
     
     @Override
-    public void receivedOrSentBye() {
-        logger.error(id + " invalid transition");
-        throw new IllegalStateException();
+    public void receivedOrSentBye(Dialog dialog) {
+        throwIllegalStateException(dialog);
     }
 }
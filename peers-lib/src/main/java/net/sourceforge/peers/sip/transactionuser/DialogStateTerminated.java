@@ -19,31 +19,25 @@
 
 package net.sourceforge.peers.sip.transactionuser;
 
-import net.sourceforge.peers.Logger;
-
 public class DialogStateTerminated extends DialogState {
 
-    public DialogStateTerminated(String id, Dialog dialog, Logger logger) {
-        super(id, dialog, logger);
-    }
-
     @Override
-    public void receivedOrSent101To199() {
-        throwIllegalStateException();
+    public void receivedOrSent101To199(Dialog dialog) {
+        throwIllegalStateException(dialog);
     }
 
     @Override
-    public void receivedOrSent2xx() {
-        throwIllegalStateException();
+    public void receivedOrSent2xx(Dialog dialog) {
+        throwIllegalStateException(dialog);
     }
 
     @Override
-    public void receivedOrSent300To699() {
-        throwIllegalStateException();
+    public void receivedOrSent300To699(Dialog dialog) {
+        throwIllegalStateException(dialog);
     }
 
     @Override
-    public void receivedOrSentBye() {
+    public void receivedOrSentBye(Dialog dialog) {
         //ignore bye retransmissions
 //        logger.error(id + " invalid transition");
 //        throw new IllegalStateException();
@@ -0,0 +1,533 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transactionuser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import net.sourceforge.peers.Logger;
+
+/**
+ * Journal of confirmed dialogs and registration bindings, so that a
+ * restarted user agent resumes them instead of registering again. Changes
+ * are appended to a memory-mapped file and survive a crash of the process.
+ * Two files alternate: live records are compacted into the inactive one,
+ * which becomes active once complete, so a crash during compaction leaves
+ * the previous file intact.
+ */
+public class StateJournal {
+
+    public static final int DEFAULT_CAPACITY = 1024 * 1024; // bytes
+    public static final long COMPACTION_PERIOD = 60 * 1000; // milliseconds
+
+    private static final int MAGIC = 0x50534a31;
+    // magic and generation
+    private static final int HEADER_SIZE = 12;
+    // payload length and CRC32
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final byte DIALOG = 1;
+    private static final byte BINDING = 2;
+    private static final byte REMOVED = 3;
+
+    private final File[] files;
+    private final int initialCapacity;
+    private final Logger logger;
+    // payloads of live records by key, a removal drops the record
+    private final LinkedHashMap<String, byte[]> records;
+    // compaction writes and forces whole files, it has its own thread
+    private final ScheduledExecutorService compactor;
+    // mappings are kept, a mapped file is never truncated
+    private final MappedByteBuffer[] buffers;
+    private MappedByteBuffer buffer;
+    private int active;
+    private long generation;
+    // size of live records in the journal
+    private int liveBytes;
+    // the active file is full, changes are only in memory until compaction
+    private boolean compactionPending;
+    private boolean closed;
+
+    public StateJournal(File file, Logger logger) throws IOException {
+        this(file, DEFAULT_CAPACITY, logger);
+    }
+
+    /**
+     * @param file prefix of the two journal files
+     * @param capacity initial size of a journal file, it grows when live
+     *        records fill half of it
+     */
+    public StateJournal(File file, int capacity, Logger logger)
+            throws IOException {
+        files = new File[] {
+            new File(file.getPath() + ".0"),
+            new File(file.getPath() + ".1")
+        };
+        initialCapacity = capacity;
+        this.logger = logger;
+        records = new LinkedHashMap<>();
+        buffers = new MappedByteBuffer[files.length];
+        active = -1;
+        for (int i = 0; i < files.length; ++i) {
+            long fileGeneration = readGeneration(files[i]);
+            if (fileGeneration > generation) {
+                generation = fileGeneration;
+                active = i;
+            }
+        }
+        if (active < 0) {
+            active = 0;
+            buffer = map(files[active], capacity);
+            buffer.position(HEADER_SIZE);
+            clearTail(buffer);
+            writeHeader(buffer, ++generation);
+        } else {
+            buffer = map(files[active], (int)files[active].length());
+            replay();
+            clearTail(buffer);
+        }
+        buffers[active] = buffer;
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable,
+                    StateJournal.class.getSimpleName() + " compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(new Compactor(), COMPACTION_PERIOD,
+                COMPACTION_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    //////////////////////////////////////////////////////////
+    // dialogs
+    //////////////////////////////////////////////////////////
+
+    synchronized void putDialog(Dialog dialog) {
+        try {
+            put(dialogKey(dialog), encode(dialog));
+        } catch (IOException e) {
+            logger.error("state journal error", e);
+        }
+    }
+
+    synchronized void removeDialog(Dialog dialog) {
+        try {
+            remove(dialogKey(dialog));
+        } catch (IOException e) {
+            logger.error("state journal error", e);
+        }
+    }
+
+    /**
+     * @return confirmed dialogs of the journal, not yet journaled again
+     */
+    synchronized List<Dialog> getDialogs(Logger dialogLogger)
+            throws IOException {
+        List<Dialog> dialogs = new ArrayList<>();
+        for (byte[] payload : records.values()) {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(payload));
+            if (in.readByte() != DIALOG) {
+                continue;
+            }
+            in.readUTF();
+            Dialog dialog = new Dialog(readString(in), readString(in),
+                    readString(in), dialogLogger);
+            dialog.setLocalCSeq(in.readInt());
+            dialog.setRemoteCSeq(in.readInt());
+            dialog.setLocalUri(readString(in));
+            dialog.setRemoteUri(readString(in));
+            dialog.setRemoteTarget(readString(in));
+            dialog.setSecure(in.readBoolean());
+            int routes = in.readInt();
+            if (routes >= 0) {
+                ArrayList<String> routeSet = new ArrayList<>(routes);
+                for (int i = 0; i < routes; ++i) {
+                    routeSet.add(in.readUTF());
+                }
+                dialog.setRouteSet(routeSet);
+            }
+            dialog.setState(Dialog.CONFIRMED);
+            dialogs.add(dialog);
+        }
+        return dialogs;
+    }
+
+    private static String dialogKey(Dialog dialog) {
+        return "D" + dialog.getId();
+    }
+
+    private static byte[] encode(Dialog dialog) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DIALOG);
+        out.writeUTF(dialogKey(dialog));
+        writeString(out, dialog.getCallId());
+        writeString(out, dialog.getLocalTag());
+        writeString(out, dialog.getRemoteTag());
+        out.writeInt(dialog.getLocalCSeq());
+        out.writeInt(dialog.getRemoteCSeq());
+        writeString(out, dialog.getLocalUri());
+        writeString(out, dialog.getRemoteUri());
+        writeString(out, dialog.getRemoteTarget());
+        out.writeBoolean(dialog.isSecure());
+        List<String> routeSet = dialog.getRouteSet();
+        if (routeSet == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(routeSet.size());
+            for (String route : routeSet) {
+                out.writeUTF(route);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    //////////////////////////////////////////////////////////
+    // registration bindings
+    //////////////////////////////////////////////////////////
+
+    public synchronized void putBinding(Binding binding) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(BINDING);
+            out.writeUTF(bindingKey(binding.profileUri));
+            out.writeUTF(binding.profileUri);
+            out.writeUTF(binding.requestUri);
+            out.writeUTF(binding.callId);
+            out.writeInt(binding.cseq);
+            out.writeLong(binding.refreshTime);
+            put(bindingKey(binding.profileUri), bytes.toByteArray());
+        } catch (IOException e) {
+            logger.error("state journal error", e);
+        }
+    }
+
+    public synchronized void removeBinding(String profileUri) {
+        try {
+            remove(bindingKey(profileUri));
+        } catch (IOException e) {
+            logger.error("state journal error", e);
+        }
+    }
+
+    public synchronized List<Binding> getBindings() {
+        List<Binding> bindings = new ArrayList<>();
+        for (byte[] payload : records.values()) {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(payload));
+            try {
+                if (in.readByte() != BINDING) {
+                    continue;
+                }
+                in.readUTF();
+                bindings.add(new Binding(in.readUTF(), in.readUTF(),
+                        in.readUTF(), in.readInt(), in.readLong()));
+            } catch (IOException e) {
+                logger.error("state journal error", e);
+            }
+        }
+        return bindings;
+    }
+
+    private static String bindingKey(String profileUri) {
+        return "R" + profileUri;
+    }
+
+    //////////////////////////////////////////////////////////
+    // journal files
+    //////////////////////////////////////////////////////////
+
+    private void put(String key, byte[] payload) throws IOException {
+        byte[] previous = records.put(key, payload);
+        if (previous != null) {
+            liveBytes -= RECORD_HEADER_SIZE + previous.length;
+        }
+        liveBytes += RECORD_HEADER_SIZE + payload.length;
+        append(payload);
+    }
+
+    private void remove(String key) throws IOException {
+        byte[] previous = records.remove(key);
+        if (previous == null) {
+            return;
+        }
+        liveBytes -= RECORD_HEADER_SIZE + previous.length;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(REMOVED);
+        out.writeUTF(key);
+        append(bytes.toByteArray());
+    }
+
+    private void append(byte[] payload) {
+        if (buffer.remaining() >= RECORD_HEADER_SIZE + payload.length) {
+            write(buffer, payload);
+        } else if (!compactionPending && !closed) {
+            // live records, written by compaction, include this change
+            compactionPending = true;
+            compactor.execute(new Compactor());
+        }
+    }
+
+    /**
+     * Writes live records to the inactive file, which becomes the active
+     * one. Its capacity is doubled until live records fill at most half of
+     * it.
+     */
+    synchronized void compact() throws IOException {
+        int capacity = initialCapacity;
+        while (capacity < 2 * (HEADER_SIZE + liveBytes)) {
+            capacity *= 2;
+        }
+        int target = 1 - active;
+        MappedByteBuffer compacted = buffers[target];
+        if (compacted == null || compacted.capacity() < capacity) {
+            compacted = map(files[target], capacity);
+            buffers[target] = compacted;
+        }
+        // invalid until complete
+        compacted.putInt(0, 0);
+        compacted.position(HEADER_SIZE);
+        for (byte[] payload : records.values()) {
+            write(compacted, payload);
+        }
+        clearTail(compacted);
+        compacted.force();
+        writeHeader(compacted, generation + 1);
+        compacted.force();
+        buffer = compacted;
+        active = target;
+        ++generation;
+        compactionPending = false;
+    }
+
+    public synchronized void close() {
+        closed = true;
+        compactor.shutdown();
+        if (compactionPending) {
+            try {
+                compact();
+            } catch (IOException e) {
+                logger.error("state journal error", e);
+            }
+        }
+        buffer.force();
+    }
+
+    /**
+     * @return bytes used in the active journal file
+     */
+    synchronized int getLength() {
+        return buffer.position();
+    }
+
+    private void replay() throws IOException {
+        buffer.position(HEADER_SIZE);
+        CRC32 crc32 = new CRC32();
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length == 0) {
+                buffer.position(start);
+                return;
+            }
+            byte[] payload = null;
+            if (length > 0 && length <= buffer.remaining()) {
+                payload = new byte[length];
+                buffer.get(payload);
+                crc32.reset();
+                crc32.update(payload);
+            }
+            if (payload == null || (int)crc32.getValue() != checksum) {
+                // torn write, records following it are lost
+                logger.error("state journal " + files[active]
+                        + " truncated at " + start);
+                buffer.position(start);
+                return;
+            }
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(payload));
+            byte type = in.readByte();
+            String key = in.readUTF();
+            if (type == REMOVED) {
+                byte[] previous = records.remove(key);
+                if (previous != null) {
+                    liveBytes -= RECORD_HEADER_SIZE + previous.length;
+                }
+            } else {
+                byte[] previous = records.put(key, payload);
+                if (previous != null) {
+                    liveBytes -= RECORD_HEADER_SIZE + previous.length;
+                }
+                liveBytes += RECORD_HEADER_SIZE + payload.length;
+            }
+        }
+    }
+
+    private static void write(MappedByteBuffer buffer, byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload);
+        buffer.putInt(payload.length);
+        buffer.putInt((int)crc32.getValue());
+        buffer.put(payload);
+    }
+
+    private static void writeHeader(MappedByteBuffer buffer,
+            long generation) {
+        buffer.putLong(4, generation);
+        buffer.putInt(0, MAGIC);
+    }
+
+    // leftovers of a torn write or of a previous use of the file must not
+    // be read as records
+    private static void clearTail(MappedByteBuffer buffer) {
+        for (int i = buffer.position(); i < buffer.capacity(); ++i) {
+            buffer.put(i, (byte)0);
+        }
+    }
+
+    /**
+     * Maps the whole file, at least size bytes. A file is never truncated:
+     * it may still be mapped, which forbids it on Windows, records beyond
+     * the last valid one are cleared instead.
+     */
+    private static MappedByteBuffer map(File file, int size)
+            throws IOException {
+        try (RandomAccessFile randomAccessFile =
+                new RandomAccessFile(file, "rw")) {
+            return randomAccessFile.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(size, randomAccessFile.length()));
+        }
+    }
+
+    /**
+     * @return 0 if the file is missing or incomplete
+     */
+    private static long readGeneration(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                return 0;
+            }
+            return in.readLong();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string)
+            throws IOException {
+        out.writeBoolean(string != null);
+        if (string != null) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    class Compactor implements Runnable {
+        @Override
+        public void run() {
+            synchronized (StateJournal.this) {
+                if (closed) {
+                    return;
+                }
+                // the journal is full, or more than half of it is obsolete
+                // records
+                if (compactionPending
+                        || buffer.position() > 2 * (HEADER_SIZE + liveBytes)) {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        logger.error("state journal error", e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Registration binding, its refresh time is wall clock time so that
+     * it is meaningful after a restart.
+     */
+    public static class Binding {
+
+        private final String profileUri;
+        private final String requestUri;
+        private final String callId;
+        private final int cseq;
+        private final long refreshTime;
+
+        public Binding(String profileUri, String requestUri, String callId,
+                int cseq, long refreshTime) {
+            this.profileUri = profileUri;
+            this.requestUri = requestUri;
+            this.callId = callId;
+            this.cseq = cseq;
+            this.refreshTime = refreshTime;
+        }
+
+        public String getProfileUri() {
+            return profileUri;
+        }
+
+        public String getRequestUri() {
+            return requestUri;
+        }
+
+        public String getCallId() {
+            return callId;
+        }
+
+        public int getCSeq() {
+            return cseq;
+        }
+
+        /**
+         * @return System.currentTimeMillis() of the scheduled refresh
+         */
+        public long getRefreshTime() {
+            return refreshTime;
+        }
+
+    }
+
+}
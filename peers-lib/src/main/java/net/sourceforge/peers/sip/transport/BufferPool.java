@@ -0,0 +1,88 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2007-2013 Yohann Martineau
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of receive buffers. When the pool is empty a new buffer is
+ * allocated, when it is full a released buffer is left to the garbage
+ * collector.
+ */
+public class BufferPool {
+
+    private final int bufferSize;
+    private final BlockingQueue<PooledBuffer> buffers;
+    private final AtomicLong allocations;
+
+    public BufferPool(int bufferSize, int capacity) {
+        this.bufferSize = bufferSize;
+        buffers = new ArrayBlockingQueue<>(capacity);
+        allocations = new AtomicLong();
+    }
+
+    public PooledBuffer acquire() {
+        PooledBuffer pooledBuffer = buffers.poll();
+        if (pooledBuffer == null) {
+            pooledBuffer = new PooledBuffer(this, bufferSize);
+            allocations.incrementAndGet();
+        }
+        pooledBuffer.reset();
+        return pooledBuffer;
+    }
+
+    /**
+     * Messages larger than the pooled buffers, e.g. framed from a stream,
+     * get a buffer of their own which is not recycled.
+     */
+    public PooledBuffer acquire(int size) {
+        if (size <= bufferSize) {
+            return acquire();
+        }
+        PooledBuffer pooledBuffer = new PooledBuffer(this, size);
+        allocations.incrementAndGet();
+        pooledBuffer.reset();
+        return pooledBuffer;
+    }
+
+    void recycle(PooledBuffer pooledBuffer) {
+        if (pooledBuffer.getData().length == bufferSize) {
+            buffers.offer(pooledBuffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getAvailableBuffers() {
+        return buffers.size();
+    }
+
+    /**
+     * @return number of buffers allocated since the pool creation
+     */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.util.Collections;
+import java.util.List;
+
+public class DnsAnswer<T> {
+
+    public static final int UNKNOWN_TTL = -1;
+
+    private final List<T> records;
+    private final int ttl; // seconds
+
+    public DnsAnswer(List<T> records, int ttl) {
+        this.records = Collections.unmodifiableList(records);
+        this.ttl = ttl;
+    }
+
+    public static <T> DnsAnswer<T> empty(int ttl) {
+        return new DnsAnswer<>(Collections.<T>emptyList(), ttl);
+    }
+
+    public List<T> getRecords() {
+        return records;
+    }
+
+    public int getTtl() {
+        return ttl;
+    }
+
+    public boolean isEmpty() {
+        return records.isEmpty();
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * Source of DNS records for {@link SipResolver}. A name that does not exist
+ * or has no record of the requested type gives an empty answer, failures to
+ * reach a name server are reported as IOException.
+ */
+public interface DnsBackend {
+
+    DnsAnswer<NaptrRecord> lookupNaptr(String domain) throws IOException;
+
+    DnsAnswer<SrvRecord> lookupSrv(String name) throws IOException;
+
+    DnsAnswer<InetAddress> lookupAddresses(String host) throws IOException;
+
+}
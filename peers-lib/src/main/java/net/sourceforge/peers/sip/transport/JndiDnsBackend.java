@@ -0,0 +1,193 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+/**
+ * Queries the system name servers through the JNDI DNS provider. JNDI does
+ * not give record TTLs, answers are returned with {@link #DEFAULT_TTL} and
+ * {@link #NEGATIVE_TTL}. A and AAAA records go through InetAddress, and
+ * thus through the JVM address cache and the hosts file.
+ */
+public class JndiDnsBackend implements DnsBackend {
+
+    public static final int DEFAULT_TTL = 300; // seconds
+    public static final int NEGATIVE_TTL = 30; // seconds
+    public static final int QUERY_TIMEOUT = 1000; // milliseconds
+    public static final int QUERY_RETRIES = 2;
+
+    private static final String TYPE_NAPTR = "NAPTR";
+    private static final String TYPE_SRV = "SRV";
+
+    private final Hashtable<String, String> environment;
+
+    public JndiDnsBackend() {
+        environment = new Hashtable<>();
+        environment.put(DirContext.INITIAL_CONTEXT_FACTORY,
+                "com.sun.jndi.dns.DnsContextFactory");
+        environment.put(DirContext.PROVIDER_URL, "dns:");
+        environment.put("com.sun.jndi.dns.timeout.initial",
+                String.valueOf(QUERY_TIMEOUT));
+        environment.put("com.sun.jndi.dns.timeout.retries",
+                String.valueOf(QUERY_RETRIES));
+    }
+
+    @Override
+    public DnsAnswer<NaptrRecord> lookupNaptr(String domain)
+            throws IOException {
+        List<NaptrRecord> records = new ArrayList<>();
+        for (String value : lookup(domain, TYPE_NAPTR)) {
+            // order preference flags service regexp replacement
+            List<String> fields = split(value);
+            if (fields.size() != 6) {
+                continue;
+            }
+            try {
+                records.add(new NaptrRecord(Integer.parseInt(fields.get(0)),
+                        Integer.parseInt(fields.get(1)), fields.get(2),
+                        fields.get(3), stripDot(fields.get(5))));
+            } catch (NumberFormatException e) {
+                // skip malformed record
+            }
+        }
+        return answer(records);
+    }
+
+    @Override
+    public DnsAnswer<SrvRecord> lookupSrv(String name) throws IOException {
+        List<SrvRecord> records = new ArrayList<>();
+        for (String value : lookup(name, TYPE_SRV)) {
+            // priority weight port target
+            List<String> fields = split(value);
+            if (fields.size() != 4) {
+                continue;
+            }
+            try {
+                records.add(new SrvRecord(Integer.parseInt(fields.get(0)),
+                        Integer.parseInt(fields.get(1)),
+                        Integer.parseInt(fields.get(2)),
+                        stripDot(fields.get(3))));
+            } catch (NumberFormatException e) {
+                // skip malformed record
+            }
+        }
+        return answer(records);
+    }
+
+    @Override
+    public DnsAnswer<InetAddress> lookupAddresses(String host)
+            throws IOException {
+        try {
+            return answer(Arrays.asList(InetAddress.getAllByName(host)));
+        } catch (UnknownHostException e) {
+            return DnsAnswer.empty(NEGATIVE_TTL);
+        }
+    }
+
+    private List<String> lookup(String name, String type) throws IOException {
+        List<String> values = new ArrayList<>();
+        DirContext dirContext = null;
+        try {
+            dirContext = new InitialDirContext(environment);
+            Attributes attributes = dirContext.getAttributes(name,
+                    new String[] { type });
+            Attribute attribute = attributes.get(type);
+            if (attribute != null) {
+                NamingEnumeration<?> enumeration = attribute.getAll();
+                while (enumeration.hasMore()) {
+                    values.add(String.valueOf(enumeration.next()));
+                }
+            }
+        } catch (NameNotFoundException e) {
+            // no such domain, empty answer
+        } catch (NamingException e) {
+            throw new IOException("DNS " + type + " query failed for "
+                    + name, e);
+        } finally {
+            if (dirContext != null) {
+                try {
+                    dirContext.close();
+                } catch (NamingException e) {
+                    // nothing to release
+                }
+            }
+        }
+        return values;
+    }
+
+    private <T> DnsAnswer<T> answer(List<T> records) {
+        if (records.isEmpty()) {
+            return DnsAnswer.empty(NEGATIVE_TTL);
+        }
+        return new DnsAnswer<>(records, DEFAULT_TTL);
+    }
+
+    // fields are separated by spaces, character strings may be quoted
+    static List<String> split(String value) {
+        List<String> fields = new ArrayList<>();
+        int i = 0;
+        int length = value.length();
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c == ' ') {
+                ++i;
+            } else if (c == '"') {
+                int end = value.indexOf('"', i + 1);
+                if (end < 0) {
+                    end = length;
+                }
+                fields.add(value.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int end = value.indexOf(' ', i);
+                if (end < 0) {
+                    end = length;
+                }
+                fields.add(value.substring(i, end));
+                i = end;
+            }
+        }
+        return fields;
+    }
+
+    private static String stripDot(String name) {
+        if (name.endsWith(".")) {
+            return name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+
+}
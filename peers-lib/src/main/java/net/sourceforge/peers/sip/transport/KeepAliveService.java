@@ -0,0 +1,146 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends keep-alives on all flows from the housekeeping timer of the
+ * transport manager. Flows are checked once per tick, each flow gets its
+ * own period randomly chosen between 80% and 100% of the keep-alive
+ * interval (RFC5626 4.4.1) so that keep-alives are not sent in bursts. A
+ * flow which carried SIP messages during its last period does not need a
+ * keep-alive, pings and pongs are not counted as traffic.
+ */
+public class KeepAliveService {
+
+    public static final int KEEP_ALIVE_INTERVAL =
+            1000 * MessageSender.KEEY_ALIVE_INTERVAL; // milliseconds
+    public static final int TICK = 1000; // milliseconds
+
+    static final byte[] PING = (RFC3261.CRLF + RFC3261.CRLF)
+            .getBytes(StandardCharsets.US_ASCII);
+    static final byte[] PONG = RFC3261.CRLF.getBytes(StandardCharsets.US_ASCII);
+
+    // next keep-alive due date of each flow
+    private final Map<MessageSender, Long> flows;
+    private final Logger logger;
+    private final AtomicLong keepAlivesSent;
+    private final AtomicLong keepAlivesSkipped;
+    private final AtomicLong pongsReceived;
+    private volatile int keepAliveInterval;
+
+    public KeepAliveService(Logger logger) {
+        this.logger = logger;
+        flows = new ConcurrentHashMap<>();
+        keepAlivesSent = new AtomicLong();
+        keepAlivesSkipped = new AtomicLong();
+        pongsReceived = new AtomicLong();
+        keepAliveInterval = KEEP_ALIVE_INTERVAL;
+    }
+
+    public void add(MessageSender messageSender) {
+        flows.put(messageSender, System.currentTimeMillis() + nextPeriod());
+    }
+
+    public void remove(MessageSender messageSender) {
+        flows.remove(messageSender);
+    }
+
+    void tick(long now) {
+        for (Map.Entry<MessageSender, Long> flow : flows.entrySet()) {
+            Long due = flow.getValue();
+            if (due > now) {
+                continue;
+            }
+            MessageSender messageSender = flow.getKey();
+            if (messageSender.isKeepAliveStopped()) {
+                flows.remove(messageSender);
+                continue;
+            }
+            long period = nextPeriod();
+            long lastActivity = messageSender.getLastActivity();
+            if (now - lastActivity < period) {
+                keepAlivesSkipped.incrementAndGet();
+                // replace, a removed flow must not come back
+                flows.replace(messageSender, due, lastActivity + period);
+                continue;
+            }
+            try {
+                messageSender.sendBytes(PING);
+                keepAlivesSent.incrementAndGet();
+            } catch (IOException e) {
+                logger.error("cannot send keep-alive", e);
+            }
+            flows.replace(messageSender, due, now + period);
+        }
+    }
+
+    private long nextPeriod() {
+        int interval = keepAliveInterval;
+        return interval - ThreadLocalRandom.current().nextInt(interval / 5 + 1);
+    }
+
+    /**
+     * A pong answers our own ping, it is not activity of the flow.
+     *
+     * @param messageSender flow on which the pong arrived, null if unknown
+     */
+    public void pongReceived(MessageSender messageSender) {
+        pongsReceived.incrementAndGet();
+    }
+
+    public void close() {
+        flows.clear();
+    }
+
+    public int getFlows() {
+        return flows.size();
+    }
+
+    public long getKeepAlivesSent() {
+        return keepAlivesSent.get();
+    }
+
+    public long getKeepAlivesSkipped() {
+        return keepAlivesSkipped.get();
+    }
+
+    public long getPongsReceived() {
+        return pongsReceived.get();
+    }
+
+    public int getKeepAliveInterval() {
+        return keepAliveInterval;
+    }
+
+    public void setKeepAliveInterval(int keepAliveInterval) {
+        this.keepAliveInterval = keepAliveInterval;
+    }
+
+}
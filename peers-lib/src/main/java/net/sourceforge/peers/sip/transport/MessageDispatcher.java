@@ -0,0 +1,259 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderScanner;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves message processing off the receive threads. Received buffers are
+ * handed to a worker chosen by a hash of the Call-ID, so that messages of a
+ * dialog are processed in order by one thread while a slow listener only
+ * delays the dialogs sharing its worker. Queues are bounded. A datagram is
+ * dropped when its worker queue is full, the sender retransmits it. Stream
+ * transports do not retransmit: the receive thread waits for room, which
+ * stops reading the connection and throttles the peer, and the message is
+ * only dropped when no room is available within the stream timeout.
+ */
+public class MessageDispatcher {
+
+    public static final int QUEUE_CAPACITY = 1024;
+    public static final long STREAM_TIMEOUT = 10000; // milliseconds
+
+    private final Worker[] workers;
+    private final Logger logger;
+    private final AtomicLong dispatched;
+    private final AtomicLong dropped;
+    private final AtomicInteger queueDepth;
+    private volatile long streamTimeout;
+
+    public MessageDispatcher(int threads, int queueCapacity, Logger logger) {
+        this.logger = logger;
+        dispatched = new AtomicLong();
+        dropped = new AtomicLong();
+        queueDepth = new AtomicInteger();
+        streamTimeout = STREAM_TIMEOUT;
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Worker(queueCapacity);
+            new Thread(workers[i], getClass().getSimpleName() + " " + i)
+                    .start();
+        }
+    }
+
+    /**
+     * The buffer is retained until processed, the caller keeps its own
+     * reference and releases it as usual. Messages received on a stream
+     * transport wait for room in the worker queue.
+     *
+     * @param receiveTime System.nanoTime() when the message was received
+     * @return false if the message was dropped
+     */
+    public boolean dispatch(MessageReceiver messageReceiver,
+            PooledBuffer buffer, InetAddress sourceIp, int sourcePort,
+            String transport, long receiveTime) {
+        int hash = SipHeaderScanner.callIdHash(buffer.getData(), 0,
+                buffer.getLength());
+        if (hash == 0) {
+            // keep-alives and malformed messages
+            hash = 31 * sourceIp.hashCode() + sourcePort;
+        }
+        Worker worker = workers[Math.floorMod(hash, workers.length)];
+        Task task = new Task(messageReceiver, buffer.retain(), sourceIp,
+                sourcePort, transport, receiveTime);
+        queueDepth.incrementAndGet();
+        if (!offer(worker, task)) {
+            queueDepth.decrementAndGet();
+            buffer.release();
+            dropped.incrementAndGet();
+            logger.error("dispatch queue full, message from "
+                    + sourceIp.getHostAddress() + "/" + sourcePort
+                    + " dropped");
+            return false;
+        }
+        worker.updateMaxQueueDepth();
+        dispatched.incrementAndGet();
+        return true;
+    }
+
+    private boolean offer(Worker worker, Task task) {
+        if (RFC3261.TRANSPORT_UDP.equals(task.transport)) {
+            return worker.queue.offer(task);
+        }
+        try {
+            return worker.queue.offer(task, streamTimeout,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void close() {
+        for (Worker worker : workers) {
+            worker.close();
+        }
+    }
+
+    public int getWorkers() {
+        return workers.length;
+    }
+
+    /**
+     * @return number of messages waiting in each worker queue
+     */
+    public int[] getQueueDepths() {
+        int[] queueDepths = new int[workers.length];
+        for (int i = 0; i < workers.length; ++i) {
+            queueDepths[i] = workers[i].queue.size();
+        }
+        return queueDepths;
+    }
+
+    /**
+     * @return number of messages waiting in all worker queues
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return highest queue depth seen by any worker
+     */
+    public int getMaxQueueDepth() {
+        int maxQueueDepth = 0;
+        for (Worker worker : workers) {
+            maxQueueDepth = Math.max(maxQueueDepth, worker.maxQueueDepth);
+        }
+        return maxQueueDepth;
+    }
+
+    public long getDispatched() {
+        return dispatched.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getStreamTimeout() {
+        return streamTimeout;
+    }
+
+    /**
+     * @param streamTimeout milliseconds a stream message waits for room in
+     *        a full worker queue before it is dropped
+     */
+    public void setStreamTimeout(long streamTimeout) {
+        this.streamTimeout = streamTimeout;
+    }
+
+    static class Task {
+
+        final MessageReceiver messageReceiver;
+        final PooledBuffer buffer;
+        final InetAddress sourceIp;
+        final int sourcePort;
+        final String transport;
+        final long receiveTime;
+
+        Task(MessageReceiver messageReceiver, PooledBuffer buffer,
+                InetAddress sourceIp, int sourcePort, String transport,
+                long receiveTime) {
+            this.messageReceiver = messageReceiver;
+            this.buffer = buffer;
+            this.sourceIp = sourceIp;
+            this.sourcePort = sourcePort;
+            this.transport = transport;
+            this.receiveTime = receiveTime;
+        }
+
+    }
+
+    class Worker implements Runnable {
+
+        private final BlockingQueue<Task> queue;
+        private volatile int maxQueueDepth;
+        private volatile boolean running;
+        private Thread thread;
+
+        Worker(int queueCapacity) {
+            queue = new ArrayBlockingQueue<>(queueCapacity);
+            running = true;
+        }
+
+        void updateMaxQueueDepth() {
+            int queueDepth = queue.size();
+            if (queueDepth > maxQueueDepth) {
+                maxQueueDepth = queueDepth;
+            }
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            while (running) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                queueDepth.decrementAndGet();
+                try {
+                    task.messageReceiver.processMessage(task.buffer,
+                            task.sourceIp, task.sourcePort, task.transport,
+                            task.receiveTime);
+                } catch (IOException e) {
+                    logger.error("input/output error", e);
+                } catch (RuntimeException e) {
+                    logger.error("cannot process message", e);
+                } finally {
+                    task.buffer.release();
+                }
+            }
+            Task task;
+            while ((task = queue.poll()) != null) {
+                queueDepth.decrementAndGet();
+                task.buffer.release();
+            }
+        }
+
+        synchronized void close() {
+            running = false;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+    }
+
+}
@@ -19,19 +19,20 @@
 
 package net.sourceforge.peers.sip.transport;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import net.sourceforge.peers.Config;
 import net.sourceforge.peers.Logger;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.Utils;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldValue;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderParamName;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaders;
 import net.sourceforge.peers.sip.syntaxencoding.SipParserException;
 import net.sourceforge.peers.sip.transaction.ClientTransaction;
 import net.sourceforge.peers.sip.transaction.ServerTransaction;
@@ -41,6 +42,9 @@ public abstract class MessageReceiver implements Runnable {
 
     public static final int BUFFER_SIZE = 2048;//FIXME should correspond to MTU 1024;
     public static final String CHARACTER_ENCODING = "US-ASCII";
+
+    private static final byte[] SIP_VERSION =
+        RFC3261.DEFAULT_SIP_VERSION.getBytes(StandardCharsets.US_ASCII);
     
     protected int port;
     private boolean isListening;
@@ -48,8 +52,9 @@ public abstract class MessageReceiver implements Runnable {
     //private UAS uas;
     private SipServerTransportUser sipServerTransportUser;
     private final TransactionManager transactionManager;
-    private final TransportManager transportManager;
+    protected final TransportManager transportManager;
     private final Config config;
+    protected final BufferPool bufferPool;
     protected Logger logger;
 
     protected MessageReceiver(int port, TransactionManager transactionManager,
@@ -60,6 +65,7 @@ public abstract class MessageReceiver implements Runnable {
         this.transportManager = transportManager;
         this.config = config;
         this.logger = logger;
+        bufferPool = transportManager.getBufferPool();
         isListening = true;
     }
     
@@ -74,6 +80,14 @@ public abstract class MessageReceiver implements Runnable {
     }
 
     protected abstract void listen() throws IOException;
+
+    /**
+     * @return sender of the connection received messages come from, null
+     *         for datagrams
+     */
+    protected MessageSender getConnection() {
+        return null;
+    }
     
     protected boolean isRequest(byte[] message) {
         String beginning = null;
@@ -86,21 +100,63 @@ public abstract class MessageReceiver implements Runnable {
         return !RFC3261.DEFAULT_SIP_VERSION.equals(beginning);
     }
     
-    protected void processMessage(byte[] message, InetAddress sourceIp,
-            int sourcePort, String transport) throws IOException {
-        ByteArrayInputStream byteArrayInputStream =
-            new ByteArrayInputStream(message);
-        InputStreamReader inputStreamReader = new InputStreamReader(
-                byteArrayInputStream);
-        BufferedReader reader = new BufferedReader(inputStreamReader);
-        String startLine = reader.readLine();
-        while ("".equals(startLine)) {
-            startLine = reader.readLine();
-        }
-        if (startLine == null) {
+    /**
+     * Processes the message on this thread, or on a worker of the
+     * transport manager dispatcher if there is one. The buffer remains owned
+     * by the caller. Datagrams from denied or throttled sources are dropped
+     * here, before parsing. Stream messages are not: dropping one would
+     * silently lose a request of an established connection.
+     *
+     * @return false if the dispatcher had no room for the message
+     */
+    protected boolean dispatchMessage(PooledBuffer buffer,
+            InetAddress sourceIp, int sourcePort, String transport)
+            throws IOException {
+        long receiveTime = System.nanoTime();
+        if (RFC3261.TRANSPORT_UDP.equals(transport)
+                && !transportManager.getSourceRateLimiter().accept(sourceIp,
+                        sourcePort)) {
+            return true;
+        }
+        MessageDispatcher messageDispatcher =
+            transportManager.getMessageDispatcher();
+        if (messageDispatcher == null) {
+            processMessage(buffer, sourceIp, sourcePort, transport,
+                    receiveTime);
+            return true;
+        }
+        return messageDispatcher.dispatch(this, buffer, sourceIp, sourcePort,
+                transport, receiveTime);
+    }
+
+    /**
+     * Processes the message held in a pooled buffer. The buffer remains
+     * owned by the caller, nothing received is referenced once this method
+     * returns.
+     *
+     * @param receiveTime System.nanoTime() when the message was received,
+     *        processing latency includes the wait in the dispatch queue
+     */
+    protected void processMessage(PooledBuffer buffer, InetAddress sourceIp,
+            int sourcePort, String transport, long receiveTime)
+            throws IOException {
+        byte[] data = buffer.getData();
+        int length = buffer.getLength();
+        int lineStart = 0;
+        while (lineStart < length
+                && (data[lineStart] == '\r' || data[lineStart] == '\n')) {
+            ++lineStart;
+        }
+        if (lineStart == length) {
+            keepAliveReceived(length, sourceIp, sourcePort, transport);
             return;
         }
-        if (!startLine.contains(RFC3261.DEFAULT_SIP_VERSION)) {
+        int lineEnd = lineStart;
+        while (lineEnd < length
+                && data[lineEnd] != '\r' && data[lineEnd] != '\n') {
+            ++lineEnd;
+        }
+        if (indexOf(data, lineStart, lineEnd, SIP_VERSION) < 0) {
             // keep-alive, send back to sender
             SipTransportConnection sipTransportConnection =
                 new SipTransportConnection(config.getLocalInetAddress(),
@@ -108,21 +164,31 @@ public abstract class MessageReceiver implements Runnable {
             MessageSender messageSender = transportManager.getMessageSender(
                     sipTransportConnection);
             if (messageSender != null) {
-                messageSender.sendBytes(message);
+                messageSender.sendBytes(Arrays.copyOf(data, length));
             }
             return;
         }
+        // incoming messages keep the flow from being evicted, keep-alives
+        // do not
+        MessageSender flow = transportManager.getMessageSender(
+                new SipTransportConnection(config.getLocalInetAddress(), port,
+                        sourceIp, sourcePort, transport));
+        if (flow != null) {
+            flow.markActivity();
+        }
         StringBuffer direction = new StringBuffer();
         direction.append("RECEIVED from ").append(sourceIp.getHostAddress());
         direction.append("/").append(sourcePort);
-        logger.traceNetwork(new String(message),
+        logger.traceNetwork(new String(data, 0, length),
                 direction.toString());
+        if (transactionManager.absorbRetransmission(data, lineStart,
+                length - lineStart)) {
+            logger.debug("retransmission absorbed");
+            return;
+        }
         SipMessage sipMessage = null;
         try {
-            sipMessage = transportManager.sipParser.parse(
-                    new ByteArrayInputStream(message));
-        } catch (IOException e) {
-            logger.error("input/output error", e);
+            sipMessage = transportManager.sipParser.parse(data, 0, length);
         } catch (SipParserException e) {
             logger.error("SIP parser error", e);
         }
@@ -134,36 +200,43 @@ public abstract class MessageReceiver implements Runnable {
 
         if (sipMessage instanceof SipRequest) {
             SipRequest sipRequest = (SipRequest)sipMessage;
-            
+            sipRequest.setConnection(getConnection());
             
             SipHeaderFieldValue topVia = Utils.getTopVia(sipRequest);
-            String sentBy =
-                topVia.getParam(new SipHeaderParamName(RFC3261.PARAM_SENTBY));
+            String sentBy = topVia.getParam(SipHeaderParamName.SENTBY);
             if (sentBy != null) {
                 int colonPos = sentBy.indexOf(RFC3261.TRANSPORT_PORT_SEP);
                 if (colonPos < 0) {
                     colonPos = sentBy.length();
                 }
                 sentBy = sentBy.substring(0, colonPos);
-                if (!InetAddress.getByName(sentBy).equals(sourceIp)) {
-                    topVia.addParam(new SipHeaderParamName(
-                            RFC3261.PARAM_RECEIVED),
+                // a domain name in sent-by always gets a received
+                // parameter, no need to resolve it
+                if (!SipResolver.isIpLiteral(sentBy)
+                        || !InetAddress.getByName(sentBy).equals(sourceIp)) {
+                    topVia.addParam(SipHeaderParamName.RECEIVED,
                             sourceIp.getHostAddress());
                 }
             }
             //RFC3581
             //TODO check rport configuration
-            SipHeaderParamName rportName = new SipHeaderParamName(
-                    RFC3261.PARAM_RPORT);
-            String rport = topVia.getParam(rportName);
+            String rport = topVia.getParam(SipHeaderParamName.RPORT);
             if ("".equals(rport)) {
-                topVia.removeParam(rportName);
-                topVia.addParam(rportName, String.valueOf(sourcePort));
+                topVia.removeParam(SipHeaderParamName.RPORT);
+                topVia.addParam(SipHeaderParamName.RPORT,
+                        String.valueOf(sourcePort));
             }
             
             ServerTransaction serverTransaction =
                 transactionManager.getServerTransaction(sipRequest);
             if (serverTransaction == null) {
+                OverloadController overloadController =
+                    transportManager.getOverloadController();
+                if (overloadController != null && isInitialRequest(sipRequest)
+                        && !admit(overloadController)) {
+                    shed(sipRequest, overloadController);
+                    return;
+                }
                 //uas.messageReceived(sipMessage);
                 sipServerTransportUser.messageReceived(sipMessage);
             } else {
@@ -181,8 +254,95 @@ public abstract class MessageReceiver implements Runnable {
                 clientTransaction.receivedResponse(sipResponse);
             }
         }
+        OverloadController overloadController =
+            transportManager.getOverloadController();
+        if (overloadController != null) {
+            overloadController.messageProcessed(
+                    System.nanoTime() - receiveTime);
+        }
+    }
+
+    // requests creating work, in-dialog requests, ACK and CANCEL only
+    // complete work already accepted
+    private boolean isInitialRequest(SipRequest sipRequest) {
+        String method = sipRequest.getMethod();
+        if (RFC3261.METHOD_ACK.equals(method)
+                || RFC3261.METHOD_CANCEL.equals(method)) {
+            return false;
+        }
+        SipHeaderFieldValue to = sipRequest.getSipHeaders().get(
+                SipHeaderFieldName.TO);
+        return to == null || to.getParam(SipHeaderParamName.TAG) == null;
+    }
+
+    private boolean admit(OverloadController overloadController) {
+        MessageDispatcher messageDispatcher =
+            transportManager.getMessageDispatcher();
+        int queueDepth = messageDispatcher == null ? 0
+                : messageDispatcher.getQueueDepth();
+        return overloadController.admit(queueDepth);
+    }
+
+    private void shed(SipRequest sipRequest,
+            OverloadController overloadController) throws IOException {
+        logger.debug("overload, " + sipRequest.getMethod() + " shed");
+        if (overloadController.getPolicy()
+                != OverloadController.Policy.REJECT) {
+            return;
+        }
+        // stateless 503, RFC3261 21.5.4
+        SipResponse sipResponse = new SipResponse(
+                RFC3261.CODE_503_SERVICE_UNAVAILABLE,
+                RFC3261.REASON_503_SERVICE_UNAVAILABLE);
+        Utils.copyHeader(sipRequest, sipResponse, RFC3261.HDR_VIA);
+        Utils.copyHeader(sipRequest, sipResponse, RFC3261.HDR_FROM);
+        Utils.copyHeader(sipRequest, sipResponse, RFC3261.HDR_TO);
+        Utils.copyHeader(sipRequest, sipResponse, RFC3261.HDR_CALLID);
+        Utils.copyHeader(sipRequest, sipResponse, RFC3261.HDR_CSEQ);
+        SipHeaders sipHeaders = sipResponse.getSipHeaders();
+        SipHeaderFieldValue to = sipHeaders.get(SipHeaderFieldName.TO);
+        if (to != null) {
+            to.addParam(SipHeaderParamName.TAG,
+                    Utils.generateTag());
+        }
+        sipHeaders.add(SipHeaderFieldName.RETRY_AFTER,
+                new SipHeaderFieldValue(String.valueOf(
+                        overloadController.getRetryAfter())));
+        transportManager.sendResponse(sipResponse, sipRequest);
     }
     
+    /**
+     * RFC5626 4.4.1: a double CRLF ping is answered by a single CRLF pong.
+     */
+    protected void keepAliveReceived(int length, InetAddress sourceIp,
+            int sourcePort, String transport) throws IOException {
+        SipTransportConnection sipTransportConnection =
+            new SipTransportConnection(config.getLocalInetAddress(),
+                    port, sourceIp, sourcePort, transport);
+        MessageSender messageSender = transportManager.getMessageSender(
+                sipTransportConnection);
+        if (length >= KeepAliveService.PING.length) {
+            if (messageSender != null) {
+                messageSender.sendBytes(KeepAliveService.PONG);
+            }
+        } else {
+            transportManager.getKeepAliveService().pongReceived(messageSender);
+        }
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte[] pattern) {
+        for (int i = from; i <= to - pattern.length; ++i) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                ++j;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public synchronized void setListening(boolean isListening) {
         this.isListening = isListening;
     }
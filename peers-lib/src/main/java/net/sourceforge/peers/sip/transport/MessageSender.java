@@ -21,12 +21,11 @@ package net.sourceforge.peers.sip.transport;
 
 import net.sourceforge.peers.Config;
 import net.sourceforge.peers.Logger;
-import net.sourceforge.peers.Timer;
 import net.sourceforge.peers.sip.RFC3261;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.util.TimerTask;
+import java.nio.charset.StandardCharsets;
 
 
 public abstract class MessageSender {
@@ -38,7 +37,9 @@ public abstract class MessageSender {
     protected int localPort;
     private final Config config;
     private final String transportName;
-    private final Timer timer;
+    private volatile long lastActivity;
+    private volatile boolean keepAliveStopped;
+    private volatile boolean pinned;
     protected Logger logger;
 
     protected MessageSender(int localPort, InetAddress inetAddress,
@@ -50,16 +51,34 @@ public abstract class MessageSender {
         this.port = port;
         this.config = config;
         this.transportName = transportName;
-        timer = new Timer(getClass().getSimpleName() + " "
-                + Timer.class.getSimpleName());
         this.logger = logger;
-        //TODO check config
-        timer.scheduleAtFixedRate(new KeepAlive(), 0,
-                1000 * KEEY_ALIVE_INTERVAL);
+        lastActivity = System.currentTimeMillis();
     }
 
-    public abstract void sendMessage(SipMessage sipMessage) throws IOException;
+    public void sendMessage(SipMessage sipMessage) throws IOException {
+        if (sipMessage == null) {
+            return;
+        }
+        sendEncoded(sipMessage.encode());
+    }
+
+    /**
+     * Sends a message already encoded, retransmissions reuse the bytes of
+     * the first transmission.
+     */
+    public void sendEncoded(byte[] bytes) throws IOException {
+        markActivity();
+        sendBytes(bytes);
+        String direction = "SENT to " + inetAddress.getHostAddress() +
+                "/" + port;
+        logger.traceNetwork(new String(bytes, StandardCharsets.UTF_8),
+                direction);
+    }
 
+    /**
+     * Sends raw bytes, keep-alives and pongs are sent this way and do not
+     * count as activity of the flow.
+     */
     public abstract void sendBytes(byte[] bytes) throws IOException;
 
     public String getContact() {
@@ -83,22 +102,55 @@ public abstract class MessageSender {
         return localPort;
     }
 
+    /**
+     * Keep-alives are sent by the {@link KeepAliveService} of the
+     * transport manager, this sender is removed from it on next check.
+     */
     public void stopKeepAlives() {
-        timer.cancel();
+        keepAliveStopped = true;
     }
 
-    class KeepAlive extends TimerTask {
+    /**
+     * @return true once this sender cannot send anymore
+     */
+    public boolean isClosed() {
+        return false;
+    }
 
-        @Override
-        public void run() {
-            byte[] bytes = (RFC3261.CRLF + RFC3261.CRLF).getBytes();
-            try {
-                sendBytes(bytes);
-            } catch (IOException e) {
-                logger.error(e.getMessage(), e);
-            }
-        }
+    public boolean isKeepAliveStopped() {
+        return keepAliveStopped;
+    }
+
+    public boolean isPinned() {
+        return pinned;
+    }
+
+    /**
+     * A pinned sender is never evicted, its keep-alives hold the NAT
+     * binding to a registrar or outbound proxy between refreshes.
+     */
+    public void setPinned(boolean pinned) {
+        this.pinned = pinned;
+    }
+
+    /**
+     * Records a message sent or received on this flow, an idle flow is
+     * evicted by the transport manager.
+     */
+    void markActivity() {
+        lastActivity = System.currentTimeMillis();
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
 
+    /**
+     * Releases resources owned by this sender, a sender sharing the
+     * listening socket only stops its keep-alives.
+     */
+    public void close() {
+        stopKeepAlives();
     }
 
 }
@@ -0,0 +1,70 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+public class NaptrRecord {
+
+    public static final String FLAG_SRV = "s";
+    public static final String SERVICE_SIP_UDP = "SIP+D2U";
+    public static final String SERVICE_SIP_TCP = "SIP+D2T";
+
+    private final int order;
+    private final int preference;
+    private final String flags;
+    private final String service;
+    private final String replacement;
+
+    public NaptrRecord(int order, int preference, String flags,
+            String service, String replacement) {
+        this.order = order;
+        this.preference = preference;
+        this.flags = flags;
+        this.service = service;
+        this.replacement = replacement;
+    }
+
+    public int getOrder() {
+        return order;
+    }
+
+    public int getPreference() {
+        return preference;
+    }
+
+    public String getFlags() {
+        return flags;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getReplacement() {
+        return replacement;
+    }
+
+    @Override
+    public String toString() {
+        return order + " " + preference + " \"" + flags + "\" \"" + service
+            + "\" " + replacement;
+    }
+
+}
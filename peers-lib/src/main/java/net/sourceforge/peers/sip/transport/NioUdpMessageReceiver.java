@@ -0,0 +1,82 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2007-2013 Yohann Martineau
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.transaction.TransactionManager;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+
+/**
+ * Receiver of a non-blocking datagram channel. It has no thread of its own,
+ * {@link #listen()} is invoked by a {@link SelectorLoop} when the channel
+ * is readable.
+ */
+public class NioUdpMessageReceiver extends MessageReceiver {
+
+    // bounds the time spent on one channel before the loop serves others
+    public static final int MAX_DATAGRAMS_PER_SELECT = 64;
+
+    private final DatagramChannel datagramChannel;
+
+    public NioUdpMessageReceiver(DatagramChannel datagramChannel,
+                                 TransactionManager transactionManager,
+                                 TransportManager transportManager,
+                                 Config config, Logger logger) {
+        super(datagramChannel.socket().getLocalPort(), transactionManager,
+                transportManager, config, logger);
+        this.datagramChannel = datagramChannel;
+    }
+
+    @Override
+    protected void listen() throws IOException {
+        for (int i = 0; i < MAX_DATAGRAMS_PER_SELECT && isListening(); ++i) {
+            PooledBuffer buffer = bufferPool.acquire();
+            try {
+                InetSocketAddress sourceAddress;
+                try {
+                    // AccessController.doPrivileged added for plugin compatibility
+                    sourceAddress = AccessController.doPrivileged(
+                            (PrivilegedExceptionAction<InetSocketAddress>) () ->
+                                    (InetSocketAddress) datagramChannel.receive(
+                                            buffer.getByteBuffer()));
+                } catch (PrivilegedActionException e) {
+                    throw (IOException) e.getException();
+                }
+                if (sourceAddress == null) {
+                    return;
+                }
+                buffer.setLength(buffer.getByteBuffer().position());
+                dispatchMessage(buffer, sourceAddress.getAddress(),
+                        sourceAddress.getPort(), RFC3261.TRANSPORT_UDP);
+            } finally {
+                buffer.release();
+            }
+        }
+    }
+
+}
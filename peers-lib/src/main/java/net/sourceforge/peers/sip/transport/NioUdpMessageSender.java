@@ -0,0 +1,72 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2007-2013 Yohann Martineau
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+
+
+public class NioUdpMessageSender extends MessageSender {
+
+    private final DatagramChannel datagramChannel;
+    private final InetSocketAddress destination;
+
+    public NioUdpMessageSender(InetAddress inetAddress, int port,
+                               DatagramChannel datagramChannel, Config config,
+                               Logger logger) {
+        super(datagramChannel.socket().getLocalPort(), inetAddress, port,
+                config, RFC3261.TRANSPORT_UDP, logger);
+        this.datagramChannel = datagramChannel;
+        destination = new InetSocketAddress(inetAddress, port);
+    }
+
+    @Override
+    public synchronized void sendBytes(byte[] bytes) throws IOException {
+        logger.debug("NioUdpMessageSender.sendBytes " + bytes.length
+                + " " + inetAddress + ":" + port);
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        // AccessController.doPrivileged added for plugin compatibility
+        AccessController.doPrivileged(
+                (PrivilegedAction<Void>) () -> {
+                    try {
+                        if (!datagramChannel.isOpen()) {
+                            logger.error("Channel closed. Packet of " + bytes.length + " bytes not sent to " + inetAddress + ":" + port);
+                        } else if (datagramChannel.send(buffer, destination) == 0) {
+                            // non-blocking channel, a full socket buffer drops the datagram
+                            logger.error("Send buffer full. Packet of " + bytes.length + " bytes not sent to " + inetAddress + ":" + port);
+                        }
+                    } catch (Throwable t) {
+                        logger.error("throwable", new Exception(t));
+                    }
+                    return null;
+                }
+        );
+    }
+
+}
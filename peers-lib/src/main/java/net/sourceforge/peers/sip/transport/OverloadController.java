@@ -0,0 +1,230 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a new initial request can be taken under the current
+ * load. Load is the highest of the dispatch queue depth and the average
+ * processing latency, each relative to its threshold. Above 1, the share
+ * of initial requests shed grows with the excess, as in the loss-based
+ * algorithm of RFC 7339, and all of them are shed at twice the threshold.
+ * Shed requests are either answered with 503 and Retry-After or silently
+ * dropped. In-dialog requests and responses are never shed, they finish
+ * work already accepted.
+ */
+public class OverloadController {
+
+    public static final int DEFAULT_QUEUE_DEPTH_THRESHOLD = 512;
+    public static final long DEFAULT_LATENCY_THRESHOLD = 500; // milliseconds
+    public static final int DEFAULT_RETRY_AFTER = 5; // seconds
+    // the average latency is halved for each second without message
+    public static final long LATENCY_HALF_LIFE = 1000; // milliseconds
+
+    private static final double EWMA_WEIGHT = 0.1;
+
+    public enum Policy {
+        REJECT, // 503 Service Unavailable with Retry-After
+        DROP
+    }
+
+    private volatile boolean enabled;
+    private volatile Policy policy;
+    private volatile int queueDepthThreshold;
+    private volatile long latencyThreshold;
+    private volatile int retryAfter;
+
+    // double bits of the average latency in nanoseconds
+    private final AtomicLong averageLatency;
+    private volatile long lastSample;
+
+    private final AtomicLong accepted;
+    private final AtomicLong rejected;
+    private final AtomicLong dropped;
+
+    public OverloadController() {
+        enabled = true;
+        policy = Policy.REJECT;
+        queueDepthThreshold = DEFAULT_QUEUE_DEPTH_THRESHOLD;
+        latencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+        retryAfter = DEFAULT_RETRY_AFTER;
+        averageLatency = new AtomicLong(Double.doubleToLongBits(0));
+        lastSample = System.nanoTime();
+        accepted = new AtomicLong();
+        rejected = new AtomicLong();
+        dropped = new AtomicLong();
+    }
+
+    /**
+     * @param queueDepth messages waiting for processing
+     * @return true if the initial request can be processed, otherwise
+     *         it must be shed according to {@link #getPolicy()}
+     */
+    public boolean admit(int queueDepth) {
+        return admit(queueDepth, System.nanoTime());
+    }
+
+    boolean admit(int queueDepth, long now) {
+        if (enabled) {
+            double shedFraction = getShedFraction(queueDepth, now);
+            if (shedFraction > 0 && (shedFraction >= 1
+                    || ThreadLocalRandom.current().nextDouble() < shedFraction)) {
+                if (policy == Policy.REJECT) {
+                    rejected.incrementAndGet();
+                } else {
+                    dropped.incrementAndGet();
+                }
+                return false;
+            }
+        }
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @param latency nanoseconds spent processing a message
+     */
+    public void messageProcessed(long latency) {
+        messageProcessed(latency, System.nanoTime());
+    }
+
+    void messageProcessed(long latency, long now) {
+        long bits;
+        double average;
+        do {
+            bits = averageLatency.get();
+            average = decay(Double.longBitsToDouble(bits), now);
+            average += EWMA_WEIGHT * (latency - average);
+        } while (!averageLatency.compareAndSet(bits,
+                Double.doubleToLongBits(average)));
+        lastSample = now;
+    }
+
+    /**
+     * @return 0 when not overloaded, up to 1 when all initial requests are
+     *         shed
+     */
+    public double getShedFraction(int queueDepth) {
+        return getShedFraction(queueDepth, System.nanoTime());
+    }
+
+    double getShedFraction(int queueDepth, long now) {
+        double load = getLoad(queueDepth, now);
+        if (load <= 1) {
+            return 0;
+        }
+        return Math.min(1, load - 1);
+    }
+
+    double getLoad(int queueDepth, long now) {
+        double queueLoad = (double) queueDepth / queueDepthThreshold;
+        double latencyLoad = getAverageLatency(now) / 1000000.0
+                / latencyThreshold;
+        return Math.max(queueLoad, latencyLoad);
+    }
+
+    /**
+     * @return average processing latency in nanoseconds
+     */
+    public double getAverageLatency() {
+        return getAverageLatency(System.nanoTime());
+    }
+
+    double getAverageLatency(long now) {
+        return decay(Double.longBitsToDouble(averageLatency.get()), now);
+    }
+
+    // without samples, e.g. while all initial requests are shed, the
+    // average would keep its last value forever
+    private double decay(double average, long now) {
+        long idle = (now - lastSample) / 1000000;
+        if (idle <= 0) {
+            return average;
+        }
+        return average * Math.pow(0.5, (double) idle / LATENCY_HALF_LIFE);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public void setPolicy(Policy policy) {
+        this.policy = policy;
+    }
+
+    public int getQueueDepthThreshold() {
+        return queueDepthThreshold;
+    }
+
+    public void setQueueDepthThreshold(int queueDepthThreshold) {
+        this.queueDepthThreshold = queueDepthThreshold;
+    }
+
+    public long getLatencyThreshold() {
+        return latencyThreshold;
+    }
+
+    /**
+     * @param latencyThreshold milliseconds
+     */
+    public void setLatencyThreshold(long latencyThreshold) {
+        this.latencyThreshold = latencyThreshold;
+    }
+
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * @param retryAfter seconds, sent in the Retry-After header of 503
+     *        responses
+     */
+    public void setRetryAfter(int retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getShed() {
+        return rejected.get() + dropped.get();
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2007-2013 Yohann Martineau
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted receive buffer, returned to its {@link BufferPool} when
+ * the last holder releases it. The received bytes are
+ * <code>getData()[0..getLength()[</code>, they must not be referenced once
+ * the buffer has been released.
+ */
+public class PooledBuffer {
+
+    private final BufferPool bufferPool;
+    private final byte[] data;
+    private final ByteBuffer byteBuffer;
+    private final AtomicInteger referenceCount;
+    private int length;
+
+    PooledBuffer(BufferPool bufferPool, int size) {
+        this.bufferPool = bufferPool;
+        data = new byte[size];
+        byteBuffer = ByteBuffer.wrap(data);
+        referenceCount = new AtomicInteger();
+    }
+
+    void reset() {
+        referenceCount.set(1);
+        byteBuffer.clear();
+        length = 0;
+    }
+
+    public PooledBuffer retain() {
+        if (referenceCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("buffer already released");
+        }
+        return this;
+    }
+
+    public void release() {
+        int count = referenceCount.decrementAndGet();
+        if (count == 0) {
+            bufferPool.recycle(this);
+        } else if (count < 0) {
+            throw new IllegalStateException("buffer released too many times");
+        }
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * @return a view on the whole backing array, used by channel reads
+     */
+    public ByteBuffer getByteBuffer() {
+        return byteBuffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        this.length = length;
+    }
+
+    public int getReferenceCount() {
+        return referenceCount.get();
+    }
+
+}
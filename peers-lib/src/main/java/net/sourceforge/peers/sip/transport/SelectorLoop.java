@@ -0,0 +1,116 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2007-2013 Yohann Martineau
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * I/O loop serving several non-blocking channels from a single thread.
+ * Each registered channel is attached to the {@link MessageReceiver} which
+ * reads it when the selector reports it readable. The loop blocks in
+ * {@link Selector#select()} without timeout, so idle sockets cost no wakeup.
+ */
+public class SelectorLoop implements Runnable {
+
+    private final Selector selector;
+    private final Queue<Runnable> pendingRegistrations;
+    private final Logger logger;
+    private volatile boolean running;
+
+    public SelectorLoop(Logger logger) throws IOException {
+        this.logger = logger;
+        selector = Selector.open();
+        pendingRegistrations = new ConcurrentLinkedQueue<>();
+        running = true;
+    }
+
+    /**
+     * Registration is performed by the loop thread itself, a concurrent
+     * register would block until the current select returns.
+     */
+    public void register(final SelectableChannel channel,
+                         final MessageReceiver messageReceiver) {
+        pendingRegistrations.add(() -> {
+            try {
+                channel.register(selector, SelectionKey.OP_READ,
+                        messageReceiver);
+            } catch (ClosedChannelException e) {
+                logger.error("cannot register closed channel", e);
+            }
+        });
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                logger.error("selector error", e);
+                break;
+            }
+            Runnable registration;
+            while ((registration = pendingRegistrations.poll()) != null) {
+                registration.run();
+            }
+            Iterator<SelectionKey> iterator =
+                    selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey selectionKey = iterator.next();
+                iterator.remove();
+                if (!selectionKey.isValid()) {
+                    continue;
+                }
+                MessageReceiver messageReceiver =
+                        (MessageReceiver) selectionKey.attachment();
+                if (!messageReceiver.isListening()) {
+                    selectionKey.cancel();
+                    continue;
+                }
+                try {
+                    messageReceiver.listen();
+                } catch (IOException e) {
+                    logger.error("input/output error", e);
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.error("cannot close selector", e);
+        }
+    }
+
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+}
@@ -19,7 +19,10 @@
 
 package net.sourceforge.peers.sip.transport;
 
+import java.nio.ByteBuffer;
+
 import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.Utils;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldValue;
 import net.sourceforge.peers.sip.syntaxencoding.SipHeaders;
@@ -29,6 +32,8 @@ public abstract class SipMessage {
     protected String sipVersion;
     protected SipHeaders sipHeaders;
     protected byte[] body;
+    // RFC3261 7.3.3 compact form on output
+    private boolean compact;
 
     protected SipMessage() {
         sipVersion = RFC3261.DEFAULT_SIP_VERSION;
@@ -66,6 +71,70 @@ public abstract class SipMessage {
         this.body = body;
     }
 
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Encodes headers in compact form, for messages which would not fit in
+     * a datagram otherwise.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * @return request line or status line, without CRLF
+     */
+    protected abstract String getStartLine();
+
+    /**
+     * @return number of bytes written by {@link #encode(ByteBuffer)}
+     */
+    public int encodedLength() {
+        return encodedLength(getStartLine());
+    }
+
+    private int encodedLength(String startLine) {
+        int length = Utils.encodedLength(startLine) + 2
+            + sipHeaders.encodedLength(compact) + 2;
+        if (body != null) {
+            length += body.length;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the message as sent on the wire, headers are encoded in UTF-8
+     * and the body is copied as is.
+     * 
+     * @throws java.nio.BufferOverflowException if the buffer has less than
+     *         {@link #encodedLength()} bytes remaining
+     */
+    public void encode(ByteBuffer buffer) {
+        encode(getStartLine(), buffer);
+    }
+
+    private void encode(String startLine, ByteBuffer buffer) {
+        Utils.encode(startLine, buffer);
+        buffer.put((byte) '\r').put((byte) '\n');
+        sipHeaders.encode(buffer, compact);
+        buffer.put((byte) '\r').put((byte) '\n');
+        if (body != null) {
+            buffer.put(body);
+        }
+    }
+
+    /**
+     * @return the message bytes, in an array of the exact size
+     */
+    public byte[] encode() {
+        String startLine = getStartLine();
+        byte[] bytes = new byte[encodedLength(startLine)];
+        encode(startLine, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
     @Override
     public String toString() {
         StringBuilder buf = new StringBuilder();
@@ -26,6 +26,8 @@ public class SipRequest extends SipMessage {
     protected String method;
     protected SipURI requestUri;
     //protected String requestUri;
+    // connection this request was received on, null for datagrams
+    private volatile MessageSender connection;
 
     public SipRequest(String method, SipURI requestUri) {
         super();
@@ -34,10 +36,14 @@ public class SipRequest extends SipMessage {
     }
 
     @Override
-    public String toString() {
+    protected String getStartLine() {
         return method + ' ' + requestUri +
-                ' ' + RFC3261.DEFAULT_SIP_VERSION + RFC3261.CRLF +
-                super.toString();
+                ' ' + RFC3261.DEFAULT_SIP_VERSION;
+    }
+
+    @Override
+    public String toString() {
+        return getStartLine() + RFC3261.CRLF + super.toString();
     }
 
     public String getMethod() {
@@ -48,4 +54,12 @@ public class SipRequest extends SipMessage {
         return requestUri;
     }
 
+    public MessageSender getConnection() {
+        return connection;
+    }
+
+    public void setConnection(MessageSender connection) {
+        this.connection = connection;
+    }
+
 }
@@ -0,0 +1,380 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.syntaxencoding.SipURI;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Locates SIP servers as described in RFC 3263 (NAPTR, SRV, then A/AAAA)
+ * and caches answers, empty ones included, for their TTL. IP literals never
+ * reach the DNS backend.
+ */
+public class SipResolver {
+
+    public static final int MAX_CACHE_ENTRIES = 1024;
+    public static final int MIN_TTL = 1; // seconds
+    public static final int MAX_TTL = 86400; // seconds
+    public static final int DEFAULT_NEGATIVE_TTL = 30; // seconds
+
+    private static final String SRV_PREFIX_UDP = "_sip._udp.";
+    private static final String SRV_PREFIX_TCP = "_sip._tcp.";
+
+    private final DnsBackend dnsBackend;
+    private final Logger logger;
+
+    private final ConcurrentMap<String, CacheEntry<NaptrRecord>> naptrCache;
+    private final ConcurrentMap<String, CacheEntry<SrvRecord>> srvCache;
+    private final ConcurrentMap<String, CacheEntry<InetAddress>> addressCache;
+
+    private volatile int negativeTtl;
+    private LongSupplier clock;
+
+    private final AtomicLong cacheHits;
+    private final AtomicLong cacheMisses;
+    private final AtomicLong negativeHits;
+
+    public SipResolver(DnsBackend dnsBackend, Logger logger) {
+        this.dnsBackend = dnsBackend;
+        this.logger = logger;
+        naptrCache = new ConcurrentHashMap<>();
+        srvCache = new ConcurrentHashMap<>();
+        addressCache = new ConcurrentHashMap<>();
+        negativeTtl = DEFAULT_NEGATIVE_TTL;
+        clock = System::currentTimeMillis;
+        cacheHits = new AtomicLong();
+        cacheMisses = new AtomicLong();
+        negativeHits = new AtomicLong();
+    }
+
+    /**
+     * Targets to try in order for a request sent to this URI, RFC 3263 4.
+     * 
+     * @return a non-empty list of targets
+     * @throws UnknownHostException if no address has been found
+     */
+    public List<SipTarget> resolve(SipURI sipUri) throws UnknownHostException {
+        String host = sipUri.getHost();
+        String transport = null;
+        Map<String, String> params = sipUri.getUriParameters();
+        if (params != null && params.get(RFC3261.PARAM_TRANSPORT) != null) {
+            transport = params.get(RFC3261.PARAM_TRANSPORT)
+                    .toUpperCase(Locale.ROOT);
+        }
+        int port = sipUri.getPort();
+        List<SipTarget> targets = new ArrayList<>();
+        if (isIpLiteral(host) || port != SipURI.DEFAULT_PORT) {
+            // 4.1, 4.2: no NAPTR nor SRV query
+            addTargets(targets, host,
+                    port == SipURI.DEFAULT_PORT
+                        ? RFC3261.TRANSPORT_DEFAULT_PORT : port,
+                    transport == null ? RFC3261.TRANSPORT_UDP : transport);
+        } else if (transport != null) {
+            addSrvTargets(targets, srvName(host, transport), transport);
+        } else {
+            addNaptrTargets(targets, host);
+            if (targets.isEmpty()) {
+                addSrvTargets(targets, SRV_PREFIX_UDP + host,
+                        RFC3261.TRANSPORT_UDP);
+                addSrvTargets(targets, SRV_PREFIX_TCP + host,
+                        RFC3261.TRANSPORT_TCP);
+            }
+        }
+        if (targets.isEmpty() && !isIpLiteral(host)
+                && port == SipURI.DEFAULT_PORT) {
+            addTargets(targets, host, RFC3261.TRANSPORT_DEFAULT_PORT,
+                    transport == null ? RFC3261.TRANSPORT_UDP : transport);
+        }
+        if (targets.isEmpty()) {
+            throw new UnknownHostException(host);
+        }
+        return targets;
+    }
+
+    /**
+     * First address of a host name, or the address an IP literal stands for.
+     */
+    public InetAddress resolveAddress(String host)
+            throws UnknownHostException {
+        List<InetAddress> addresses = lookupAddresses(host);
+        if (addresses.isEmpty()) {
+            throw new UnknownHostException(host);
+        }
+        return addresses.get(0);
+    }
+
+    private void addNaptrTargets(List<SipTarget> targets, String host) {
+        List<NaptrRecord> records = new ArrayList<>();
+        for (NaptrRecord record : lookup(naptrCache, host,
+                dnsBackend::lookupNaptr)) {
+            if (NaptrRecord.FLAG_SRV.equalsIgnoreCase(record.getFlags())
+                    && transport(record.getService()) != null) {
+                records.add(record);
+            }
+        }
+        records.sort(Comparator.comparingInt(NaptrRecord::getOrder)
+                .thenComparingInt(NaptrRecord::getPreference));
+        for (NaptrRecord record : records) {
+            addSrvTargets(targets, record.getReplacement(),
+                    transport(record.getService()));
+        }
+    }
+
+    private void addSrvTargets(List<SipTarget> targets, String name,
+            String transport) {
+        for (SrvRecord record : orderSrv(lookup(srvCache, name,
+                dnsBackend::lookupSrv))) {
+            // a target "." means the service is not available
+            if (!"".equals(record.getTarget())
+                    && !".".equals(record.getTarget())) {
+                addTargets(targets, record.getTarget(), record.getPort(),
+                        transport);
+            }
+        }
+    }
+
+    private void addTargets(List<SipTarget> targets, String host, int port,
+            String transport) {
+        for (InetAddress inetAddress : lookupAddresses(host)) {
+            SipTarget target = new SipTarget(inetAddress, port, transport);
+            if (!targets.contains(target)) {
+                targets.add(target);
+            }
+        }
+    }
+
+    private List<InetAddress> lookupAddresses(String host) {
+        if (isIpLiteral(host)) {
+            try {
+                // literals are parsed, no query is sent
+                return Collections.singletonList(InetAddress.getByName(
+                        stripBrackets(host)));
+            } catch (UnknownHostException e) {
+                return Collections.emptyList();
+            }
+        }
+        return lookup(addressCache, host, dnsBackend::lookupAddresses);
+    }
+
+    /**
+     * Sorts records by priority, then within a priority picks them at
+     * random proportionally to their weight, RFC 2782.
+     */
+    List<SrvRecord> orderSrv(List<SrvRecord> records) {
+        if (records.size() < 2) {
+            return records;
+        }
+        List<SrvRecord> remaining = new ArrayList<>(records);
+        remaining.sort(Comparator.comparingInt(SrvRecord::getPriority)
+                .thenComparingInt(SrvRecord::getWeight));
+        List<SrvRecord> ordered = new ArrayList<>(records.size());
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (!remaining.isEmpty()) {
+            int priority = remaining.get(0).getPriority();
+            int totalWeight = 0;
+            int count = 0;
+            for (SrvRecord record : remaining) {
+                if (record.getPriority() != priority) {
+                    break;
+                }
+                totalWeight += record.getWeight();
+                ++count;
+            }
+            int pick = random.nextInt(totalWeight + 1);
+            int runningSum = 0;
+            for (int i = 0; i < count; ++i) {
+                runningSum += remaining.get(i).getWeight();
+                if (runningSum >= pick) {
+                    ordered.add(remaining.remove(i));
+                    break;
+                }
+            }
+        }
+        return ordered;
+    }
+
+    private <T> List<T> lookup(ConcurrentMap<String, CacheEntry<T>> cache,
+            String name, Query<T> query) {
+        String key = name.toLowerCase(Locale.ROOT);
+        long now = clock.getAsLong();
+        CacheEntry<T> entry = cache.get(key);
+        if (entry != null && entry.expires > now) {
+            cacheHits.incrementAndGet();
+            if (entry.records.isEmpty()) {
+                negativeHits.incrementAndGet();
+            }
+            return entry.records;
+        }
+        cacheMisses.incrementAndGet();
+        List<T> records;
+        int ttl;
+        try {
+            DnsAnswer<T> answer = query.lookup(name);
+            records = answer.getRecords();
+            ttl = answer.getTtl();
+        } catch (IOException e) {
+            // an unreachable name server is cached as an empty answer too,
+            // so that each message does not wait for query timeouts
+            logger.error("DNS lookup failed for " + name, e);
+            records = Collections.emptyList();
+            ttl = DnsAnswer.UNKNOWN_TTL;
+        }
+        if (records.isEmpty()) {
+            ttl = ttl > 0 ? Math.min(ttl, negativeTtl) : negativeTtl;
+        }
+        ttl = Math.max(MIN_TTL, Math.min(ttl, MAX_TTL));
+        if (cache.size() >= MAX_CACHE_ENTRIES) {
+            evict(cache, now);
+        }
+        cache.put(key, new CacheEntry<>(records, now + ttl * 1000L));
+        return records;
+    }
+
+    private <T> void evict(ConcurrentMap<String, CacheEntry<T>> cache,
+            long now) {
+        cache.values().removeIf(entry -> entry.expires <= now);
+        Iterator<String> iterator = cache.keySet().iterator();
+        while (cache.size() >= MAX_CACHE_ENTRIES && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private static String transport(String service) {
+        if (NaptrRecord.SERVICE_SIP_UDP.equalsIgnoreCase(service)) {
+            return RFC3261.TRANSPORT_UDP;
+        }
+        if (NaptrRecord.SERVICE_SIP_TCP.equalsIgnoreCase(service)) {
+            return RFC3261.TRANSPORT_TCP;
+        }
+        return null;
+    }
+
+    private static String srvName(String host, String transport) {
+        return "_sip._" + transport.toLowerCase(Locale.ROOT) + "." + host;
+    }
+
+    private static String stripBrackets(String host) {
+        if (host.startsWith("[") && host.endsWith("]")) {
+            return host.substring(1, host.length() - 1);
+        }
+        return host;
+    }
+
+    /**
+     * True for dotted IPv4 addresses and for IPv6 references, which can be
+     * turned into addresses without any DNS query.
+     */
+    public static boolean isIpLiteral(String host) {
+        if (host == null || host.isEmpty()) {
+            return false;
+        }
+        if (host.indexOf(':') > -1) {
+            return true;
+        }
+        int dots = 0;
+        int digits = 0;
+        for (int i = 0; i < host.length(); ++i) {
+            char c = host.charAt(i);
+            if (c == '.') {
+                if (digits == 0) {
+                    return false;
+                }
+                ++dots;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                ++digits;
+            } else {
+                return false;
+            }
+        }
+        return dots == 3 && digits > 0;
+    }
+
+    public void clearCache() {
+        naptrCache.clear();
+        srvCache.clear();
+        addressCache.clear();
+    }
+
+    public int getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    public void setNegativeTtl(int negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    // tests
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public int getCacheSize() {
+        return naptrCache.size() + srvCache.size() + addressCache.size();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    private interface Query<T> {
+        DnsAnswer<T> lookup(String name) throws IOException;
+    }
+
+    private static class CacheEntry<T> {
+
+        final List<T> records;
+        final long expires;
+
+        CacheEntry(List<T> records, long expires) {
+            this.records = records;
+            this.expires = expires;
+        }
+
+    }
+
+}
@@ -31,10 +31,14 @@ public class SipResponse extends SipMessage {
     }
 
     @Override
-    public String toString() {
+    protected String getStartLine() {
         return RFC3261.DEFAULT_SIP_VERSION + ' ' + statusCode +
-                ' ' + reasonPhrase + RFC3261.CRLF +
-                super.toString();
+                ' ' + reasonPhrase;
+    }
+
+    @Override
+    public String toString() {
+        return getStartLine() + RFC3261.CRLF + super.toString();
     }
 
     public int getStatusCode() {
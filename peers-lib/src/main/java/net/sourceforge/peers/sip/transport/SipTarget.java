@@ -0,0 +1,73 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.net.InetAddress;
+import java.util.Objects;
+
+/**
+ * Address, port and transport of a next hop, as given by RFC 3263 procedures.
+ */
+public class SipTarget {
+
+    private final InetAddress inetAddress;
+    private final int port;
+    private final String transport;
+
+    public SipTarget(InetAddress inetAddress, int port, String transport) {
+        this.inetAddress = inetAddress;
+        this.port = port;
+        this.transport = transport;
+    }
+
+    public InetAddress getInetAddress() {
+        return inetAddress;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof SipTarget)) {
+            return false;
+        }
+        SipTarget other = (SipTarget) obj;
+        return inetAddress.equals(other.inetAddress) && port == other.port
+            && transport.equals(other.transport);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(inetAddress, port, transport);
+    }
+
+    @Override
+    public String toString() {
+        return inetAddress.getHostAddress() + ":" + port + "/" + transport;
+    }
+
+}
@@ -19,8 +19,6 @@
 
 package net.sourceforge.peers.sip.transport;
 
-import net.sourceforge.peers.sip.RFC3261;
-
 import java.net.InetAddress;
 import java.util.Objects;
 
@@ -57,10 +55,19 @@ public class SipTransportConnection {
         if (!transport.equalsIgnoreCase(other.transport)) {
             return false;
         }
-        if (RFC3261.TRANSPORT_UDP.equalsIgnoreCase(transport)) {
-            return localInetAddress.equals(other.localInetAddress) && localPort == other.localPort;
-        }
-        return false;
+        // a listening point has no remote address and no remote port
+        return Objects.equals(localInetAddress, other.localInetAddress)
+                && localPort == other.localPort
+                && Objects.equals(remoteInetAddress, other.remoteInetAddress)
+                && remotePort == other.remotePort;
+    }
+
+    /**
+     * @return the local listening point this connection goes through
+     */
+    public SipTransportConnection getListeningPoint() {
+        return new SipTransportConnection(localInetAddress, localPort,
+                null, EMPTY_PORT, transport);
     }
 
     @Override
@@ -70,7 +77,7 @@ public class SipTransportConnection {
         buf.append(':');
         appendPort(buf, localPort);
         buf.append('/');
-        if (!RFC3261.TRANSPORT_UDP.equalsIgnoreCase(transport)) {
+        if (remoteInetAddress != null) {
             appendInetAddress(buf, remoteInetAddress);
             buf.append(':');
             appendPort(buf, remotePort);
@@ -98,7 +105,8 @@ public class SipTransportConnection {
 
     @Override
     public int hashCode() {
-        return toString().hashCode();
+        return Objects.hash(localInetAddress, localPort, remoteInetAddress,
+                remotePort, transport.toUpperCase());
     }
 
     public InetAddress getLocalInetAddress() {
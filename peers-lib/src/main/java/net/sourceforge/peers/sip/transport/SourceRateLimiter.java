@@ -0,0 +1,307 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Filters received datagrams by source before they are parsed. Denied
+ * sources are always dropped, allowed sources are never rate limited, and
+ * other sources get a token bucket each. Buckets live in a bounded least
+ * recently used table split in independently locked segments, tokens are
+ * taken without lock. Rate limiting is off until a rate is set.
+ */
+public class SourceRateLimiter {
+
+    public static final int DEFAULT_MAX_SOURCES = 4096;
+    public static final int DEFAULT_BURST = 100;
+
+    private static final int SEGMENTS = 16;
+
+    private volatile int rate; // messages per second, 0 for unlimited
+    private volatile int burst;
+    private volatile boolean keyedByPort;
+
+    private final Segment[] segments;
+    private final List<AddressRange> allowed;
+    private final List<AddressRange> denied;
+
+    private final AtomicLong accepted;
+    private final AtomicLong rateLimited;
+    private final AtomicLong deniedMessages;
+
+    public SourceRateLimiter() {
+        this(DEFAULT_MAX_SOURCES);
+    }
+
+    public SourceRateLimiter(int maxSources) {
+        burst = DEFAULT_BURST;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; ++i) {
+            segments[i] = new Segment(Math.max(1, maxSources / SEGMENTS));
+        }
+        allowed = new CopyOnWriteArrayList<>();
+        denied = new CopyOnWriteArrayList<>();
+        accepted = new AtomicLong();
+        rateLimited = new AtomicLong();
+        deniedMessages = new AtomicLong();
+    }
+
+    /**
+     * @return false if the message must be dropped without being parsed
+     */
+    public boolean accept(InetAddress sourceIp, int sourcePort) {
+        return accept(sourceIp, sourcePort, System.nanoTime());
+    }
+
+    boolean accept(InetAddress sourceIp, int sourcePort, long now) {
+        if (!denied.isEmpty() && matches(denied, sourceIp)) {
+            deniedMessages.incrementAndGet();
+            return false;
+        }
+        int rate = this.rate;
+        if (rate <= 0 || (!allowed.isEmpty() && matches(allowed, sourceIp))) {
+            accepted.incrementAndGet();
+            return true;
+        }
+        Object source = keyedByPort
+            ? new InetSocketAddress(sourceIp, sourcePort) : sourceIp;
+        Segment segment = segments[
+                Math.floorMod(source.hashCode(), SEGMENTS)];
+        TokenBucket tokenBucket = segment.getOrCreate(source, now);
+        if (tokenBucket.tryConsume(now, 1000000000L / rate, burst)) {
+            accepted.incrementAndGet();
+            return true;
+        }
+        rateLimited.incrementAndGet();
+        return false;
+    }
+
+    private static boolean matches(List<AddressRange> ranges,
+            InetAddress inetAddress) {
+        for (AddressRange range : ranges) {
+            if (range.contains(inetAddress)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param range an address or a CIDR block, e.g. 192.168.0.0/16
+     */
+    public void addAllowed(String range) throws UnknownHostException {
+        allowed.add(new AddressRange(range));
+    }
+
+    /**
+     * @param range an address or a CIDR block, e.g. 192.168.0.0/16
+     */
+    public void addDenied(String range) throws UnknownHostException {
+        denied.add(new AddressRange(range));
+    }
+
+    public void clearAllowed() {
+        allowed.clear();
+    }
+
+    public void clearDenied() {
+        denied.clear();
+    }
+
+    /**
+     * @return messages dropped per source, for sources still tracked that
+     *         exceeded their rate
+     */
+    public Map<String, Long> getThrottledSources() {
+        Map<String, Long> throttledSources = new HashMap<>();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<Object, TokenBucket> entry
+                        : segment.entrySet()) {
+                    long dropped = entry.getValue().getDropped();
+                    if (dropped > 0) {
+                        throttledSources.put(sourceName(entry.getKey()),
+                                dropped);
+                    }
+                }
+            }
+        }
+        return throttledSources;
+    }
+
+    private static String sourceName(Object source) {
+        if (source instanceof InetSocketAddress) {
+            InetSocketAddress socketAddress = (InetSocketAddress) source;
+            return socketAddress.getAddress().getHostAddress() + "/"
+                + socketAddress.getPort();
+        }
+        return ((InetAddress) source).getHostAddress();
+    }
+
+    public int getTrackedSources() {
+        int trackedSources = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                trackedSources += segment.size();
+            }
+        }
+        return trackedSources;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate messages per second accepted from one source, 0 disables
+     *        rate limiting
+     */
+    public void setRate(int rate) {
+        this.rate = rate;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @param burst messages accepted at once from a source that was idle
+     */
+    public void setBurst(int burst) {
+        this.burst = Math.max(1, burst);
+    }
+
+    public boolean isKeyedByPort() {
+        return keyedByPort;
+    }
+
+    /**
+     * @param keyedByPort true to give each source port its own bucket,
+     *        false to share one bucket per address, e.g. against scanners
+     *        changing ports
+     */
+    public void setKeyedByPort(boolean keyedByPort) {
+        this.keyedByPort = keyedByPort;
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getRateLimited() {
+        return rateLimited.get();
+    }
+
+    public long getDenied() {
+        return deniedMessages.get();
+    }
+
+    private static class Segment extends LinkedHashMap<Object, TokenBucket> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSources;
+
+        Segment(int maxSources) {
+            super(16, 0.75f, true);
+            this.maxSources = maxSources;
+        }
+
+        synchronized TokenBucket getOrCreate(Object source, long now) {
+            TokenBucket tokenBucket = get(source);
+            if (tokenBucket == null) {
+                tokenBucket = new TokenBucket(now);
+                put(source, tokenBucket);
+            }
+            return tokenBucket;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(
+                Map.Entry<Object, TokenBucket> eldest) {
+            return size() > maxSources;
+        }
+
+    }
+
+    static class AddressRange {
+
+        private final byte[] network;
+        private final int prefixLength;
+
+        AddressRange(String range) throws UnknownHostException {
+            int slashPos = range.indexOf('/');
+            String address = slashPos < 0 ? range
+                    : range.substring(0, slashPos);
+            if (!SipResolver.isIpLiteral(address)) {
+                throw new UnknownHostException("not an IP address: "
+                        + address);
+            }
+            network = InetAddress.getByName(address).getAddress();
+            int maxLength = network.length * 8;
+            if (slashPos < 0) {
+                prefixLength = maxLength;
+            } else {
+                try {
+                    prefixLength = Integer.parseInt(
+                            range.substring(slashPos + 1));
+                } catch (NumberFormatException e) {
+                    throw new UnknownHostException("invalid prefix length: "
+                            + range);
+                }
+                if (prefixLength < 0 || prefixLength > maxLength) {
+                    throw new UnknownHostException("invalid prefix length: "
+                            + range);
+                }
+            }
+        }
+
+        boolean contains(InetAddress inetAddress) {
+            byte[] bytes = inetAddress.getAddress();
+            if (bytes.length != network.length) {
+                return false;
+            }
+            int fullBytes = prefixLength / 8;
+            for (int i = 0; i < fullBytes; ++i) {
+                if (bytes[i] != network[i]) {
+                    return false;
+                }
+            }
+            int remainingBits = prefixLength % 8;
+            if (remainingBits == 0) {
+                return true;
+            }
+            int mask = 0xff << (8 - remainingBits);
+            return (bytes[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+
+    }
+
+}
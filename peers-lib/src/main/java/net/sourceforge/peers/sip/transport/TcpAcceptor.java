@@ -0,0 +1,83 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.Logger;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Accepts connections on the sip port, each accepted connection gets its
+ * own sender and receiver.
+ */
+public class TcpAcceptor implements Runnable {
+
+    private final ServerSocket serverSocket;
+    private final TransportManager transportManager;
+    private final Logger logger;
+    private volatile boolean running;
+
+    public TcpAcceptor(ServerSocket serverSocket,
+                       TransportManager transportManager, Logger logger) {
+        this.serverSocket = serverSocket;
+        this.transportManager = transportManager;
+        this.logger = logger;
+        running = true;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running && !serverSocket.isClosed()) {
+                    logger.error("cannot accept connection", e);
+                    continue;
+                }
+                break;
+            }
+            try {
+                transportManager.acceptTcpConnection(socket,
+                        serverSocket.getLocalPort());
+            } catch (IOException e) {
+                logger.error("cannot add connection", e);
+                try {
+                    socket.close();
+                } catch (IOException e1) {
+                    logger.error("cannot close connection", e1);
+                }
+            }
+        }
+    }
+
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.error("cannot close server socket", e);
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderScanner;
+
+import java.io.IOException;
+
+/**
+ * Splits a stream into SIP messages (RFC3261 18.3). Bytes are appended as
+ * they are read from the connection, a message is complete once its headers
+ * and Content-Length bytes of body have been received. CRLF sequences
+ * between messages are keep-alives and are skipped.
+ */
+public class TcpMessageFramer {
+
+    // a peer sending larger messages is considered broken
+    public static final int MAX_MESSAGE_SIZE = 65536;
+
+    private static final byte[] HEADERS_END = { '\r', '\n', '\r', '\n' };
+
+    private byte[] buffer;
+    private int start;
+    private int end;
+    private int keepAliveBytes;
+
+    public TcpMessageFramer() {
+        buffer = new byte[MessageReceiver.BUFFER_SIZE];
+    }
+
+    public void append(byte[] data, int offset, int length) {
+        if (end + length > buffer.length) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            if (end + length > buffer.length) {
+                byte[] newBuffer = new byte[Math.max(buffer.length * 2,
+                        end + length)];
+                System.arraycopy(buffer, 0, newBuffer, 0, end);
+                buffer = newBuffer;
+            }
+        }
+        System.arraycopy(data, offset, buffer, end, length);
+        end += length;
+    }
+
+    /**
+     * @return the next complete message, to be released by the caller, or
+     *         null if more bytes are needed
+     * @throws IOException if the stream cannot be framed, the connection
+     *         must then be closed
+     */
+    public PooledBuffer nextMessage(BufferPool bufferPool) throws IOException {
+        while (start < end && (buffer[start] == '\r' || buffer[start] == '\n')) {
+            ++start;
+            ++keepAliveBytes;
+        }
+        if (start == end) {
+            start = 0;
+            end = 0;
+            return null;
+        }
+        int headersEnd = indexOf(buffer, start, end, HEADERS_END);
+        if (headersEnd < 0) {
+            if (end - start > MAX_MESSAGE_SIZE) {
+                throw new IOException("message headers too long");
+            }
+            return null;
+        }
+        int contentLength = contentLength(buffer, start, headersEnd);
+        if (contentLength < 0
+                || headersEnd - start + contentLength > MAX_MESSAGE_SIZE) {
+            throw new IOException("invalid Content-Length " + contentLength);
+        }
+        int messageEnd = headersEnd + HEADERS_END.length + contentLength;
+        if (messageEnd > end) {
+            return null;
+        }
+        int length = messageEnd - start;
+        PooledBuffer pooledBuffer = bufferPool.acquire(length);
+        System.arraycopy(buffer, start, pooledBuffer.getData(), 0, length);
+        pooledBuffer.setLength(length);
+        start = messageEnd;
+        return pooledBuffer;
+    }
+
+    /**
+     * @return number of CRLF bytes skipped since last call, keep-alives
+     *         received between messages
+     */
+    public int takeKeepAliveBytes() {
+        int bytes = keepAliveBytes;
+        keepAliveBytes = 0;
+        return bytes;
+    }
+
+    /**
+     * @return number of bytes received but not yet framed
+     */
+    public int getPendingBytes() {
+        return end - start;
+    }
+
+    /**
+     * Reads Content-Length, or its compact form, in header lines. A
+     * message without Content-Length has no body.
+     *
+     * @return -1 if the value is not a number
+     */
+    static int contentLength(byte[] data, int from, int to) {
+        int valueStart = SipHeaderScanner.findHeaderValue(data, from, to,
+                RFC3261.HDR_CONTENT_LENGTH, RFC3261.COMPACT_HDR_CONTENT_LENGTH);
+        if (valueStart < 0) {
+            return 0;
+        }
+        int valueEnd = SipHeaderScanner.valueEnd(data, valueStart, to);
+        if (valueEnd == valueStart || valueEnd - valueStart > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = valueStart; i < valueEnd; ++i) {
+            if (data[i] < '0' || data[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + data[i] - '0';
+        }
+        return value;
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte[] pattern) {
+        for (int i = from; i <= to - pattern.length; ++i) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                ++j;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.transaction.TransactionManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+
+/**
+ * Receiver of a connection, in a thread of its own. Read bytes are framed
+ * into messages, several messages can arrive in one read and a message can
+ * span several reads. The connection is closed on end of stream or on a
+ * framing error.
+ */
+public class TcpMessageReceiver extends MessageReceiver {
+
+    private final SipTransportConnection conn;
+    private final Socket socket;
+    private final MessageSender messageSender;
+    private final InputStream inputStream;
+    private final TcpMessageFramer framer;
+    private final byte[] readBuffer;
+
+    public TcpMessageReceiver(SipTransportConnection conn, Socket socket,
+                              MessageSender messageSender,
+                              TransactionManager transactionManager,
+                              TransportManager transportManager,
+                              Config config, Logger logger) throws IOException {
+        super(conn.getLocalPort(), transactionManager, transportManager,
+                config, logger);
+        this.conn = conn;
+        this.socket = socket;
+        this.messageSender = messageSender;
+        inputStream = socket.getInputStream();
+        framer = new TcpMessageFramer();
+        readBuffer = new byte[BUFFER_SIZE];
+    }
+
+    @Override
+    protected void listen() throws IOException {
+        int read;
+        try {
+            read = inputStream.read(readBuffer);
+        } catch (IOException e) {
+            if (isListening()) {
+                logger.error("cannot read from " + conn, e);
+            }
+            read = -1;
+        }
+        if (read < 0) {
+            close();
+            return;
+        }
+        framer.append(readBuffer, 0, read);
+        while (isListening()) {
+            PooledBuffer buffer;
+            try {
+                buffer = framer.nextMessage(bufferPool);
+            } catch (IOException e) {
+                logger.error("cannot frame message from " + conn, e);
+                close();
+                return;
+            }
+            int keepAliveBytes = framer.takeKeepAliveBytes();
+            if (keepAliveBytes > 0) {
+                keepAliveReceived(keepAliveBytes, socket.getInetAddress(),
+                        socket.getPort(), RFC3261.TRANSPORT_TCP);
+            }
+            if (buffer == null) {
+                return;
+            }
+            boolean dispatched;
+            try {
+                dispatched = dispatchMessage(buffer, socket.getInetAddress(),
+                        socket.getPort(), RFC3261.TRANSPORT_TCP);
+            } finally {
+                buffer.release();
+            }
+            if (!dispatched) {
+                // the stream lost a message, the peer has to reconnect
+                close();
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected MessageSender getConnection() {
+        return messageSender;
+    }
+
+    private void close() {
+        if (isListening()) {
+            setListening(false);
+            transportManager.closeTcpConnection(conn);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Sender writing on a connection, opened by this side or accepted from the
+ * peer. The connection is shared with its {@link TcpMessageReceiver}.
+ */
+public class TcpMessageSender extends MessageSender {
+
+    private final Socket socket;
+    private final OutputStream outputStream;
+
+    public TcpMessageSender(SipTransportConnection conn, Socket socket,
+                            Config config, Logger logger) throws IOException {
+        super(conn.getLocalPort(), conn.getRemoteInetAddress(),
+                conn.getRemotePort(), config, RFC3261.TRANSPORT_TCP, logger);
+        this.socket = socket;
+        outputStream = socket.getOutputStream();
+    }
+
+    @Override
+    public synchronized void sendBytes(byte[] bytes) throws IOException {
+        logger.debug("TcpMessageSender.sendBytes " + bytes.length
+                + " " + inetAddress + ":" + port);
+        if (socket.isClosed()) {
+            logger.error("Connection closed. Message of " + bytes.length + " bytes not sent to " + inetAddress + ":" + port);
+            return;
+        }
+        outputStream.write(bytes);
+        outputStream.flush();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            logger.error("cannot close connection", e);
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket implemented as a generic cell rate algorithm: the only state
+ * is the theoretical arrival time of the next message, updated with a
+ * compare and set, so that concurrent receive threads never block on it.
+ */
+public class TokenBucket {
+
+    private final AtomicLong theoreticalArrivalTime;
+    private final AtomicLong accepted;
+    private final AtomicLong dropped;
+
+    public TokenBucket(long now) {
+        theoreticalArrivalTime = new AtomicLong(now);
+        accepted = new AtomicLong();
+        dropped = new AtomicLong();
+    }
+
+    /**
+     * @param now current time in nanoseconds
+     * @param interval nanoseconds between two messages at the sustained rate
+     * @param burst messages accepted at once after an idle period
+     * @return true if a token has been taken
+     */
+    public boolean tryConsume(long now, long interval, int burst) {
+        long tolerance = interval * (burst - 1);
+        long current;
+        long next;
+        do {
+            current = theoreticalArrivalTime.get();
+            long base = current - now < 0 ? now : current;
+            if (base - now > tolerance) {
+                dropped.incrementAndGet();
+                return false;
+            }
+            next = base + interval;
+        } while (!theoreticalArrivalTime.compareAndSet(current, next));
+        accepted.incrementAndGet();
+        return true;
+    }
+
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+}
@@ -21,6 +21,7 @@ package net.sourceforge.peers.sip.transport;
 
 import net.sourceforge.peers.Config;
 import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.Timer;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.Utils;
 import net.sourceforge.peers.sip.syntaxencoding.*;
@@ -28,9 +29,16 @@ import net.sourceforge.peers.sip.transaction.TransactionManager;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.channels.DatagramChannel;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
-import java.util.Hashtable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static net.sourceforge.peers.sip.RFC3261.*;
 
@@ -38,31 +46,81 @@ import static net.sourceforge.peers.sip.RFC3261.*;
 public class TransportManager {
 
     public static final int SOCKET_TIMEOUT = RFC3261.TIMER_T1;
+    public static final int MAX_POOLED_BUFFERS = 256;
+    public static final int TCP_CONNECT_TIMEOUT = 10000; // milliseconds
+    public static final int DEFAULT_MAX_MESSAGE_SENDERS = 4096;
+    public static final long DEFAULT_SENDER_IDLE_TIMEOUT = 300000; // milliseconds
+    public static final int SWEEP_PERIOD = 5000; // milliseconds
+    // datagrams above this size are sent in compact form, below the UDP
+    // limit to leave room for the top Via completed after the check
+    public static final int COMPACT_FORM_THRESHOLD =
+        TRANSPORT_UDP_USUAL_MAX_SIZE - 100;
 
     private static final int NO_TTL = -1;
 
+    // SO_REUSEPORT is only available from java 9 on
+    private static final SocketOption<Boolean> SO_REUSEPORT = reusePortOption();
+
     private final Logger logger;
 
     //private UAS uas;
     private SipServerTransportUser sipServerTransportUser;
 
     protected SipParser sipParser;
+    private final BufferPool bufferPool;
+    private final KeepAliveService keepAliveService;
+    private volatile MessageDispatcher messageDispatcher;
+    private volatile SipResolver sipResolver;
+    private final OverloadController overloadController;
+    private final SourceRateLimiter sourceRateLimiter;
+
+    private final ConcurrentMap<SipTransportConnection, DatagramSocket> datagramSockets;
+    private final ConcurrentMap<SipTransportConnection, DatagramChannel> datagramChannels;
+    private final ConcurrentMap<SipTransportConnection, MessageSender> messageSenders;
+    private final ConcurrentMap<SipTransportConnection, MessageReceiver> messageReceivers;
+    private final ConcurrentMap<SipTransportConnection, TcpAcceptor> tcpAcceptors;
 
-    private final Hashtable<SipTransportConnection, DatagramSocket> datagramSockets;
-    private final Hashtable<SipTransportConnection, MessageSender> messageSenders;
-    private final Hashtable<SipTransportConnection, MessageReceiver> messageReceivers;
+    // senders are evicted once idle or when there are too many of them
+    private volatile int maxMessageSenders;
+    private volatile long senderIdleTimeout;
+    private final AtomicLong idleEvictions;
+    private final AtomicLong capacityEvictions;
+    // runs keep-alives and eviction sweeps, started with the first sender
+    private Timer housekeepingTimer;
 
     private final TransactionManager transactionManager;
 
     private final Config config;
     private int sipPort;
 
+    private final List<SelectorLoop> selectorLoops;
+    private int nextSelectorLoop;
+
+    // additional sockets bound on the sip port, one receiver each
+    private final List<DatagramChannel> listenerShards;
+    private final List<MessageReceiver> listenerShardReceivers;
+
     public TransportManager(TransactionManager transactionManager,
                             Config config, Logger logger) {
         sipParser = new SipParser();
-        datagramSockets = new Hashtable<>();
-        messageSenders = new Hashtable<>();
-        messageReceivers = new Hashtable<>();
+        bufferPool = new BufferPool(MessageReceiver.BUFFER_SIZE,
+                MAX_POOLED_BUFFERS);
+        keepAliveService = new KeepAliveService(logger);
+        sipResolver = new SipResolver(new JndiDnsBackend(), logger);
+        overloadController = new OverloadController();
+        sourceRateLimiter = new SourceRateLimiter();
+        datagramSockets = new ConcurrentHashMap<>();
+        datagramChannels = new ConcurrentHashMap<>();
+        messageSenders = new ConcurrentHashMap<>();
+        messageReceivers = new ConcurrentHashMap<>();
+        tcpAcceptors = new ConcurrentHashMap<>();
+        maxMessageSenders = DEFAULT_MAX_MESSAGE_SENDERS;
+        senderIdleTimeout = DEFAULT_SENDER_IDLE_TIMEOUT;
+        idleEvictions = new AtomicLong();
+        capacityEvictions = new AtomicLong();
+        selectorLoops = new ArrayList<>();
+        listenerShards = new ArrayList<>();
+        listenerShardReceivers = new ArrayList<>();
         this.transactionManager = transactionManager;
         this.config = config;
         this.logger = logger;
@@ -84,7 +142,11 @@ public class TransportManager {
         SipHeaderFieldValue via = Utils.getTopVia(sipRequest);
         StringBuilder builder = new StringBuilder(DEFAULT_SIP_VERSION);
         builder.append(TRANSPORT_VIA_SEP);
-        if (sipRequest.toString().getBytes().length > TRANSPORT_UDP_USUAL_MAX_SIZE) {
+        if (TRANSPORT_UDP.equals(transport)
+                && sipRequest.encodedLength() > COMPACT_FORM_THRESHOLD) {
+            sipRequest.setCompact(true);
+        }
+        if (sipRequest.encodedLength() > TRANSPORT_UDP_USUAL_MAX_SIZE) {
             transport = TRANSPORT_TCP;
         }
         builder.append(transport);
@@ -137,9 +199,27 @@ public class TransportManager {
         if (messageSender == null) {
             messageSender = createMessageSender(connection);
         }
+        if (RFC3261.METHOD_REGISTER.equals(sipRequest.getMethod())) {
+            // the flow of a registration lives until it is removed
+            messageSender.setPinned(!isUnregister(sipRequest));
+        }
         return messageSender;
     }
 
+    private static boolean isUnregister(SipRequest sipRequest) {
+        SipHeaders sipHeaders = sipRequest.getSipHeaders();
+        SipHeaderFieldValue contact = sipHeaders.get(
+                SipHeaderFieldName.CONTACT);
+        String expires = contact == null ? null
+                : contact.getParam(SipHeaderParamName.EXPIRES);
+        if (expires == null) {
+            SipHeaderFieldValue expiresHeader = sipHeaders.get(
+                    SipHeaderFieldName.EXPIRES);
+            expires = expiresHeader == null ? null : expiresHeader.getValue();
+        }
+        return expires != null && "0".equals(expires.trim());
+    }
+
     private String threadName(int port) {
         return getClass().getSimpleName() + " " + port;
     }
@@ -150,17 +230,272 @@ public class TransportManager {
                 config.getLocalInetAddress(), port, null,
                 SipTransportConnection.EMPTY_PORT, transportType);
 
+        if (RFC3261.TRANSPORT_TCP.equalsIgnoreCase(transportType)) {
+            createTcpAcceptor(conn);
+            return;
+        }
         MessageReceiver messageReceiver = messageReceivers.get(conn);
         if (messageReceiver == null) {
+            // non-blocking receivers are registered on a selector loop
             messageReceiver = createMessageReceiver(conn);
-            new Thread(messageReceiver, threadName(port)).start();
+            if (!(messageReceiver instanceof NioUdpMessageReceiver)) {
+                new Thread(messageReceiver, threadName(port)).start();
+            }
+            // RFC3261 18: a UA must also accept connections on its sip port,
+            // udp keeps working if the tcp port is not available
+            try {
+                createServerTransport(RFC3261.TRANSPORT_TCP, sipPort);
+            } catch (SocketException e) {
+                logger.error("cannot listen on tcp port " + sipPort, e);
+            }
         }
         if (!messageReceiver.isListening()) {
             new Thread(messageReceiver, threadName(port)).start();
         }
     }
 
+    private void createTcpAcceptor(final SipTransportConnection conn)
+            throws SocketException {
+        if (tcpAcceptors.containsKey(conn)) {
+            return;
+        }
+        // AccessController.doPrivileged added for plugin compatibility
+        ServerSocket serverSocket = AccessController.doPrivileged(
+                (PrivilegedAction<ServerSocket>) () -> {
+                    try {
+                        ServerSocket socket = new ServerSocket();
+                        socket.setReuseAddress(true);
+                        try {
+                            socket.bind(new InetSocketAddress(
+                                    conn.getLocalInetAddress(),
+                                    conn.getLocalPort()));
+                        } catch (IOException e) {
+                            socket.close();
+                            throw e;
+                        }
+                        return socket;
+                    } catch (IOException e) {
+                        logger.error("cannot create server socket", e);
+                    } catch (SecurityException e) {
+                        logger.error("security exception", e);
+                    }
+                    return null;
+                }
+        );
+        if (serverSocket == null) {
+            throw new SocketException();
+        }
+        TcpAcceptor tcpAcceptor = new TcpAcceptor(serverSocket, this, logger);
+        tcpAcceptors.put(conn, tcpAcceptor);
+        new Thread(tcpAcceptor, threadName(conn.getLocalPort()) + " "
+                + RFC3261.TRANSPORT_TCP).start();
+        logger.info("added server socket " + conn);
+    }
+
+    void acceptTcpConnection(Socket socket, int localPort) throws IOException {
+        SipTransportConnection conn = new SipTransportConnection(
+                config.getLocalInetAddress(), localPort,
+                socket.getInetAddress(), socket.getPort(),
+                RFC3261.TRANSPORT_TCP);
+        createTcpConnection(conn, socket, true);
+    }
+
+    private MessageSender createTcpConnection(SipTransportConnection conn,
+            Socket socket, boolean accepted) throws IOException {
+        socket.setTcpNoDelay(true);
+        TcpMessageSender messageSender = new TcpMessageSender(conn, socket,
+                config, logger);
+        MessageSender registered;
+        while ((registered = addMessageSender(conn, messageSender))
+                != messageSender) {
+            if (!accepted) {
+                // connected concurrently, the first connection is kept
+                messageSender.close();
+                return registered;
+            }
+            // an accepted connection replaces the one of its address
+            removeMessageSender(conn, registered);
+        }
+        TcpMessageReceiver messageReceiver = new TcpMessageReceiver(conn,
+                socket, messageSender, transactionManager, this, config,
+                logger);
+        messageReceiver.setSipServerTransportUser(sipServerTransportUser);
+        messageReceivers.put(conn, messageReceiver);
+        new Thread(messageReceiver, threadName(conn.getLocalPort()) + " "
+                + conn.getRemoteInetAddress().getHostAddress() + ":"
+                + conn.getRemotePort()).start();
+        logger.info("added connection " + conn);
+        return messageSender;
+    }
+
+    void closeTcpConnection(SipTransportConnection conn) {
+        MessageSender messageSender = messageSenders.get(conn);
+        if (messageSender != null) {
+            removeMessageSender(conn, messageSender);
+        } else {
+            MessageReceiver messageReceiver = messageReceivers.remove(conn);
+            if (messageReceiver != null) {
+                messageReceiver.setListening(false);
+            }
+        }
+    }
+
+    /**
+     * @return the sender registered for this connection, another one if
+     *         it was registered first
+     */
+    private MessageSender addMessageSender(SipTransportConnection conn,
+            MessageSender messageSender) {
+        MessageSender registered = messageSenders.putIfAbsent(conn,
+                messageSender);
+        if (registered != null) {
+            return registered;
+        }
+        keepAliveService.add(messageSender);
+        startHousekeeping();
+        while (messageSenders.size() > maxMessageSenders) {
+            // least recently used sender
+            Map.Entry<SipTransportConnection, MessageSender> eldest = null;
+            for (Map.Entry<SipTransportConnection, MessageSender> entry
+                    : messageSenders.entrySet()) {
+                if (entry.getValue().isPinned()) {
+                    continue;
+                }
+                if (eldest == null || entry.getValue().getLastActivity()
+                        < eldest.getValue().getLastActivity()) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                break;
+            }
+            if (removeMessageSender(eldest.getKey(), eldest.getValue())) {
+                capacityEvictions.incrementAndGet();
+            }
+        }
+        return messageSender;
+    }
+
+    /**
+     * A connection is closed with its sender, a datagram sender only stops
+     * its keep-alives, the socket belongs to the listening point.
+     */
+    private boolean removeMessageSender(SipTransportConnection conn,
+            MessageSender messageSender) {
+        if (!messageSenders.remove(conn, messageSender)) {
+            return false;
+        }
+        keepAliveService.remove(messageSender);
+        if (messageSender instanceof TcpMessageSender) {
+            MessageReceiver messageReceiver = messageReceivers.remove(conn);
+            if (messageReceiver != null) {
+                messageReceiver.setListening(false);
+            }
+        }
+        messageSender.close();
+        logger.debug("removed message sender " + conn);
+        return true;
+    }
+
+    void sweep(long now) {
+        long idleTimeout = senderIdleTimeout;
+        for (Map.Entry<SipTransportConnection, MessageSender> entry
+                : messageSenders.entrySet()) {
+            MessageSender messageSender = entry.getValue();
+            if (!messageSender.isPinned()
+                    && now - messageSender.getLastActivity() > idleTimeout
+                    && removeMessageSender(entry.getKey(), messageSender)) {
+                idleEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    private synchronized void startHousekeeping() {
+        if (housekeepingTimer != null) {
+            return;
+        }
+        housekeepingTimer = new Timer(getClass().getSimpleName() + " "
+                + Timer.class.getSimpleName());
+        housekeepingTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                keepAliveService.tick(System.currentTimeMillis());
+            }
+        }, KeepAliveService.TICK, KeepAliveService.TICK);
+        housekeepingTimer.scheduleAtFixedRate(new TimerTask() {
+            @Override
+            public void run() {
+                sweep(System.currentTimeMillis());
+            }
+        }, SWEEP_PERIOD, SWEEP_PERIOD);
+    }
+
+    private Socket connect(final SipTransportConnection conn)
+            throws SocketException {
+        // AccessController.doPrivileged added for plugin compatibility
+        Socket socket = AccessController.doPrivileged(
+                (PrivilegedAction<Socket>) () -> {
+                    Socket s = new Socket();
+                    try {
+                        s.bind(new InetSocketAddress(
+                                conn.getLocalInetAddress(), 0));
+                        s.connect(new InetSocketAddress(
+                                conn.getRemoteInetAddress(),
+                                conn.getRemotePort()), TCP_CONNECT_TIMEOUT);
+                        return s;
+                    } catch (IOException e) {
+                        logger.error("cannot connect to "
+                                + conn.getRemoteInetAddress() + ":"
+                                + conn.getRemotePort(), e);
+                    } catch (SecurityException e) {
+                        logger.error("security exception", e);
+                    }
+                    try {
+                        s.close();
+                    } catch (IOException e) {
+                        logger.error("cannot close socket", e);
+                    }
+                    return null;
+                }
+        );
+        if (socket == null) {
+            throw new SocketException("cannot connect to "
+                    + conn.getRemoteInetAddress() + ":" + conn.getRemotePort());
+        }
+        return socket;
+    }
+
     public void sendResponse(SipResponse sipResponse) throws IOException {
+        sendResponse(sipResponse, null);
+    }
+
+    /**
+     * @param sipRequest request answered, null if unknown
+     */
+    public void sendResponse(SipResponse sipResponse, SipRequest sipRequest)
+            throws IOException {
+        MessageSender messageSender = prepareResponse(sipResponse, sipRequest);
+        if (messageSender != null) {
+            messageSender.sendMessage(sipResponse);
+        }
+    }
+
+    public MessageSender prepareResponse(SipResponse sipResponse)
+            throws IOException {
+        return prepareResponse(sipResponse, null);
+    }
+
+    /**
+     * Resolves the destination of a response from its top Via and adds the
+     * Contact header, the response can then be encoded once and sent again
+     * with the returned sender. A response to a request received on a
+     * connection goes back on this connection while it is open.
+     *
+     * @param sipRequest request answered, null if unknown
+     * @return null if the response cannot be sent
+     */
+    public MessageSender prepareResponse(SipResponse sipResponse,
+            SipRequest sipRequest) throws IOException {
         //18.2.2
         SipHeaderFieldValue topVia = Utils.getTopVia(sipResponse);
         String topViaValue = topVia.getValue();
@@ -198,7 +533,7 @@ public class TransportManager {
         } else {
             logger.error("no transport found in top via header," +
                     " discarding response");
-            return;
+            return null;
         }
 
         String received =
@@ -216,112 +551,133 @@ public class TransportManager {
         SipTransportConnection connection;
         try {
             connection = new SipTransportConnection(config.getLocalInetAddress(),
-                    sipPort, InetAddress.getByName(host),
+                    sipPort, sipResolver.resolveAddress(host),
                     port, transport);
         } catch (UnknownHostException e) {
             logger.error("unknwon host", e);
-            return;
+            return null;
         }
 
         //actual sending
 
         //TODO manage maddr parameter in top via for multicast
-        if (builder.indexOf(RFC3261.TRANSPORT_TCP) > -1) {
-//            Socket socket = (Socket)factory.connections.get(connection);
-//            if (!socket.isClosed()) {
-//                try {
-//                    socket.getOutputStream().write(data);
-//                } catch (IOException e) {
-//                    e.printStackTrace();
-//                    return;
-//                    //TODO
-//                }
-//            } else {
-//                try {
-//                    socket = new Socket(host, port);
-//                    factory.connections.put(connection, socket);
-//                    socket.getOutputStream().write(data);
-//                } catch (IOException e) {
-//                    // TODO Auto-generated catch block
-//                    e.printStackTrace();
-//                    /*
-//                     * TODO
-//                     * If connection attempt fails, use the procedures in RFC3263
-//                     * for servers in order to determine the IP address and
-//                     * port to open the connection and send the response to.
-//                     */
-//                    return;
-//                }
-//            }
-        } else {
-            MessageSender messageSender = messageSenders.get(connection);
-            if (messageSender == null) {
-                messageSender = createMessageSender(connection);
+        MessageSender messageSender = null;
+        if (sipRequest != null) {
+            // RFC3261 18.2.2, the port of sent-by is not the one of the
+            // connection
+            messageSender = sipRequest.getConnection();
+            if (messageSender != null && messageSender.isClosed()) {
+                messageSender = null;
             }
-            //add contact header
-            SipHeaderFieldName contactName = new SipHeaderFieldName(RFC3261.HDR_CONTACT);
-            SipHeaders respHeaders = sipResponse.getSipHeaders();
-            String contactBuf = RFC3261.LEFT_ANGLE_BRACKET +
-                    RFC3261.SIP_SCHEME +
-                    RFC3261.SCHEME_SEPARATOR +
-                    messageSender.getContact() +
-                    RFC3261.RIGHT_ANGLE_BRACKET;
-            respHeaders.add(contactName, new SipHeaderFieldValue(contactBuf));
-            messageSender.sendMessage(sipResponse);
-
         }
-
-
+        if (messageSender == null) {
+            messageSender = messageSenders.get(connection);
+        }
+        /*
+         * TODO
+         * If connection attempt fails, use the procedures in RFC3263
+         * for servers in order to determine the IP address and
+         * port to open the connection and send the response to.
+         */
+        if (messageSender == null) {
+            messageSender = createMessageSender(connection);
+        }
+        //add contact header
+        SipHeaderFieldName contactName = new SipHeaderFieldName(RFC3261.HDR_CONTACT);
+        SipHeaders respHeaders = sipResponse.getSipHeaders();
+        String contactBuf = RFC3261.LEFT_ANGLE_BRACKET +
+                RFC3261.SIP_SCHEME +
+                RFC3261.SCHEME_SEPARATOR +
+                messageSender.getContact() +
+                RFC3261.RIGHT_ANGLE_BRACKET;
+        respHeaders.add(contactName, new SipHeaderFieldValue(contactBuf));
+        if (RFC3261.TRANSPORT_UDP.equals(transport)
+                && sipResponse.encodedLength() > COMPACT_FORM_THRESHOLD) {
+            sipResponse.setCompact(true);
+        }
+        return messageSender;
     }
 
     private MessageSender createMessageSender(final SipTransportConnection conn)
             throws IOException {
+        if (RFC3261.TRANSPORT_TCP.equalsIgnoreCase(conn.getTransport())) {
+            // connections are blocking, even with selector threads
+            return createTcpConnection(conn, connect(conn), false);
+        }
         MessageSender messageSender = null;
         Object socket = null;
+        // sockets and receivers are shared by all remote parties
+        SipTransportConnection listeningPoint = conn.getListeningPoint();
         if (RFC3261.TRANSPORT_UDP.equalsIgnoreCase(conn.getTransport())) {
             //TODO use Utils.getMyAddress to create socket on appropriate NIC
-            DatagramSocket datagramSocket = datagramSockets.get(conn);
-            if (datagramSocket == null) {
-                logger.debug("new DatagramSocket(" + conn.getLocalPort()
-                        + ", " + conn.getLocalInetAddress() + ")");
-                // AccessController.doPrivileged added for plugin compatibility
-                datagramSocket = AccessController.doPrivileged(
-                        (PrivilegedAction<DatagramSocket>) () -> {
-                            try {
-                                return new DatagramSocket(conn.getLocalPort(),
-                                        conn.getLocalInetAddress());
-                            } catch (SocketException e) {
-                                logger.error("cannot create socket", e);
-                            } catch (SecurityException e) {
-                                logger.error("security exception", e);
-                            }
-                            return null;
-                        }
-                );
+            if (isNioTransport()) {
+                DatagramChannel datagramChannel =
+                        datagramChannels.get(listeningPoint);
+                if (datagramChannel == null) {
+                    datagramChannel = openDatagramChannel(
+                            conn.getLocalInetAddress(), conn.getLocalPort(),
+                            false, false);
+                    datagramChannels.put(listeningPoint, datagramChannel);
+                    logger.info("added datagram channel " + listeningPoint);
+                }
+                socket = datagramChannel;
+                messageSender = new NioUdpMessageSender(
+                        conn.getRemoteInetAddress(), conn.getRemotePort(),
+                        datagramChannel, config, logger);
+            } else {
+                DatagramSocket datagramSocket =
+                        datagramSockets.get(listeningPoint);
                 if (datagramSocket == null) {
-                    throw new SocketException();
+                    logger.debug("new DatagramSocket(" + conn.getLocalPort()
+                            + ", " + conn.getLocalInetAddress() + ")");
+                    // AccessController.doPrivileged added for plugin compatibility
+                    datagramSocket = AccessController.doPrivileged(
+                            (PrivilegedAction<DatagramSocket>) () -> {
+                                try {
+                                    return new DatagramSocket(conn.getLocalPort(),
+                                            conn.getLocalInetAddress());
+                                } catch (SocketException e) {
+                                    logger.error("cannot create socket", e);
+                                } catch (SecurityException e) {
+                                    logger.error("security exception", e);
+                                }
+                                return null;
+                            }
+                    );
+                    if (datagramSocket == null) {
+                        throw new SocketException();
+                    }
+                    datagramSocket.setSoTimeout(SOCKET_TIMEOUT);
+                    datagramSockets.put(listeningPoint, datagramSocket);
+                    logger.info("added datagram socket " + listeningPoint);
                 }
-                datagramSocket.setSoTimeout(SOCKET_TIMEOUT);
-                datagramSockets.put(conn, datagramSocket);
-                logger.info("added datagram socket " + conn);
+                socket = datagramSocket;
+                messageSender = new UdpMessageSender(conn.getRemoteInetAddress(),
+                        conn.getRemotePort(), datagramSocket, config, logger);
             }
-            socket = datagramSocket;
-            messageSender = new UdpMessageSender(conn.getRemoteInetAddress(),
-                    conn.getRemotePort(), datagramSocket, config, logger);
-        } else {
-            // TODO
-            // messageReceiver = new TcpMessageReceiver(port);
         }
-        messageSenders.put(conn, messageSender);
+        if (messageSender == null) {
+            throw new SocketException("unsupported transport "
+                    + conn.getTransport());
+        }
+        MessageSender registered = addMessageSender(conn, messageSender);
+        if (registered != messageSender) {
+            // created concurrently for the same remote party
+            messageSender.close();
+            return registered;
+        }
         //when a mesage is sent over a transport, the transport layer
         //must also be able to receive messages on this transport
 
 //        MessageReceiver messageReceiver =
 //            createMessageReceiver(conn, socket);
-        MessageReceiver messageReceiver = messageReceivers.get(conn);
+        MessageReceiver messageReceiver = messageReceivers.get(listeningPoint);
         if (messageReceiver == null) {
-            messageReceiver = createMessageReceiver(conn, socket);
-            new Thread(messageReceiver, threadName(conn.getLocalPort())).start();
+            messageReceiver = createMessageReceiver(listeningPoint, socket);
+            if (!(messageReceiver instanceof NioUdpMessageReceiver)) {
+                new Thread(messageReceiver,
+                        threadName(conn.getLocalPort())).start();
+            }
         }
 //        if (RFC3261.TRANSPORT_UDP.equalsIgnoreCase(conn.getTransport())) {
 //            messageSender = new UdpMessageSender(conn.getRemoteInetAddress(),
@@ -334,7 +690,13 @@ public class TransportManager {
     private MessageReceiver createMessageReceiver(SipTransportConnection conn,
                                                   Object socket) throws IOException {
         MessageReceiver messageReceiver = null;
-        if (RFC3261.TRANSPORT_UDP.equalsIgnoreCase(conn.getTransport())) {
+        if (socket instanceof DatagramChannel) {
+            DatagramChannel datagramChannel = (DatagramChannel) socket;
+            messageReceiver = new NioUdpMessageReceiver(datagramChannel,
+                    transactionManager, this, config, logger);
+            messageReceiver.setSipServerTransportUser(sipServerTransportUser);
+            getSelectorLoop().register(datagramChannel, messageReceiver);
+        } else if (RFC3261.TRANSPORT_UDP.equalsIgnoreCase(conn.getTransport())) {
             DatagramSocket datagramSocket = (DatagramSocket) socket;
             messageReceiver = new UdpMessageReceiver(datagramSocket,
                     transactionManager, this, config, logger);
@@ -348,25 +710,56 @@ public class TransportManager {
             throws SocketException {
         MessageReceiver messageReceiver = null;
         SipTransportConnection sipTransportConnection = conn;
-        if (RFC3261.TRANSPORT_UDP.equals(conn.getTransport())) {
+        if (RFC3261.TRANSPORT_UDP.equals(conn.getTransport())
+                && isNioTransport()) {
+            DatagramChannel datagramChannel = datagramChannels.get(conn);
+            if (datagramChannel == null) {
+                datagramChannel = openDatagramChannel(conn.getLocalInetAddress(),
+                        conn.getLocalPort(), false, getListenerShards() > 1);
+                int localPort = datagramChannel.socket().getLocalPort();
+                if (conn.getLocalPort() == 0) {
+                    sipTransportConnection = new SipTransportConnection(
+                            conn.getLocalInetAddress(),
+                            localPort,
+                            conn.getRemoteInetAddress(),
+                            conn.getRemotePort(),
+                            conn.getTransport());
+                }
+                sipPort = localPort;
+                datagramChannels.put(sipTransportConnection, datagramChannel);
+                logger.info("added datagram channel " + sipTransportConnection);
+                createListenerShards(sipTransportConnection);
+            }
+            messageReceiver = new NioUdpMessageReceiver(datagramChannel,
+                    transactionManager, this, config, logger);
+            messageReceiver.setSipServerTransportUser(sipServerTransportUser);
+            getSelectorLoop().register(datagramChannel, messageReceiver);
+        } else if (RFC3261.TRANSPORT_UDP.equals(conn.getTransport())) {
             DatagramSocket datagramSocket = datagramSockets.get(conn);
             if (datagramSocket == null) {
-                logger.debug("new DatagramSocket(" + conn.getLocalPort()
-                        + ", " + conn.getLocalInetAddress() + ")");
-                // AccessController.doPrivileged added for plugin compatibility
-                datagramSocket = AccessController.doPrivileged(
-                        (PrivilegedAction<DatagramSocket>) () -> {
-                            try {
-                                return new DatagramSocket(conn.getLocalPort(),
-                                        conn.getLocalInetAddress());
-                            } catch (SocketException e) {
-                                logger.error("cannot create socket", e);
-                            } catch (SecurityException e) {
-                                logger.error("security exception", e);
+                if (getListenerShards() > 1) {
+                    // SO_REUSEPORT must be set before bind
+                    datagramSocket = openDatagramChannel(
+                            conn.getLocalInetAddress(), conn.getLocalPort(),
+                            true, true).socket();
+                } else {
+                    logger.debug("new DatagramSocket(" + conn.getLocalPort()
+                            + ", " + conn.getLocalInetAddress() + ")");
+                    // AccessController.doPrivileged added for plugin compatibility
+                    datagramSocket = AccessController.doPrivileged(
+                            (PrivilegedAction<DatagramSocket>) () -> {
+                                try {
+                                    return new DatagramSocket(conn.getLocalPort(),
+                                            conn.getLocalInetAddress());
+                                } catch (SocketException e) {
+                                    logger.error("cannot create socket", e);
+                                } catch (SecurityException e) {
+                                    logger.error("security exception", e);
+                                }
+                                return null;
                             }
-                            return null;
-                        }
-                );
+                    );
+                }
                 datagramSocket.setSoTimeout(SOCKET_TIMEOUT);
                 if (conn.getLocalPort() == 0) {
                     sipTransportConnection = new SipTransportConnection(
@@ -380,14 +773,14 @@ public class TransportManager {
                 sipPort = datagramSocket.getLocalPort();
                 datagramSockets.put(sipTransportConnection, datagramSocket);
                 logger.info("added datagram socket " + sipTransportConnection);
+                createListenerShards(sipTransportConnection);
             }
             messageReceiver = new UdpMessageReceiver(datagramSocket,
                     transactionManager, this, config, logger);
             messageReceiver.setSipServerTransportUser(sipServerTransportUser);
-            //TODO create also tcp receiver using a recursive call
         } else {
-            //TODO
-            //messageReceiver = new TcpMessageReceiver(port);
+            throw new SocketException("unsupported transport "
+                    + conn.getTransport());
         }
         messageReceivers.put(sipTransportConnection, messageReceiver);
         logger.info("added " + sipTransportConnection + ": " + messageReceiver
@@ -395,22 +788,177 @@ public class TransportManager {
         return messageReceiver;
     }
 
+    private boolean isNioTransport() {
+        return config.getSelectorThreads() > 0;
+    }
+
+    private int getListenerShards() {
+        int listenerShards = config.getListenerShards();
+        if (listenerShards > 1 && SO_REUSEPORT == null) {
+            logger.error("SO_REUSEPORT not available, using a single "
+                    + "listening socket");
+            return 1;
+        }
+        return listenerShards;
+    }
+
+    /**
+     * Binds the remaining listener shards on the port of the primary
+     * listening socket. The kernel spreads incoming datagrams over all
+     * sockets bound with SO_REUSEPORT, each shard has its own receive loop.
+     */
+    private void createListenerShards(SipTransportConnection conn)
+            throws SocketException {
+        int shards = getListenerShards();
+        for (int i = 1; i < shards; ++i) {
+            DatagramChannel datagramChannel = openDatagramChannel(
+                    conn.getLocalInetAddress(), conn.getLocalPort(),
+                    !isNioTransport(), true);
+            MessageReceiver messageReceiver;
+            if (isNioTransport()) {
+                messageReceiver = new NioUdpMessageReceiver(datagramChannel,
+                        transactionManager, this, config, logger);
+                getSelectorLoop().register(datagramChannel, messageReceiver);
+            } else {
+                DatagramSocket datagramSocket = datagramChannel.socket();
+                datagramSocket.setSoTimeout(SOCKET_TIMEOUT);
+                messageReceiver = new UdpMessageReceiver(datagramSocket,
+                        transactionManager, this, config, logger);
+            }
+            messageReceiver.setSipServerTransportUser(sipServerTransportUser);
+            if (!isNioTransport()) {
+                new Thread(messageReceiver, threadName(conn.getLocalPort())
+                        + " " + i).start();
+            }
+            listenerShards.add(datagramChannel);
+            listenerShardReceivers.add(messageReceiver);
+        }
+        if (shards > 1) {
+            logger.info("added " + (shards - 1)
+                    + " listener shards on " + conn);
+        }
+    }
+
+    private DatagramChannel openDatagramChannel(final InetAddress localAddress,
+            final int localPort, final boolean blocking,
+            final boolean reusePort) throws SocketException {
+        logger.debug("new DatagramChannel(" + localPort
+                + ", " + localAddress + ")");
+        // AccessController.doPrivileged added for plugin compatibility
+        DatagramChannel datagramChannel = AccessController.doPrivileged(
+                (PrivilegedAction<DatagramChannel>) () -> {
+                    DatagramChannel channel = null;
+                    try {
+                        channel = DatagramChannel.open();
+                        if (reusePort) {
+                            channel.setOption(SO_REUSEPORT, true);
+                        }
+                        channel.configureBlocking(blocking);
+                        channel.bind(new InetSocketAddress(localAddress,
+                                localPort));
+                        return channel;
+                    } catch (IOException e) {
+                        logger.error("cannot create channel", e);
+                    } catch (UnsupportedOperationException e) {
+                        logger.error("SO_REUSEPORT not supported", e);
+                    } catch (SecurityException e) {
+                        logger.error("security exception", e);
+                    }
+                    if (channel != null) {
+                        try {
+                            channel.close();
+                        } catch (IOException e) {
+                            logger.error("cannot close channel", e);
+                        }
+                    }
+                    return null;
+                }
+        );
+        if (datagramChannel == null) {
+            throw new SocketException();
+        }
+        return datagramChannel;
+    }
+
+    /**
+     * Selector loops are started on first use, channels are spread over
+     * them in a round robin fashion.
+     */
+    private synchronized SelectorLoop getSelectorLoop() throws SocketException {
+        if (selectorLoops.isEmpty()) {
+            for (int i = 0; i < config.getSelectorThreads(); ++i) {
+                SelectorLoop selectorLoop;
+                try {
+                    selectorLoop = new SelectorLoop(logger);
+                } catch (IOException e) {
+                    logger.error("cannot open selector", e);
+                    throw new SocketException(e.getMessage());
+                }
+                selectorLoops.add(selectorLoop);
+                new Thread(selectorLoop, getClass().getSimpleName()
+                        + " " + SelectorLoop.class.getSimpleName() + " " + i)
+                        .start();
+            }
+        }
+        nextSelectorLoop = (nextSelectorLoop + 1) % selectorLoops.size();
+        return selectorLoops.get(nextSelectorLoop);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class
+                    .getField("SO_REUSEPORT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
     public void setSipServerTransportUser(
             SipServerTransportUser sipServerTransportUser) {
         this.sipServerTransportUser = sipServerTransportUser;
+        for (MessageReceiver messageReceiver : listenerShardReceivers) {
+            messageReceiver.setSipServerTransportUser(sipServerTransportUser);
+        }
     }
 
     public void closeTransports() {
         for (MessageReceiver messageReceiver : messageReceivers.values()) {
             messageReceiver.setListening(false);
         }
+        for (MessageReceiver messageReceiver : listenerShardReceivers) {
+            messageReceiver.setListening(false);
+        }
+        synchronized (this) {
+            if (housekeepingTimer != null) {
+                housekeepingTimer.cancel();
+                housekeepingTimer = null;
+            }
+            if (messageDispatcher != null) {
+                messageDispatcher.close();
+                messageDispatcher = null;
+            }
+        }
+        keepAliveService.close();
+        for (TcpAcceptor tcpAcceptor : tcpAcceptors.values()) {
+            tcpAcceptor.close();
+        }
         for (MessageSender messageSender : messageSenders.values()) {
-            messageSender.stopKeepAlives();
+            messageSender.close();
         }
-        try {
-            Thread.sleep(SOCKET_TIMEOUT);
-        } catch (InterruptedException e) {
-            return;
+        synchronized (this) {
+            for (SelectorLoop selectorLoop : selectorLoops) {
+                selectorLoop.close();
+            }
+            selectorLoops.clear();
+        }
+        // blocking receivers notice they must stop on socket timeout
+        if (!datagramSockets.isEmpty() || !listenerShards.isEmpty()) {
+            try {
+                Thread.sleep(SOCKET_TIMEOUT);
+            } catch (InterruptedException e) {
+                return;
+            }
         }
         // AccessController.doPrivileged added for plugin compatibility
         AccessController.doPrivileged(
@@ -418,11 +966,25 @@ public class TransportManager {
                     for (DatagramSocket datagramSocket : datagramSockets.values()) {
                         datagramSocket.close();
                     }
+                    List<DatagramChannel> channels =
+                            new ArrayList<>(datagramChannels.values());
+                    channels.addAll(listenerShards);
+                    for (DatagramChannel datagramChannel : channels) {
+                        try {
+                            datagramChannel.close();
+                        } catch (IOException e) {
+                            logger.error("cannot close channel", e);
+                        }
+                    }
                     return null;
                 }
         );
 
         datagramSockets.clear();
+        datagramChannels.clear();
+        listenerShards.clear();
+        listenerShardReceivers.clear();
+        tcpAcceptors.clear();
         messageReceivers.clear();
         messageSenders.clear();
     }
@@ -432,6 +994,91 @@ public class TransportManager {
         return messageSenders.get(sipTransportConnection);
     }
 
+    public int getMessageSenderCount() {
+        return messageSenders.size();
+    }
+
+    public int getMaxMessageSenders() {
+        return maxMessageSenders;
+    }
+
+    public void setMaxMessageSenders(int maxMessageSenders) {
+        this.maxMessageSenders = maxMessageSenders;
+    }
+
+    public long getSenderIdleTimeout() {
+        return senderIdleTimeout;
+    }
+
+    /**
+     * @param senderIdleTimeout milliseconds without traffic after which a
+     *        message sender is closed and forgotten
+     */
+    public void setSenderIdleTimeout(long senderIdleTimeout) {
+        this.senderIdleTimeout = senderIdleTimeout;
+    }
+
+    /**
+     * @return number of senders closed because they were idle
+     */
+    public long getIdleEvictions() {
+        return idleEvictions.get();
+    }
+
+    /**
+     * @return number of senders closed to stay within the maximum
+     */
+    public long getCapacityEvictions() {
+        return capacityEvictions.get();
+    }
+
+    /**
+     * Workers are started on first received message.
+     * 
+     * @return null if messages are processed on receive threads
+     */
+    public MessageDispatcher getMessageDispatcher() {
+        MessageDispatcher dispatcher = messageDispatcher;
+        if (dispatcher != null || config.getDispatchThreads() < 1) {
+            return dispatcher;
+        }
+        synchronized (this) {
+            if (messageDispatcher == null) {
+                messageDispatcher = new MessageDispatcher(
+                        config.getDispatchThreads(),
+                        MessageDispatcher.QUEUE_CAPACITY, logger);
+            }
+            return messageDispatcher;
+        }
+    }
+
+    public SourceRateLimiter getSourceRateLimiter() {
+        return sourceRateLimiter;
+    }
+
+    /**
+     * @return null unless overload control is enabled in configuration
+     */
+    public OverloadController getOverloadController() {
+        return config.isOverloadControl() ? overloadController : null;
+    }
+
+    public SipResolver getSipResolver() {
+        return sipResolver;
+    }
+
+    public void setSipResolver(SipResolver sipResolver) {
+        this.sipResolver = sipResolver;
+    }
+
+    public KeepAliveService getKeepAliveService() {
+        return keepAliveService;
+    }
+
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
     public int getSipPort() {
         return sipPort;
     }
@@ -36,6 +36,8 @@ import java.security.PrivilegedAction;
 public class UdpMessageReceiver extends MessageReceiver {
 
     private final DatagramSocket datagramSocket;
+    // only used by the receiver thread, its data is set for each buffer
+    private final DatagramPacket packet;
 
     public UdpMessageReceiver(DatagramSocket datagramSocket,
                               TransactionManager transactionManager,
@@ -45,12 +47,13 @@ public class UdpMessageReceiver extends MessageReceiver {
         super(datagramSocket.getLocalPort(), transactionManager,
                 transportManager, config, logger);
         this.datagramSocket = datagramSocket;
+        packet = new DatagramPacket(new byte[0], 0);
     }
 
     @Override
     protected void listen() throws IOException {
-        byte[] buf = new byte[BUFFER_SIZE];
-        final DatagramPacket packet = new DatagramPacket(buf, buf.length);
+        PooledBuffer buffer = bufferPool.acquire();
+        packet.setData(buffer.getData());
         final int noException = 0;
         final int socketTimeoutException = 1;
         final int ioException = 2;
@@ -72,21 +75,23 @@ public class UdpMessageReceiver extends MessageReceiver {
                     }
                     return noException;
                 });
-        switch (result) {
-            case socketTimeoutException:
-                return;
-            case ioException:
-                throw new IOException();
-            case noException:
-                break;
-            default:
-                break;
+        try {
+            switch (result) {
+                case socketTimeoutException:
+                    return;
+                case ioException:
+                    throw new IOException();
+                case noException:
+                    break;
+                default:
+                    break;
+            }
+            buffer.setLength(packet.getLength());
+            dispatchMessage(buffer, packet.getAddress(),
+                    packet.getPort(), RFC3261.TRANSPORT_UDP);
+        } finally {
+            buffer.release();
         }
-        byte[] trimmedPacket = new byte[packet.getLength()];
-        System.arraycopy(packet.getData(), 0,
-                trimmedPacket, 0, trimmedPacket.length);
-        processMessage(trimmedPacket, packet.getAddress(),
-                packet.getPort(), RFC3261.TRANSPORT_UDP);
     }
 
 
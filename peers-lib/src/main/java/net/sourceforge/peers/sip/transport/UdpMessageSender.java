@@ -44,19 +44,6 @@ public class UdpMessageSender extends MessageSender {
         this.datagramSocket = datagramSocket;
     }
 
-    @Override
-    public synchronized void sendMessage(SipMessage sipMessage) throws IOException {
-        logger.debug("UdpMessageSender.sendMessage");
-        if (sipMessage == null) {
-            return;
-        }
-        byte[] buf = sipMessage.toString().getBytes();
-        sendBytes(buf);
-        String direction = "SENT to " + inetAddress.getHostAddress() +
-                "/" + port;
-        logger.traceNetwork(new String(buf), direction);
-    }
-
     @Override
     public synchronized void sendBytes(byte[] bytes) throws IOException {
         logger.debug("UdpMessageSender.sendBytes");
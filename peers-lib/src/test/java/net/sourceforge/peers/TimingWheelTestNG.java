@@ -0,0 +1,102 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TimingWheelTestNG {
+
+    private TimingWheel timingWheel;
+
+    @BeforeMethod
+    public void init() {
+        // small wheel, delays above 80 ms need several rounds
+        timingWheel = new TimingWheel("test", 5, 16, new FileLogger(null));
+    }
+
+    @AfterMethod
+    public void close() {
+        timingWheel.stop();
+    }
+
+    @Test(timeOut = 10000)
+    public void testExpiration() throws InterruptedException {
+        final List<Integer> expired = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(3);
+        long start = System.nanoTime();
+        for (int delay : new int[] { 300, 20, 150 }) {
+            timingWheel.schedule(() -> {
+                synchronized (expired) {
+                    expired.add(delay);
+                }
+                latch.countDown();
+            }, delay);
+        }
+        assert latch.await(5, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assert elapsed >= 300 : elapsed;
+        synchronized (expired) {
+            assert expired.get(0) == 20 && expired.get(1) == 150
+                && expired.get(2) == 300 : expired;
+        }
+        assert timingWheel.getPendingTimeouts() == 0;
+    }
+
+    @Test(timeOut = 10000)
+    public void testCancel() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        TimingWheel.Timeout cancelled = timingWheel.schedule(
+                () -> { throw new AssertionError("cancelled task run"); }, 100);
+        TimingWheel.Timeout timeout = timingWheel.schedule(latch::countDown,
+                200);
+        assert timingWheel.getPendingTimeouts() == 2;
+        assert cancelled.cancel();
+        assert !cancelled.cancel();
+        assert cancelled.isCancelled();
+        assert timingWheel.getPendingTimeouts() == 1;
+        assert latch.await(5, TimeUnit.SECONDS);
+        assert !timeout.cancel();
+        assert timeout.isExpired();
+    }
+
+    @Test(timeOut = 10000)
+    public void testFailingTask() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        timingWheel.schedule(() -> { throw new IllegalStateException(); }, 10);
+        timingWheel.schedule(latch::countDown, 50);
+        assert latch.await(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testScheduleAfterStop() {
+        timingWheel.stop();
+        TimingWheel.Timeout timeout = timingWheel.schedule(() -> { }, 10);
+        assert timeout.isCancelled();
+        assert timingWheel.getPendingTimeouts() == 0;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers;
+
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.peers.sip.RFC3261;
+
+import org.testng.annotations.Test;
+
+/**
+ * Timer overhead with 100k concurrent transactions: each one schedules a
+ * retransmission timer and a timeout timer, like timers A and B, and
+ * cancels them when it completes. Compared with java.util.Timer, whose
+ * cancelled tasks stay in its heap until their expiration.
+ */
+@Test(groups = "benchmark")
+public class TimingWheelThroughputTestNG {
+
+    private static final int TRANSACTIONS = 100000;
+
+    @Test(timeOut = 120000)
+    public void timingWheel() throws InterruptedException {
+        TimingWheel timingWheel = new TimingWheel("benchmark",
+                new FileLogger(null));
+        try {
+            TimingWheel.Timeout[] timeouts =
+                new TimingWheel.Timeout[TRANSACTIONS * 2];
+            long start = System.nanoTime();
+            for (int i = 0; i < TRANSACTIONS; ++i) {
+                timeouts[2 * i] = timingWheel.schedule(() -> { },
+                        RFC3261.TIMER_T1);
+                timeouts[2 * i + 1] = timingWheel.schedule(() -> { },
+                        64 * RFC3261.TIMER_T1);
+            }
+            long scheduled = System.nanoTime();
+            for (TimingWheel.Timeout timeout : timeouts) {
+                timeout.cancel();
+            }
+            long cancelled = System.nanoTime();
+            assert timingWheel.getPendingTimeouts() == 0;
+            long expiration = expire(timingWheel::schedule);
+            report("timing wheel", start, scheduled, cancelled, expiration);
+        } finally {
+            timingWheel.stop();
+        }
+    }
+
+    @Test(timeOut = 120000)
+    public void javaUtilTimer() throws InterruptedException {
+        Timer timer = new Timer("benchmark", true);
+        try {
+            TimerTask[] tasks = new TimerTask[TRANSACTIONS * 2];
+            long start = System.nanoTime();
+            for (int i = 0; i < TRANSACTIONS; ++i) {
+                tasks[2 * i] = new EmptyTask();
+                timer.schedule(tasks[2 * i], RFC3261.TIMER_T1);
+                tasks[2 * i + 1] = new EmptyTask();
+                timer.schedule(tasks[2 * i + 1], 64 * RFC3261.TIMER_T1);
+            }
+            long scheduled = System.nanoTime();
+            for (TimerTask task : tasks) {
+                task.cancel();
+            }
+            long cancelled = System.nanoTime();
+            long expiration = expire((task, delay) -> timer.schedule(
+                    new TimerTask() {
+                        @Override
+                        public void run() {
+                            task.run();
+                        }
+                    }, delay));
+            report("java.util.Timer", start, scheduled, cancelled, expiration);
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    // nanoseconds between the first expiration due and the last one run
+    private long expire(Scheduler scheduler) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(TRANSACTIONS);
+        long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        for (int i = 0; i < TRANSACTIONS; ++i) {
+            scheduler.schedule(latch::countDown, 100);
+        }
+        assert latch.await(60, TimeUnit.SECONDS);
+        return System.nanoTime() - due;
+    }
+
+    private void report(String name, long start, long scheduled,
+            long cancelled, long expiration) {
+        System.out.println(name + ", " + TRANSACTIONS + " transactions: "
+                + (scheduled - start) / (2 * TRANSACTIONS) + " ns/schedule, "
+                + (cancelled - scheduled) / (2 * TRANSACTIONS) + " ns/cancel, "
+                + TimeUnit.NANOSECONDS.toMillis(expiration)
+                + " ms to run " + TRANSACTIONS + " expirations");
+    }
+
+    interface Scheduler {
+        void schedule(Runnable task, long delay);
+    }
+
+    static class EmptyTask extends TimerTask {
+        @Override
+        public void run() {
+        }
+    }
+
+}
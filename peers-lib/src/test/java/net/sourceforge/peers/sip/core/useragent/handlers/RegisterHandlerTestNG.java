@@ -0,0 +1,243 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.core.useragent.handlers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.JavaConfig;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.media.MediaMode;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.Utils;
+import net.sourceforge.peers.sip.core.useragent.DummyAbstractSoundManagerFactory;
+import net.sourceforge.peers.sip.core.useragent.DummySipListener;
+import net.sourceforge.peers.sip.core.useragent.UserAgent;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
+import net.sourceforge.peers.sip.transactionuser.StateJournal;
+import net.sourceforge.peers.sip.transport.SipRequest;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RegisterHandlerTestNG {
+
+    private static final long MARGIN = RegisterHandler.REFRESH_MARGIN * 1000L;
+
+    private Logger logger;
+    private Path directory;
+    private File journalFile;
+    private DatagramSocket registrar;
+    private Config config;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        logger = new FileLogger(null);
+        directory = Files.createTempDirectory("journal");
+        journalFile = new File(directory.toFile(), "peers.journal");
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        registrar = new DatagramSocket(0, loopback);
+        registrar.setSoTimeout(5000);
+        config = new JavaConfig();
+        config.setLocalInetAddress(loopback);
+        config.setMediaMode(MediaMode.none);
+        config.setUserPart("alice");
+        config.setDomain(loopback.getHostAddress() + ":"
+                + registrar.getLocalPort());
+    }
+
+    @AfterMethod
+    public void delete() throws IOException {
+        registrar.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                .forEach(File::delete);
+        }
+    }
+
+    @Test(timeOut = 20000)
+    public void testRegisterAfterRestart() throws Exception {
+        config.setStateJournal(journalFile.getPath());
+        UserAgent userAgent = createUserAgent();
+        String callId;
+        int cseq;
+        try {
+            userAgent.register();
+            String register = answer();
+            callId = header(register, RFC3261.HDR_CALLID);
+            cseq = cseq(header(register, RFC3261.HDR_CSEQ));
+            RegisterHandler registerHandler = getRegisterHandler(userAgent);
+            while (!registerHandler.isRegistered()) {
+                Thread.sleep(10);
+            }
+        } finally {
+            userAgent.close();
+        }
+
+        // restarted, the GUI and the demo register at startup
+        userAgent = createUserAgent();
+        try {
+            RegisterHandler registerHandler = getRegisterHandler(userAgent);
+            assert registerHandler.isRegistered();
+            long refreshTime = registerHandler.getRefreshTime();
+            SipRequest sipRequest = userAgent.register();
+            // a refresh of the resumed binding
+            assert callId.equals(Utils.getMessageCallId(sipRequest));
+            assert cseq(sipRequest.getSipHeaders().get(
+                    SipHeaderFieldName.CSEQ).getValue()) > cseq;
+            String register = receive();
+            assert callId.equals(header(register, RFC3261.HDR_CALLID));
+            // kept until the registrar answers
+            assert registerHandler.getRefreshTime() == refreshTime;
+        } finally {
+            userAgent.close();
+        }
+    }
+
+    @Test
+    public void testResumeBinding() throws Exception {
+        long now = System.currentTimeMillis();
+        StateJournal stateJournal = new StateJournal(journalFile, logger);
+        stateJournal.putBinding(new StateJournal.Binding(
+                "sip:alice@atlanta.com", "sip:atlanta.com", "resumed", 41,
+                now + 60000));
+        UserAgent userAgent = createUserAgent();
+        try {
+            RegisterHandler registerHandler = getRegisterHandler(userAgent);
+            registerHandler.setStateJournal(stateJournal);
+            assert registerHandler.isRegistered();
+            // refreshed when it was due before the restart
+            long refreshTime = registerHandler.getRefreshTime();
+            assert refreshTime >= now + 60000;
+            assert refreshTime < System.currentTimeMillis() + 60000 + 1000;
+            assert "resumed".equals(
+                    registerHandler.getCallId("sip:alice@atlanta.com"));
+            assert registerHandler.getCallId("sip:bob@biloxi.com") == null;
+            // CSeq numbers keep growing within the Call-ID
+            assert userAgent.generateCSeq(RFC3261.METHOD_REGISTER)
+                .startsWith("42 ");
+        } finally {
+            userAgent.close();
+            stateJournal.close();
+        }
+    }
+
+    @Test
+    public void testOverdueRefreshesAreSpread() throws Exception {
+        long now = System.currentTimeMillis();
+        StateJournal stateJournal = new StateJournal(journalFile, logger);
+        UserAgent userAgent = createUserAgent();
+        try {
+            RegisterHandler registerHandler = getRegisterHandler(userAgent);
+            // overdue within the margin, the binding is still valid
+            stateJournal.putBinding(new StateJournal.Binding(
+                    "sip:alice@atlanta.com", "sip:atlanta.com", "late", 1,
+                    now - MARGIN / 2));
+            registerHandler.setStateJournal(stateJournal);
+            assert registerHandler.isRegistered();
+            long refreshTime = registerHandler.getRefreshTime();
+            assert refreshTime >= now;
+            assert refreshTime < System.currentTimeMillis() + MARGIN;
+
+            // expired while stopped
+            stateJournal.putBinding(new StateJournal.Binding(
+                    "sip:alice@atlanta.com", "sip:atlanta.com", "expired", 1,
+                    now - 3600 * 1000L));
+            registerHandler.setStateJournal(stateJournal);
+            assert !registerHandler.isRegistered();
+            refreshTime = registerHandler.getRefreshTime();
+            assert refreshTime >= now;
+            assert refreshTime < System.currentTimeMillis() + MARGIN;
+        } finally {
+            userAgent.close();
+            stateJournal.close();
+        }
+    }
+
+    private UserAgent createUserAgent() throws IOException {
+        return new UserAgent(new DummySipListener(),
+                new DummyAbstractSoundManagerFactory(), config,
+                directory.toString(), logger);
+    }
+
+    private RegisterHandler getRegisterHandler(UserAgent userAgent) {
+        return userAgent.getUac().getInitialRequestManager()
+            .getRegisterHandler();
+    }
+
+    private String receive() throws IOException {
+        return receive(new DatagramPacket(new byte[4096], 4096));
+    }
+
+    private String receive(DatagramPacket packet) throws IOException {
+        String message;
+        do {
+            registrar.receive(packet);
+            message = new String(packet.getData(), 0, packet.getLength());
+        } while ("".equals(message.trim()));
+        return message;
+    }
+
+    // answers a REGISTER with a binding valid for one hour
+    private String answer() throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[4096], 4096);
+        String message = receive(packet);
+        StringBuilder response = new StringBuilder("SIP/2.0 200 OK\r\n");
+        for (String line : message.split("\r\n")) {
+            if (line.startsWith("REGISTER ") || line.isEmpty()) {
+                continue;
+            }
+            response.append(line);
+            if (line.startsWith(RFC3261.HDR_CONTACT + ":")) {
+                response.append(";expires=3600");
+            }
+            response.append("\r\n");
+        }
+        response.append("\r\n");
+        byte[] bytes = response.toString().getBytes();
+        registrar.send(new DatagramPacket(bytes, bytes.length,
+                packet.getSocketAddress()));
+        return message;
+    }
+
+    private static String header(String message, String name) {
+        for (String line : message.split("\r\n")) {
+            if (line.startsWith(name + ":")) {
+                return line.substring(name.length() + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static int cseq(String cseq) {
+        return Integer.parseInt(cseq.substring(0, cseq.indexOf(' ')));
+    }
+
+}
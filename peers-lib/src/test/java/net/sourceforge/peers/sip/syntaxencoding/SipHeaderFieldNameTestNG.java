@@ -28,4 +28,24 @@ public class SipHeaderFieldNameTestNG {
         assert new SipHeaderFieldName("From").equals(new SipHeaderFieldName("f"));
     }
 
+    @Test
+    public void testHashCode() {
+        SipHeaderFieldName name = new SipHeaderFieldName("X-Dummy");
+        SipHeaderFieldName other = new SipHeaderFieldName("x-DUMMY");
+        assert name.equals(other);
+        assert name.hashCode() == other.hashCode();
+        assert new SipHeaderFieldName("via").hashCode()
+            == SipHeaderFieldName.VIA.hashCode();
+    }
+
+    @Test
+    public void testValueOf() {
+        assert SipHeaderFieldName.valueOf("CALL-ID") == SipHeaderFieldName.CALLID;
+        assert SipHeaderFieldName.valueOf("V") == SipHeaderFieldName.VIA;
+        assert "Call-ID".equals(new SipHeaderFieldName("call-id").getName());
+        assert SipHeaderFieldName.valueOf("X-Dummy").getOrdinal() == -1;
+        assert !SipHeaderFieldName.valueOf("X-Dummy").equals(
+                SipHeaderFieldName.VIA);
+    }
+
 }
@@ -0,0 +1,90 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.syntaxencoding;
+
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.Test;
+
+public class SipHeaderScannerTestNG {
+
+    private static final String MESSAGE = "INVITE sip:bob@biloxi.com SIP/2.0\r\n" +
+        "Via: SIP/2.0/UDP 192.168.1.2:5060;branch=z9hG4bK776asdhds\r\n" +
+        "call-id :  a84b4c76e66710 \r\n" +
+        "l: 0\r\n" +
+        "\r\n";
+
+    @Test
+    public void testFindHeaderValue() {
+        byte[] data = MESSAGE.getBytes(StandardCharsets.US_ASCII);
+        assert "a84b4c76e66710".equals(value(data, "Call-ID", 'i'));
+        assert "0".equals(value(data, "Content-Length", 'l'));
+        assert value(data, "CSeq", (char) 0) == null;
+    }
+
+    @Test
+    public void testCallIdHash() {
+        byte[] data1 = MESSAGE.getBytes(StandardCharsets.US_ASCII);
+        byte[] data2 = ("SIP/2.0 200 OK\r\n" +
+            "i: a84b4c76e66710\r\n" +
+            "\r\n").getBytes(StandardCharsets.US_ASCII);
+        int hash = SipHeaderScanner.callIdHash(data1, 0, data1.length);
+        assert hash != 0;
+        assert hash == SipHeaderScanner.callIdHash(data2, 0, data2.length);
+        byte[] data3 = "\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        assert SipHeaderScanner.callIdHash(data3, 0, data3.length) == 0;
+    }
+
+    @Test
+    public void testTransactionFields() {
+        byte[] data = (MESSAGE.replace("l: 0", "CSeq: 314159 INVITE")
+                + "ignored").getBytes(StandardCharsets.US_ASCII);
+        int length = data.length - "ignored".length();
+        assert "INVITE".equals(SipHeaderScanner.requestMethod(data, 0, length));
+        assert SipHeaderScanner.statusCode(data, 0, length) == -1;
+        assert "z9hG4bK776asdhds".equals(
+                SipHeaderScanner.topViaBranch(data, 0, length));
+        assert "INVITE".equals(SipHeaderScanner.cseqMethod(data, 0, length));
+        assert "a84b4c76e66710".equals(
+                SipHeaderScanner.callId(data, 0, length));
+
+        byte[] response = ("SIP/2.0 486 Busy Here\r\n" +
+            "v: SIP/2.0/UDP a.example.com;received=1.2.3.4 ; BRANCH = z9hG4bK1" +
+            ";rport, SIP/2.0/UDP b.example.com;branch=z9hG4bK2\r\n" +
+            "\r\n").getBytes(StandardCharsets.US_ASCII);
+        assert SipHeaderScanner.requestMethod(response, 0, response.length) == null;
+        assert SipHeaderScanner.statusCode(response, 0, response.length) == 486;
+        assert "z9hG4bK1".equals(SipHeaderScanner.topViaBranch(response, 0,
+                response.length));
+        assert SipHeaderScanner.cseqMethod(response, 0, response.length) == null;
+        assert SipHeaderScanner.callId(response, 0, response.length) == null;
+    }
+
+    private String value(byte[] data, String name, char compactName) {
+        int start = SipHeaderScanner.findHeaderValue(data, 0, data.length,
+                name, compactName);
+        if (start < 0) {
+            return null;
+        }
+        int end = SipHeaderScanner.valueEnd(data, start, data.length);
+        return new String(data, start, end - start, StandardCharsets.US_ASCII);
+    }
+
+}
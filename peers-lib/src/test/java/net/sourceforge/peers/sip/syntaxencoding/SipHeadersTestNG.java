@@ -30,6 +30,33 @@ public class SipHeadersTestNG {
         SipHeaderFieldValue value = new SipHeaderFieldValue("dummmy value");
         sipHeaders.add(name, value);
         sipHeaders.remove(name);
+        assert !sipHeaders.contains(name);
+        assert sipHeaders.getCount() == 0;
+    }
+
+    @Test
+    public void testIndex() {
+        SipHeaders sipHeaders = new SipHeaders();
+        sipHeaders.add(new SipHeaderFieldName("Via"),
+                new SipHeaderFieldValue("SIP/2.0/UDP a"));
+        sipHeaders.add(new SipHeaderFieldName("X-Dummy"),
+                new SipHeaderFieldValue("dummy"));
+        sipHeaders.add(new SipHeaderFieldName("To"),
+                new SipHeaderFieldValue("<sip:b@c>"));
+        sipHeaders.add(new SipHeaderFieldName("v"),
+                new SipHeaderFieldValue("SIP/2.0/UDP b"), 0);
+        sipHeaders.add(new SipHeaderFieldName("From"),
+                new SipHeaderFieldValue("<sip:a@c>"), 0);
+        assert sipHeaders.getCount() == 4;
+        assert sipHeaders.get(SipHeaderFieldName.VIA)
+            instanceof SipHeaderFieldMultiValue;
+        assert "dummy".equals(sipHeaders.get(
+                new SipHeaderFieldName("x-dummy")).getValue());
+        sipHeaders.remove(SipHeaderFieldName.TO);
+        assert sipHeaders.get(SipHeaderFieldName.TO) == null;
+        assert ("From: <sip:a@c>\r\n"
+                + "Via: SIP/2.0/UDP a, SIP/2.0/UDP b\r\n"
+                + "X-Dummy: dummy\r\n").equals(sipHeaders.toString());
     }
 
 }
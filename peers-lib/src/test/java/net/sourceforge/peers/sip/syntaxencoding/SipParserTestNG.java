@@ -21,7 +21,11 @@ package net.sourceforge.peers.sip.syntaxencoding;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.transport.SipMessage;
@@ -280,10 +284,150 @@ public class SipParserTestNG {
                 "12345");
     }
     
+    @Test
+    public void testParseSlice() throws SipParserException, IOException {
+        byte[] message = ("OPTIONS sip:bob@biloxi.com SIP/2.0\r\n"
+                + "Call-ID: a84b4c76e66710\r\n"
+                + "Content-Length: 4\r\n"
+                + "\r\n"
+                + "body").getBytes();
+        byte[] data = new byte[message.length + 20];
+        Arrays.fill(data, (byte) 'x');
+        System.arraycopy(message, 0, data, 10, message.length);
+        SipParser sipParser = new SipParser();
+        SipMessage sipMessage = sipParser.parse(data, 10, message.length);
+        assert "a84b4c76e66710".equals(sipMessage.getSipHeaders().get(
+                new SipHeaderFieldName(RFC3261.HDR_CALLID)).getValue());
+        assert "body".equals(new String(sipMessage.getBody()));
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.position(10);
+        buffer.limit(10 + message.length);
+        sipMessage = sipParser.parse(buffer);
+        assert "body".equals(new String(sipMessage.getBody()));
+        assert buffer.position() == 10;
+    }
+
+    @Test
+    public void testNonAsciiBody() throws SipParserException, IOException {
+        byte[] body = "v=0\r\ns=caf\u00e9 \u4e2d\u6587\r\n".getBytes(
+                StandardCharsets.UTF_8);
+        byte[] headers = ("SIP/2.0 200 OK\r\n"
+                + "Subject: r\u00e9union\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] data = Arrays.copyOf(headers, headers.length + body.length);
+        System.arraycopy(body, 0, data, headers.length, body.length);
+        SipMessage sipMessage = new SipParser().parse(data, 0, data.length);
+        assert Arrays.equals(body, sipMessage.getBody());
+        assert "r\u00e9union".equals(sipMessage.getSipHeaders().get(
+                new SipHeaderFieldName(RFC3261.HDR_SUBJECT)).getValue());
+    }
+
+    @Test
+    public void testConcurrentParsing() throws Exception {
+        final SipParser sipParser = new SipParser();
+        final AtomicInteger errors = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            final String callId = "call" + i;
+            threads[i] = new Thread(() -> {
+                byte[] data = ("BYE sip:bob@biloxi.com SIP/2.0\r\n"
+                        + "Call-ID: " + callId + "\r\n"
+                        + "\r\n").getBytes();
+                for (int j = 0; j < 1000; ++j) {
+                    try {
+                        SipMessage sipMessage = sipParser.parse(data, 0,
+                                data.length);
+                        if (!callId.equals(sipMessage.getSipHeaders().get(
+                                new SipHeaderFieldName(RFC3261.HDR_CALLID))
+                                .getValue())) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (SipParserException e) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert errors.get() == 0;
+    }
+
+    @Test
+    public void testLazyHeaders() throws SipParserException, IOException {
+        String headers = "Via: SIP/2.0/UDP 10.0.0.1;rport;branch=z9hG4bK1;received=10.0.0.2\r\n"
+                + "Via: SIP/2.0/UDP 10.0.0.3;branch=z9hG4bK2\r\n"
+                + "Allow: INVITE,ACK,BYE\r\n"
+                + "User-Agent: Peers SIP client\r\n"
+                + "Content-Length: 0\r\n";
+        SipMessage sipMessage = parse("OPTIONS sip:bob@biloxi.com SIP/2.0\r\n"
+                + headers + "\r\n");
+        SipHeaders sipHeaders = sipMessage.getSipHeaders();
+        for (SipHeader header : sipHeaders.getHeaders()) {
+            // only Content-Length has been read, by the parser
+            assert header.isRaw() == !RFC3261.HDR_CONTENT_LENGTH.equals(
+                    header.getName().getName());
+        }
+        // written back as received, parameter order included
+        assert sipHeaders.toString().equals(headers.replace(
+                "\r\nVia: ", ", "));
+        byte[] encoded = sipMessage.encode();
+        assert encoded.length == sipMessage.encodedLength();
+        assert new String(encoded).equals(sipMessage.toString());
+
+        SipHeaderFieldValue via = sipHeaders.get(
+                new SipHeaderFieldName(RFC3261.HDR_VIA));
+        assert via instanceof SipHeaderFieldMultiValue;
+        List<SipHeaderFieldValue> values =
+            ((SipHeaderFieldMultiValue) via).getValues();
+        assert values.size() == 2;
+        assert "10.0.0.2".equals(values.get(0).getParam(
+                new SipHeaderParamName(RFC3261.PARAM_RECEIVED)));
+        values.get(1).addParam(new SipHeaderParamName(RFC3261.PARAM_RPORT),
+                "5060");
+        assert sipMessage.toString().contains("branch=z9hG4bK2;rport=5060")
+            || sipMessage.toString().contains("rport=5060;branch=z9hG4bK2");
+        assert sipMessage.toString().contains("Allow: INVITE,ACK,BYE\r\n");
+        assert new String(sipMessage.encode()).equals(sipMessage.toString());
+    }
+
+    @Test (expectedExceptions = SipParserException.class)
+    public void shouldThrowIfEmpty() throws SipParserException, IOException {
+        parse("\r\n\r\n");
+    }
+
+    private String startLine(SipMessage sipMessage) {
+        String message = sipMessage.toString();
+        return message.substring(0, message.indexOf(RFC3261.CRLF));
+    }
+
     private SipMessage parse(String message) throws SipParserException, IOException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(message.getBytes());
+        byte[] bytes = message.getBytes();
         SipParser sipParser = new SipParser();
-        SipMessage sipMessage = sipParser.parse(bais);
+        SipMessage sipMessage = sipParser.parse(bytes, 0, bytes.length);
+        SipMessage streamed = sipParser.parse(new ByteArrayInputStream(bytes));
+        assert streamed.toString().equals(sipMessage.toString());
+        // every message of this class must be parsed as the former line
+        // based parser did, header values are compared once built
+        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
+        SipMessage reference = new ReaderSipParser().parse(bais);
+        assert reference.getClass().equals(sipMessage.getClass());
+        assert startLine(reference).equals(startLine(sipMessage));
+        assert Arrays.equals(reference.getBody(), sipMessage.getBody());
+        SipHeaders referenceHeaders = reference.getSipHeaders();
+        SipHeaders sipHeaders = streamed.getSipHeaders();
+        assert referenceHeaders.getCount() == sipHeaders.getCount();
+        for (SipHeader header : referenceHeaders.getHeaders()) {
+            String expected = String.valueOf(header.getValue());
+            String actual = String.valueOf(sipHeaders.get(header.getName()));
+            assert expected.equals(actual) : actual + " differs from "
+                + expected;
+        }
         return sipMessage;
     }
 }
@@ -19,7 +19,7 @@
 
 package net.sourceforge.peers.sip.syntaxencoding;
 
-import java.util.Hashtable;
+import java.util.Map;
 
 import org.testng.annotations.Test;
 
@@ -44,7 +44,7 @@ public class SipURITestNG {
     public void testSipUri3() throws SipUriSyntaxException {
         SipURI sipUri = new SipURI("sip:atlanta.com;a");
         assert "atlanta.com".equals(sipUri.getHost());
-        Hashtable<String, String> params = sipUri.getUriParameters();
+        Map<String, String> params = sipUri.getUriParameters();
         assert params != null;
         assert 1 == params.size();
         assert params.containsKey("a");
@@ -56,7 +56,7 @@ public class SipURITestNG {
         SipURI sipUri = new SipURI("sip:alice@atlanta.com;a;br=3");
         assert "alice".equals(sipUri.getUserinfo());
         assert "atlanta.com".equals(sipUri.getHost());
-        Hashtable<String, String> params = sipUri.getUriParameters();
+        Map<String, String> params = sipUri.getUriParameters();
         assert params != null;
         assert 2 == params.size();
         assert params.containsKey("a");
@@ -70,7 +70,7 @@ public class SipURITestNG {
         SipURI sipUri = new SipURI("sip:alice@atlanta.com;br=3;a");
         assert "alice".equals(sipUri.getUserinfo());
         assert "atlanta.com".equals(sipUri.getHost());
-        Hashtable<String, String> params = sipUri.getUriParameters();
+        Map<String, String> params = sipUri.getUriParameters();
         assert params != null;
         assert 2 == params.size();
         assert params.containsKey("a");
@@ -92,7 +92,7 @@ public class SipURITestNG {
         assert "alice".equals(sipUri.getUserinfo());
         assert "atlanta.com".equals(sipUri.getHost());
         assert 5060 == sipUri.getPort();
-        Hashtable<String, String> params = sipUri.getUriParameters();
+        Map<String, String> params = sipUri.getUriParameters();
         assert params != null;
         assert 3 == params.size();
         assert params.containsKey("transport");
@@ -103,9 +103,39 @@ public class SipURITestNG {
         assert "2".equals(params.get("otherParam"));
     }
     
+    @Test
+    public void testParse() throws SipUriSyntaxException {
+        SipURI sipUri = SipURI.parse("sip:alice@atlanta.com:5070;transport=tcp");
+        assert sipUri == SipURI.parse("sip:alice@atlanta.com:5070;transport=tcp");
+        assert 5070 == sipUri.getPort();
+        try {
+            sipUri.getUriParameters().put("lr", "");
+            assert false;
+        } catch (UnsupportedOperationException e) {
+            // shared instances are immutable
+        }
+    }
+
+    @Test
+    public void testCacheEviction() throws SipUriSyntaxException {
+        SipURICache cache = new SipURICache(16);
+        for (int i = 0; i < 100; ++i) {
+            String uri = "sip:user" + i + "@atlanta.com";
+            cache.put(uri, new SipURI(uri));
+        }
+        assert cache.size() <= 16;
+        assert cache.get("sip:user99@atlanta.com") != null;
+        assert cache.get("sip:user0@atlanta.com") == null;
+    }
+    
     //FAILURE TESTS
     @Test (expectedExceptions = SipUriSyntaxException.class)
     public void shouldThrowIfBadSyntax() throws SipUriSyntaxException {
         new SipURI("mlsdj");
     }
+
+    @Test (expectedExceptions = SipUriSyntaxException.class)
+    public void shouldThrowIfBadPort() throws SipUriSyntaxException {
+        new SipURI("sip:atlanta.com:50a0");
+    }
 }
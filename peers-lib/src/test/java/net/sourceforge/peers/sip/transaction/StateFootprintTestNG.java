@@ -0,0 +1,130 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transaction;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldValue;
+import net.sourceforge.peers.sip.syntaxencoding.SipParser;
+import net.sourceforge.peers.sip.syntaxencoding.SipParserException;
+import net.sourceforge.peers.sip.transactionuser.Dialog;
+import net.sourceforge.peers.sip.transactionuser.DialogManager;
+import net.sourceforge.peers.sip.transport.SipRequest;
+import net.sourceforge.peers.sip.transport.SipResponse;
+
+import org.testng.annotations.Test;
+
+/**
+ * Heap retained by 100k transactions and 100k dialogs, state machines
+ * included. Figures depend on the JVM, they are reported, not asserted.
+ */
+@Test(groups = "benchmark")
+public class StateFootprintTestNG {
+
+    private static final int COUNT = 100000;
+
+    private final Logger logger = new FileLogger(null);
+
+    @Test
+    public void transactions() throws IOException, SipParserException {
+        SipRequest sipRequest = (SipRequest)parse(
+                "INVITE sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: SIP/2.0/UDP 192.168.1.2;branch=z9hG4bKfootprint\r\n" +
+                "CSeq: 1 INVITE\r\n" +
+                "\r\n");
+        SipResponse sipResponse = (SipResponse)parse(
+                "SIP/2.0 180 Ringing\r\n" +
+                "Via: SIP/2.0/UDP 192.168.1.2;branch=z9hG4bKfootprint\r\n" +
+                "CSeq: 1 INVITE\r\n" +
+                "\r\n");
+        TransactionManager transactionManager = new TransactionManager(logger);
+        try {
+            String[] branchIds = new String[COUNT];
+            for (int i = 0; i < COUNT; ++i) {
+                branchIds[i] = "z9hG4bK" + i;
+            }
+            InviteServerTransaction[] transactions =
+                new InviteServerTransaction[COUNT];
+            long before = usedHeap();
+            for (int i = 0; i < COUNT; ++i) {
+                transactions[i] = new InviteServerTransaction(branchIds[i],
+                        5060, "UDP", sipResponse, null, sipRequest,
+                        transactionManager.getTimingWheel(),
+                        transactionManager, null, logger);
+            }
+            report("transactions", usedHeap() - before);
+            assert transactions[COUNT - 1] != null;
+        } finally {
+            transactionManager.closeTimers();
+        }
+    }
+
+    @Test
+    public void dialogs() throws IOException, SipParserException {
+        SipResponse sipResponse = (SipResponse)parse(
+                "SIP/2.0 200 OK\r\n" +
+                "Call-ID: footprint\r\n" +
+                "From: <sip:alice@atlanta.com>;tag=1928301774\r\n" +
+                "To: <sip:bob@biloxi.com>;tag=a6c85cf\r\n" +
+                "CSeq: 1 INVITE\r\n" +
+                "\r\n");
+        SipHeaderFieldValue callId = sipResponse.getSipHeaders().get(
+                SipHeaderFieldName.CALLID);
+        DialogManager dialogManager = new DialogManager(logger);
+        Dialog[] dialogs = new Dialog[COUNT];
+        // Call-IDs and table entries are retained in both measurements
+        for (int i = 0; i < COUNT; ++i) {
+            callId.setValue("footprint" + i);
+            dialogManager.removeDialog(
+                    dialogManager.createDialog(sipResponse));
+        }
+        long before = usedHeap();
+        for (int i = 0; i < COUNT; ++i) {
+            callId.setValue("footprint" + i);
+            dialogs[i] = dialogManager.createDialog(sipResponse);
+        }
+        report("dialogs", usedHeap() - before);
+        assert dialogs[COUNT - 1] != null;
+    }
+
+    private long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void report(String name, long bytes) {
+        System.out.println(COUNT + " " + name + ": " + bytes / 1024
+                + " KiB, " + bytes / COUNT + " bytes each");
+    }
+
+    private Object parse(String message)
+            throws IOException, SipParserException {
+        return new SipParser().parse(
+                new ByteArrayInputStream(message.getBytes()));
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transaction;
+
+import org.testng.annotations.Test;
+
+public class TransactionKeyTestNG {
+
+    @Test
+    public void testFromCSeq() {
+        TransactionKey key = TransactionKey.fromCSeq("z9hG4bKa", "1 INVITE");
+        assert key.getMethod() == TransactionKey.Method.INVITE;
+        assert key.equals(new TransactionKey("z9hG4bKa", "INVITE"));
+        assert key.hashCode()
+            == new TransactionKey("z9hG4bKa", "INVITE").hashCode();
+        assert !key.equals(TransactionKey.fromCSeq("z9hG4bKa", "1 CANCEL"));
+        assert !key.equals(TransactionKey.fromCSeq("z9hG4bKb", "1 INVITE"));
+        // methods are case sensitive, RFC3261 7.1
+        assert !key.equals(TransactionKey.fromCSeq("z9hG4bKa", "1 invite"));
+    }
+
+    @Test
+    public void testExtensionMethod() {
+        TransactionKey key = TransactionKey.fromCSeq("z9hG4bKa", "2 MESSAGE");
+        assert key.getMethod() == TransactionKey.Method.EXTENSION;
+        assert "MESSAGE".equals(key.getMethodName());
+        assert key.equals(new TransactionKey("z9hG4bKa", "MESSAGE"));
+        assert !key.equals(new TransactionKey("z9hG4bKa", "INFO"));
+        assert "z9hG4bKa|MESSAGE".equals(key.toString());
+    }
+
+    @Test
+    public void testNullBranch() {
+        // RFC2543 peers may not send a branch
+        TransactionKey key = new TransactionKey(null, "OPTIONS");
+        assert key.equals(TransactionKey.fromCSeq(null, "3 OPTIONS"));
+        assert !key.equals(new TransactionKey("z9hG4bKa", "OPTIONS"));
+    }
+
+}
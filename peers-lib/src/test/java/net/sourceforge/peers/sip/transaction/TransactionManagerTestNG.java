@@ -21,18 +21,28 @@ package net.sourceforge.peers.sip.transaction;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.sourceforge.peers.Config;
 import net.sourceforge.peers.FileLogger;
 import net.sourceforge.peers.JavaConfig;
 import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.TimingWheel;
 import net.sourceforge.peers.sip.RFC3261;
 import net.sourceforge.peers.sip.syntaxencoding.SipParser;
 import net.sourceforge.peers.sip.syntaxencoding.SipParserException;
+import net.sourceforge.peers.sip.transport.MessageSender;
 import net.sourceforge.peers.sip.transport.SipMessage;
 import net.sourceforge.peers.sip.transport.SipRequest;
 import net.sourceforge.peers.sip.transport.SipResponse;
@@ -184,10 +194,508 @@ public class TransactionManagerTestNG {
         assert serverTransaction instanceof InviteServerTransaction;
     }
     
+    @Test
+    public void testAbsorbRetransmission()
+            throws IOException, SipParserException {
+        String message = "OPTIONS sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: SIP/2.0/UDP 192.168.1.2;branch=z9hG4bKabsorb\r\n" +
+                "Call-ID: absorb@192.168.1.2\r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n";
+        SipRequest sipRequest = (SipRequest)parse(message);
+        String response = "SIP/2.0 200 OK\r\n" +
+                "Via: SIP/2.0/UDP 192.168.1.2;branch=z9hG4bKabsorb\r\n" +
+                "Call-ID: absorb@192.168.1.2\r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n";
+        SipResponse sipResponse = (SipResponse)parse(response);
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        byte[] data = message.getBytes();
+        assert !transactionManager.absorbRetransmission(data, 0, data.length);
+        long absorbed = transactionManager.getAbsorbedRetransmissions();
+        transactionManager.createServerTransaction(sipResponse, port, "UDP",
+                () -> { }, sipRequest);
+        assert transactionManager.absorbRetransmission(data, 0, data.length);
+        assert transactionManager.getAbsorbedRetransmissions() == absorbed + 1;
+        // same branch, other dialog
+        data = message.replace("absorb@", "other@").getBytes();
+        assert !transactionManager.absorbRetransmission(data, 0, data.length);
+        // responses only match client transactions
+        data = response.getBytes();
+        assert !transactionManager.absorbRetransmission(data, 0, data.length);
+    }
+
+    @Test
+    public void testReaping() throws IOException, SipParserException {
+        String message = "OPTIONS sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: SIP/2.0/UDP 192.168.1.2;branch=z9hG4bKreap\r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n";
+        SipRequest sipRequest = (SipRequest)parse(message);
+        String response = "SIP/2.0 200 OK\r\n" +
+                "Via: SIP/2.0/UDP 192.168.1.2;branch=z9hG4bKreap\r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n";
+        SipResponse sipResponse = (SipResponse)parse(response);
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        NonInviteServerTransaction serverTransaction =
+            (NonInviteServerTransaction)transactionManager
+                .createServerTransaction(sipResponse, port, "UDP",
+                        () -> { }, sipRequest);
+        int live = transactionManager.getLiveTransactions();
+        long reaped = transactionManager.getReapedTransactions();
+        assert transactionManager.getServerTransaction("z9hG4bKreap",
+                RFC3261.METHOD_OPTIONS) == serverTransaction;
+        serverTransaction.setState(NonInviteServerTransaction.TERMINATED);
+        assert transactionManager.getServerTransaction("z9hG4bKreap",
+                RFC3261.METHOD_OPTIONS) == null;
+        assert transactionManager.getLiveTransactions() == live - 1;
+        assert transactionManager.getReapedTransactions() == reaped + 1;
+        // removed once
+        serverTransaction.setState(NonInviteServerTransaction.TERMINATED);
+        assert transactionManager.getReapedTransactions() == reaped + 1;
+    }
+
+    @Test
+    public void testSweep() throws IOException, SipParserException {
+        String message = "OPTIONS sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: SIP/2.0/UDP 192.168.1.2;branch=z9hG4bKsweep\r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n";
+        SipRequest sipRequest = (SipRequest)parse(message);
+        String response = message.replace(
+                "OPTIONS sip:john@doe.co.uk SIP/2.0", "SIP/2.0 200 OK");
+        SipResponse sipResponse = (SipResponse)parse(response);
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        transactionManager.createServerTransaction(sipResponse, port, "UDP",
+                () -> { }, sipRequest);
+        long now = System.nanoTime();
+        transactionManager.sweep(now);
+        assert transactionManager.getServerTransaction("z9hG4bKsweep",
+                RFC3261.METHOD_OPTIONS) != null;
+        long swept = transactionManager.getSweptTransactions();
+        int removed = transactionManager.sweep(now + TimeUnit.MILLISECONDS
+                .toNanos(TransactionManager.NON_INVITE_LIFETIME + 1));
+        assert removed > 0;
+        assert transactionManager.getSweptTransactions() == swept + removed;
+        assert transactionManager.getServerTransaction("z9hG4bKsweep",
+                RFC3261.METHOD_OPTIONS) == null;
+    }
+
+    @Test
+    public void testSweepKeepsRingingInvite()
+            throws IOException, SipParserException {
+        String message = "INVITE sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: SIP/2.0/UDP 192.168.1.2;branch=z9hG4bKring\r\n" +
+                "CSeq: 1 INVITE\r\n" +
+                "\r\n";
+        SipRequest sipRequest = (SipRequest)parse(message);
+        String response = message.replace(
+                "INVITE sip:john@doe.co.uk SIP/2.0", "SIP/2.0 180 Ringing");
+        SipResponse sipResponse = (SipResponse)parse(response);
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        InviteServerTransaction serverTransaction =
+            (InviteServerTransaction)transactionManager
+                .createServerTransaction(sipResponse, port, "UDP",
+                        () -> { }, sipRequest);
+        serverTransaction.setState(InviteServerTransaction.PROCEEDING);
+        long now = System.nanoTime();
+        // the callee rings as long as it wants
+        transactionManager.sweep(now + TimeUnit.HOURS.toNanos(1));
+        assert transactionManager.getServerTransaction("z9hG4bKring",
+                RFC3261.METHOD_INVITE) == serverTransaction;
+        // Timer H bounds completed, from the state change
+        long lifetime = TimeUnit.MILLISECONDS.toNanos(
+                transactionManager.getInviteLifetime());
+        now = System.nanoTime();
+        serverTransaction.setState(InviteServerTransaction.COMPLETED);
+        transactionManager.sweep(now + lifetime);
+        assert transactionManager.getServerTransaction("z9hG4bKring",
+                RFC3261.METHOD_INVITE) == serverTransaction;
+        transactionManager.sweep(System.nanoTime() + lifetime + 1);
+        assert transactionManager.getServerTransaction("z9hG4bKring",
+                RFC3261.METHOD_INVITE) == null;
+    }
+
+    @Test
+    public void testClientTransactionsFromCallId()
+            throws IOException, SipParserException {
+        String testMessage = "INVITE sip:bob@biloxi.com SIP/2.0\r\n" +
+        "Via: \r\n" +
+        "Call-ID: index@192.168.1.2\r\n" +
+        "\r\n";
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        transportManager.setSipPort(port);
+        InetAddress localHost = InetAddress.getLocalHost();
+        ClientTransactionUser clientTransactionUser = new ClientTransactionUser() {
+            public void errResponseReceived(SipResponse sipResponse) {
+            }
+            public void provResponseReceived(SipResponse sipResponse, Transaction transaction) {
+            }
+            public void successResponseReceived(SipResponse sipResponse, Transaction transaction) {
+            }
+            public void transactionTimeout(ClientTransaction clientTransaction) {
+            }
+            public void transactionTransportError() {
+            }
+        };
+        InviteClientTransaction invite = (InviteClientTransaction)
+            transactionManager.createClientTransaction(
+                    (SipRequest)parse(testMessage), localHost,
+                    new Random().nextInt(65535), "UDP",
+                    RFC3261.BRANCHID_MAGIC_COOKIE + "index1",
+                    clientTransactionUser);
+        ClientTransaction options = transactionManager.createClientTransaction(
+                (SipRequest)parse(testMessage.replace("INVITE", "OPTIONS")),
+                localHost, new Random().nextInt(65535), "UDP",
+                RFC3261.BRANCHID_MAGIC_COOKIE + "index2",
+                clientTransactionUser);
+        List<ClientTransaction> clientTransactions = transactionManager
+            .getClientTransactionsFromCallId("index@192.168.1.2",
+                    RFC3261.METHOD_INVITE);
+        assert clientTransactions.size() == 1;
+        assert clientTransactions.get(0) == invite;
+        assert transactionManager.getClientTransactionsFromCallId(
+                "index@192.168.1.2", RFC3261.METHOD_OPTIONS).get(0) == options;
+        assert transactionManager.getClientTransactionsFromCallId(
+                "other@192.168.1.2", RFC3261.METHOD_INVITE).isEmpty();
+        invite.setState(InviteClientTransaction.TERMINATED);
+        assert transactionManager.getClientTransactionsFromCallId(
+                "index@192.168.1.2", RFC3261.METHOD_INVITE).isEmpty();
+        assert transactionManager.getClientTransactionsFromCallId(
+                "index@192.168.1.2", RFC3261.METHOD_OPTIONS).size() == 1;
+        // same branch, the replaced transaction leaves the index
+        ClientTransaction replacing = transactionManager
+            .createClientTransaction(
+                (SipRequest)parse(testMessage.replace("INVITE", "OPTIONS")),
+                localHost, new Random().nextInt(65535), "UDP",
+                RFC3261.BRANCHID_MAGIC_COOKIE + "index2",
+                clientTransactionUser);
+        clientTransactions = transactionManager
+            .getClientTransactionsFromCallId("index@192.168.1.2",
+                    RFC3261.METHOD_OPTIONS);
+        assert clientTransactions.size() == 1;
+        assert clientTransactions.get(0) == replacing;
+    }
+
+    @Test
+    public void testResponseRetransmission()
+            throws IOException, SipParserException {
+        DatagramSocket remote = new DatagramSocket(0,
+                InetAddress.getLocalHost());
+        remote.setSoTimeout(5000);
+        String via = "Via: SIP/2.0/UDP "
+            + remote.getLocalAddress().getHostAddress() + ":"
+            + remote.getLocalPort() + ";branch=z9hG4bKretrans\r\n";
+        String message = "OPTIONS sip:john@doe.co.uk SIP/2.0\r\n" +
+                via +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n";
+        SipRequest sipRequest = (SipRequest)parse(message);
+        SipResponse sipResponse = (SipResponse)parse(message.replace(
+                "OPTIONS sip:john@doe.co.uk SIP/2.0", "SIP/2.0 200 OK"));
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        transportManager.setSipPort(port);
+        try {
+            ServerTransaction serverTransaction =
+                transactionManager.createServerTransaction(sipResponse, port,
+                        "UDP", () -> { }, sipRequest);
+            serverTransaction.sendResponse(sipResponse);
+            byte[] first = receive(remote);
+            serverTransaction.receivedRetransmission();
+            byte[] second = receive(remote);
+            // same bytes, the Contact header is not added again
+            assert Arrays.equals(first, second);
+            String sent = new String(first);
+            assert sent.indexOf("Contact") == sent.lastIndexOf("Contact");
+        } finally {
+            remote.close();
+        }
+    }
+
+    @Test
+    public void testRetransmissionAfterSenderClosed()
+            throws IOException, SipParserException {
+        DatagramSocket remote = new DatagramSocket(0,
+                InetAddress.getLocalHost());
+        remote.setSoTimeout(5000);
+        String via = "Via: SIP/2.0/UDP "
+            + remote.getLocalAddress().getHostAddress() + ":"
+            + remote.getLocalPort() + ";branch=z9hG4bKclosed\r\n";
+        String message = "OPTIONS sip:john@doe.co.uk SIP/2.0\r\n" +
+                via +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n";
+        SipRequest sipRequest = (SipRequest)parse(message);
+        SipResponse sipResponse = (SipResponse)parse(message.replace(
+                "OPTIONS sip:john@doe.co.uk SIP/2.0", "SIP/2.0 200 OK"));
+        AtomicInteger sent = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(InetAddress.getLocalHost());
+        MessageSender connection = new MessageSender(0,
+                remote.getLocalAddress(), remote.getLocalPort(),
+                config, "TCP", new FileLogger(null)) {
+            @Override
+            public void sendBytes(byte[] bytes) {
+                sent.incrementAndGet();
+            }
+            @Override
+            public boolean isClosed() {
+                return closed.get();
+            }
+        };
+        sipRequest.setConnection(connection);
+        DatagramSocket datagramSocket = new DatagramSocket();
+        int port = datagramSocket.getLocalPort();
+        datagramSocket.close();
+        transportManager.setSipPort(port);
+        try {
+            ServerTransaction serverTransaction =
+                transactionManager.createServerTransaction(sipResponse, port,
+                        "UDP", () -> { }, sipRequest);
+            serverTransaction.sendResponse(sipResponse);
+            assert sent.get() == 1;
+            closed.set(true);
+            serverTransaction.receivedRetransmission();
+            assert sent.get() == 1;
+            // resolved again from the Via, with the Contact of the new sender
+            String retransmitted = new String(receive(remote));
+            assert retransmitted.startsWith("SIP/2.0 200 OK");
+            assert retransmitted.indexOf("Contact")
+                == retransmitted.lastIndexOf("Contact");
+        } finally {
+            remote.close();
+        }
+    }
+
+    @Test
+    public void testNonInviteAnsweredInTrying()
+            throws IOException, SipParserException {
+        ManualTimer manualTimer = new ManualTimer();
+        TransactionManager manager = createTransactionManager(manualTimer);
+        TransportManager manualTransportManager =
+            createTransportManager(manager);
+        DatagramSocket remote = new DatagramSocket(0,
+                InetAddress.getLocalHost());
+        remote.setSoTimeout(5000);
+        String message = "OPTIONS sip:john@doe.co.uk SIP/2.0\r\n" +
+                "Via: SIP/2.0/UDP "
+                + remote.getLocalAddress().getHostAddress() + ":"
+                + remote.getLocalPort() + ";branch=z9hG4bKtrying\r\n" +
+                "CSeq: 1 OPTIONS\r\n" +
+                "\r\n";
+        SipRequest sipRequest = (SipRequest)parse(message);
+        SipResponse sipResponse = (SipResponse)parse(message.replace(
+                "OPTIONS sip:john@doe.co.uk SIP/2.0", "SIP/2.0 200 OK"));
+        try {
+            ServerTransaction serverTransaction =
+                manager.createServerTransaction(sipResponse,
+                        manualTransportManager.getSipPort(), "UDP",
+                        () -> { }, sipRequest);
+            // final response without provisional response
+            serverTransaction.sendResponse(sipResponse);
+            assert new String(receive(remote)).startsWith("SIP/2.0 200 OK");
+            List<Long> delays = manualTimer.getDelays(
+                    NonInviteServerTransaction.TimerJ.class);
+            assert delays.size() == 1;
+            assert delays.get(0) == 64 * RFC3261.TIMER_T1;
+            assert manager.getServerTransaction("z9hG4bKtrying",
+                    RFC3261.METHOD_OPTIONS) == serverTransaction;
+            manualTimer.fire(NonInviteServerTransaction.TimerJ.class);
+            assert manager.getServerTransaction("z9hG4bKtrying",
+                    RFC3261.METHOD_OPTIONS) == null;
+        } finally {
+            remote.close();
+            manualTransportManager.closeTransports();
+        }
+    }
+
+    @Test
+    public void testTimersDAndKStartInCompleted()
+            throws IOException, SipParserException {
+        ManualTimer manualTimer = new ManualTimer();
+        TransactionManager manager = createTransactionManager(manualTimer);
+        TransportManager manualTransportManager =
+            createTransportManager(manager);
+        DatagramSocket remote = new DatagramSocket(0,
+                InetAddress.getLocalHost());
+        ClientTransactionUser clientTransactionUser = new ClientTransactionUser() {
+            public void errResponseReceived(SipResponse sipResponse) {
+            }
+            public void provResponseReceived(SipResponse sipResponse, Transaction transaction) {
+            }
+            public void successResponseReceived(SipResponse sipResponse, Transaction transaction) {
+            }
+            public void transactionTimeout(ClientTransaction clientTransaction) {
+            }
+            public void transactionTransportError() {
+            }
+        };
+        try {
+            for (String method : new String[] { RFC3261.METHOD_INVITE,
+                    RFC3261.METHOD_OPTIONS }) {
+                String message = method + " sip:bob@biloxi.com SIP/2.0\r\n" +
+                        "Via: \r\n" +
+                        "From: <sip:alice@atlanta.com>;tag=1928301774\r\n" +
+                        "To: <sip:bob@biloxi.com>\r\n" +
+                        "Call-ID: timers@192.168.1.2\r\n" +
+                        "CSeq: 1 " + method + "\r\n" +
+                        "\r\n";
+                ClientTransaction clientTransaction =
+                    manager.createClientTransaction((SipRequest)parse(message),
+                            remote.getLocalAddress(), remote.getLocalPort(),
+                            "UDP", null, clientTransactionUser);
+                Class<?> completedTimer = clientTransaction
+                    instanceof InviteClientTransaction
+                    ? InviteClientTransaction.TimerD.class
+                    : NonInviteClientTransaction.TimerK.class;
+                long delay = clientTransaction
+                    instanceof InviteClientTransaction
+                    ? RFC3261.TIMER_INVITE_CLIENT_TRANSACTION
+                    : RFC3261.TIMER_T4;
+                String response = "SIP/2.0 %s\r\n" +
+                        "Via: \r\n" +
+                        "To: <sip:bob@biloxi.com>;tag=a6c85cf\r\n" +
+                        "CSeq: 1 " + method + "\r\n" +
+                        "\r\n";
+                clientTransaction.start();
+                assert manualTimer.getDelays(completedTimer).isEmpty();
+                clientTransaction.receivedResponse((SipResponse)parse(
+                        String.format(response, "180 Ringing")));
+                assert manualTimer.getDelays(completedTimer).isEmpty();
+                clientTransaction.receivedResponse((SipResponse)parse(
+                        String.format(response, "486 Busy Here")));
+                assert manualTimer.getDelays(completedTimer).equals(
+                        Arrays.asList(delay));
+            }
+        } finally {
+            remote.close();
+            manualTransportManager.closeTransports();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testHandlerTaskDoesNotBlockTimers()
+            throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch handlerStarted = new CountDownLatch(1);
+        CountDownLatch timerRun = new CountDownLatch(1);
+        String[] threads = new String[2];
+        transactionManager.scheduleHandlerTask(() -> {
+            threads[0] = Thread.currentThread().getName();
+            handlerStarted.countDown();
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, 0);
+        try {
+            assert handlerStarted.await(5, TimeUnit.SECONDS);
+            // the handler task is blocked, transaction timers still expire
+            transactionManager.getTimingWheel().schedule(() -> {
+                threads[1] = Thread.currentThread().getName();
+                timerRun.countDown();
+            }, 0);
+            assert timerRun.await(5, TimeUnit.SECONDS);
+            assert !threads[0].equals(threads[1]);
+        } finally {
+            blocked.countDown();
+        }
+    }
+
+    private TransactionManager createTransactionManager(
+            ManualTimer manualTimer) {
+        TransactionManager manager = new TransactionManager(
+                new FileLogger(null));
+        manager.timer.stop();
+        manager.timer = manualTimer;
+        return manager;
+    }
+
+    private TransportManager createTransportManager(
+            TransactionManager manager) throws IOException {
+        Logger logger = new FileLogger(null);
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(InetAddress.getLocalHost());
+        TransportManager manualTransportManager = new TransportManager(
+                manager, config, logger);
+        DatagramSocket datagramSocket = new DatagramSocket();
+        manualTransportManager.setSipPort(datagramSocket.getLocalPort());
+        datagramSocket.close();
+        manager.setTransportManager(manualTransportManager);
+        return manualTransportManager;
+    }
+
+    private byte[] receive(DatagramSocket datagramSocket) throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+        datagramSocket.receive(packet);
+        return Arrays.copyOf(packet.getData(), packet.getLength());
+    }
+
     private SipMessage parse(String message) throws IOException, SipParserException {
         ByteArrayInputStream bais = new ByteArrayInputStream(message.getBytes());
         SipParser sipParser = new SipParser();
         SipMessage sipMessage = sipParser.parse(bais);
         return sipMessage;
     }
+
+    /**
+     * Records timers, which only run when the test fires them.
+     */
+    static class ManualTimer extends TimingWheel {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> delays = new ArrayList<>();
+
+        ManualTimer() {
+            super("manual", new FileLogger(null));
+            stop();
+        }
+
+        @Override
+        public synchronized Timeout schedule(Runnable task, long delay) {
+            tasks.add(task);
+            delays.add(delay);
+            // the wheel is stopped, the timeout is cancelled at once
+            return super.schedule(task, delay);
+        }
+
+        synchronized List<Long> getDelays(Class<?> taskClass) {
+            List<Long> taskDelays = new ArrayList<>();
+            for (int i = 0; i < tasks.size(); ++i) {
+                if (taskClass.isInstance(tasks.get(i))) {
+                    taskDelays.add(delays.get(i));
+                }
+            }
+            return taskDelays;
+        }
+
+        void fire(Class<?> taskClass) {
+            List<Runnable> fired = new ArrayList<>();
+            synchronized (this) {
+                for (Runnable task : tasks) {
+                    if (taskClass.isInstance(task)) {
+                        fired.add(task);
+                    }
+                }
+            }
+            for (Runnable task : fired) {
+                task.run();
+            }
+        }
+    }
 }
@@ -21,6 +21,7 @@ package net.sourceforge.peers.sip.transactionuser;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Collection;
 
 import net.sourceforge.peers.FileLogger;
 import net.sourceforge.peers.sip.syntaxencoding.SipParser;
@@ -28,14 +29,14 @@ import net.sourceforge.peers.sip.syntaxencoding.SipParserException;
 import net.sourceforge.peers.sip.transport.SipMessage;
 import net.sourceforge.peers.sip.transport.SipResponse;
 
-import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 public class DialogManagerTestNG {
 
     private DialogManager dialogManager;
     
-    @BeforeClass
+    @BeforeMethod
     public void createDialogManager() {
         dialogManager = new DialogManager(new FileLogger(null));
     }
@@ -71,6 +72,65 @@ public class DialogManagerTestNG {
         assert "abc".equals(dialog.getLocalTag());
     }
     
+    @Test
+    public void testGetDialog() throws IOException, SipParserException {
+        Dialog dialog = dialogManager.createDialog((SipResponse)parse(
+                "SIP/2.0 200 OK\r\n" +
+                "From: sip:alice@atlanta.com;tag=abc\r\n" +
+                "To: Bob <sip:bob@biloxi.com>;tag=345\r\n" +
+                "Call-ID: lijr345lkj3@somehost\r\n" +
+                "Via: SIP/2.0/UDP 192.2.4.2;branch=23456SG/\r\n" +
+                "\r\n"));
+        // in-dialog requests in both directions
+        SipMessage request = parse("BYE sip:bob@biloxi.com SIP/2.0\r\n" +
+                "From: sip:alice@atlanta.com;tag=abc\r\n" +
+                "To: Bob <sip:bob@biloxi.com>;tag=345\r\n" +
+                "Call-ID: lijr345lkj3@somehost\r\n" +
+                "\r\n");
+        assert dialog == dialogManager.getDialog(request);
+        request = parse("BYE sip:alice@atlanta.com SIP/2.0\r\n" +
+                "From: Bob <sip:bob@biloxi.com>;tag=345\r\n" +
+                "To: sip:alice@atlanta.com;tag=abc\r\n" +
+                "Call-ID: lijr345lkj3@somehost\r\n" +
+                "\r\n");
+        assert dialog == dialogManager.getDialog(request);
+        request = parse("BYE sip:bob@biloxi.com SIP/2.0\r\n" +
+                "From: sip:alice@atlanta.com;tag=abc\r\n" +
+                "To: Bob <sip:bob@biloxi.com>;tag=678\r\n" +
+                "Call-ID: lijr345lkj3@somehost\r\n" +
+                "\r\n");
+        assert dialogManager.getDialog(request) == null;
+        assert dialog == dialogManager.getDialog("lijr345lkj3@somehost");
+        assert dialogManager.getDialog("other@somehost") == null;
+    }
+
+    @Test
+    public void testRemoveDialog() throws IOException, SipParserException {
+        String message = "SIP/2.0 200 OK\r\n" +
+                "From: sip:alice@atlanta.com;tag=abc\r\n" +
+                "To: Bob <sip:bob@biloxi.com>;tag=%s\r\n" +
+                "Call-ID: lijr345lkj3@somehost\r\n" +
+                "Via: SIP/2.0/UDP 192.2.4.2;branch=23456SG/\r\n" +
+                "\r\n";
+        // forked INVITE, two dialogs share the Call-ID
+        Dialog first = dialogManager.createDialog(
+                (SipResponse)parse(String.format(message, "345")));
+        Dialog second = dialogManager.createDialog(
+                (SipResponse)parse(String.format(message, "678")));
+        Collection<Dialog> dialogs = dialogManager.getDialogCollection();
+        assert dialogs.size() == 2;
+        dialogManager.removeDialog(first);
+        assert second == dialogManager.getDialog("lijr345lkj3@somehost");
+        // snapshot taken before removal
+        assert dialogs.size() == 2;
+        assert dialogManager.getDialogCollection().size() == 1;
+        // a dialog is removed once
+        dialogManager.removeDialog(first);
+        dialogManager.removeDialog(second);
+        assert dialogManager.getDialog("lijr345lkj3@somehost") == null;
+        assert dialogManager.getDialogCollection().isEmpty();
+    }
+
     private SipMessage parse(String message) throws IOException, SipParserException {
         ByteArrayInputStream bais = new ByteArrayInputStream(message.getBytes());
         SipParser sipParser = new SipParser();
@@ -0,0 +1,215 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transactionuser;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.syntaxencoding.SipParser;
+import net.sourceforge.peers.sip.syntaxencoding.SipParserException;
+import net.sourceforge.peers.sip.transport.SipResponse;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class StateJournalTestNG {
+
+    private Logger logger;
+    private Path directory;
+    private File file;
+
+    @BeforeMethod
+    public void init() throws IOException {
+        logger = new FileLogger(null);
+        directory = Files.createTempDirectory("journal");
+        file = new File(directory.toFile(), "peers.journal");
+    }
+
+    @AfterMethod
+    public void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                .forEach(File::delete);
+        }
+    }
+
+    @Test
+    public void testResumeDialogs() throws IOException, SipParserException {
+        StateJournal stateJournal = new StateJournal(file, logger);
+        DialogManager dialogManager = new DialogManager(logger);
+        dialogManager.setStateJournal(stateJournal);
+        Dialog confirmed = createDialog(dialogManager, "confirmed");
+        confirmed.receivedOrSent2xx();
+        confirmed.buildSubsequentRequest("INFO");
+        int localCSeq = confirmed.getLocalCSeq();
+        createDialog(dialogManager, "early").receivedOrSent1xx();
+        Dialog terminated = createDialog(dialogManager, "terminated");
+        terminated.receivedOrSent2xx();
+        terminated.receivedOrSentBye();
+        dialogManager.removeDialog(terminated);
+        stateJournal.close();
+
+        stateJournal = new StateJournal(file, logger);
+        dialogManager = new DialogManager(logger);
+        dialogManager.setStateJournal(stateJournal);
+        assert dialogManager.getDialogCollection().size() == 1;
+        Dialog dialog = dialogManager.getDialog("confirmed");
+        assert dialog.getState() == Dialog.CONFIRMED;
+        assert confirmed.getId().equals(dialog.getId());
+        assert dialog.getLocalCSeq() == localCSeq;
+        assert "sip:bob@biloxi.com".equals(dialog.getRemoteUri());
+        assert "sip:bob@192.0.2.4".equals(dialog.getRemoteTarget());
+        assert "<sip:p1.example.com;lr>".equals(dialog.getRouteSet().get(0));
+        // resumed dialogs are journaled again
+        dialog.receivedOrSentBye();
+        stateJournal.close();
+        stateJournal = new StateJournal(file, logger);
+        assert stateJournal.getDialogs(logger).isEmpty();
+        stateJournal.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        StateJournal stateJournal = new StateJournal(file, 4096, logger);
+        stateJournal.putBinding(new StateJournal.Binding(
+                "sip:bob@biloxi.com", "sip:biloxi.com", "bob", 1, 0));
+        for (int i = 0; i < 1000; ++i) {
+            stateJournal.putBinding(new StateJournal.Binding(
+                    "sip:alice@atlanta.com", "sip:atlanta.com", "alice", i,
+                    i));
+        }
+        stateJournal.removeBinding("sip:bob@biloxi.com");
+        assert stateJournal.getLength() < 4096;
+        stateJournal.compact();
+        int length = stateJournal.getLength();
+        stateJournal.close();
+
+        stateJournal = new StateJournal(file, 4096, logger);
+        assert stateJournal.getLength() == length;
+        List<StateJournal.Binding> bindings = stateJournal.getBindings();
+        assert bindings.size() == 1;
+        StateJournal.Binding binding = bindings.get(0);
+        assert "sip:alice@atlanta.com".equals(binding.getProfileUri());
+        assert "alice".equals(binding.getCallId());
+        assert binding.getCSeq() == 999;
+        assert binding.getRefreshTime() == 999;
+        stateJournal.close();
+    }
+
+    @Test
+    public void testCompactionWhenFull() throws IOException {
+        StateJournal stateJournal = new StateJournal(file, 4096, logger);
+        for (int i = 0; i < 1000; ++i) {
+            stateJournal.putBinding(new StateJournal.Binding(
+                    "sip:alice@atlanta.com", "sip:atlanta.com", "alice", i,
+                    i));
+        }
+        // changes not yet compacted are written on close
+        stateJournal.close();
+
+        stateJournal = new StateJournal(file, 4096, logger);
+        List<StateJournal.Binding> bindings = stateJournal.getBindings();
+        assert bindings.size() == 1;
+        assert bindings.get(0).getCSeq() == 999;
+        stateJournal.close();
+    }
+
+    @Test
+    public void testCompactionReusesLargerFile() throws IOException {
+        // left over by a journal which had grown larger
+        File previous = new File(file.getPath() + ".1");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(
+                previous, "rw")) {
+            byte[] stale = new byte[16384];
+            Arrays.fill(stale, (byte)0x7f);
+            randomAccessFile.write(stale);
+        }
+        StateJournal stateJournal = new StateJournal(file, 4096, logger);
+        stateJournal.putBinding(new StateJournal.Binding(
+                "sip:alice@atlanta.com", "sip:atlanta.com", "alice", 1, 0));
+        stateJournal.compact();
+        stateJournal.close();
+        // not truncated, stale bytes are not read as records
+        assert previous.length() == 16384;
+        stateJournal = new StateJournal(file, 4096, logger);
+        List<StateJournal.Binding> bindings = stateJournal.getBindings();
+        assert bindings.size() == 1;
+        assert "alice".equals(bindings.get(0).getCallId());
+        stateJournal.close();
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        StateJournal stateJournal = new StateJournal(file, logger);
+        stateJournal.putBinding(new StateJournal.Binding(
+                "sip:alice@atlanta.com", "sip:atlanta.com", "alice", 1, 0));
+        int length = stateJournal.getLength();
+        stateJournal.putBinding(new StateJournal.Binding(
+                "sip:bob@biloxi.com", "sip:biloxi.com", "bob", 1, 0));
+        stateJournal.close();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(
+                new File(file.getPath() + ".0"), "rw")) {
+            randomAccessFile.seek(length + 16);
+            randomAccessFile.write('X');
+        }
+
+        stateJournal = new StateJournal(file, logger);
+        List<StateJournal.Binding> bindings = stateJournal.getBindings();
+        assert bindings.size() == 1;
+        assert "alice".equals(bindings.get(0).getCallId());
+        // appended after the last valid record
+        assert stateJournal.getLength() == length;
+        stateJournal.close();
+    }
+
+    private Dialog createDialog(DialogManager dialogManager, String callId)
+            throws IOException, SipParserException {
+        String message = "SIP/2.0 200 OK\r\n" +
+                "From: sip:alice@atlanta.com;tag=abc\r\n" +
+                "To: Bob <sip:bob@biloxi.com>;tag=345\r\n" +
+                "Call-ID: " + callId + "\r\n" +
+                "Via: SIP/2.0/UDP 192.2.4.2;branch=23456SG/\r\n" +
+                "\r\n";
+        Dialog dialog = dialogManager.createDialog((SipResponse)
+                new SipParser().parse(
+                        new ByteArrayInputStream(message.getBytes())));
+        dialog.setLocalCSeq(1);
+        dialog.setLocalUri("sip:alice@atlanta.com");
+        dialog.setRemoteUri("sip:bob@biloxi.com");
+        dialog.setRemoteTarget("sip:bob@192.0.2.4");
+        ArrayList<String> routeSet = new ArrayList<>();
+        routeSet.add("<sip:p1.example.com;lr>");
+        dialog.setRouteSet(routeSet);
+        return dialog;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import org.testng.annotations.Test;
+
+public class BufferPoolTestNG {
+
+    @Test
+    public void testRecycle() {
+        BufferPool bufferPool = new BufferPool(16, 2);
+        PooledBuffer buffer = bufferPool.acquire();
+        assert buffer.getData().length == 16;
+        assert buffer.getReferenceCount() == 1;
+        buffer.setLength(4);
+        buffer.release();
+        assert bufferPool.getAvailableBuffers() == 1;
+        PooledBuffer recycled = bufferPool.acquire();
+        assert recycled == buffer;
+        assert recycled.getLength() == 0;
+        assert bufferPool.getAllocations() == 1;
+    }
+
+    @Test
+    public void testRetain() {
+        BufferPool bufferPool = new BufferPool(16, 2);
+        PooledBuffer buffer = bufferPool.acquire();
+        buffer.retain();
+        buffer.release();
+        assert bufferPool.getAvailableBuffers() == 0;
+        buffer.release();
+        assert bufferPool.getAvailableBuffers() == 1;
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testReleaseTwice() {
+        BufferPool bufferPool = new BufferPool(16, 2);
+        PooledBuffer buffer = bufferPool.acquire();
+        buffer.release();
+        buffer.release();
+    }
+
+    @Test
+    public void testCapacity() {
+        BufferPool bufferPool = new BufferPool(16, 2);
+        PooledBuffer[] buffers = new PooledBuffer[3];
+        for (int i = 0; i < buffers.length; ++i) {
+            buffers[i] = bufferPool.acquire();
+        }
+        for (PooledBuffer buffer : buffers) {
+            buffer.release();
+        }
+        assert bufferPool.getAvailableBuffers() == 2;
+        assert bufferPool.getAllocations() == 3;
+    }
+
+}
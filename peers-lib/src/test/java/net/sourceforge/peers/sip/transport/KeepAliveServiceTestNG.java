@@ -0,0 +1,175 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.JavaConfig;
+import net.sourceforge.peers.sip.RFC3261;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class KeepAliveServiceTestNG {
+
+    private KeepAliveService keepAliveService;
+
+    @BeforeMethod
+    public void init() {
+        keepAliveService = new KeepAliveService(new FileLogger(null));
+    }
+
+    @AfterMethod
+    public void close() {
+        keepAliveService.close();
+    }
+
+    @Test
+    public void testIdleFlow() {
+        RecordingSender messageSender = new RecordingSender();
+        keepAliveService.add(messageSender);
+        long now = messageSender.getLastActivity();
+        keepAliveService.tick(now + KeepAliveService.KEEP_ALIVE_INTERVAL * 4 / 5 - 1);
+        assert messageSender.sent.isEmpty();
+        keepAliveService.tick(now + KeepAliveService.KEEP_ALIVE_INTERVAL);
+        assert messageSender.sent.size() == 1;
+        assert messageSender.sent.get(0).length == KeepAliveService.PING.length;
+        assert keepAliveService.getKeepAlivesSent() == 1;
+    }
+
+    @Test
+    public void testActiveFlow() {
+        RecordingSender messageSender = new RecordingSender();
+        keepAliveService.add(messageSender);
+        long now = messageSender.getLastActivity();
+        // traffic right before the keep-alive is due
+        messageSender.setLastActivity(now + KeepAliveService.KEEP_ALIVE_INTERVAL - 1);
+        keepAliveService.tick(now + KeepAliveService.KEEP_ALIVE_INTERVAL);
+        assert messageSender.sent.isEmpty();
+        assert keepAliveService.getKeepAlivesSkipped() == 1;
+        keepAliveService.tick(now + 2 * KeepAliveService.KEEP_ALIVE_INTERVAL);
+        assert messageSender.sent.size() == 1;
+    }
+
+    @Test
+    public void testJitter() {
+        List<RecordingSender> messageSenders = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            RecordingSender messageSender = new RecordingSender();
+            messageSender.setLastActivity(0);
+            messageSenders.add(messageSender);
+            keepAliveService.add(messageSender);
+        }
+        long now = System.currentTimeMillis();
+        keepAliveService.tick(now + KeepAliveService.KEEP_ALIVE_INTERVAL * 9 / 10);
+        int sent = 0;
+        for (RecordingSender messageSender : messageSenders) {
+            sent += messageSender.sent.size();
+        }
+        // about half of the flows are due, not all at once
+        assert sent > 10 && sent < 90 : sent + " keep-alives sent";
+    }
+
+    @Test
+    public void testStoppedFlow() {
+        RecordingSender messageSender = new RecordingSender();
+        keepAliveService.add(messageSender);
+        messageSender.stopKeepAlives();
+        keepAliveService.tick(System.currentTimeMillis()
+                + KeepAliveService.KEEP_ALIVE_INTERVAL);
+        assert messageSender.sent.isEmpty();
+        assert keepAliveService.getFlows() == 0;
+    }
+
+    @Test
+    public void testPong() {
+        RecordingSender messageSender = new RecordingSender();
+        messageSender.setLastActivity(0);
+        keepAliveService.pongReceived(messageSender);
+        assert keepAliveService.getPongsReceived() == 1;
+        assert messageSender.getLastActivity() == 0;
+    }
+
+    @Test
+    public void testKeepAlivesAreNotTraffic() throws Exception {
+        DatagramSocket datagramSocket = new DatagramSocket(0,
+                InetAddress.getLoopbackAddress());
+        try {
+            MessageSender messageSender = new UdpMessageSender(
+                    InetAddress.getLoopbackAddress(),
+                    datagramSocket.getLocalPort(), datagramSocket,
+                    new JavaConfig(), new FileLogger(null));
+            keepAliveService.add(messageSender);
+            long now = messageSender.getLastActivity();
+            keepAliveService.tick(now + KeepAliveService.KEEP_ALIVE_INTERVAL);
+            keepAliveService.pongReceived(messageSender);
+            keepAliveService.tick(now
+                    + 2 * KeepAliveService.KEEP_ALIVE_INTERVAL);
+            assert keepAliveService.getKeepAlivesSent() == 2;
+            assert keepAliveService.getKeepAlivesSkipped() == 0;
+            assert messageSender.getLastActivity() == now;
+        } finally {
+            datagramSocket.close();
+        }
+    }
+
+    static class RecordingSender extends MessageSender {
+
+        final List<byte[]> sent = new ArrayList<>();
+        private long lastActivity;
+
+        RecordingSender() {
+            super(5060, InetAddress.getLoopbackAddress(), 5060,
+                    new JavaConfig(), RFC3261.TRANSPORT_UDP,
+                    new FileLogger(null));
+            lastActivity = System.currentTimeMillis();
+        }
+
+        @Override
+        public void sendMessage(SipMessage sipMessage) {
+        }
+
+        @Override
+        public void sendBytes(byte[] bytes) {
+            sent.add(bytes);
+        }
+
+        @Override
+        void markActivity() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        @Override
+        public long getLastActivity() {
+            return lastActivity;
+        }
+
+        void setLastActivity(long lastActivity) {
+            this.lastActivity = lastActivity;
+        }
+
+    }
+
+}
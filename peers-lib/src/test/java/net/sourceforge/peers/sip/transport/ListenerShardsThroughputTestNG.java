@@ -0,0 +1,167 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2007-2013 Yohann Martineau
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.JavaConfig;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "benchmark")
+public class ListenerShardsThroughputTestNG {
+
+    private static final int SHARDS = 4;
+    private static final int CLIENTS = 8;
+    private static final int MESSAGES_PER_CLIENT = 1000;
+    // per client, 8 clients push 4000 messages per second
+    private static final int MESSAGES_PER_SECOND = 500;
+
+    @Test(timeOut = 60000)
+    public void blockingShards() throws Exception {
+        pushMessages(0);
+    }
+
+    @Test(timeOut = 60000)
+    public void selectorShards() throws Exception {
+        pushMessages(2);
+    }
+
+    private void pushMessages(int selectorThreads) throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(loopback);
+        config.setSelectorThreads(selectorThreads);
+        config.setListenerShards(SHARDS);
+        // measure the transport, not console logging
+        Logger logger = new Logger() {
+            @Override public void debug(String message) { }
+            @Override public void info(String message) { }
+            @Override public void error(String message) { }
+            @Override public void error(String message, Exception exception) { }
+            @Override public void traceNetwork(String message, String direction) { }
+        };
+        final AtomicInteger received = new AtomicInteger();
+        final Set<String> receiverThreads = ConcurrentHashMap.newKeySet();
+        TransportManager transportManager = new TransportManager(
+                new TransactionManager(logger), config, logger);
+        transportManager.setSipServerTransportUser(sipMessage -> {
+            received.incrementAndGet();
+            receiverThreads.add(Thread.currentThread().getName());
+        });
+        transportManager.createServerTransport(RFC3261.TRANSPORT_UDP, 0);
+        final int port = transportManager.getSipPort();
+        try {
+            Thread[] clients = new Thread[CLIENTS];
+            long start = System.nanoTime();
+            for (int i = 0; i < CLIENTS; ++i) {
+                final int client = i;
+                clients[i] = new Thread(() -> {
+                    try {
+                        sendMessages(client, loopback, port);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                clients[i].start();
+            }
+            for (Thread client : clients) {
+                client.join();
+            }
+            int expected = CLIENTS * MESSAGES_PER_CLIENT;
+            int previous = -1;
+            while (received.get() < expected && received.get() != previous) {
+                previous = received.get();
+                Thread.sleep(200);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println("listener shards (selector threads "
+                    + selectorThreads + "): " + received.get() + "/" + expected
+                    + " messages in " + seconds + " s, "
+                    + (int) (received.get() / seconds) + " messages/s, "
+                    + receiverThreads.size() + " receive loops used");
+            // udp over loopback, datagrams are dropped when a socket buffer
+            // overflows, e.g. during a garbage collection
+            assert received.get() >= expected * 0.8 : received.get()
+                    + " messages received out of " + expected;
+            if (selectorThreads == 0 && isReusePortSupported()) {
+                assert receiverThreads.size() > 1 : "datagrams not spread "
+                    + "over listener shards";
+            }
+        } finally {
+            transportManager.closeTransports();
+        }
+    }
+
+    private void sendMessages(int client, InetAddress inetAddress, int port)
+            throws IOException, InterruptedException {
+        try (DatagramSocket datagramSocket = new DatagramSocket()) {
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES_PER_CLIENT; ++i) {
+                byte[] bytes = message(i % 2 == 0 ? RFC3261.METHOD_OPTIONS
+                        : RFC3261.METHOD_INVITE, client, i).getBytes();
+                datagramSocket.send(new DatagramPacket(bytes, bytes.length,
+                        inetAddress, port));
+                long due = start + i * 1000000000L / MESSAGES_PER_SECOND;
+                long ahead = due - System.nanoTime();
+                if (ahead > 1000000) {
+                    Thread.sleep(ahead / 1000000);
+                }
+            }
+        }
+    }
+
+    private String message(String method, int client, int index) {
+        String id = client + "-" + index;
+        return method + " sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK" + id + "\r\n" +
+            "Max-Forwards: 70\r\n" +
+            "To: Bob <sip:bob@biloxi.com>\r\n" +
+            "From: Alice <sip:alice@atlanta.com>;tag=1928301774\r\n" +
+            "Call-ID: " + id + "@pc33.atlanta.com\r\n" +
+            "CSeq: " + index + " " + method + "\r\n" +
+            "Contact: <sip:alice@pc33.atlanta.com>\r\n" +
+            "Content-Length: 0\r\n" +
+            "\r\n";
+    }
+
+    private boolean isReusePortSupported() {
+        try (DatagramChannel datagramChannel = DatagramChannel.open()) {
+            return datagramChannel.supportedOptions().contains(
+                    StandardSocketOptions.class.getField("SO_REUSEPORT")
+                            .get(null));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+}
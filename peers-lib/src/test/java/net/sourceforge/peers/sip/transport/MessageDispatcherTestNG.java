@@ -0,0 +1,265 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.JavaConfig;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.Utils;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
+import net.sourceforge.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.Test;
+
+public class MessageDispatcherTestNG {
+
+    private static final int CALLS = 8;
+    private static final int MESSAGES_PER_CALL = 50;
+
+    @Test(timeOut = 20000)
+    public void testCallIdAffinity() throws Exception {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(loopback);
+        config.setDispatchThreads(4);
+        Logger logger = new FileLogger(null);
+        final Map<String, List<Integer>> cseqs = new ConcurrentHashMap<>();
+        final Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+        final AtomicInteger received = new AtomicInteger();
+        TransportManager transportManager = new TransportManager(
+                new TransactionManager(logger), config, logger);
+        transportManager.setSipServerTransportUser(sipMessage -> {
+            String callId = Utils.getMessageCallId(sipMessage);
+            String cseq = sipMessage.getSipHeaders().get(
+                    new SipHeaderFieldName(RFC3261.HDR_CSEQ)).getValue();
+            cseqs.computeIfAbsent(callId, k -> new ArrayList<>()).add(
+                    Integer.parseInt(cseq.substring(0, cseq.indexOf(' '))));
+            threads.computeIfAbsent(callId,
+                    k -> ConcurrentHashMap.newKeySet()).add(
+                            Thread.currentThread().getName());
+            received.incrementAndGet();
+        });
+        transportManager.createServerTransport(RFC3261.TRANSPORT_UDP, 0);
+        try (DatagramSocket datagramSocket = new DatagramSocket()) {
+            for (int i = 0; i < MESSAGES_PER_CALL; ++i) {
+                for (int call = 0; call < CALLS; ++call) {
+                    byte[] bytes = message(call, i).getBytes();
+                    datagramSocket.send(new DatagramPacket(bytes, bytes.length,
+                            loopback, transportManager.getSipPort()));
+                }
+            }
+            int expected = CALLS * MESSAGES_PER_CALL;
+            int previous = -1;
+            while (received.get() < expected && received.get() != previous) {
+                previous = received.get();
+                Thread.sleep(200);
+            }
+            MessageDispatcher messageDispatcher =
+                transportManager.getMessageDispatcher();
+            assert messageDispatcher.getWorkers() == 4;
+            assert messageDispatcher.getDispatched() >= received.get();
+            assert received.get() > 0;
+            for (String callId : cseqs.keySet()) {
+                assert threads.get(callId).size() == 1 : callId
+                    + " processed by " + threads.get(callId);
+                assert threads.get(callId).iterator().next()
+                    .startsWith(MessageDispatcher.class.getSimpleName());
+                List<Integer> list = cseqs.get(callId);
+                for (int i = 1; i < list.size(); ++i) {
+                    assert list.get(i - 1) < list.get(i) : callId
+                        + " out of order " + list;
+                }
+            }
+        } finally {
+            transportManager.closeTransports();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testFullQueue() throws Exception {
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(InetAddress.getLoopbackAddress());
+        Logger logger = new FileLogger(null);
+        TransportManager transportManager = new TransportManager(
+                new TransactionManager(logger), config, logger);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        MessageReceiver messageReceiver = new MessageReceiver(0,
+                new TransactionManager(logger), transportManager, config,
+                logger) {
+            @Override
+            protected void listen() {
+            }
+
+            @Override
+            protected void processMessage(PooledBuffer buffer,
+                    InetAddress sourceIp, int sourcePort, String transport,
+                    long receiveTime) {
+                started.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        MessageDispatcher messageDispatcher = new MessageDispatcher(1, 1,
+                logger);
+        BufferPool bufferPool = transportManager.getBufferPool();
+        try {
+            PooledBuffer[] buffers = new PooledBuffer[3];
+            for (int i = 0; i < buffers.length; ++i) {
+                buffers[i] = bufferPool.acquire();
+                byte[] bytes = message(0, i).getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(bytes, 0, buffers[i].getData(), 0,
+                        bytes.length);
+                buffers[i].setLength(bytes.length);
+                if (i == 1) {
+                    // first message is being processed
+                    assert started.await(5, TimeUnit.SECONDS);
+                }
+                boolean dispatched = messageDispatcher.dispatch(
+                        messageReceiver, buffers[i], InetAddress.getLoopbackAddress(),
+                        5060, RFC3261.TRANSPORT_UDP, System.nanoTime());
+                assert dispatched == (i < 2);
+                buffers[i].release();
+            }
+            assert messageDispatcher.getDropped() == 1;
+            assert messageDispatcher.getQueueDepths()[0] == 1;
+            assert messageDispatcher.getMaxQueueDepth() == 1;
+            // dropped buffer is not referenced anymore
+            assert buffers[2].getReferenceCount() == 0;
+        } finally {
+            blocked.countDown();
+            messageDispatcher.close();
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void testFullQueueStream() throws Exception {
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(InetAddress.getLoopbackAddress());
+        Logger logger = new FileLogger(null);
+        TransportManager transportManager = new TransportManager(
+                new TransactionManager(logger), config, logger);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final AtomicInteger processed = new AtomicInteger();
+        MessageReceiver messageReceiver = new MessageReceiver(0,
+                new TransactionManager(logger), transportManager, config,
+                logger) {
+            @Override
+            protected void listen() {
+            }
+
+            @Override
+            protected void processMessage(PooledBuffer buffer,
+                    InetAddress sourceIp, int sourcePort, String transport,
+                    long receiveTime) {
+                started.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                processed.incrementAndGet();
+            }
+        };
+        final MessageDispatcher messageDispatcher = new MessageDispatcher(1,
+                1, logger);
+        BufferPool bufferPool = transportManager.getBufferPool();
+        try {
+            final PooledBuffer[] buffers = new PooledBuffer[4];
+            for (int i = 0; i < buffers.length; ++i) {
+                buffers[i] = bufferPool.acquire();
+                byte[] bytes = message(0, i).getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(bytes, 0, buffers[i].getData(), 0,
+                        bytes.length);
+                buffers[i].setLength(bytes.length);
+            }
+            assert messageDispatcher.dispatch(messageReceiver, buffers[0],
+                    InetAddress.getLoopbackAddress(), 5060,
+                    RFC3261.TRANSPORT_TCP, System.nanoTime());
+            assert started.await(5, TimeUnit.SECONDS);
+            assert messageDispatcher.dispatch(messageReceiver, buffers[1],
+                    InetAddress.getLoopbackAddress(), 5060,
+                    RFC3261.TRANSPORT_TCP, System.nanoTime());
+            // queue full, a stream message is dropped after the timeout only
+            messageDispatcher.setStreamTimeout(100);
+            long start = System.nanoTime();
+            assert !messageDispatcher.dispatch(messageReceiver, buffers[2],
+                    InetAddress.getLoopbackAddress(), 5060,
+                    RFC3261.TRANSPORT_TCP, System.nanoTime());
+            assert System.nanoTime() - start
+                >= TimeUnit.MILLISECONDS.toNanos(100);
+            assert messageDispatcher.getDropped() == 1;
+            // otherwise the receive thread waits until the worker has room
+            messageDispatcher.setStreamTimeout(MessageDispatcher.STREAM_TIMEOUT);
+            final AtomicInteger dispatched = new AtomicInteger(-1);
+            Thread receiveThread = new Thread(() -> dispatched.set(
+                    messageDispatcher.dispatch(messageReceiver, buffers[3],
+                            InetAddress.getLoopbackAddress(), 5060,
+                            RFC3261.TRANSPORT_TCP, System.nanoTime()) ? 1 : 0));
+            receiveThread.start();
+            receiveThread.join(200);
+            assert receiveThread.isAlive();
+            assert dispatched.get() == -1;
+            blocked.countDown();
+            receiveThread.join();
+            assert dispatched.get() == 1;
+            assert messageDispatcher.getDropped() == 1;
+            while (processed.get() < 3) {
+                Thread.sleep(10);
+            }
+            for (PooledBuffer buffer : buffers) {
+                buffer.release();
+            }
+        } finally {
+            blocked.countDown();
+            messageDispatcher.close();
+        }
+    }
+
+    private String message(int call, int index) {
+        return "OPTIONS sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK" + call + "-" + index + "\r\n" +
+            "Call-ID: call" + call + "@pc33.atlanta.com\r\n" +
+            "CSeq: " + (index + 1) + " OPTIONS\r\n" +
+            "Content-Length: 0\r\n" +
+            "\r\n";
+    }
+
+}
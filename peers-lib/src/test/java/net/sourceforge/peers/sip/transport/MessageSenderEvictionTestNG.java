@@ -0,0 +1,230 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.JavaConfig;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.syntaxencoding.SipParser;
+import net.sourceforge.peers.sip.syntaxencoding.SipParserException;
+import net.sourceforge.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class MessageSenderEvictionTestNG {
+
+    private TransportManager transportManager;
+    private InetAddress loopback;
+
+    @BeforeMethod
+    protected void init() throws IOException {
+        loopback = InetAddress.getLoopbackAddress();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(loopback);
+        Logger logger = new FileLogger(null);
+        transportManager = new TransportManager(
+                new TransactionManager(logger), config, logger);
+        transportManager.setSipServerTransportUser(sipMessage -> {});
+        transportManager.createServerTransport(RFC3261.TRANSPORT_UDP, 0);
+    }
+
+    @AfterMethod
+    protected void close() {
+        transportManager.closeTransports();
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        transportManager.setMaxMessageSenders(3);
+        List<MessageSender> messageSenders = createSenders(5);
+        assert transportManager.getMessageSenderCount() == 3;
+        assert transportManager.getCapacityEvictions() == 2;
+        int stopped = 0;
+        for (MessageSender messageSender : messageSenders) {
+            if (messageSender.isKeepAliveStopped()) {
+                ++stopped;
+            }
+        }
+        assert stopped == 2;
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        transportManager.setSenderIdleTimeout(1000);
+        List<MessageSender> messageSenders = createSenders(2);
+        long now = System.currentTimeMillis();
+        transportManager.sweep(now);
+        assert transportManager.getMessageSenderCount() == 2;
+        messageSenders.get(0).sendEncoded(KeepAliveService.PONG);
+        transportManager.sweep(messageSenders.get(1).getLastActivity() + 1001);
+        assert transportManager.getIdleEvictions() == 1;
+        assert !messageSenders.get(0).isKeepAliveStopped();
+        assert messageSenders.get(1).isKeepAliveStopped();
+        transportManager.sweep(now + 10000);
+        assert transportManager.getMessageSenderCount() == 0;
+        assert transportManager.getIdleEvictions() == 2;
+    }
+
+    @Test
+    public void testRegistrarFlowIsKept() throws Exception {
+        transportManager.setSenderIdleTimeout(1000);
+        String register = "REGISTER sip:atlanta.com SIP/2.0\r\n" +
+                "Via: \r\n" +
+                "Contact: <sip:alice@127.0.0.1>\r\n" +
+                "Expires: 3600\r\n" +
+                "\r\n";
+        MessageSender registrar = transportManager.createClientTransport(
+                (SipRequest) parse(register), loopback, 5060,
+                RFC3261.TRANSPORT_UDP);
+        MessageSender other = createSenders(1).get(0);
+        long now = System.currentTimeMillis();
+        // no SIP traffic between refreshes, keep-alives go on
+        transportManager.sweep(now + 1000 + 1);
+        assert transportManager.getMessageSenderCount() == 1;
+        assert !registrar.isKeepAliveStopped();
+        assert other.isKeepAliveStopped();
+        // not kept once unregistered
+        MessageSender unregister = transportManager.createClientTransport(
+                (SipRequest) parse(register.replace(
+                        "<sip:alice@127.0.0.1>",
+                        "<sip:alice@127.0.0.1>;expires=0")),
+                loopback, 5060, RFC3261.TRANSPORT_UDP);
+        assert unregister == registrar;
+        transportManager.sweep(now + 1000 + 1);
+        assert registrar.isKeepAliveStopped();
+    }
+
+    @Test
+    public void testConcurrentCreation() throws Exception {
+        int threads = 8;
+        int remoteParties = 50;
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            for (int port = 40000; port < 40000 + remoteParties; ++port) {
+                int remotePort = port;
+                List<Future<MessageSender>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; ++i) {
+                    futures.add(executorService.submit(() -> {
+                        SipRequest sipRequest = (SipRequest) parse(
+                                "MESSAGE sip:bob@bilox.com SIP/2.0\r\n" +
+                                "Via: \r\n" +
+                                "\r\n");
+                        barrier.await();
+                        return transportManager.createClientTransport(
+                                sipRequest, loopback, remotePort,
+                                RFC3261.TRANSPORT_UDP);
+                    }));
+                }
+                MessageSender messageSender = futures.get(0).get();
+                for (Future<MessageSender> future : futures) {
+                    assert future.get() == messageSender;
+                }
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        // a sender created concurrently does not stay in the keep-alives
+        assert transportManager.getMessageSenderCount() == remoteParties;
+        assert transportManager.getKeepAliveService().getFlows()
+                == remoteParties;
+    }
+
+    @Test
+    public void testIdleTimeoutWithKeepAlives() throws Exception {
+        transportManager.setSenderIdleTimeout(200);
+        KeepAliveService keepAliveService =
+            transportManager.getKeepAliveService();
+        keepAliveService.setKeepAliveInterval(50);
+        MessageSender idle = createSenders(1).get(0);
+        DatagramSocket peer = new DatagramSocket(0, loopback);
+        try {
+            SipRequest sipRequest = (SipRequest) parse(
+                    "MESSAGE sip:bob@bilox.com SIP/2.0\r\n" +
+                    "Via: \r\n" +
+                    "\r\n");
+            MessageSender active = transportManager.createClientTransport(
+                    sipRequest, loopback, peer.getLocalPort(),
+                    RFC3261.TRANSPORT_UDP);
+            byte[] message = (
+                    "OPTIONS sip:alice@atlanta.com SIP/2.0\r\n" +
+                    "Via: SIP/2.0/UDP 127.0.0.1:" + peer.getLocalPort()
+                    + ";branch=z9hG4bKidle\r\n" +
+                    "Call-ID: idle\r\n" +
+                    "CSeq: 1 OPTIONS\r\n" +
+                    "\r\n").getBytes();
+            long start = System.currentTimeMillis();
+            while (System.currentTimeMillis() - start < 600) {
+                peer.send(new DatagramPacket(message, message.length,
+                        loopback, transportManager.getSipPort()));
+                long now = System.currentTimeMillis();
+                keepAliveService.tick(now);
+                transportManager.sweep(now);
+                Thread.sleep(10);
+            }
+            assert keepAliveService.getKeepAlivesSent() > 0;
+            // keep-alives do not count as activity, received messages do
+            assert idle.isKeepAliveStopped();
+            assert !active.isKeepAliveStopped();
+            assert transportManager.getIdleEvictions() == 1;
+        } finally {
+            peer.close();
+        }
+    }
+
+    private List<MessageSender> createSenders(int count)
+            throws IOException, SipParserException, InterruptedException {
+        List<MessageSender> messageSenders = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            SipRequest sipRequest = (SipRequest) parse(
+                    "MESSAGE sip:bob@bilox.com SIP/2.0\r\n" +
+                    "Via: \r\n" +
+                    "\r\n");
+            messageSenders.add(transportManager.createClientTransport(
+                    sipRequest, loopback, 40000 + i, RFC3261.TRANSPORT_UDP));
+            // distinct activity dates, the first sender is the eldest
+            Thread.sleep(2);
+        }
+        return messageSenders;
+    }
+
+    private SipMessage parse(String message) throws IOException, SipParserException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(message.getBytes());
+        SipParser sipParser = new SipParser();
+        return sipParser.parse(bais);
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    Copyright 2007-2013 Yohann Martineau
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.JavaConfig;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.syntaxencoding.SipParser;
+import net.sourceforge.peers.sip.syntaxencoding.SipParserException;
+import net.sourceforge.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class NioUdpTransportTestNG {
+
+    private TransportManager transportManager;
+    private BlockingQueue<SipMessage> receivedMessages;
+    private InetAddress localHost;
+
+    @BeforeClass
+    protected void init() throws IOException {
+        localHost = InetAddress.getLocalHost();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(localHost);
+        config.setSelectorThreads(1);
+        Logger logger = new FileLogger(null);
+        receivedMessages = new LinkedBlockingQueue<>();
+        transportManager = new TransportManager(
+                new TransactionManager(logger), config, logger);
+        transportManager.setSipServerTransportUser(receivedMessages::add);
+        transportManager.createServerTransport(RFC3261.TRANSPORT_UDP, 0);
+    }
+
+    @AfterClass
+    protected void close() {
+        transportManager.closeTransports();
+    }
+
+    @Test(timeOut = 10000)
+    public void receiveRequest() throws Exception {
+        assert transportManager.getSipPort() > 0;
+        String message = "OPTIONS sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Via: SIP/2.0/UDP 127.0.0.1:5060;branch=z9hG4bK776asdhds\r\n" +
+            "Call-ID: a84b4c76e66710\r\n" +
+            "CSeq: 63104 OPTIONS\r\n" +
+            "\r\n";
+        byte[] bytes = message.getBytes();
+        try (DatagramSocket datagramSocket = new DatagramSocket()) {
+            datagramSocket.send(new DatagramPacket(bytes, bytes.length,
+                    localHost, transportManager.getSipPort()));
+        }
+        SipMessage sipMessage = receivedMessages.poll(5, TimeUnit.SECONDS);
+        assert sipMessage instanceof SipRequest;
+        assert RFC3261.METHOD_OPTIONS.equals(
+                ((SipRequest) sipMessage).getMethod());
+    }
+
+    @Test(timeOut = 10000)
+    public void sendRequest() throws Exception {
+        String message = "MESSAGE sip:bob@bilox.com SIP/2.0\r\n" +
+            "Via: \r\n" +
+            "\r\n";
+        SipRequest sipRequest = (SipRequest) parse(message);
+        try (DatagramSocket datagramSocket = new DatagramSocket()) {
+            MessageSender messageSender =
+                transportManager.createClientTransport(sipRequest, localHost,
+                        datagramSocket.getLocalPort(), RFC3261.TRANSPORT_UDP);
+            assert messageSender instanceof NioUdpMessageSender;
+            assert messageSender.getLocalPort() == transportManager.getSipPort();
+            messageSender.sendMessage(sipRequest);
+            DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+            // skip keep-alives
+            String received;
+            do {
+                datagramSocket.receive(packet);
+                received = new String(packet.getData(), 0, packet.getLength());
+            } while ("".equals(received.trim()));
+            assert sipRequest.toString().equals(received);
+        }
+    }
+
+    private SipMessage parse(String message) throws IOException, SipParserException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(message.getBytes());
+        SipParser sipParser = new SipParser();
+        return sipParser.parse(bais);
+    }
+
+}
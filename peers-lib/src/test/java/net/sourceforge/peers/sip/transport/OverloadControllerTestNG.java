@@ -0,0 +1,164 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.JavaConfig;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.Test;
+
+public class OverloadControllerTestNG {
+
+    private static final long MILLIS = 1000000;
+
+    @Test
+    public void testQueueDepth() {
+        OverloadController overloadController = new OverloadController();
+        overloadController.setQueueDepthThreshold(100);
+        long now = System.nanoTime();
+        assert overloadController.getShedFraction(100, now) == 0;
+        assert overloadController.getShedFraction(150, now) == 0.5;
+        assert overloadController.getShedFraction(200, now) == 1;
+        assert overloadController.getShedFraction(1000, now) == 1;
+        assert overloadController.admit(50, now);
+        assert !overloadController.admit(200, now);
+        assert overloadController.getAccepted() == 1;
+        assert overloadController.getRejected() == 1;
+        overloadController.setPolicy(OverloadController.Policy.DROP);
+        assert !overloadController.admit(200, now);
+        assert overloadController.getDropped() == 1;
+        assert overloadController.getShed() == 2;
+        overloadController.setEnabled(false);
+        assert overloadController.admit(200, now);
+    }
+
+    @Test
+    public void testSheddingRate() {
+        OverloadController overloadController = new OverloadController();
+        overloadController.setQueueDepthThreshold(100);
+        long now = System.nanoTime();
+        for (int i = 0; i < 10000; ++i) {
+            overloadController.admit(125, now);
+        }
+        // a quarter of initial requests are shed
+        assert overloadController.getShed() > 2000
+            && overloadController.getShed() < 3000
+            : overloadController.getShed();
+    }
+
+    @Test
+    public void testLatency() {
+        OverloadController overloadController = new OverloadController();
+        overloadController.setLatencyThreshold(100);
+        long now = System.nanoTime();
+        for (int i = 0; i < 100; ++i) {
+            overloadController.messageProcessed(300 * MILLIS, now);
+        }
+        assert overloadController.getAverageLatency(now) > 250 * MILLIS;
+        assert overloadController.getShedFraction(0, now) == 1;
+        assert !overloadController.admit(0, now);
+        // no message processed for a while, the average decays
+        now += 2 * OverloadController.LATENCY_HALF_LIFE * MILLIS;
+        double averageLatency = overloadController.getAverageLatency(now);
+        assert averageLatency < 80 * MILLIS : averageLatency;
+        assert overloadController.admit(0, now);
+    }
+
+    @Test(timeOut = 10000)
+    public void testReject() throws Exception {
+        InetAddress localHost = InetAddress.getLoopbackAddress();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(localHost);
+        Logger logger = new FileLogger(null);
+        BlockingQueue<SipMessage> receivedMessages = new LinkedBlockingQueue<>();
+        TransportManager transportManager = new TransportManager(
+                new TransactionManager(logger), config, logger);
+        // opt-in
+        assert transportManager.getOverloadController() == null;
+        config.setOverloadControl(true);
+        transportManager.setSipServerTransportUser(receivedMessages::add);
+        transportManager.createServerTransport(RFC3261.TRANSPORT_UDP, 0);
+        OverloadController overloadController =
+            transportManager.getOverloadController();
+        overloadController.setQueueDepthThreshold(100);
+        overloadController.setLatencyThreshold(1);
+        overloadController.setRetryAfter(7);
+        try (DatagramSocket datagramSocket = new DatagramSocket(0, localHost)) {
+            for (int i = 0; i < 100; ++i) {
+                overloadController.messageProcessed(1000 * MILLIS);
+            }
+            send(datagramSocket, request(datagramSocket, "INVITE",
+                    "1"), transportManager.getSipPort());
+            DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+            String received;
+            do {
+                datagramSocket.receive(packet);
+                received = new String(packet.getData(), 0, packet.getLength());
+            } while ("".equals(received.trim()));
+            assert received.startsWith("SIP/2.0 503 ") : received;
+            assert received.contains("Retry-After: 7\r\n");
+            assert received.contains(";tag=");
+            assert overloadController.getRejected() == 1;
+            assert receivedMessages.isEmpty();
+
+            // in-dialog requests are processed
+            send(datagramSocket, request(datagramSocket, "BYE",
+                    "2;tag=a6c85cf"), transportManager.getSipPort());
+            SipMessage sipMessage = receivedMessages.poll(5, TimeUnit.SECONDS);
+            assert sipMessage instanceof SipRequest;
+        } finally {
+            transportManager.closeTransports();
+        }
+    }
+
+    private String request(DatagramSocket datagramSocket, String method,
+            String toSuffix) {
+        String via = datagramSocket.getLocalAddress().getHostAddress() + ":"
+            + datagramSocket.getLocalPort();
+        return method + " sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Via: SIP/2.0/UDP " + via + ";branch=z9hG4bK776asdhd" + toSuffix.charAt(0) + "\r\n" +
+            "To: <sip:bob@biloxi.com>" + toSuffix.substring(1) + "\r\n" +
+            "From: <sip:alice@atlanta.com>;tag=1928301774\r\n" +
+            "Call-ID: a84b4c76e66710\r\n" +
+            "CSeq: " + toSuffix.charAt(0) + " " + method + "\r\n" +
+            "Content-Length: 0\r\n" +
+            "\r\n";
+    }
+
+    private void send(DatagramSocket datagramSocket, String message, int port)
+            throws Exception {
+        byte[] bytes = message.getBytes();
+        datagramSocket.send(new DatagramPacket(bytes, bytes.length,
+                datagramSocket.getLocalAddress(), port));
+    }
+
+}
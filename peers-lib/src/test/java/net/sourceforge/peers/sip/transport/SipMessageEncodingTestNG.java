@@ -0,0 +1,147 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.Utils;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldName;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderFieldValue;
+import net.sourceforge.peers.sip.syntaxencoding.SipHeaderParamName;
+import net.sourceforge.peers.sip.syntaxencoding.SipParser;
+import net.sourceforge.peers.sip.syntaxencoding.SipParserException;
+
+import org.testng.annotations.Test;
+
+public class SipMessageEncodingTestNG {
+
+    @Test
+    public void testRequest() throws Exception {
+        SipMessage sipMessage = parse("INVITE sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Via: SIP/2.0/UDP 192.168.1.2:5060;branch=z9hG4bK776asdhds;rport\r\n" +
+            "From: \"Zoë Müller\" <sip:zoe@atlanta.com>;tag=1928301774\r\n" +
+            "To: \"日本\" <sip:bob@biloxi.com>\r\n" +
+            "Call-ID: a84b4c76e66710\r\n" +
+            "CSeq: 314159 INVITE\r\n" +
+            "Content-Length: 10\r\n" +
+            "\r\n" +
+            "v=0\r\no=-\r\n");
+        assertEncoding(sipMessage);
+    }
+
+    @Test
+    public void testResponse() throws Exception {
+        SipMessage sipMessage = parse("SIP/2.0 180 Ringing\r\n" +
+            "Via: SIP/2.0/UDP 192.168.1.2:5060;branch=z9hG4bK776asdhds\r\n" +
+            "Via: SIP/2.0/UDP 192.168.1.3:5060;branch=z9hG4bK776aaaaaa\r\n" +
+            "CSeq: 314159 INVITE\r\n" +
+            "\r\n");
+        assertEncoding(sipMessage);
+    }
+
+    @Test
+    public void testEncodeAfterChange() throws Exception {
+        SipMessage sipMessage = parse("OPTIONS sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Via: SIP/2.0/UDP 192.168.1.2:5060;branch=z9hG4bK776asdhds\r\n" +
+            "\r\n");
+        byte[] before = sipMessage.encode();
+        SipHeaderFieldValue via = Utils.getTopVia(sipMessage);
+        via.addParam(new SipHeaderParamName(RFC3261.PARAM_RECEIVED),
+                "10.0.0.1");
+        byte[] after = sipMessage.encode();
+        assert after.length > before.length;
+        assertEncoding(sipMessage);
+        via.setValue("SIP/2.0/TCP 192.168.1.2:5060");
+        assertEncoding(sipMessage);
+    }
+
+    @Test
+    public void testEncodeInBuffer() throws Exception {
+        SipMessage sipMessage = parse("OPTIONS sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Call-ID: a84b4c76e66710\r\n" +
+            "\r\n");
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put((byte) 'x');
+        sipMessage.encode(buffer);
+        assert buffer.position() == 1 + sipMessage.encodedLength();
+        byte[] bytes = Arrays.copyOfRange(buffer.array(), 1, buffer.position());
+        assert Arrays.equals(sipMessage.encode(), bytes);
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        SipMessage sipMessage = parse("INVITE sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Via: SIP/2.0/UDP 192.168.1.2:5060;branch=z9hG4bK776asdhds\r\n" +
+            "Via: SIP/2.0/UDP 192.168.1.3:5060;branch=z9hG4bK776aaaaaa\r\n" +
+            "Call-ID: a84b4c76e66710\r\n" +
+            "Max-Forwards: 70\r\n" +
+            "Content-Length: 0\r\n" +
+            "\r\n");
+        sipMessage.getSipHeaders().add(SipHeaderFieldName.CONTACT,
+                new SipHeaderFieldValue("<sip:alice@192.168.1.2;transport=UDP>"));
+        int length = sipMessage.encodedLength();
+        sipMessage.setCompact(true);
+        byte[] compact = sipMessage.encode();
+        assert compact.length == sipMessage.encodedLength();
+        assert compact.length < length;
+        assert ("INVITE sip:bob@biloxi.com SIP/2.0\r\n" +
+            "v:SIP/2.0/UDP 192.168.1.2:5060;branch=z9hG4bK776asdhds," +
+            "SIP/2.0/UDP 192.168.1.3:5060;branch=z9hG4bK776aaaaaa\r\n" +
+            "i:a84b4c76e66710\r\n" +
+            "Max-Forwards:70\r\n" +
+            "l:0\r\n" +
+            "m:<sip:alice@192.168.1.2;transport=UDP>\r\n" +
+            "\r\n").equals(new String(compact, StandardCharsets.UTF_8))
+            : new String(compact, StandardCharsets.UTF_8);
+        SipMessage parsed = new SipParser().parse(compact, 0, compact.length);
+        assert "a84b4c76e66710".equals(Utils.getMessageCallId(parsed));
+        assert parsed.getSipHeaders().getCount() == 5;
+    }
+
+    @Test
+    public void testEncodedLength() {
+        assert Utils.encodedLength("abc") == 3;
+        assert Utils.encodedLength("é") == 2;
+        assert Utils.encodedLength("日") == 3;
+        assert Utils.encodedLength("😀") == 4;
+        // lone surrogate
+        assert Utils.encodedLength("\uD83D") == 1;
+    }
+
+    private void assertEncoding(SipMessage sipMessage) {
+        byte[] expected = sipMessage.toString().getBytes(StandardCharsets.UTF_8);
+        assert sipMessage.encodedLength() == expected.length;
+        assert Arrays.equals(expected, sipMessage.encode())
+            : new String(sipMessage.encode(), StandardCharsets.UTF_8);
+    }
+
+    private SipMessage parse(String message) throws IOException, SipParserException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(
+                message.getBytes(StandardCharsets.UTF_8));
+        SipParser sipParser = new SipParser();
+        return sipParser.parse(bais);
+    }
+
+}
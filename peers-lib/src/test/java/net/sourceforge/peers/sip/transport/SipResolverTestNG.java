@@ -0,0 +1,245 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.syntaxencoding.SipURI;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SipResolverTestNG {
+
+    private MapDnsBackend dnsBackend;
+    private SipResolver sipResolver;
+    private AtomicLong now;
+
+    @BeforeMethod
+    public void init() {
+        dnsBackend = new MapDnsBackend();
+        sipResolver = new SipResolver(dnsBackend, new FileLogger(null));
+        now = new AtomicLong(1000000);
+        sipResolver.setClock(now::get);
+    }
+
+    @Test
+    public void testIpLiteral() throws Exception {
+        List<SipTarget> targets = sipResolver.resolve(
+                new SipURI("sip:bob@192.168.1.10;transport=tcp"));
+        assert targets.size() == 1;
+        assert targets.get(0).equals(new SipTarget(
+                InetAddress.getByName("192.168.1.10"), 5060,
+                RFC3261.TRANSPORT_TCP));
+        assert dnsBackend.queries.get() == 0;
+        assert SipResolver.isIpLiteral("10.0.0.1");
+        assert !SipResolver.isIpLiteral("10.0.0");
+        assert !SipResolver.isIpLiteral("1000.0.0.1");
+        assert !SipResolver.isIpLiteral("10.0.0.example.com");
+        assert SipResolver.isIpLiteral("[::1]");
+    }
+
+    @Test
+    public void testNaptr() throws Exception {
+        dnsBackend.naptr.put("example.com", Arrays.asList(
+                new NaptrRecord(20, 10, "s", "SIP+D2U", "_sip._udp.example.com"),
+                new NaptrRecord(10, 10, "s", "SIP+D2T", "_sip._tcp.example.com"),
+                new NaptrRecord(5, 10, "s", "SIPS+D2T", "_sips._tcp.example.com")));
+        dnsBackend.srv.put("_sip._tcp.example.com", Arrays.asList(
+                new SrvRecord(0, 0, 5070, "tcp.example.com")));
+        dnsBackend.srv.put("_sip._udp.example.com", Arrays.asList(
+                new SrvRecord(0, 0, 5080, "udp.example.com")));
+        dnsBackend.addresses.put("tcp.example.com", address("10.0.0.1"));
+        dnsBackend.addresses.put("udp.example.com", address("10.0.0.2"));
+        List<SipTarget> targets = sipResolver.resolve(
+                new SipURI("sip:bob@example.com"));
+        // sips is not supported and tcp comes first by order
+        assert targets.size() == 2;
+        assert targets.get(0).equals(new SipTarget(address("10.0.0.1").get(0),
+                5070, RFC3261.TRANSPORT_TCP));
+        assert targets.get(1).equals(new SipTarget(address("10.0.0.2").get(0),
+                5080, RFC3261.TRANSPORT_UDP));
+    }
+
+    @Test
+    public void testSrvWithoutNaptr() throws Exception {
+        dnsBackend.srv.put("_sip._udp.example.com", Arrays.asList(
+                new SrvRecord(20, 0, 5060, "backup.example.com"),
+                new SrvRecord(10, 0, 5062, "primary.example.com")));
+        dnsBackend.addresses.put("primary.example.com", address("10.0.0.1"));
+        dnsBackend.addresses.put("backup.example.com", address("10.0.0.2"));
+        List<SipTarget> targets = sipResolver.resolve(
+                new SipURI("sip:bob@example.com"));
+        assert targets.size() == 2;
+        assert targets.get(0).getPort() == 5062;
+        assert targets.get(1).getPort() == 5060;
+        assert RFC3261.TRANSPORT_UDP.equals(targets.get(0).getTransport());
+    }
+
+    @Test
+    public void testExplicitPort() throws Exception {
+        dnsBackend.srv.put("_sip._udp.example.com", Arrays.asList(
+                new SrvRecord(10, 0, 5062, "primary.example.com")));
+        dnsBackend.addresses.put("example.com", address("10.0.0.3"));
+        List<SipTarget> targets = sipResolver.resolve(
+                new SipURI("sip:bob@example.com:5090"));
+        assert targets.size() == 1;
+        assert targets.get(0).getPort() == 5090;
+        // address lookup only
+        assert dnsBackend.queries.get() == 1;
+    }
+
+    @Test
+    public void testAddressFallback() throws Exception {
+        dnsBackend.addresses.put("example.com", address("10.0.0.3"));
+        List<SipTarget> targets = sipResolver.resolve(
+                new SipURI("sip:bob@example.com;transport=TCP"));
+        assert targets.size() == 1;
+        assert targets.get(0).equals(new SipTarget(address("10.0.0.3").get(0),
+                RFC3261.TRANSPORT_DEFAULT_PORT, RFC3261.TRANSPORT_TCP));
+    }
+
+    @Test
+    public void testSrvWeights() {
+        SrvRecord heavy = new SrvRecord(10, 90, 5060, "heavy.example.com");
+        SrvRecord light = new SrvRecord(10, 10, 5060, "light.example.com");
+        SrvRecord backup = new SrvRecord(20, 100, 5060, "backup.example.com");
+        int heavyFirst = 0;
+        for (int i = 0; i < 1000; ++i) {
+            List<SrvRecord> ordered = sipResolver.orderSrv(
+                    Arrays.asList(backup, light, heavy));
+            assert ordered.size() == 3;
+            assert ordered.get(2) == backup;
+            if (ordered.get(0) == heavy) {
+                ++heavyFirst;
+            }
+        }
+        assert heavyFirst > 800 && heavyFirst < 980 : heavyFirst;
+    }
+
+    @Test
+    public void testPositiveCache() throws Exception {
+        dnsBackend.addresses.put("example.com", address("10.0.0.3"));
+        dnsBackend.ttl = 60;
+        assert sipResolver.resolveAddress("example.com") != null;
+        assert sipResolver.resolveAddress("EXAMPLE.com") != null;
+        assert dnsBackend.queries.get() == 1;
+        assert sipResolver.getCacheHits() == 1;
+        now.addAndGet(60000);
+        sipResolver.resolveAddress("example.com");
+        assert dnsBackend.queries.get() == 2;
+    }
+
+    @Test
+    public void testNegativeCache() throws Exception {
+        sipResolver.setNegativeTtl(10);
+        for (int i = 0; i < 3; ++i) {
+            try {
+                sipResolver.resolveAddress("unknown.example.com");
+                assert false;
+            } catch (java.net.UnknownHostException e) {
+                // expected
+            }
+        }
+        assert dnsBackend.queries.get() == 1;
+        assert sipResolver.getNegativeHits() == 2;
+        dnsBackend.addresses.put("unknown.example.com", address("10.0.0.4"));
+        now.addAndGet(10000);
+        assert sipResolver.resolveAddress("unknown.example.com") != null;
+    }
+
+    @Test
+    public void testBackendFailure() throws Exception {
+        dnsBackend.failing = true;
+        for (int i = 0; i < 2; ++i) {
+            try {
+                sipResolver.resolve(new SipURI("sip:bob@example.com"));
+                assert false;
+            } catch (java.net.UnknownHostException e) {
+                // expected
+            }
+        }
+        // naptr, two srv and one address query, then the cache answers
+        assert dnsBackend.queries.get() == 4;
+    }
+
+    @Test
+    public void testSplit() {
+        assert JndiDnsBackend.split("100 50 \"s\" \"SIP+D2U\" \"\" _sip._udp.example.com.")
+            .equals(Arrays.asList("100", "50", "s", "SIP+D2U", "",
+                    "_sip._udp.example.com."));
+        assert JndiDnsBackend.split("0 5 5060 sip.example.com.").size() == 4;
+    }
+
+    private static List<InetAddress> address(String ipAddress) throws IOException {
+        List<InetAddress> addresses = new ArrayList<>();
+        addresses.add(InetAddress.getByName(ipAddress));
+        return addresses;
+    }
+
+    static class MapDnsBackend implements DnsBackend {
+
+        final Map<String, List<NaptrRecord>> naptr = new HashMap<>();
+        final Map<String, List<SrvRecord>> srv = new HashMap<>();
+        final Map<String, List<InetAddress>> addresses = new HashMap<>();
+        final AtomicInteger queries = new AtomicInteger();
+        volatile int ttl = 300;
+        volatile boolean failing;
+
+        @Override
+        public DnsAnswer<NaptrRecord> lookupNaptr(String domain) throws IOException {
+            return answer(naptr.get(domain));
+        }
+
+        @Override
+        public DnsAnswer<SrvRecord> lookupSrv(String name) throws IOException {
+            return answer(srv.get(name));
+        }
+
+        @Override
+        public DnsAnswer<InetAddress> lookupAddresses(String host) throws IOException {
+            return answer(addresses.get(host));
+        }
+
+        private <T> DnsAnswer<T> answer(List<T> records) throws IOException {
+            queries.incrementAndGet();
+            if (failing) {
+                throw new IOException("no name server");
+            }
+            if (records == null) {
+                return DnsAnswer.empty(DnsAnswer.UNKNOWN_TTL);
+            }
+            return new DnsAnswer<>(records, ttl);
+        }
+
+    }
+
+}
@@ -37,6 +37,25 @@ public class SipTransportConnectionTestNG {
             new SipTransportConnection(localhost, port,
                     localhost, port, "UDP");
         assert sipTransportConnection1.equals(sipTransportConnection2);
+        assert sipTransportConnection1.hashCode()
+            == sipTransportConnection2.hashCode();
+    }
+
+    @Test
+    public void testRemoteParty() throws UnknownHostException {
+        InetAddress localhost = InetAddress.getLocalHost();
+        SipTransportConnection sipTransportConnection1 =
+            new SipTransportConnection(localhost, 5060,
+                    localhost, 5070, "TCP");
+        SipTransportConnection sipTransportConnection2 =
+            new SipTransportConnection(localhost, 5060,
+                    localhost, 5080, "TCP");
+        assert sipTransportConnection1.equals(
+                new SipTransportConnection(localhost, 5060,
+                    localhost, 5070, "tcp"));
+        assert !sipTransportConnection1.equals(sipTransportConnection2);
+        assert sipTransportConnection1.getListeningPoint().equals(
+                sipTransportConnection2.getListeningPoint());
     }
 
 }
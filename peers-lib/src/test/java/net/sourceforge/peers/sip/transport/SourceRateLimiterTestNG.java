@@ -0,0 +1,153 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+
+package net.sourceforge.peers.sip.transport;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class SourceRateLimiterTestNG {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void testUnlimited() throws Exception {
+        SourceRateLimiter sourceRateLimiter = new SourceRateLimiter();
+        InetAddress source = InetAddress.getByName("10.0.0.1");
+        for (int i = 0; i < 1000; ++i) {
+            assert sourceRateLimiter.accept(source, 5060, 0);
+        }
+        assert sourceRateLimiter.getTrackedSources() == 0;
+    }
+
+    @Test
+    public void testBurstAndRate() throws Exception {
+        SourceRateLimiter sourceRateLimiter = new SourceRateLimiter();
+        sourceRateLimiter.setRate(10);
+        sourceRateLimiter.setBurst(5);
+        InetAddress source = InetAddress.getByName("10.0.0.1");
+        long now = 0;
+        for (int i = 0; i < 5; ++i) {
+            assert sourceRateLimiter.accept(source, 5060, now);
+        }
+        assert !sourceRateLimiter.accept(source, 5060, now);
+        // one token every 100 ms
+        now += SECOND / 10;
+        assert sourceRateLimiter.accept(source, 5060, now);
+        assert !sourceRateLimiter.accept(source, 5060, now);
+        // other sources have their own bucket
+        assert sourceRateLimiter.accept(InetAddress.getByName("10.0.0.2"),
+                5060, now);
+        // idle sources get their burst back, not more
+        now += 10 * SECOND;
+        for (int i = 0; i < 5; ++i) {
+            assert sourceRateLimiter.accept(source, 5060, now);
+        }
+        assert !sourceRateLimiter.accept(source, 5060, now);
+        assert sourceRateLimiter.getRateLimited() == 3;
+        Map<String, Long> throttledSources =
+            sourceRateLimiter.getThrottledSources();
+        assert throttledSources.size() == 1;
+        assert throttledSources.get("10.0.0.1") == 3;
+    }
+
+    @Test
+    public void testKeyedByPort() throws Exception {
+        SourceRateLimiter sourceRateLimiter = new SourceRateLimiter();
+        sourceRateLimiter.setRate(1);
+        sourceRateLimiter.setBurst(1);
+        InetAddress source = InetAddress.getByName("10.0.0.1");
+        assert sourceRateLimiter.accept(source, 5060, 0);
+        assert !sourceRateLimiter.accept(source, 5061, 0);
+        sourceRateLimiter.setKeyedByPort(true);
+        assert sourceRateLimiter.accept(source, 5062, 0);
+        assert !sourceRateLimiter.accept(source, 5062, 0);
+        assert sourceRateLimiter.getThrottledSources().containsKey(
+                "10.0.0.1/5062");
+    }
+
+    @Test
+    public void testAllowAndDeny() throws Exception {
+        SourceRateLimiter sourceRateLimiter = new SourceRateLimiter();
+        sourceRateLimiter.setRate(1);
+        sourceRateLimiter.setBurst(1);
+        sourceRateLimiter.addAllowed("192.168.0.0/16");
+        sourceRateLimiter.addDenied("10.1.2.0/23");
+        sourceRateLimiter.addDenied("172.16.0.1");
+        for (int i = 0; i < 10; ++i) {
+            assert sourceRateLimiter.accept(
+                    InetAddress.getByName("192.168.54.3"), 5060, 0);
+        }
+        assert !sourceRateLimiter.accept(InetAddress.getByName("10.1.3.255"),
+                5060, 0);
+        assert !sourceRateLimiter.accept(InetAddress.getByName("172.16.0.1"),
+                5060, 0);
+        assert sourceRateLimiter.accept(InetAddress.getByName("10.1.4.0"),
+                5060, 0);
+        assert sourceRateLimiter.accept(InetAddress.getByName("172.16.0.2"),
+                5060, 0);
+        assert sourceRateLimiter.getDenied() == 2;
+        // ranges only match addresses of their family
+        assert sourceRateLimiter.accept(InetAddress.getByName("::1"), 5060, 0);
+        try {
+            sourceRateLimiter.addDenied("example.com/8");
+            assert false;
+        } catch (java.net.UnknownHostException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBoundedSources() throws Exception {
+        SourceRateLimiter sourceRateLimiter = new SourceRateLimiter(64);
+        sourceRateLimiter.setRate(1);
+        for (int i = 0; i < 1000; ++i) {
+            sourceRateLimiter.accept(InetAddress.getByName("10.0."
+                    + (i / 256) + "." + (i % 256)), 5060, 0);
+        }
+        assert sourceRateLimiter.getTrackedSources() <= 64;
+    }
+
+    @Test
+    public void testConcurrentConsumers() throws Exception {
+        TokenBucket tokenBucket = new TokenBucket(0);
+        AtomicInteger taken = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; ++j) {
+                    if (tokenBucket.tryConsume(0, SECOND, 100)) {
+                        taken.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assert taken.get() == 100 : taken.get();
+        assert tokenBucket.getDropped() == 40000 - 100;
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TcpMessageFramerTestNG {
+
+    private static final String INVITE = "INVITE sip:bob@biloxi.com SIP/2.0\r\n" +
+        "Via: SIP/2.0/TCP 127.0.0.1:5060;branch=z9hG4bK776asdhds\r\n" +
+        "Call-ID: a84b4c76e66710\r\n" +
+        "CSeq: 314159 INVITE\r\n" +
+        "Content-Length: 10\r\n" +
+        "\r\n" +
+        "v=0\r\no=-\r\n";
+    private static final String BYE = "BYE sip:bob@biloxi.com SIP/2.0\r\n" +
+        "Call-ID: a84b4c76e66710\r\n" +
+        "CSeq: 314160 BYE\r\n" +
+        "\r\n";
+
+    private TcpMessageFramer framer;
+    private BufferPool bufferPool;
+
+    @BeforeMethod
+    public void init() {
+        framer = new TcpMessageFramer();
+        bufferPool = new BufferPool(MessageReceiver.BUFFER_SIZE, 4);
+    }
+
+    @Test
+    public void testSeveralMessagesInOneRead() throws IOException {
+        append("\r\n\r\n" + INVITE + BYE);
+        assert INVITE.equals(next());
+        assert BYE.equals(next());
+        assert framer.nextMessage(bufferPool) == null;
+        assert framer.getPendingBytes() == 0;
+    }
+
+    @Test
+    public void testMessageSpanningReads() throws IOException {
+        String messages = INVITE + BYE;
+        for (int i = 0; i < messages.length(); ++i) {
+            append(messages.substring(i, i + 1));
+            if (i == INVITE.length() - 2) {
+                assert framer.nextMessage(bufferPool) == null;
+            } else if (i == INVITE.length() - 1) {
+                assert INVITE.equals(next());
+            }
+        }
+        assert BYE.equals(next());
+    }
+
+    @Test
+    public void testCompactContentLength() throws IOException {
+        String message = "MESSAGE sip:bob@biloxi.com SIP/2.0\r\n" +
+            "l :  5\r\n" +
+            "\r\n" +
+            "hello";
+        append(message);
+        assert message.equals(next());
+    }
+
+    @Test
+    public void testLargeMessage() throws IOException {
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 3 * MessageReceiver.BUFFER_SIZE) {
+            body.append("a=x-filler\r\n");
+        }
+        String message = "MESSAGE sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Content-Length: " + body.length() + "\r\n" +
+            "\r\n" +
+            body;
+        append(message);
+        PooledBuffer buffer = framer.nextMessage(bufferPool);
+        assert message.equals(new String(buffer.getData(), 0,
+                buffer.getLength(), StandardCharsets.US_ASCII));
+        buffer.release();
+        assert bufferPool.getAvailableBuffers() == 0;
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalidContentLength() throws IOException {
+        append("MESSAGE sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Content-Length: ten\r\n" +
+            "\r\n");
+        framer.nextMessage(bufferPool);
+    }
+
+    private void append(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        framer.append(bytes, 0, bytes.length);
+    }
+
+    private String next() throws IOException {
+        PooledBuffer buffer = framer.nextMessage(bufferPool);
+        assert buffer != null;
+        try {
+            return new String(buffer.getData(), 0, buffer.getLength(),
+                    StandardCharsets.US_ASCII);
+        } finally {
+            buffer.release();
+        }
+    }
+
+}
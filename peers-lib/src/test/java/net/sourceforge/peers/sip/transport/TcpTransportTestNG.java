@@ -0,0 +1,178 @@
+/*
+    This file is part of Peers, a java SIP softphone.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+    
+    Copyright 2007-2013 Yohann Martineau 
+*/
+
+package net.sourceforge.peers.sip.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.sourceforge.peers.Config;
+import net.sourceforge.peers.FileLogger;
+import net.sourceforge.peers.JavaConfig;
+import net.sourceforge.peers.Logger;
+import net.sourceforge.peers.sip.RFC3261;
+import net.sourceforge.peers.sip.syntaxencoding.SipParser;
+import net.sourceforge.peers.sip.syntaxencoding.SipParserException;
+import net.sourceforge.peers.sip.transaction.TransactionManager;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class TcpTransportTestNG {
+
+    private TransportManager transportManager;
+    private BlockingQueue<SipMessage> receivedMessages;
+    private InetAddress loopback;
+
+    @BeforeClass
+    protected void init() throws IOException {
+        loopback = InetAddress.getLoopbackAddress();
+        Config config = new JavaConfig();
+        config.setLocalInetAddress(loopback);
+        Logger logger = new FileLogger(null);
+        receivedMessages = new LinkedBlockingQueue<>();
+        transportManager = new TransportManager(
+                new TransactionManager(logger), config, logger);
+        transportManager.setSipServerTransportUser(receivedMessages::add);
+        transportManager.createServerTransport(RFC3261.TRANSPORT_UDP, 0);
+    }
+
+    @AfterClass
+    protected void close() {
+        transportManager.closeTransports();
+    }
+
+    @Test(timeOut = 10000)
+    public void respondOnInboundConnection() throws Exception {
+        String request = "OPTIONS sip:bob@biloxi.com SIP/2.0\r\n" +
+            "Via: SIP/2.0/TCP 127.0.0.1:5099;branch=z9hG4bK776asdhds\r\n" +
+            "Call-ID: a84b4c76e66710\r\n" +
+            "CSeq: 63104 OPTIONS\r\n" +
+            "Content-Length: 0\r\n" +
+            "\r\n";
+        // another connection from the same host must not get the response
+        try (Socket other = new Socket(loopback,
+                transportManager.getSipPort());
+                Socket socket = new Socket(loopback,
+                transportManager.getSipPort())) {
+            // one message split over two writes
+            byte[] bytes = request.getBytes(StandardCharsets.US_ASCII);
+            socket.getOutputStream().write(bytes, 0, 20);
+            socket.getOutputStream().flush();
+            Thread.sleep(50);
+            socket.getOutputStream().write(bytes, 20, bytes.length - 20);
+            SipMessage sipMessage = receivedMessages.poll(5, TimeUnit.SECONDS);
+            assert sipMessage instanceof SipRequest;
+            SipResponse sipResponse = (SipResponse) parse(
+                "SIP/2.0 200 OK\r\n" +
+                "Via: SIP/2.0/TCP 127.0.0.1:5099;branch=z9hG4bK776asdhds\r\n" +
+                "Call-ID: a84b4c76e66710\r\n" +
+                "CSeq: 63104 OPTIONS\r\n" +
+                "Content-Length: 0\r\n" +
+                "\r\n");
+            transportManager.sendResponse(sipResponse,
+                    (SipRequest) sipMessage);
+            String received = readMessage(socket.getInputStream());
+            assert received.startsWith("SIP/2.0 200 OK\r\n") : received;
+            assert other.getInputStream().available() == 0;
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void sendRequest() throws Exception {
+        String message = "MESSAGE sip:bob@bilox.com SIP/2.0\r\n" +
+            "Via: \r\n" +
+            "\r\n";
+        SipRequest sipRequest = (SipRequest) parse(message);
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, loopback)) {
+            MessageSender messageSender =
+                transportManager.createClientTransport(sipRequest, loopback,
+                        serverSocket.getLocalPort(), RFC3261.TRANSPORT_TCP);
+            assert messageSender instanceof TcpMessageSender;
+            assert messageSender == transportManager.createClientTransport(
+                    sipRequest, loopback, serverSocket.getLocalPort(),
+                    RFC3261.TRANSPORT_TCP);
+            messageSender.sendMessage(sipRequest);
+            try (Socket socket = serverSocket.accept()) {
+                String received = readMessage(socket.getInputStream());
+                assert sipRequest.toString().equals(received);
+            }
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void streamNotRateLimited() throws Exception {
+        SourceRateLimiter sourceRateLimiter =
+            transportManager.getSourceRateLimiter();
+        sourceRateLimiter.setBurst(1);
+        sourceRateLimiter.setRate(1);
+        try (Socket socket = new Socket(loopback,
+                transportManager.getSipPort())) {
+            for (int i = 0; i < 3; ++i) {
+                String request = "OPTIONS sip:bob@biloxi.com SIP/2.0\r\n" +
+                    "Via: SIP/2.0/TCP 127.0.0.1:5099;branch=z9hG4bKlimit" + i
+                    + "\r\n" +
+                    "Call-ID: limit" + i + "\r\n" +
+                    "CSeq: 1 OPTIONS\r\n" +
+                    "Content-Length: 0\r\n" +
+                    "\r\n";
+                socket.getOutputStream().write(
+                        request.getBytes(StandardCharsets.US_ASCII));
+            }
+            socket.getOutputStream().flush();
+            for (int i = 0; i < 3; ++i) {
+                assert receivedMessages.poll(5, TimeUnit.SECONDS) != null;
+            }
+        } finally {
+            sourceRateLimiter.setRate(0);
+        }
+    }
+
+    // reads up to the end of headers, skipping keep-alives
+    private String readMessage(InputStream inputStream) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        int b;
+        while ((b = inputStream.read()) >= 0) {
+            if (buf.length() == 0 && (b == '\r' || b == '\n')) {
+                continue;
+            }
+            buf.append((char) b);
+            if (buf.toString().endsWith("\r\n\r\n")) {
+                break;
+            }
+        }
+        return buf.toString();
+    }
+
+    private SipMessage parse(String message) throws IOException, SipParserException {
+        ByteArrayInputStream bais = new ByteArrayInputStream(message.getBytes());
+        SipParser sipParser = new SipParser();
+        return sipParser.parse(bais);
+    }
+
+}